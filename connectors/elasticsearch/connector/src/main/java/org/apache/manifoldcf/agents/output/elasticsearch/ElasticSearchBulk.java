@@ -0,0 +1,472 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.Header;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.apache.manifoldcf.agents.interfaces.IOutputHistoryActivity;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.connectorcommon.common.GroupCommitQueue;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.core.util.URLEncoder;
+import org.apache.manifoldcf.crawler.system.Logging;
+
+/** Group commit of index requests via the ElasticSearch _bulk API.
+* Worker threads indexing into the same index each hand a pre-serialized action/source
+* pair to the shared GroupCommitQueue for that index, then wait.  Each batch is sent as
+* one bulk request, and the per-item results from the bulk response are handed back to
+* the individual waiting threads.
+*/
+public class ElasticSearchBulk extends ElasticSearchConnection implements GroupCommitQueue.IBatchSender<ElasticSearchBulk.BulkItem>
+{
+
+  /** Get the bulk queue shared by all connections writing to the same index
+  * with the same settings.
+  */
+  public static GroupCommitQueue<BulkItem> getQueue(ElasticSearchConfig config)
+  {
+    final String pipelineName = config.getPipelineName();
+    final String key = config.getUniqueIndexIdentifier() + "\n" +
+      ((pipelineName == null)?"":pipelineName);
+    return GroupCommitQueue.getQueue(BulkItem.class, key,
+      config.getBulkMaxDocuments(), config.getBulkMaxBytes(), config.getBulkMaxWait());
+  }
+
+  /** The HTTP status of the last bulk request, or -1 */
+  protected int lastStatusCode = -1;
+
+  public ElasticSearchBulk(HttpClient client, ElasticSearchConfig config)
+  {
+    super(config, client);
+  }
+
+  /** Delete documents with a single bulk request.  This does not go through a bulk queue, since the
+  * documents already form a batch.
+  * On return each item's result has been set; exceptions belonging to an item are not thrown here,
+  * but are available via BulkItem.throwException().  Failures of the request as a whole are thrown.
+  *@param documentURIs are the documents to delete.
+  *@return the items, one per document, in order.
+  */
+  public List<BulkItem> executeDelete(String[] documentURIs)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    List<BulkItem> items = new ArrayList<BulkItem>(documentURIs.length);
+    for (String documentURI : documentURIs)
+    {
+      String action = "{\"delete\" : {\"_type\" : "+ElasticSearchIndex.jsonStringEscape(config.getIndexType())+
+        ", \"_id\" : "+ElasticSearchIndex.jsonStringEscape(documentURI)+"}}\n";
+      items.add(new BulkItem(action.getBytes(StandardCharsets.UTF_8)));
+    }
+    send(items);
+    return items;
+  }
+
+  /** Send a single item on its own, rather than through a bulk queue.
+  * On return the item's result has been set; failures of the request as a whole are thrown.
+  *@param item is the item.
+  */
+  public void executeAlone(BulkItem item)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    send(Collections.singletonList(item));
+  }
+
+  /** Send a batch of items from a bulk queue.  Failures of the request as a whole are recorded
+  * in every item.
+  */
+  @Override
+  public void sendBatch(List<BulkItem> items)
+  {
+    try
+    {
+      send(items);
+    }
+    catch (ManifoldCFException e)
+    {
+      setException(items, e);
+    }
+    catch (ServiceInterruption e)
+    {
+      setException(items, e);
+    }
+    catch (RuntimeException e)
+    {
+      setException(items, e);
+    }
+  }
+
+  protected static void setException(List<BulkItem> items, Exception e)
+  {
+    for (BulkItem item : items)
+    {
+      item.setException(e);
+    }
+  }
+
+  /** Send one batch of items, and record each item's outcome in the item.
+  * A batch the server refuses as a whole (too large, or unacceptable because of something in it)
+  * is split in half and each half sent separately, so that only a document that is refused on its
+  * own is rejected.  Failures of the request as a whole that are not rejections are thrown.
+  */
+  protected void send(List<BulkItem> items)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    final String encodedPipelineName = (config.getPipelineName() == null || config.getPipelineName().length() == 0)?null:URLEncoder.encode(config.getPipelineName());
+    final String command = (encodedPipelineName == null)?"_bulk":("_bulk?pipeline=" + encodedPipelineName);
+    StringBuffer url = getApiUrl(command, false);
+    HttpPost post = new HttpPost(url.toString());
+    post.setEntity(new BulkRequestEntity(items));
+    lastStatusCode = -1;
+    if (call(post))
+    {
+      applyResponse(items, getResponse());
+      return;
+    }
+
+    if (lastStatusCode == 429)
+    {
+      // Too many requests: nothing is wrong with the documents, so try them all again later
+      long currentTime = System.currentTimeMillis();
+      throw new ServiceInterruption("Bulk request refused: "+getResultDescription(),
+        new ManifoldCFException(getResultDescription()),
+        currentTime + 60000L,
+        currentTime + 20L * 60000L,
+        -1,
+        false);
+    }
+
+    if (items.size() > 1)
+    {
+      if (Logging.connectors.isDebugEnabled())
+        Logging.connectors.debug("ES: Bulk request of "+items.size()+" items refused with status "+lastStatusCode+"; splitting it");
+      int half = items.size() / 2;
+      sendPart(items.subList(0, half));
+      sendPart(items.subList(half, items.size()));
+      return;
+    }
+
+    // The server won't take this document even on its own
+    items.get(0).setResult(getResultCode(), getResult(), getResultDescription());
+  }
+
+  /** Send part of a split batch.  Failures of the request as a whole are recorded in the part's
+  * items, rather than thrown, so that they do not affect the other part.
+  */
+  protected void sendPart(List<BulkItem> items)
+    throws ManifoldCFException
+  {
+    try
+    {
+      send(items);
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      setFailure(items, e);
+    }
+    catch (ServiceInterruption e)
+    {
+      setFailure(items, e);
+    }
+  }
+
+  /** Record the failure of the last request in each of the items that were in it. */
+  protected void setFailure(List<BulkItem> items, Exception e)
+  {
+    for (BulkItem item : items)
+    {
+      item.setResult(getResultCode(), getResult(), getResultDescription());
+      item.setException(e);
+    }
+  }
+
+  @Override
+  protected boolean handleResultCode(int code, String response)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    lastStatusCode = code;
+    return super.handleResultCode(code, response);
+  }
+
+  /** Map the per-item results of a bulk response back onto the items that were sent,
+  * in order.  Deleting a document that isn't there counts as success.
+  */
+  protected static void applyResponse(List<BulkItem> items, String response)
+  {
+    JSONArray responseItems = null;
+    try
+    {
+      Object parsed = new JSONParser().parse(response);
+      if (parsed instanceof JSONObject)
+      {
+        Object o = ((JSONObject)parsed).get("items");
+        if (o instanceof JSONArray)
+          responseItems = (JSONArray)o;
+      }
+    }
+    catch (ParseException e)
+    {
+      Logging.connectors.warn("ES: Unparseable bulk response: "+e.getMessage());
+    }
+
+    if (responseItems == null || responseItems.size() != items.size())
+    {
+      Logging.connectors.warn("ES: Bulk response does not match request: "+response);
+      for (BulkItem item : items)
+      {
+        item.setResult("JSONERROR", Result.ERROR, "Bulk response does not match request");
+      }
+      return;
+    }
+
+    for (int i = 0; i < items.size(); i++)
+    {
+      BulkItem item = items.get(i);
+      JSONObject action = null;
+      boolean isDelete = false;
+      Object o = responseItems.get(i);
+      if (o instanceof JSONObject)
+      {
+        Object a = ((JSONObject)o).get("index");
+        if (a == null)
+        {
+          a = ((JSONObject)o).get("delete");
+          isDelete = true;
+        }
+        if (a instanceof JSONObject)
+          action = (JSONObject)a;
+      }
+      if (action == null || !(action.get("status") instanceof Number))
+      {
+        item.setResult("JSONERROR", Result.ERROR, "Missing bulk item status: "+o);
+        continue;
+      }
+      int status = ((Number)action.get("status")).intValue();
+      Object error = action.get("error");
+      if ((status == 200 || status == 201 || (isDelete && status == 404)) && error == null)
+      {
+        item.setResult("OK", Result.OK, null);
+      }
+      else if (status == 429 || (status >= 500 && status < 600))
+      {
+        // Transient: the item can be retried later
+        item.setResult(IOutputHistoryActivity.HTTP_ERROR, Result.ERROR, "Server exception: "+error);
+        long currentTime = System.currentTimeMillis();
+        item.setException(new ServiceInterruption("Server exception: "+error,
+          new ManifoldCFException(String.valueOf(error)),
+          currentTime + ((status == 429)?60000L:300000L),
+          currentTime + 20L * 60000L,
+          -1,
+          false));
+      }
+      else
+      {
+        item.setResult(IOutputHistoryActivity.HTTP_ERROR, Result.ERROR, "HTTP code = "+status+", Response = "+error);
+      }
+    }
+  }
+
+  /** One serialized index or delete request, and its eventual outcome */
+  public static class BulkItem
+  {
+    protected final byte[] data;
+    protected final int length;
+
+    protected String resultCode = null;
+    protected Result result = Result.UNKNOWN;
+    protected String resultDescription = null;
+    protected Exception exception = null;
+
+    /** Constructor.
+    *@param data is the action line followed by the source line, if any, each newline terminated.
+    */
+    public BulkItem(byte[] data)
+    {
+      this(data, data.length);
+    }
+
+    /** Constructor.
+    *@param data holds the action line followed by the source line, if any, each newline terminated.
+    *@param length is the number of bytes of data that are in use.
+    */
+    public BulkItem(byte[] data, int length)
+    {
+      this.data = data;
+      this.length = length;
+    }
+
+    public int getSize()
+    {
+      return length;
+    }
+
+    protected void setResult(String resultCode, Result result, String resultDescription)
+    {
+      this.resultCode = resultCode;
+      this.result = result;
+      this.resultDescription = resultDescription;
+    }
+
+    protected void setException(Exception exception)
+    {
+      this.exception = exception;
+    }
+
+    public String getResultCode()
+    {
+      return resultCode;
+    }
+
+    public Result getResult()
+    {
+      return result;
+    }
+
+    public String getResultDescription()
+    {
+      return resultDescription;
+    }
+
+    /** Rethrow the exception that kept this item from being indexed, if any. */
+    public void throwException()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (exception instanceof ServiceInterruption)
+        throw (ServiceInterruption)exception;
+      if (exception instanceof ManifoldCFException)
+        throw (ManifoldCFException)exception;
+      if (exception != null)
+        throw new ManifoldCFException("Bulk request failed: "+exception.getMessage(),exception);
+    }
+  }
+
+  /** Collects one serialized item, and hands it over without copying it again */
+  public static class ItemBuffer extends ByteArrayOutputStream
+  {
+    public ItemBuffer(int initialSize)
+    {
+      super(initialSize);
+    }
+
+    public BulkItem toBulkItem()
+    {
+      return new BulkItem(buf, count);
+    }
+  }
+
+  /** Writes the already-serialized items as an NDJSON bulk body */
+  protected static class BulkRequestEntity implements HttpEntity
+  {
+    private final List<BulkItem> items;
+    private final long contentLength;
+
+    public BulkRequestEntity(List<BulkItem> items)
+    {
+      this.items = items;
+      long length = 0L;
+      for (BulkItem item : items)
+      {
+        length += item.getSize();
+      }
+      this.contentLength = length;
+    }
+
+    @Override
+    public boolean isChunked() {
+      return false;
+    }
+
+    @Override
+    @Deprecated
+    public void consumeContent()
+      throws IOException {
+      EntityUtils.consume(this);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+
+    @Override
+    public InputStream getContent()
+      throws IOException, IllegalStateException {
+      List<InputStream> streams = new ArrayList<InputStream>(items.size());
+      for (BulkItem item : items)
+      {
+        streams.add(new ByteArrayInputStream(item.data, 0, item.length));
+      }
+      return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public void writeTo(OutputStream out)
+      throws IOException {
+      for (BulkItem item : items)
+      {
+        out.write(item.data, 0, item.length);
+      }
+      out.flush();
+    }
+
+    @Override
+    public long getContentLength() {
+      return contentLength;
+    }
+
+    @Override
+    public Header getContentType() {
+      return new BasicHeader("Content-type","application/x-ndjson");
+    }
+
+    @Override
+    public Header getContentEncoding() {
+      return null;
+    }
+
+  }
+
+}
@@ -45,7 +45,10 @@ public class ElasticSearchConfig extends ElasticSearchParam
     ParameterEnum.CREATEDDATEATTRIBUTENAME,
     ParameterEnum.MODIFIEDDATEATTRIBUTENAME,
     ParameterEnum.INDEXINGDATEATTRIBUTENAME,
-    ParameterEnum.MIMETYPEATTRIBUTENAME
+    ParameterEnum.MIMETYPEATTRIBUTENAME,
+    ParameterEnum.BULKMAXDOCUMENTS,
+    ParameterEnum.BULKMAXBYTES,
+    ParameterEnum.BULKMAXWAIT
   };
 
   /** Build a set of ElasticSearchParameters by reading ConfigParams. If the
@@ -178,4 +181,33 @@ public class ElasticSearchConfig extends ElasticSearchParam
     return get(ParameterEnum.MIMETYPEATTRIBUTENAME);
   }
 
+  /** @return the maximum number of documents per _bulk request; 1 or less means
+   * documents are indexed one request at a time. */
+  final public int getBulkMaxDocuments()
+  {
+    return (int)getLongParameter(ParameterEnum.BULKMAXDOCUMENTS);
+  }
+
+  /** @return the maximum size in bytes of a _bulk request. */
+  final public long getBulkMaxBytes()
+  {
+    return getLongParameter(ParameterEnum.BULKMAXBYTES);
+  }
+
+  /** @return the longest time in milliseconds a document waits for its _bulk request to fill. */
+  final public long getBulkMaxWait()
+  {
+    return getLongParameter(ParameterEnum.BULKMAXWAIT);
+  }
+
+  private long getLongParameter(ParameterEnum param)
+  {
+    final String value = get(param);
+    try {
+      return Long.parseLong(value.trim());
+    } catch (Exception e) {
+      return Long.parseLong(param.defaultValue);
+    }
+  }
+
 }
@@ -61,6 +61,7 @@ import org.apache.manifoldcf.core.interfaces.IThreadContext;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.core.interfaces.SpecificationNode;
 import org.apache.manifoldcf.core.interfaces.VersionContext;
+import org.apache.manifoldcf.crawler.system.Logging;
 
 /**
  * This is the "output connector" for elasticsearch.
@@ -404,6 +405,60 @@ public class ElasticSearchConnector extends BaseOutputConnector
     }
   }
 
+  /** Remove multiple documents using the connector.
+  * All of the documents are removed with a single bulk request.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for these documents by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions,
+      IOutputRemoveActivity activities) throws ManifoldCFException,
+      ServiceInterruption
+  {
+    HttpClient client = getSession();
+    long startTime = System.currentTimeMillis();
+    ElasticSearchBulk od = new ElasticSearchBulk(client, getConfigParameters(null));
+    List<ElasticSearchBulk.BulkItem> items;
+    try
+    {
+      items = od.executeDelete(documentURIs);
+    }
+    catch (ManifoldCFException e)
+    {
+      recordDeletions(startTime, documentURIs, od.getResultCode(), od.getResultDescription(), activities);
+      throw e;
+    }
+    catch (ServiceInterruption e)
+    {
+      recordDeletions(startTime, documentURIs, od.getResultCode(), od.getResultDescription(), activities);
+      throw e;
+    }
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      ElasticSearchBulk.BulkItem item = items.get(i);
+      activities.recordActivity(startTime, ELASTICSEARCH_DELETION_ACTIVITY, null,
+          documentURIs[i], item.getResultCode(), item.getResultDescription());
+      // As with single deletions, a rejected deletion is logged but not retried
+      if (item.getResult() != Result.OK)
+        Logging.connectors.warn("ES: Delete failed: "+item.getResultDescription());
+    }
+    for (ElasticSearchBulk.BulkItem item : items)
+    {
+      item.throwException();
+    }
+  }
+
+  protected static void recordDeletions(long startTime, String[] documentURIs, String resultCode, String resultDescription,
+      IOutputRemoveActivity activities) throws ManifoldCFException
+  {
+    for (String documentURI : documentURIs)
+    {
+      activities.recordActivity(startTime, ELASTICSEARCH_DELETION_ACTIVITY, null,
+          documentURI, resultCode, resultDescription);
+    }
+  }
+
   @Override
   public String check() throws ManifoldCFException
   {
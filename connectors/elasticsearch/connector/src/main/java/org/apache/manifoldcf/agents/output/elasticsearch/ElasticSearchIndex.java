@@ -142,6 +142,19 @@ public class ElasticSearchIndex extends ElasticSearchConnection
       throws IOException {
       PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
       try
+      {
+        writeDocument(pw);
+      } finally
+      {
+        pw.flush();
+        IOUtils.closeQuietly(pw);
+      }
+    }
+
+    /** Write the document source as a single line of JSON. */
+    public void writeDocument(PrintWriter pw)
+      throws IOException {
+      try
       {
         pw.print("{");
         Iterator<String> i = document.getFields();
@@ -209,17 +222,27 @@ public class ElasticSearchIndex extends ElasticSearchConnection
         if (!useMapperAttachments && inputStream != null) {
           if (contentAttributeName != null)
           {
+            // Escape the content as it streams through, rather than holding all of it in memory
+            if (needComma)
+              pw.print(",");
+            pw.print(jsonStringEscape(contentAttributeName)+" : \"");
             Reader r = new InputStreamReader(inputStream, Consts.UTF_8);
-            StringBuilder sb = new StringBuilder((int)document.getBinaryLength());
             char[] buffer = new char[65536];
+            StringBuilder sb = new StringBuilder();
             while (true)
             {
               int amt = r.read(buffer,0,buffer.length);
               if (amt == -1)
                 break;
-              sb.append(buffer,0,amt);
+              sb.setLength(0);
+              for (int j = 0; j < amt; j++)
+              {
+                appendJsonEscaped(sb, buffer[j]);
+              }
+              pw.print(sb);
             }
-            needComma = writeField(pw, needComma, contentAttributeName, new String[]{sb.toString()});
+            pw.print("\"");
+            needComma = true;
           }
         }
         
@@ -227,10 +250,6 @@ public class ElasticSearchIndex extends ElasticSearchConnection
       } catch (ManifoldCFException e)
       {
         throw new IOException(e.getMessage());
-      } finally
-      {
-        pw.flush();
-        IOUtils.closeQuietly(pw);
       }
     }
 
@@ -352,36 +371,43 @@ public class ElasticSearchIndex extends ElasticSearchConnection
     StringBuilder sb = new StringBuilder("\"");
     for (int i = 0; i < value.length(); i++)
     {
-      char x = value.charAt(i);
-      if (x == '\n')
-        sb.append('\\').append('n');
-      else if (x == '\r')
-        sb.append('\\').append('r');
-      else if (x == '\t')
-        sb.append('\\').append('t');
-      else if (x == '\b')
-        sb.append('\\').append('b');
-      else if (x == '\f')
-        sb.append('\\').append('f');
-      else if (x < 32)
-      {
-        sb.append("\\u").append(String.format(Locale.ROOT, "%04x", (int)x));
-      }
-      else
-      {
-        if (x == '\"' || x == '\\' || x == '/')
-          sb.append('\\');
-        sb.append(x);
-      }
+      appendJsonEscaped(sb, value.charAt(i));
     }
     sb.append("\"");
     return sb.toString();
   }
+
+  protected static void appendJsonEscaped(StringBuilder sb, char x)
+  {
+    if (x == '\n')
+      sb.append('\\').append('n');
+    else if (x == '\r')
+      sb.append('\\').append('r');
+    else if (x == '\t')
+      sb.append('\\').append('t');
+    else if (x == '\b')
+      sb.append('\\').append('b');
+    else if (x == '\f')
+      sb.append('\\').append('f');
+    else if (x < 32)
+    {
+      sb.append("\\u").append(String.format(Locale.ROOT, "%04x", (int)x));
+    }
+    else
+    {
+      if (x == '\"' || x == '\\' || x == '/')
+        sb.append('\\');
+      sb.append(x);
+    }
+  }
   
 
+  private final HttpClient client;
+
   public ElasticSearchIndex(HttpClient client, ElasticSearchConfig config)
   {
     super(config, client);
+    this.client = client;
   }
   
   /** Do the indexing.
@@ -392,7 +418,13 @@ public class ElasticSearchIndex extends ElasticSearchConnection
     String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
     throws ManifoldCFException, ServiceInterruption
   {
-
+    if (config.getBulkMaxDocuments() > 1)
+    {
+      // Documents too large to share a batch are streamed out on their own
+      final long estimate = estimateBulkSize(documentURI, document, acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls);
+      if (estimate < config.getBulkMaxBytes())
+        return executeBulk(documentURI, document, inputStream, acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls, estimate);
+    }
 
     final String idField = URLEncoder.encode(documentURI);
     final String encodedPipelineName = (config.getPipelineName() == null || config.getPipelineName().length() == 0)?null:URLEncoder.encode(config.getPipelineName());
@@ -420,4 +452,103 @@ public class ElasticSearchIndex extends ElasticSearchConnection
     return true;
   }
 
+  /** Estimate the size of a document's _bulk action and source lines, in bytes.  The content is
+  * counted at its encoded size, but the JSON escaping of text is not counted, so the estimate can
+  * be low; executeBulk() checks the size actually serialized.
+  */
+  protected long estimateBulkSize(String documentURI, RepositoryDocument document,
+    String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Action line, punctuation, and the standard fields and their attribute names
+    long size = 512L + config.getIndexType().length() + documentURI.length();
+    try
+    {
+      Iterator<String> i = document.getFields();
+      while (i.hasNext())
+      {
+        String fieldName = i.next();
+        size += fieldName.length() + 8L;
+        Date[] dateFieldValues = document.getFieldAsDates(fieldName);
+        if (dateFieldValues != null)
+          size += dateFieldValues.length * 32L;
+        else
+          size += estimateSize(document.getFieldAsStrings(fieldName));
+      }
+    }
+    catch (IOException e)
+    {
+      handleIOException(e);
+    }
+    size += estimateSize(acls) + estimateSize(denyAcls) + estimateSize(shareAcls) + estimateSize(shareDenyAcls) +
+      estimateSize(parentAcls) + estimateSize(parentDenyAcls);
+    final long length = document.getBinaryLength();
+    if (length > 0L)
+      size += config.getUseMapperAttachments()?((length + 2L) / 3L * 4L):length;
+    return size;
+  }
+
+  protected static long estimateSize(String[] values)
+  {
+    long size = 0L;
+    if (values != null)
+    {
+      for (String value : values)
+      {
+        size += value.length() + 4L;
+      }
+    }
+    return size;
+  }
+
+  /** Do the indexing as part of a _bulk request shared with other threads
+  * indexing into the same index.  The document is serialized into memory first, since
+  * its stream is only ours until we return.
+  *@param estimate is the estimated serialized size, from estimateBulkSize().
+  *@return false to indicate that the document was rejected.
+  */
+  protected boolean executeBulk(String documentURI, RepositoryDocument document,
+    InputStream inputStream,
+    String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls,
+    long estimate)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    ElasticSearchBulk.ItemBuffer bytes = new ElasticSearchBulk.ItemBuffer((int)Math.min(estimate, (long)Integer.MAX_VALUE - 8L));
+    PrintWriter pw = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+    try
+    {
+      pw.print("{\"index\" : {\"_type\" : "+jsonStringEscape(config.getIndexType())+", \"_id\" : "+jsonStringEscape(documentURI)+"}}\n");
+      new IndexRequestEntity(document, inputStream,
+        acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls,
+        config.getUseMapperAttachments(),
+        config.getContentAttributeName(),
+        config.getCreatedDateAttributeName(),
+        config.getModifiedDateAttributeName(),
+        config.getIndexingDateAttributeName(),
+        config.getMimeTypeAttributeName()).writeDocument(pw);
+      pw.print("\n");
+      pw.flush();
+    }
+    catch (IOException e)
+    {
+      handleIOException(e);
+    }
+
+    ElasticSearchBulk.BulkItem item = bytes.toBulkItem();
+    ElasticSearchBulk bulk = new ElasticSearchBulk(client, config);
+    if (item.getSize() > config.getBulkMaxBytes())
+    {
+      // Larger than estimated; a batch holding it would be over the limit, so it goes alone
+      bulk.executeAlone(item);
+    }
+    else
+      ElasticSearchBulk.getQueue(config).submit(item, item.getSize(), bulk);
+    setResult(item.getResultCode(), item.getResult(), item.getResultDescription());
+    item.throwException();
+    if (getResult() == Result.OK)
+      return true;
+    Logging.connectors.warn("ES: Bulk index failed: "+getResultDescription());
+    return !IOutputHistoryActivity.HTTP_ERROR.equals(getResultCode());
+  }
+
 }
@@ -54,6 +54,12 @@ public class ElasticSearchParam extends HashMap<ParameterEnum, String>
     INDEXINGDATEATTRIBUTENAME(""),
     
     MIMETYPEATTRIBUTENAME(""),
+
+    BULKMAXDOCUMENTS("1"),
+
+    BULKMAXBYTES("10485760"),
+
+    BULKMAXWAIT("1000"),
     
     FIELDLIST("");
 
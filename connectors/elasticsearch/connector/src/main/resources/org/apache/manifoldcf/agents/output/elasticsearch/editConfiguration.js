@@ -46,6 +46,27 @@ function checkConfig() {
       return false;
     }
   }
+  if (editconnection.bulkmaxdocuments) {
+    if (!isInteger(editconnection.bulkmaxdocuments.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxDocumentsMustBeInteger'))");
+      editconnection.bulkmaxdocuments.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxbytes) {
+    if (!isInteger(editconnection.bulkmaxbytes.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxBytesMustBeInteger'))");
+      editconnection.bulkmaxbytes.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxwait) {
+    if (!isInteger(editconnection.bulkmaxwait.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxWaitMustBeInteger'))");
+      editconnection.bulkmaxwait.focus();
+      return false;
+    }
+  }
   return true;
 }
 
@@ -81,6 +102,30 @@ function checkConfigForSave() {
       return false;
     }
   }
+  if (editconnection.bulkmaxdocuments) {
+    if (!isInteger(editconnection.bulkmaxdocuments.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxDocumentsMustBeInteger'))");
+      SelectTab("$Encoder.javascriptBodyEscape($ResourceBundle.getString('ElasticSearchConnector.Parameters'))");
+      editconnection.bulkmaxdocuments.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxbytes) {
+    if (!isInteger(editconnection.bulkmaxbytes.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxBytesMustBeInteger'))");
+      SelectTab("$Encoder.javascriptBodyEscape($ResourceBundle.getString('ElasticSearchConnector.Parameters'))");
+      editconnection.bulkmaxbytes.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxwait) {
+    if (!isInteger(editconnection.bulkmaxwait.value)) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxWaitMustBeInteger'))");
+      SelectTab("$Encoder.javascriptBodyEscape($ResourceBundle.getString('ElasticSearchConnector.Parameters'))");
+      editconnection.bulkmaxwait.focus();
+      return false;
+    }
+  }
   return true;
 }
 //-->
@@ -0,0 +1,107 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchConnection.Result;
+
+/** Measures indexing throughput in documents per second against a local stand-in
+* server, for a range of bulk batch sizes.  Not run as part of the unit tests; invoke
+* main() directly.  Arguments (all optional): thread count, documents per run, simulated
+* per-request server latency in milliseconds.
+*/
+public class ElasticSearchBulkBenchmark
+{
+
+  public static void main(String[] argv)
+    throws Exception
+  {
+    final int threadCount = (argv.length > 0)?Integer.parseInt(argv[0]):20;
+    final int documentCount = (argv.length > 1)?Integer.parseInt(argv[1]):4000;
+    final long requestDelay = (argv.length > 2)?Long.parseLong(argv[2]):2L;
+    final int[] batchSizes = new int[]{1, 5, 10, 20, 50};
+
+    if (org.apache.manifoldcf.crawler.system.Logging.connectors == null)
+      org.apache.manifoldcf.crawler.system.Logging.connectors = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.connectors");
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i++)
+    {
+      sb.append("Some representative document text, line ").append(i).append("\n");
+    }
+    final String content = sb.toString();
+
+    for (int batchSize : batchSizes)
+    {
+      TestElasticSearchBulk.StandInServer server = new TestElasticSearchBulk.StandInServer(requestDelay);
+      try
+      {
+        final ElasticSearchConfig config = TestElasticSearchBulk.makeConfig(server.getPort(), batchSize, 10485760L, 100L);
+        final AtomicInteger remaining = new AtomicInteger(documentCount);
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < threadCount; i++)
+        {
+          threads[i] = new Thread()
+          {
+            public void run()
+            {
+              // One client per thread, as with one connector instance per worker thread
+              HttpClient client = HttpClients.createDefault();
+              while (true)
+              {
+                int docNumber = remaining.decrementAndGet();
+                if (docNumber < 0)
+                  break;
+                try
+                {
+                  if (TestElasticSearchBulk.indexDocument(client, config, "doc" + docNumber, content) != Result.OK)
+                    failures.incrementAndGet();
+                }
+                catch (Exception e)
+                {
+                  failures.incrementAndGet();
+                }
+              }
+            }
+          };
+          threads[i].start();
+        }
+        for (Thread t : threads)
+        {
+          t.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.println(String.format(Locale.ROOT, "batch size %4d: %8.1f docs/sec (%d requests, %d failures)",
+          batchSize, documentCount * 1000000000.0 / elapsed,
+          server.getBulkRequestCount() + server.getPutRequestCount(), failures.get()));
+      }
+      finally
+      {
+        server.stop();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchConnection.Result;
+
+/** Measures deletion throughput in documents per second against a local stand-in
+* server, deleting one document per request and deleting each set of documents with one
+* bulk request, as delete and cleanup threads do when a job is deleted.  Not run as part
+* of the unit tests; invoke main() directly.  Arguments (all optional): thread count,
+* documents per run, documents per set, simulated per-request server latency in milliseconds.
+*/
+public class ElasticSearchDeleteBenchmark
+{
+
+  public static void main(String[] argv)
+    throws Exception
+  {
+    final int threadCount = (argv.length > 0)?Integer.parseInt(argv[0]):10;
+    final int documentCount = (argv.length > 1)?Integer.parseInt(argv[1]):20000;
+    final int setSize = (argv.length > 2)?Integer.parseInt(argv[2]):100;
+    final long requestDelay = (argv.length > 3)?Long.parseLong(argv[3]):5L;
+
+    if (org.apache.manifoldcf.crawler.system.Logging.connectors == null)
+      org.apache.manifoldcf.crawler.system.Logging.connectors = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.connectors");
+
+    for (final boolean bulk : new boolean[]{false, true})
+    {
+      TestElasticSearchBulk.StandInServer server = new TestElasticSearchBulk.StandInServer(requestDelay);
+      try
+      {
+        final ElasticSearchConfig config = TestElasticSearchBulk.makeConfig(server.getPort(), 1, 10485760L, 0L);
+        final AtomicInteger remaining = new AtomicInteger(documentCount);
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < threadCount; i++)
+        {
+          threads[i] = new Thread()
+          {
+            public void run()
+            {
+              // One client per thread, as with one connector instance per delete thread
+              HttpClient client = HttpClients.createDefault();
+              while (true)
+              {
+                int end = remaining.getAndAdd(-setSize);
+                if (end <= 0)
+                  break;
+                String[] documentURIs = new String[Math.min(setSize, end)];
+                for (int j = 0; j < documentURIs.length; j++)
+                {
+                  documentURIs[j] = "doc" + (end - j);
+                }
+                try
+                {
+                  if (bulk)
+                  {
+                    List<ElasticSearchBulk.BulkItem> items = new ElasticSearchBulk(client, config).executeDelete(documentURIs);
+                    for (ElasticSearchBulk.BulkItem item : items)
+                    {
+                      if (item.getResult() != Result.OK)
+                        failures.incrementAndGet();
+                    }
+                  }
+                  else
+                  {
+                    for (String documentURI : documentURIs)
+                    {
+                      ElasticSearchDelete od = new ElasticSearchDelete(client, config);
+                      od.execute(documentURI);
+                      if (od.getResult() != Result.OK)
+                        failures.incrementAndGet();
+                    }
+                  }
+                }
+                catch (Exception e)
+                {
+                  failures.incrementAndGet();
+                }
+              }
+            }
+          };
+          threads[i].start();
+        }
+        for (Thread t : threads)
+        {
+          t.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.println(String.format(Locale.ROOT, "%-16s: %8.1f docs/sec (%d requests, %d deleted, %d failures)",
+          bulk?"bulk per set":"one per document", documentCount * 1000000000.0 / elapsed,
+          bulk?server.getBulkRequestCount():server.getDeleteCount(),
+          server.getDeleteCount(), failures.get()));
+      }
+      finally
+      {
+        server.stop();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,606 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.manifoldcf.agents.interfaces.IOutputHistoryActivity;
+import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchConnection.Result;
+import org.apache.manifoldcf.core.interfaces.ConfigParams;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestElasticSearchBulk
+{
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    if (org.apache.manifoldcf.crawler.system.Logging.connectors == null)
+      org.apache.manifoldcf.crawler.system.Logging.connectors = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.connectors");
+  }
+
+  @Test
+  public void testResponseMapping()
+    throws Exception
+  {
+    List<ElasticSearchBulk.BulkItem> items = makeItems(3);
+    ElasticSearchBulk.applyResponse(items,
+      "{\"took\":3,\"errors\":true,\"items\":[" +
+      "{\"index\":{\"_id\":\"a\",\"status\":201}}," +
+      "{\"index\":{\"_id\":\"b\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\"}}}," +
+      "{\"index\":{\"_id\":\"c\",\"status\":503,\"error\":{\"type\":\"unavailable_shards_exception\"}}}]}");
+
+    assertEquals(Result.OK, items.get(0).getResult());
+    items.get(0).throwException();
+
+    assertEquals(Result.ERROR, items.get(1).getResult());
+    assertEquals(IOutputHistoryActivity.HTTP_ERROR, items.get(1).getResultCode());
+    assertTrue(items.get(1).getResultDescription().contains("mapper_parsing_exception"));
+    items.get(1).throwException();
+
+    try
+    {
+      items.get(2).throwException();
+      fail("Expected service interruption");
+    }
+    catch (ServiceInterruption e)
+    {
+    }
+  }
+
+  @Test
+  public void testResponseMismatch()
+    throws Exception
+  {
+    List<ElasticSearchBulk.BulkItem> items = makeItems(2);
+    ElasticSearchBulk.applyResponse(items, "{\"took\":3,\"errors\":false,\"items\":[{\"index\":{\"status\":201}}]}");
+    for (ElasticSearchBulk.BulkItem item : items)
+    {
+      assertEquals(Result.ERROR, item.getResult());
+      assertEquals("JSONERROR", item.getResultCode());
+    }
+  }
+
+  @Test
+  public void testGroupCommit()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      final ElasticSearchConfig config = makeConfig(server.getPort(), 4, 10485760L, 30000L);
+      final int threadCount = 8;
+      final Result[] results = new Result[threadCount];
+      final Throwable[] exceptions = new Throwable[threadCount];
+      Thread[] threads = new Thread[threadCount];
+      for (int i = 0; i < threadCount; i++)
+      {
+        final int index = i;
+        threads[i] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              results[index] = indexDocument(HttpClients.createDefault(), config, "doc" + index, "line one\nline \"two\"");
+            }
+            catch (Throwable e)
+            {
+              exceptions[index] = e;
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread t : threads)
+      {
+        t.join();
+      }
+      for (int i = 0; i < threadCount; i++)
+      {
+        if (exceptions[i] != null)
+          throw new Exception("Thread "+i+" failed", exceptions[i]);
+        assertEquals(Result.OK, results[i]);
+      }
+      // Eight documents at four per batch make exactly two bulk requests
+      assertEquals(2, server.getBulkRequestCount());
+      assertEquals(8, server.getDocumentCount());
+      assertEquals(0, server.getPutRequestCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testWaitDeadline()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      // A lone document is sent once its wait runs out, even though the batch is not full
+      ElasticSearchConfig config = makeConfig(server.getPort(), 100, 10485760L, 200L);
+      assertEquals(Result.OK, indexDocument(HttpClients.createDefault(), config, "lonely", "content"));
+      assertEquals(1, server.getBulkRequestCount());
+      assertEquals(1, server.getDocumentCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testOversizedDocumentNotBatched()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      ElasticSearchConfig config = makeConfig(server.getPort(), 100, 64L, 30000L);
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 100; i++)
+      {
+        sb.append('x');
+      }
+      assertEquals(Result.OK, indexDocument(HttpClients.createDefault(), config, "big", sb.toString()));
+      assertEquals(0, server.getBulkRequestCount());
+      assertEquals(1, server.getPutRequestCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testUnderestimatedDocumentSentAlone()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      final ElasticSearchConfig config = makeConfig(server.getPort(), 100, 1000L, 2000L);
+      final Result[] results = new Result[1];
+      final Throwable[] exceptions = new Throwable[1];
+      Thread t = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            results[0] = indexDocument(HttpClients.createDefault(), config, "small", "content");
+          }
+          catch (Throwable e)
+          {
+            exceptions[0] = e;
+          }
+        }
+      };
+      t.start();
+      Thread.sleep(200L);
+      // Three bytes per character in UTF-8, so the document serializes to more than its estimate,
+      // and more than a batch may hold; it does not join the small document's batch
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 300; i++)
+      {
+        sb.append('\u4e2d');
+      }
+      byte[] bytes = "content".getBytes(StandardCharsets.UTF_8);
+      RepositoryDocument document = new RepositoryDocument();
+      document.setBinary(new ByteArrayInputStream(bytes), bytes.length);
+      document.setMimeType("text/plain");
+      document.addField("title", sb.toString());
+      ElasticSearchIndex oi = new ElasticSearchIndex(HttpClients.createDefault(), config);
+      assertTrue(oi.estimateBulkSize("big", document, null, null, null, null, null, null) < config.getBulkMaxBytes());
+      oi.execute("big", document, document.getBinaryStream(), null, null, null, null, null, null);
+      assertEquals(Result.OK, oi.getResult());
+      t.join();
+      if (exceptions[0] != null)
+        throw new Exception("Small document failed", exceptions[0]);
+      assertEquals(Result.OK, results[0]);
+      assertEquals(2, server.getBulkRequestCount());
+      assertEquals(2, server.getDocumentCount());
+      assertEquals(0, server.getPutRequestCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRequestEntityContent()
+    throws Exception
+  {
+    List<ElasticSearchBulk.BulkItem> items = new ArrayList<ElasticSearchBulk.BulkItem>();
+    items.add(new ElasticSearchBulk.BulkItem("{\"delete\":{\"_id\":\"a\"}}\n".getBytes(StandardCharsets.UTF_8)));
+    ElasticSearchBulk.ItemBuffer buffer = new ElasticSearchBulk.ItemBuffer(1024);
+    buffer.write("{\"delete\":{\"_id\":\"b\"}}\n".getBytes(StandardCharsets.UTF_8));
+    items.add(buffer.toBulkItem());
+    ElasticSearchBulk.BulkRequestEntity entity = new ElasticSearchBulk.BulkRequestEntity(items);
+
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    entity.writeTo(written);
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    InputStream is = entity.getContent();
+    int b;
+    while ((b = is.read()) != -1)
+    {
+      read.write(b);
+    }
+    assertEquals(entity.getContentLength(), (long)written.size());
+    assertEquals(new String(written.toByteArray(), StandardCharsets.UTF_8), new String(read.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testBulkDelete()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      ElasticSearchConfig config = makeConfig(server.getPort(), 1, 10485760L, 0L);
+      String[] documentURIs = new String[]{"doc1", StandInServer.MISSING_PREFIX + "doc2", "doc3"};
+      List<ElasticSearchBulk.BulkItem> items = new ElasticSearchBulk(HttpClients.createDefault(), config).executeDelete(documentURIs);
+      // All three go in one request, and deleting a document that isn't there is not an error
+      assertEquals(1, server.getBulkRequestCount());
+      assertEquals(3, server.getDeleteCount());
+      assertEquals(3, items.size());
+      for (ElasticSearchBulk.BulkItem item : items)
+      {
+        assertEquals(Result.OK, item.getResult());
+        item.throwException();
+      }
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRefusedBatchSplit()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      // Requests of more than two items are too large, so five items go as 5 -> 2 + 3 -> 2 + 1 + 2
+      server.setBulkRefusal(2, 413);
+      ElasticSearchConfig config = makeConfig(server.getPort(), 1, 10485760L, 0L);
+      String[] documentURIs = new String[]{"doc1", "doc2", "doc3", "doc4", "doc5"};
+      List<ElasticSearchBulk.BulkItem> items = new ElasticSearchBulk(HttpClients.createDefault(), config).executeDelete(documentURIs);
+      assertEquals(5, server.getBulkRequestCount());
+      assertEquals(5, server.getDeleteCount());
+      for (ElasticSearchBulk.BulkItem item : items)
+      {
+        assertEquals(Result.OK, item.getResult());
+        item.throwException();
+      }
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRefusedSingleItem()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      // Only the document that is refused on its own is rejected
+      server.setBulkRefusal(0, 400);
+      ElasticSearchConfig config = makeConfig(server.getPort(), 1, 10485760L, 0L);
+      List<ElasticSearchBulk.BulkItem> items = new ElasticSearchBulk(HttpClients.createDefault(), config).executeDelete(new String[]{"doc1"});
+      assertEquals(1, server.getBulkRequestCount());
+      assertEquals(Result.ERROR, items.get(0).getResult());
+      assertEquals(IOutputHistoryActivity.HTTP_ERROR, items.get(0).getResultCode());
+      items.get(0).throwException();
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testTooManyRequests()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      // Throttling is not a rejection of the documents; the batch is retried later, not split
+      server.setBulkRefusal(0, 429);
+      ElasticSearchConfig config = makeConfig(server.getPort(), 1, 10485760L, 0L);
+      try
+      {
+        new ElasticSearchBulk(HttpClients.createDefault(), config).executeDelete(new String[]{"doc1", "doc2", "doc3"});
+        fail("Expected service interruption");
+      }
+      catch (ServiceInterruption e)
+      {
+      }
+      assertEquals(1, server.getBulkRequestCount());
+      assertEquals(0, server.getDeleteCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testDeleteResponseMapping()
+    throws Exception
+  {
+    List<ElasticSearchBulk.BulkItem> items = makeItems(3);
+    ElasticSearchBulk.applyResponse(items,
+      "{\"took\":3,\"errors\":true,\"items\":[" +
+      "{\"delete\":{\"_id\":\"a\",\"status\":200}}," +
+      "{\"delete\":{\"_id\":\"b\",\"status\":404,\"result\":\"not_found\"}}," +
+      "{\"delete\":{\"_id\":\"c\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}]}");
+
+    assertEquals(Result.OK, items.get(0).getResult());
+    assertEquals(Result.OK, items.get(1).getResult());
+    assertEquals(Result.ERROR, items.get(2).getResult());
+    try
+    {
+      items.get(2).throwException();
+      fail("Expected service interruption");
+    }
+    catch (ServiceInterruption e)
+    {
+    }
+  }
+
+  protected static List<ElasticSearchBulk.BulkItem> makeItems(int count)
+  {
+    List<ElasticSearchBulk.BulkItem> rval = new ArrayList<ElasticSearchBulk.BulkItem>();
+    for (int i = 0; i < count; i++)
+    {
+      rval.add(new ElasticSearchBulk.BulkItem(new byte[0]));
+    }
+    return rval;
+  }
+
+  public static ElasticSearchConfig makeConfig(int port, int bulkMaxDocuments, long bulkMaxBytes, long bulkMaxWait)
+  {
+    ConfigParams params = new ConfigParams();
+    params.setParameter(ElasticSearchParam.ParameterEnum.SERVERLOCATION.name(), "http://localhost:" + port + "/");
+    params.setParameter(ElasticSearchParam.ParameterEnum.USEMAPPERATTACHMENTS.name(), "true");
+    params.setParameter(ElasticSearchParam.ParameterEnum.BULKMAXDOCUMENTS.name(), Integer.toString(bulkMaxDocuments));
+    params.setParameter(ElasticSearchParam.ParameterEnum.BULKMAXBYTES.name(), Long.toString(bulkMaxBytes));
+    params.setParameter(ElasticSearchParam.ParameterEnum.BULKMAXWAIT.name(), Long.toString(bulkMaxWait));
+    return new ElasticSearchConfig(params);
+  }
+
+  public static Result indexDocument(HttpClient client, ElasticSearchConfig config, String documentURI, String content)
+    throws Exception
+  {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    RepositoryDocument document = new RepositoryDocument();
+    document.setBinary(new ByteArrayInputStream(bytes), bytes.length);
+    document.setMimeType("text/plain");
+    document.addField("title", "Title of " + documentURI);
+    ElasticSearchIndex oi = new ElasticSearchIndex(client, config);
+    oi.execute(documentURI, document, document.getBinaryStream(), null, null, null, null, null, null);
+    return oi.getResult();
+  }
+
+  /** Stands in for an ElasticSearch server, accepting single-document PUTs and DELETEs and _bulk
+  * POSTs, after an optional simulated delay per request.  Bulk deletions of ids starting
+  * with MISSING_PREFIX answer as if the document wasn't there.  Bulk requests with more than
+  * a set number of items can be refused as a whole.
+  */
+  public static class StandInServer
+  {
+    public static final String MISSING_PREFIX = "missing";
+
+    protected final HttpServer server;
+    protected final long requestDelay;
+    protected final AtomicInteger bulkRequestCount = new AtomicInteger(0);
+    protected final AtomicInteger putRequestCount = new AtomicInteger(0);
+    protected final AtomicInteger documentCount = new AtomicInteger(0);
+    protected final AtomicInteger deleteCount = new AtomicInteger(0);
+    protected volatile int refuseAbove = Integer.MAX_VALUE;
+    protected volatile int refusalCode = 413;
+
+    public StandInServer(long requestDelay)
+      throws IOException
+    {
+      this.requestDelay = requestDelay;
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+        public void handle(HttpExchange exchange)
+          throws IOException
+        {
+          handleRequest(exchange);
+        }
+      });
+      server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+      server.start();
+    }
+
+    public int getPort()
+    {
+      return server.getAddress().getPort();
+    }
+
+    public int getBulkRequestCount()
+    {
+      return bulkRequestCount.get();
+    }
+
+    public int getPutRequestCount()
+    {
+      return putRequestCount.get();
+    }
+
+    public int getDocumentCount()
+    {
+      return documentCount.get();
+    }
+
+    public int getDeleteCount()
+    {
+      return deleteCount.get();
+    }
+
+    /** Refuse bulk requests of more than maxItems items with the given status code. */
+    public void setBulkRefusal(int maxItems, int code)
+    {
+      refuseAbove = maxItems;
+      refusalCode = code;
+    }
+
+    public void stop()
+    {
+      server.stop(0);
+    }
+
+    protected void handleRequest(HttpExchange exchange)
+      throws IOException
+    {
+      String response;
+      int code;
+      BufferedReader r = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+      try
+      {
+        if (exchange.getRequestURI().getPath().endsWith("/_bulk"))
+        {
+          bulkRequestCount.incrementAndGet();
+          StringBuilder sb = new StringBuilder("{\"took\":1,\"errors\":false,\"items\":[");
+          JSONParser parser = new JSONParser();
+          int items = 0;
+          int deletes = 0;
+          while (true)
+          {
+            String action = r.readLine();
+            if (action == null)
+              break;
+            if (items + deletes > 0)
+              sb.append(",");
+            JSONObject a = (JSONObject)((JSONObject)parser.parse(action)).get("index");
+            if (a == null)
+            {
+              // Deletions have no source line
+              a = (JSONObject)((JSONObject)parser.parse(action)).get("delete");
+              String id = (String)a.get("_id");
+              sb.append("{\"delete\":{\"_id\":").append(ElasticSearchIndex.jsonStringEscape(id)).append(",\"status\":")
+                .append(id.startsWith(MISSING_PREFIX)?"404,\"result\":\"not_found\"}}":"200,\"result\":\"deleted\"}}");
+              deletes++;
+              continue;
+            }
+            String source = r.readLine();
+            parser.parse(source);
+            sb.append("{\"index\":{\"_id\":").append(ElasticSearchIndex.jsonStringEscape((String)a.get("_id"))).append(",\"status\":201}}");
+            items++;
+          }
+          sb.append("]}");
+          if (items + deletes > refuseAbove)
+          {
+            response = "{\"error\":\"refused\",\"status\":" + refusalCode + "}";
+            code = refusalCode;
+          }
+          else
+          {
+            documentCount.addAndGet(items);
+            deleteCount.addAndGet(deletes);
+            response = sb.toString();
+            code = 200;
+          }
+        }
+        else if (exchange.getRequestMethod().equals("DELETE"))
+        {
+          deleteCount.incrementAndGet();
+          response = "{\"result\":\"deleted\"}";
+          code = 200;
+        }
+        else
+        {
+          putRequestCount.incrementAndGet();
+          new JSONParser().parse(r);
+          documentCount.incrementAndGet();
+          response = "{\"result\":\"created\"}";
+          code = 201;
+        }
+      }
+      catch (org.json.simple.parser.ParseException e)
+      {
+        response = "{\"error\":\"unparseable\"}";
+        code = 400;
+      }
+      if (requestDelay > 0L)
+      {
+        try
+        {
+          Thread.sleep(requestDelay);
+        }
+        catch (InterruptedException e)
+        {
+        }
+      }
+      byte[] body = response.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      exchange.sendResponseHeaders(code, body.length);
+      OutputStream os = exchange.getResponseBody();
+      try
+      {
+        os.write(body);
+      }
+      finally
+      {
+        os.close();
+      }
+    }
+  }
+
+}
@@ -31,6 +31,8 @@ import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.DirectoryStream;
+import java.nio.file.LinkOption;
 import java.nio.file.attribute.BasicFileAttributes;
 
 /** This is the "repository connector" for a file system.  It's a relative of the share crawler, and should have
@@ -267,18 +269,29 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
       }
     }
 
-
+    // Canonical startpoint paths, worked out once rather than for every directory entry
+    String[] canonicalStartpoints = getCanonicalStartpoints(spec);
 
     for (String documentIdentifier : documentIdentifiers)
     {
       File file = new File(documentIdentifier);
-      if (!file.exists())
+      final Path path = file.toPath();
+      // Everything we need to know about the file comes from this one read
+      BasicFileAttributes attributes;
+      try
+      {
+        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      }
+      catch (IOException e)
       {
+        // Whatever File.exists() would have said no to
+        if (Logging.connectors.isDebugEnabled())
+          Logging.connectors.debug("File '"+documentIdentifier+"' cannot be read: "+e.getMessage());
         activities.deleteDocument(documentIdentifier);
         continue;
       }
       
-      if (file.isDirectory())
+      if (attributes.isDirectory())
       {
         // It's a directory.  The version ID would be the
         // last modified date, except that doesn't work on Windows
@@ -296,17 +309,47 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
         {
           try
           {
-            File[] files = file.listFiles();
-            if (files != null)
+            // Stream the entries, rather than reading the whole directory first
+            DirectoryStream<Path> children = null;
+            try
+            {
+              children = Files.newDirectoryStream(path.toRealPath());
+            }
+            catch (InterruptedIOException e)
             {
-              for (File f : files)
+              throw e;
+            }
+            catch (IOException e)
+            {
+              // As with File.listFiles(), a directory that can't be listed has no children
+              errorCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+              errorDesc = e.getMessage();
+            }
+            if (children != null)
+            {
+              try
+              {
+                for (Path child : children)
+                {
+                  String canonicalPath = findIncludedChild(child,spec,canonicalStartpoints);
+                  if (canonicalPath != null)
+                    activities.addDocumentReference(canonicalPath,documentIdentifier,RELATIONSHIP_CHILD);
+                }
+              }
+              catch (java.nio.file.DirectoryIteratorException e)
+              {
+                throw e.getCause();
+              }
+              finally
               {
-                String canonicalPath = f.getCanonicalPath();
-                if (checkInclude(f,canonicalPath,spec))
-                  activities.addDocumentReference(canonicalPath,documentIdentifier,RELATIONSHIP_CHILD);
+                children.close();
               }
+              errorCode = "OK";
             }
-            errorCode = "OK";
+          }
+          catch (InterruptedIOException e)
+          {
+            throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
           }
           catch (IOException e)
           {
@@ -324,27 +367,14 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
       }
       
       // It's a file
-      final Path path = file.toPath();
       String versionString;
       String convertPath;
-      long fileLength = file.length();
-      // Get the file's modified date.
-      long lastModified = file.lastModified();
+      long fileLength = attributes.size();
 
       // Check if the path is to be converted.  We record that info in the version string so that we'll reindex documents whose
       // URI's change.
       convertPath = findConvertPath(spec, file);
-      StringBuilder sb = new StringBuilder();
-      if (convertPath != null)
-      {
-        // Record the path.
-        sb.append("+");
-        pack(sb,convertPath,'+');
-      }
-      else
-        sb.append("-");
-      sb.append(new Long(lastModified).toString()).append(":").append(new Long(fileLength).toString());
-      versionString = sb.toString();
+      versionString = makeVersionString(convertPath, attributes);
     
       if (!activities.checkDocumentNeedsReindexing(documentIdentifier,versionString))
         continue;
@@ -364,7 +394,7 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
         }
         
         String fileName = file.getName();
-        final Date modifiedDate = new Date(file.lastModified());
+        final Date modifiedDate = new Date(attributes.lastModifiedTime().toMillis());
         String mimeType = mapExtensionToMimeType(fileName);
         String uri;
         if (convertPath != null) {
@@ -437,7 +467,6 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
         // Ingest the document.
         try
         {
-          final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
           final Date createdDate = new Date(attributes.creationTime().toMillis());
           data.setCreatedDate(createdDate);
 
@@ -486,6 +515,26 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
     }
   }
 
+  /** Calculate the version string of a file.
+  *@param convertPath is the part of the path to be converted to a URI, or null.
+  *@param attributes are the file's attributes.
+  *@return the version string.
+  */
+  protected static String makeVersionString(String convertPath, BasicFileAttributes attributes)
+  {
+    StringBuilder sb = new StringBuilder();
+    if (convertPath != null)
+    {
+      // Record the path.
+      sb.append("+");
+      pack(sb,convertPath,'+');
+    }
+    else
+      sb.append("-");
+    sb.append(new Long(attributes.lastModifiedTime().toMillis()).toString()).append(":").append(new Long(attributes.size()).toString());
+    return sb.toString();
+  }
+
   /** This method finds the part of the path that should be converted to a URI.
   * Returns null if the path should not be converted.
   *@param spec is the document specification.
@@ -1122,6 +1171,82 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
 
   // Protected static methods
 
+  /** Get the canonical path of each startpoint in a document specification.
+  *@param documentSpecification is the specification.
+  *@return the canonical paths, indexed by specification child, with null for children that are not startpoints.
+  */
+  protected static String[] getCanonicalStartpoints(Specification documentSpecification)
+    throws ManifoldCFException
+  {
+    try
+    {
+      String[] rval = new String[documentSpecification.getChildCount()];
+      for (int i = 0; i < rval.length; i++)
+      {
+        SpecificationNode sn = documentSpecification.getChild(i);
+        if (sn.getType().equals("startpoint"))
+          rval[i] = new File(sn.getAttributeValue("path")).getCanonicalPath();
+      }
+      return rval;
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("IO Error",e);
+    }
+  }
+
+  /** Check whether an entry of a directory should be included, given a document specification.  Unless the entry is a
+  * symbolic link, this takes only one read of the entry's attributes.
+  *@param child is the entry, within a directory whose path is canonical.
+  *@param documentSpecification is the specification.
+  *@param canonicalStartpoints are the canonical startpoint paths, from getCanonicalStartpoints().
+  *@return the canonical path of the entry if it should be included, or null if not.
+  */
+  protected static String findIncludedChild(Path child, Specification documentSpecification, String[] canonicalStartpoints)
+    throws ManifoldCFException, IOException
+  {
+    BasicFileAttributes attributes;
+    try
+    {
+      attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+    catch (java.nio.file.NoSuchFileException e)
+    {
+      // Gone since the directory was listed
+      return null;
+    }
+    String canonicalPath;
+    boolean isDirectory;
+    if (attributes.isSymbolicLink())
+    {
+      File file = child.toFile();
+      canonicalPath = file.getCanonicalPath();
+      isDirectory = file.isDirectory();
+    }
+    else
+    {
+      // The directory's path is canonical, so the entry's is too
+      canonicalPath = child.toString();
+      isDirectory = attributes.isDirectory();
+    }
+    String pathPart;
+    String filePart;
+    if (isDirectory)
+    {
+      pathPart = canonicalPath;
+      filePart = null;
+    }
+    else
+    {
+      // A file is matched by its name in the directory, even if it is a link
+      pathPart = child.getParent().toString();
+      filePart = child.getFileName().toString();
+    }
+    if (checkInclude(canonicalPath,pathPart,filePart,documentSpecification,canonicalStartpoints))
+      return canonicalPath;
+    return null;
+  }
+
   /** Check if a file or directory should be included, given a document specification.
   *@param fileName is the canonical file name.
   *@param documentSpecification is the specification.
@@ -1130,11 +1255,6 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
   protected static boolean checkInclude(File file, String fileName, Specification documentSpecification)
     throws ManifoldCFException
   {
-    if (Logging.connectors.isDebugEnabled())
-    {
-      Logging.connectors.debug("Checking whether to include file '"+fileName+"'");
-    }
-
     try
     {
       String pathPart;
@@ -1149,82 +1269,100 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
         pathPart = file.getParentFile().getCanonicalPath();
         filePart = file.getName();
       }
+      return checkInclude(fileName,pathPart,filePart,documentSpecification,getCanonicalStartpoints(documentSpecification));
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("IO Error",e);
+    }
+  }
 
-      // Scan until we match a startpoint
-      int i = 0;
-      while (i < documentSpecification.getChildCount())
+  /** Check if a file or directory should be included, given a document specification.
+  *@param fileName is the canonical file name.
+  *@param pathPart is the canonical path of the directory, or of the directory the file is in.
+  *@param filePart is the name of the file, or null for a directory.
+  *@param documentSpecification is the specification.
+  *@param canonicalStartpoints are the canonical startpoint paths, from getCanonicalStartpoints().
+  *@return true if it should be included.
+  */
+  protected static boolean checkInclude(String fileName, String pathPart, String filePart,
+    Specification documentSpecification, String[] canonicalStartpoints)
+  {
+    if (Logging.connectors.isDebugEnabled())
+    {
+      Logging.connectors.debug("Checking whether to include file '"+fileName+"'");
+    }
+
+    // Scan until we match a startpoint
+    int i = 0;
+    while (i < documentSpecification.getChildCount())
+    {
+      SpecificationNode sn = documentSpecification.getChild(i++);
+      if (sn.getType().equals("startpoint"))
       {
-        SpecificationNode sn = documentSpecification.getChild(i++);
-        if (sn.getType().equals("startpoint"))
+        String path = canonicalStartpoints[i-1];
+        if (Logging.connectors.isDebugEnabled())
+        {
+          Logging.connectors.debug("Checking path '"+path+"' against canonical '"+pathPart+"'");
+        }
+        // Compare with filename
+        int matchEnd = matchSubPath(path,pathPart);
+        if (matchEnd == -1)
         {
-          String path = new File(sn.getAttributeValue("path")).getCanonicalPath();
           if (Logging.connectors.isDebugEnabled())
           {
-            Logging.connectors.debug("Checking path '"+path+"' against canonical '"+pathPart+"'");
+            Logging.connectors.debug("Match check '"+path+"' against canonical '"+pathPart+"' failed");
           }
-          // Compare with filename
-          int matchEnd = matchSubPath(path,pathPart);
-          if (matchEnd == -1)
-          {
-            if (Logging.connectors.isDebugEnabled())
-            {
-              Logging.connectors.debug("Match check '"+path+"' against canonical '"+pathPart+"' failed");
-            }
 
-            continue;
+          continue;
+        }
+        // matchEnd is the start of the rest of the path (after the match) in fileName.
+        // We need to walk through the rules and see whether it's in or out.
+        int j = 0;
+        while (j < sn.getChildCount())
+        {
+          SpecificationNode node = sn.getChild(j++);
+          String flavor = node.getType();
+          String match = node.getAttributeValue("match");
+          String type = node.getAttributeValue("type");
+          // If type is "file", then our match string is against the filePart.
+          // If filePart is null, then this rule is simply skipped.
+          String sourceMatch;
+          int sourceIndex;
+          if (type.equals("file"))
+          {
+            if (filePart == null)
+              continue;
+            sourceMatch = filePart;
+            sourceIndex = 0;
           }
-          // matchEnd is the start of the rest of the path (after the match) in fileName.
-          // We need to walk through the rules and see whether it's in or out.
-          int j = 0;
-          while (j < sn.getChildCount())
+          else
           {
-            SpecificationNode node = sn.getChild(j++);
-            String flavor = node.getType();
-            String match = node.getAttributeValue("match");
-            String type = node.getAttributeValue("type");
-            // If type is "file", then our match string is against the filePart.
-            // If filePart is null, then this rule is simply skipped.
-            String sourceMatch;
-            int sourceIndex;
-            if (type.equals("file"))
-            {
-              if (filePart == null)
-                continue;
-              sourceMatch = filePart;
-              sourceIndex = 0;
-            }
-            else
-            {
-              if (filePart != null)
-                continue;
-              sourceMatch = pathPart;
-              sourceIndex = matchEnd;
-            }
+            if (filePart != null)
+              continue;
+            sourceMatch = pathPart;
+            sourceIndex = matchEnd;
+          }
 
-            if (flavor.equals("include"))
-            {
-              if (checkMatch(sourceMatch,sourceIndex,match))
-                return true;
-            }
-            else if (flavor.equals("exclude"))
-            {
-              if (checkMatch(sourceMatch,sourceIndex,match))
-                return false;
-            }
+          if (flavor.equals("include"))
+          {
+            if (checkMatch(sourceMatch,sourceIndex,match))
+              return true;
+          }
+          else if (flavor.equals("exclude"))
+          {
+            if (checkMatch(sourceMatch,sourceIndex,match))
+              return false;
           }
         }
       }
-      if (Logging.connectors.isDebugEnabled())
-      {
-        Logging.connectors.debug("Not including '"+fileName+"' because no matching rules");
-      }
-
-      return false;
     }
-    catch (IOException e)
+    if (Logging.connectors.isDebugEnabled())
     {
-      throw new ManifoldCFException("IO Error",e);
+      Logging.connectors.debug("Not including '"+fileName+"' because no matching rules");
     }
+
+    return false;
   }
 
   /** Check if a file should be ingested, given a document specification.  It is presumed that
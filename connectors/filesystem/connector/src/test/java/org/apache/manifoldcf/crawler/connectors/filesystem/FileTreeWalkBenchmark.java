@@ -0,0 +1,264 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.connectors.filesystem;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Measures files per second for the file system connector's directory walk and version strings, the way the
+* connector used to do it (File.listFiles(), a canonical path and several stat calls per entry) and with a
+* DirectoryStream and a single attribute read per entry.  Each directory and file is handled as its own document,
+* the way the crawler's worker threads would handle them, by the given number of threads.
+* The tree is created the first time; it is a two-level tree of files under numbered directories.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.connectors.filesystem.FileTreeWalkBenchmark [root] [files] [files per directory] [threads]
+*/
+public class FileTreeWalkBenchmark
+{
+  public static void main(String[] args)
+    throws Exception
+  {
+    File root = new File((args.length > 0)?args[0]:new File(System.getProperty("java.io.tmpdir"),"mcf-walk-benchmark").getPath());
+    int fileCount = (args.length > 1)?Integer.parseInt(args[1]):1000000;
+    int filesPerDirectory = (args.length > 2)?Integer.parseInt(args[2]):1000;
+    int threadCount = (args.length > 3)?Integer.parseInt(args[3]):1;
+
+    createTree(root,fileCount,filesPerDirectory);
+    String rootIdentifier = root.getCanonicalPath();
+    Specification spec = new Specification();
+    SpecificationNode startpoint = new SpecificationNode("startpoint");
+    startpoint.setAttribute("path",rootIdentifier);
+    SpecificationNode includeFiles = new SpecificationNode("include");
+    includeFiles.setAttribute("type","file");
+    includeFiles.setAttribute("match","*");
+    startpoint.addChild(startpoint.getChildCount(),includeFiles);
+    SpecificationNode includeDirectories = new SpecificationNode("include");
+    includeDirectories.setAttribute("type","directory");
+    includeDirectories.setAttribute("match","*");
+    startpoint.addChild(startpoint.getChildCount(),includeDirectories);
+    spec.addChild(spec.getChildCount(),startpoint);
+
+    System.out.println("Tree: "+root+", threads: "+threadCount);
+    // Once each, to warm up the JVM and the file system cache, then for real
+    for (int pass = 0; pass < 2; pass++)
+    {
+      WalkResult listFiles = walk(new ListFilesWalker(spec),rootIdentifier,threadCount);
+      WalkResult directoryStream = walk(new DirectoryStreamWalker(spec),rootIdentifier,threadCount);
+      if (pass == 0)
+      {
+        if (listFiles.documents != directoryStream.documents || listFiles.checksum != directoryStream.checksum)
+          throw new IllegalStateException("The walks disagree");
+        continue;
+      }
+      listFiles.report("listFiles");
+      directoryStream.report("DirectoryStream");
+    }
+  }
+
+  protected static void createTree(File root, int fileCount, int filesPerDirectory)
+    throws IOException
+  {
+    File marker = new File(root,"complete-"+fileCount+"-"+filesPerDirectory);
+    if (marker.exists())
+      return;
+    System.out.println("Creating "+fileCount+" files under "+root+"...");
+    byte[] content = "Some text\n".getBytes("UTF-8");
+    for (int i = 0; i < fileCount; i++)
+    {
+      File directory = new File(root,"d"+(i / filesPerDirectory));
+      if (i % filesPerDirectory == 0 && !directory.mkdirs() && !directory.isDirectory())
+        throw new IOException("Could not create "+directory);
+      Files.write(new File(directory,"f"+i+".txt").toPath(),content);
+    }
+    if (!marker.createNewFile())
+      throw new IOException("Could not create "+marker);
+  }
+
+  protected static WalkResult walk(final Walker walker, String rootIdentifier, int threadCount)
+    throws Exception
+  {
+    final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    final AtomicInteger outstanding = new AtomicInteger(1);
+    final AtomicLong documents = new AtomicLong();
+    final AtomicLong checksum = new AtomicLong();
+    queue.add(rootIdentifier);
+    long startTime = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try
+    {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < threadCount; i++)
+      {
+        futures.add(executor.submit(new Callable<Void>()
+          {
+            @Override
+            public Void call()
+              throws Exception
+            {
+              List<String> children = new ArrayList<String>();
+              while (outstanding.get() > 0)
+              {
+                String identifier = queue.poll(10L,TimeUnit.MILLISECONDS);
+                if (identifier == null)
+                  continue;
+                children.clear();
+                String versionString = walker.processDocument(identifier,children);
+                documents.incrementAndGet();
+                if (versionString != null)
+                  checksum.addAndGet(identifier.hashCode() * 31L + versionString.hashCode());
+                outstanding.addAndGet(children.size());
+                queue.addAll(children);
+                outstanding.decrementAndGet();
+              }
+              return null;
+            }
+          }));
+      }
+      for (Future<Void> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    return new WalkResult(documents.get(),checksum.get(),System.nanoTime() - startTime);
+  }
+
+  protected static class WalkResult
+  {
+    public final long documents;
+    public final long checksum;
+    public final long elapsedNanos;
+
+    public WalkResult(long documents, long checksum, long elapsedNanos)
+    {
+      this.documents = documents;
+      this.checksum = checksum;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public void report(String description)
+    {
+      double seconds = elapsedNanos / 1000000000.0;
+      System.out.println(String.format(Locale.ROOT,"%-15s: %d documents in %8.1f s, %10.0f documents/sec",
+        description,documents,seconds,documents / seconds));
+    }
+  }
+
+  /** One document's worth of the connector's work: a directory's included children, or a file's version string. */
+  protected static interface Walker
+  {
+    public String processDocument(String documentIdentifier, List<String> children)
+      throws Exception;
+  }
+
+  /** What processDocuments() used to do. */
+  protected static class ListFilesWalker implements Walker
+  {
+    protected final Specification spec;
+
+    public ListFilesWalker(Specification spec)
+    {
+      this.spec = spec;
+    }
+
+    @Override
+    public String processDocument(String documentIdentifier, List<String> children)
+      throws Exception
+    {
+      File file = new File(documentIdentifier);
+      if (!file.exists())
+        return null;
+      if (file.isDirectory())
+      {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+          for (File f : files)
+          {
+            String canonicalPath = f.getCanonicalPath();
+            if (FileConnector.checkInclude(f,canonicalPath,spec))
+              children.add(canonicalPath);
+          }
+        }
+        return null;
+      }
+      long fileLength = file.length();
+      long lastModified = file.lastModified();
+      return "-"+new Long(lastModified).toString()+":"+new Long(fileLength).toString();
+    }
+  }
+
+  /** What processDocuments() does now. */
+  protected static class DirectoryStreamWalker implements Walker
+  {
+    protected final Specification spec;
+    protected final String[] canonicalStartpoints;
+
+    public DirectoryStreamWalker(Specification spec)
+      throws ManifoldCFException
+    {
+      this.spec = spec;
+      this.canonicalStartpoints = FileConnector.getCanonicalStartpoints(spec);
+    }
+
+    @Override
+    public String processDocument(String documentIdentifier, List<String> children)
+      throws Exception
+    {
+      Path path = Paths.get(documentIdentifier);
+      BasicFileAttributes attributes;
+      try
+      {
+        attributes = Files.readAttributes(path,BasicFileAttributes.class);
+      }
+      catch (IOException e)
+      {
+        return null;
+      }
+      if (attributes.isDirectory())
+      {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path.toRealPath());
+        try
+        {
+          for (Path child : stream)
+          {
+            String canonicalPath = FileConnector.findIncludedChild(child,spec,canonicalStartpoints);
+            if (canonicalPath != null)
+              children.add(canonicalPath);
+          }
+        }
+        finally
+        {
+          stream.close();
+        }
+        return null;
+      }
+      return FileConnector.makeVersionString(null,attributes);
+    }
+  }
+
+}
@@ -24,10 +24,14 @@ import java.util.*;
 import java.io.*;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.errors.RetriableException;
 
 /**
  * This is a kafka output connector.
@@ -145,6 +149,11 @@ public class KafkaOutputConnector extends org.apache.manifoldcf.agents.output.Ba
   @Override
   public void disconnect()
           throws ManifoldCFException {
+    // Closing waits for any sends still in flight, so their acknowledgements are not lost
+    if (producer != null) {
+      producer.close();
+      producer = null;
+    }
     super.disconnect();
   }
 
@@ -315,6 +324,7 @@ public class KafkaOutputConnector extends org.apache.manifoldcf.agents.output.Ba
   public int addOrReplaceDocumentWithException(String documentURI, VersionContext outputDescription, RepositoryDocument document, String authorityNameString, IOutputAddActivity activities)
           throws ManifoldCFException, ServiceInterruption, IOException {
     //System.out.println("Starting to ingest document....");
+    Throwable failure = null;
     try {
       KafkaMessage kafkaMessage = new KafkaMessage();
       // Get document info in JSON format
@@ -324,15 +334,113 @@ public class KafkaOutputConnector extends org.apache.manifoldcf.agents.output.Ba
       ProducerRecord record = new ProducerRecord(topic, finalString);
       producer.send(record).get();
     } catch (InterruptedException e) {
-      new ManifoldCFException("interrupted", ManifoldCFException.INTERRUPTED);
+      throw new ManifoldCFException("interrupted", e, ManifoldCFException.INTERRUPTED);
     } catch (ExecutionException e) {
-      new ManifoldCFException("interrupted", ManifoldCFException.INTERRUPTED);
+      failure = e.getCause();
+    } catch (KafkaException e) {
+      failure = e;
+    }
+
+    if (failure != null) {
+      if (isRetriable(failure)) {
+        throw handleKafkaException(failure);
+      }
+      // Sending this document again won't help
+      activities.recordActivity(null, INGEST_ACTIVITY, new Long(document.getBinaryLength()), documentURI,
+              getResultCode(failure), failure.getMessage());
+      return DOCUMENTSTATUS_REJECTED;
     }
 
     activities.recordActivity(null, INGEST_ACTIVITY, new Long(document.getBinaryLength()), documentURI, "OK", null);
     return DOCUMENTSTATUS_ACCEPTED;
   }
 
+  /**
+   * Add (or replace) a document in the output data store, without waiting for
+   * Kafka to acknowledge it. The message is handed to the producer, which
+   * batches it with others and sends it in the background; the outcome is
+   * reported to the acknowledgement from the producer's callback, so a worker
+   * thread can have many sends in flight at once.
+   *
+   * @param documentURI is the URI of the document.
+   * @param pipelineDescription includes the description string that was
+   * constructed for this document by the getOutputDescription() method.
+   * @param document is the document data to be processed (handed to the output
+   * data store).
+   * @param authorityNameString is the name of the authority responsible for
+   * authorizing any access tokens passed in with the repository document. May
+   * be null.
+   * @param activities is the handle to an object that the implementer of a
+   * pipeline connector may use to perform operations.
+   * @param acknowledgement is told the outcome once Kafka has acknowledged the
+   * message.
+   * @return DOCUMENTSTATUS_PENDING.
+   * @throws IOException only if there's a stream error reading the document
+   * data.
+   */
+  @Override
+  public int addOrReplaceDocumentWithAcknowledgement(String documentURI, VersionContext pipelineDescription, RepositoryDocument document, String authorityNameString, IOutputAddActivity activities, final IOutputAcknowledgement acknowledgement)
+          throws ManifoldCFException, ServiceInterruption, IOException {
+    KafkaMessage kafkaMessage = new KafkaMessage();
+    // Get document info in JSON format
+    byte[] finalString = kafkaMessage.createJSON(document);
+    String topic = getConfig(params, KafkaConfig.TOPIC, "topic");
+    final Long dataSize = new Long(document.getBinaryLength());
+
+    ProducerRecord record = new ProducerRecord(topic, finalString);
+    try {
+      producer.send(record, new Callback() {
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+          if (exception == null) {
+            acknowledgement.documentAcknowledged(null, INGEST_ACTIVITY, dataSize, "OK", null);
+          } else if (isRetriable(exception)) {
+            acknowledgement.documentFailed(null, INGEST_ACTIVITY, dataSize,
+                    getResultCode(exception), exception.getMessage());
+          } else {
+            // Permanently rejected, e.g. too large for the topic
+            acknowledgement.documentAcknowledged(null, INGEST_ACTIVITY, dataSize,
+                    getResultCode(exception), exception.getMessage());
+          }
+        }
+      });
+    } catch (KafkaException e) {
+      if (isRetriable(e)) {
+        throw handleKafkaException(e);
+      }
+      activities.recordActivity(null, INGEST_ACTIVITY, dataSize, documentURI,
+              getResultCode(e), e.getMessage());
+      return DOCUMENTSTATUS_REJECTED;
+    }
+    return DOCUMENTSTATUS_PENDING;
+  }
+
+  /**
+   * Decide whether a failed send may succeed if the document is sent again.
+   * Anything Kafka doesn't call retriable, such as a record that is too large
+   * or can't be serialized, will fail the same way every time.
+   */
+  private static boolean isRetriable(Throwable e) {
+    return e instanceof RetriableException;
+  }
+
+  private static String getResultCode(Throwable e) {
+    return e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+  }
+
+  /**
+   * Turn a failed send into a service interruption, so that the document is
+   * retried.
+   */
+  private static ServiceInterruption handleKafkaException(Throwable e) {
+    long currentTime = System.currentTimeMillis();
+    return new ServiceInterruption("Kafka exception: " + e.getMessage(), e,
+            currentTime + 60000L,
+            currentTime + 2L * 60L * 60000L,
+            -1,
+            true);
+  }
+
   private static String getConfig(ConfigParams config,
           String parameter,
           String defaultValue) {
@@ -17,18 +17,32 @@
 
 package org.apache.manifoldcf.agents.output.kafka;
 
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.manifoldcf.agents.interfaces.IOutputAcknowledgement;
 import org.apache.manifoldcf.agents.interfaces.IOutputAddActivity;
+import org.apache.manifoldcf.agents.interfaces.IOutputConnector;
 import org.apache.commons.lang3.concurrent.ConcurrentUtils;
 
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
 import org.apache.manifoldcf.core.interfaces.VersionContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -69,4 +83,83 @@ public class KafkaConnectorTest {
     connector.addOrReplaceDocumentWithException("", version, document, "", activities);
     verify(producer).send(Mockito.any(ProducerRecord.class));
   }
+
+  @Test
+  public void whenSendingDocumentWithAcknowledgement() throws Exception {
+    final List<Callback> callbacks = new ArrayList<Callback>();
+    when(producer.send(Mockito.any(ProducerRecord.class), Mockito.any(Callback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        callbacks.add((Callback) invocation.getArguments()[1]);
+        return null;
+      }
+    });
+
+    IOutputAddActivity activities = mock(IOutputAddActivity.class);
+    VersionContext version = mock(VersionContext.class);
+    IOutputAcknowledgement first = mock(IOutputAcknowledgement.class);
+    IOutputAcknowledgement second = mock(IOutputAcknowledgement.class);
+
+    // Neither send waits for Kafka
+    RepositoryDocument document = new RepositoryDocument();
+    document.setFileName("first.txt");
+    assertEquals(IOutputConnector.DOCUMENTSTATUS_PENDING,
+            connector.addOrReplaceDocumentWithAcknowledgement("first", version, document, "", activities, first));
+    document = new RepositoryDocument();
+    document.setFileName("second.txt");
+    assertEquals(IOutputConnector.DOCUMENTSTATUS_PENDING,
+            connector.addOrReplaceDocumentWithAcknowledgement("second", version, document, "", activities, second));
+    assertEquals(2, callbacks.size());
+    Mockito.verifyZeroInteractions(first, second);
+
+    // Kafka answers later, in any order
+    callbacks.get(1).onCompletion(null, new TimeoutException("Batch expired"));
+    callbacks.get(0).onCompletion(null, null);
+    verify(first).documentAcknowledged(null, KafkaOutputConnector.INGEST_ACTIVITY, new Long(0L), "OK", null);
+    verify(second).documentFailed(null, KafkaOutputConnector.INGEST_ACTIVITY, new Long(0L), "TIMEOUTEXCEPTION", "Batch expired");
+  }
+
+  @Test
+  public void whenKafkaPermanentlyRejectsDocumentWithAcknowledgement() throws Exception {
+    final List<Callback> callbacks = new ArrayList<Callback>();
+    when(producer.send(Mockito.any(ProducerRecord.class), Mockito.any(Callback.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        callbacks.add((Callback) invocation.getArguments()[1]);
+        return null;
+      }
+    });
+
+    IOutputAddActivity activities = mock(IOutputAddActivity.class);
+    VersionContext version = mock(VersionContext.class);
+    IOutputAcknowledgement acknowledgement = mock(IOutputAcknowledgement.class);
+
+    RepositoryDocument document = new RepositoryDocument();
+    document.setFileName("huge.txt");
+    assertEquals(IOutputConnector.DOCUMENTSTATUS_PENDING,
+            connector.addOrReplaceDocumentWithAcknowledgement("huge", version, document, "", activities, acknowledgement));
+
+    // Sending it again would fail the same way, so the document is not requeued
+    callbacks.get(0).onCompletion(null, new RecordTooLargeException("Too large"));
+    verify(acknowledgement).documentAcknowledged(null, KafkaOutputConnector.INGEST_ACTIVITY, new Long(0L), "RECORDTOOLARGEEXCEPTION", "Too large");
+    verify(acknowledgement, never()).documentFailed(Mockito.any(Long.class), Mockito.anyString(), Mockito.any(Long.class),
+            Mockito.anyString(), Mockito.anyString());
+  }
+
+  @Test
+  public void whenKafkaPermanentlyRejectsDocument() throws Exception {
+    Future future = mock(Future.class);
+    when(future.get()).thenThrow(new ExecutionException(new RecordTooLargeException("Too large")));
+    when(producer.send(Mockito.any(ProducerRecord.class))).thenReturn(future);
+
+    IOutputAddActivity activities = mock(IOutputAddActivity.class);
+    VersionContext version = mock(VersionContext.class);
+
+    RepositoryDocument document = new RepositoryDocument();
+    document.setFileName("huge.txt");
+    assertEquals(IOutputConnector.DOCUMENTSTATUS_REJECTED,
+            connector.addOrReplaceDocumentWithException("huge", version, document, "", activities));
+    verify(activities).recordActivity(null, KafkaOutputConnector.INGEST_ACTIVITY, new Long(0L), "huge",
+            "RECORDTOOLARGEEXCEPTION", "Too large");
+  }
 }
@@ -32,6 +32,7 @@ import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.connectorcommon.interfaces.*;
+import org.apache.manifoldcf.connectorcommon.common.GroupCommitQueue;
 import org.apache.manifoldcf.core.common.DateParser;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.*;
@@ -120,6 +121,14 @@ public class HttpPoster
   // Commit-within flag
   private final String commitWithin;
 
+  // Batching of non-extracting updates; a maximum of one document means no batching
+  private final int batchMaxDocuments;
+  private final long batchMaxBytes;
+  private final long batchMaxWait;
+  
+  // Identifies where we send updates, so that only posters with the same destination share batches
+  private final String destination;
+
   // Constants we need
   private static final String LITERAL = "literal.";
   private static final String NOTHING = "__NOTHING__";
@@ -139,6 +148,7 @@ public class HttpPoster
     String fileNameAttributeName, String mimeTypeAttributeName, String contentAttributeName,
     Long maxDocumentLength,
     String commitWithin, boolean useExtractUpdateHandler,
+    int batchMaxDocuments, long batchMaxBytes, long batchMaxWait,
     final Set<String> includedMimeTypes, final Set<String> excludedMimeTypes,
     boolean allowCompression)
     throws ManifoldCFException
@@ -149,6 +159,9 @@ public class HttpPoster
     this.postStatusAction = statusPath;
     
     this.commitWithin = commitWithin;
+    this.batchMaxDocuments = batchMaxDocuments;
+    this.batchMaxBytes = batchMaxBytes;
+    this.batchMaxWait = batchMaxWait;
     
     this.allowAttributeName = allowAttributeName;
     this.denyAttributeName = denyAttributeName;
@@ -175,6 +188,7 @@ public class HttpPoster
       cloudSolrServer.setZkClientTimeout(zkClientTimeout);
       cloudSolrServer.setZkConnectTimeout(zkConnectTimeout);
       cloudSolrServer.setDefaultCollection(collection);
+      this.destination = zookeeperHosts + "/" + collection;
       // Set the solrj instance we want to use
       solrServer = cloudSolrServer;
     }
@@ -195,6 +209,7 @@ public class HttpPoster
     String fileNameAttributeName, String mimeTypeAttributeName, String contentAttributeName,
     IKeystoreManager keystoreManager, Long maxDocumentLength,
     String commitWithin, boolean useExtractUpdateHandler,
+    int batchMaxDocuments, long batchMaxBytes, long batchMaxWait,
     final Set<String> includedMimeTypes, final Set<String> excludedMimeTypes,
     boolean allowCompression)
     throws ManifoldCFException
@@ -205,6 +220,9 @@ public class HttpPoster
     this.postStatusAction = statusPath;
     
     this.commitWithin = commitWithin;
+    this.batchMaxDocuments = batchMaxDocuments;
+    this.batchMaxBytes = batchMaxBytes;
+    this.batchMaxWait = batchMaxWait;
     
     this.allowAttributeName = allowAttributeName;
     this.denyAttributeName = denyAttributeName;
@@ -288,6 +306,7 @@ public class HttpPoster
 
 
     String httpSolrServerUrl = protocol + "://" + server + ":" + port + location;
+    this.destination = httpSolrServerUrl + "\n" + ((userID == null)?"":userID);
     solrServer = new ModifiedHttpSolrClient(httpSolrServerUrl, localClient, new XMLResponseParser(), allowCompression);
   }
 
@@ -606,6 +625,9 @@ public class HttpPoster
 
     try
     {
+      if (!useExtractUpdateHandler && batchMaxDocuments > 1)
+        return batchIndexPost(documentURI,document,arguments,aclsMap,denyAclsMap,activities);
+
       IngestThread t = new IngestThread(documentURI,document,arguments,
                                         aclsMap,denyAclsMap);
       try
@@ -671,6 +693,49 @@ public class HttpPoster
 
   }
 
+  /** Post a document as part of a batch.  The document is built here, and then joins a batch
+  * shared with other posters sending to the same place with the same arguments; this thread
+  * waits until the batch has been sent and the outcome for this document is known.
+  */
+  protected boolean batchIndexPost(String documentURI,
+    RepositoryDocument document, Map<String,List<String>> arguments,
+    Map<String,String[]> aclsMap, Map<String,String[]> denyAclsMap,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, SolrServerException, IOException
+  {
+    long length = document.getBinaryLength();
+    SolrInputDocument solrDoc;
+    try
+    {
+      solrDoc = buildSolrDocument(documentURI,document,aclsMap,denyAclsMap,length,document.getBinaryStream());
+    }
+    catch (IOException e)
+    {
+      if (!(e instanceof InterruptedIOException) || (e instanceof java.net.SocketTimeoutException))
+        activities.recordActivity(new Long(System.currentTimeMillis()),SolrConnector.INGEST_ACTIVITY,null,documentURI,
+          e.getClass().getSimpleName().toUpperCase(Locale.ROOT),e.getMessage());
+      throw e;
+    }
+
+    UpdateBatchItem item = new UpdateBatchItem(solrDoc,arguments,length);
+    GroupCommitQueue.getQueue(UpdateBatchItem.class,makeBatchQueueKey(arguments),batchMaxDocuments,batchMaxBytes,batchMaxWait)
+      .submit(item,length,new BatchSender());
+
+    if (item.getActivityCode() != null)
+      activities.recordActivity(item.getActivityStart(),SolrConnector.INGEST_ACTIVITY,item.getActivityBytes(),documentURI,item.getActivityCode(),item.getActivityDetails());
+    item.throwException();
+    return item.getRval();
+  }
+
+  /** Build the key for the batch queue this poster should use for the given arguments.
+  * Documents can only share an update request if they go to the same place with the same parameters.
+  */
+  protected String makeBatchQueueKey(Map<String,List<String>> arguments)
+  {
+    return destination + "\n" + ((commitWithin == null)?"":commitWithin) + "\n" +
+      new TreeMap<String,List<String>>(arguments).toString();
+  }
+
   /** Post a check request.
   */
   public void checkPost()
@@ -723,20 +788,33 @@ public class HttpPoster
   */
   public void deletePost(String documentURI, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption
+  {
+    deletePosts(new String[]{documentURI},activities);
+  }
+
+  /** Post a single delete request for multiple documents.
+  *@param documentURIs are the documents' URIs.
+  */
+  public void deletePosts(String[] documentURIs, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
   {
     if (Logging.ingest.isDebugEnabled())
-      Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+    {
+      for (String documentURI : documentURIs)
+      {
+        Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+      }
+    }
 
     try
     {
-      DeleteThread t = new DeleteThread(documentURI);
+      DeleteThread t = new DeleteThread(documentURIs);
       try
       {
         t.start();
         t.finishUp();
         
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivities(t,activities);
 
         return;
       }
@@ -747,26 +825,22 @@ public class HttpPoster
       }
       catch (SolrServerException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivities(t,activities);
         throw e;
       }
       catch (SolrException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivities(t,activities);
         throw e;
       }
       catch (RuntimeException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivities(t,activities);
         throw e;
       }
       catch (IOException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivities(t,activities);
         throw e;
       }
     }
@@ -793,6 +867,20 @@ public class HttpPoster
 
   }
 
+  /** Record the outcome of a delete request against each document it was for.
+  */
+  protected static void recordDeleteActivities(DeleteThread t, IOutputRemoveActivity activities)
+    throws ManifoldCFException
+  {
+    if (t.getActivityCode() != null)
+    {
+      for (String documentURI : t.getDocumentURIs())
+      {
+        activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+      }
+    }
+  }
+
   private final static Set<String> acceptableMimeTypes = new HashSet<String>();
   static
   {
@@ -893,6 +981,200 @@ public class HttpPoster
     inputDoc.addField( metadataDenyACLName, denyAcl );
   }
 
+  /** Build the SolrInputDocument for a document, when not using the extracting update handler.
+  */
+  protected SolrInputDocument buildSolrDocument( String documentURI, RepositoryDocument document,
+    Map<String,String[]> aclsMap, Map<String,String[]> denyAclsMap, long length, InputStream is )
+    throws IOException
+  {
+    SolrInputDocument outputDoc = new SolrInputDocument();
+
+    // Write the id field
+    outputDoc.addField( idAttributeName, documentURI );
+    
+    if (contentAttributeName != null)
+    {
+      // Copy the content into a string.  This is a bad thing to do, but we have no choice given SolrJ architecture at this time.
+      // We enforce a size limit upstream.
+      Reader r = new InputStreamReader(is, Consts.UTF_8);
+      StringBuilder sb = new StringBuilder((int)length);
+      char[] buffer = new char[65536];
+      while (true)
+      {
+        int amt = r.read(buffer,0,buffer.length);
+        if (amt == -1)
+          break;
+        sb.append(buffer,0,amt);
+      }
+      outputDoc.addField( contentAttributeName, sb.toString() );
+    }
+    
+    // Write the rest of the attributes
+    if ( originalSizeAttributeName != null )
+    {
+      Long size = document.getOriginalSize();
+      if ( size != null )
+      {
+        outputDoc.addField( originalSizeAttributeName, size.toString() );
+      }
+    }
+    if ( modifiedDateAttributeName != null )
+    {
+      Date date = document.getModifiedDate();
+      if ( date != null )
+      {
+        outputDoc.addField( modifiedDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+    }
+    if ( createdDateAttributeName != null )
+    {
+      Date date = document.getCreatedDate();
+      if ( date != null )
+      {
+        outputDoc.addField( createdDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+
+    }
+    if ( indexedDateAttributeName != null )
+    {
+      Date date = document.getIndexingDate();
+      if ( date != null )
+      {
+        outputDoc.addField( indexedDateAttributeName, DateParser.formatISO8601Date( date ) );
+      }
+    }
+    if ( fileNameAttributeName != null )
+    {
+      String fileName = document.getFileName();
+      if ( !StringUtils.isBlank(fileName) )
+      {
+        outputDoc.addField( fileNameAttributeName, fileName );
+      }
+    }
+    if ( mimeTypeAttributeName != null )
+    {
+      String mimeType = document.getMimeType();
+      if ( !StringUtils.isBlank(mimeType) )
+      {
+        outputDoc.addField( mimeTypeAttributeName, mimeType );
+      }
+    }
+
+    Iterator<String> typeIterator = aclsMap.keySet().iterator();
+    while (typeIterator.hasNext())
+    {
+      String aclType = typeIterator.next();
+      writeACLsInSolrDoc(outputDoc,aclType,aclsMap.get(aclType),denyAclsMap.get(aclType));
+    }
+
+    // Write the metadata, each in a field by itself
+    buildSolrParamsFromMetadata( document, outputDoc );
+
+    return outputDoc;
+  }
+
+  protected void buildSolrParamsFromMetadata(RepositoryDocument document, SolrInputDocument outputDocument) throws IOException
+  {
+    Iterator<String> iter = document.getFields();
+    while (iter.hasNext())
+    {
+      String originalFieldName = iter.next();
+      String fieldName = makeSafeLuceneField(originalFieldName);
+      applySingleMapping(document, originalFieldName, outputDocument, fieldName);
+    }
+  }
+
+  protected void applySingleMapping(RepositoryDocument document, String originalFieldName, SolrInputDocument outputDocument, String newFieldName) throws IOException {
+    if(newFieldName != null && !newFieldName.isEmpty()) {
+      if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
+        newFieldName = ID_METADATA;
+      }
+      String[] values = document.getFieldAsStrings(originalFieldName);
+      outputDocument.addField( newFieldName, values );
+    }
+  }
+
+  /** Sends a batch of documents as a single update request, and records the outcome for each.
+  * If Solr rejects the request as a whole, as it does when any one document is bad, each document is
+  * then sent by itself, so that only the bad ones are rejected.
+  * The batch queue calls this on one of its sender threads, which the waiting worker threads can abandon
+  * if they are interrupted; see IngestThread for why.
+  */
+  protected class BatchSender implements GroupCommitQueue.IBatchSender<UpdateBatchItem>
+  {
+    @Override
+    public void sendBatch(List<UpdateBatchItem> items)
+    {
+      long startTime = System.currentTimeMillis();
+      try
+      {
+        sendDocuments(items);
+        for (UpdateBatchItem item : items)
+        {
+          item.setSuccess(startTime);
+        }
+      }
+      catch (SolrException e)
+      {
+        int code = e.code();
+        if (code >= 400 && code < 500 && code != 401 && items.size() > 1)
+        {
+          // Some document was rejected, but we don't know which; find out by sending them one at a time
+          for (UpdateBatchItem item : items)
+          {
+            long itemStartTime = System.currentTimeMillis();
+            try
+            {
+              sendDocuments(Collections.singletonList(item));
+              item.setSuccess(itemStartTime);
+            }
+            catch (Throwable e2)
+            {
+              item.setFailure(itemStartTime,e2);
+            }
+          }
+        }
+        else
+          setFailure(items,startTime,e);
+      }
+      catch (Throwable e)
+      {
+        setFailure(items,startTime,e);
+      }
+    }
+
+    protected void setFailure(List<UpdateBatchItem> items, long startTime, Throwable e)
+    {
+      for (UpdateBatchItem item : items)
+      {
+        item.setFailure(startTime,e);
+      }
+    }
+
+    protected void sendDocuments(List<UpdateBatchItem> sendItems)
+      throws SolrServerException, IOException
+    {
+      final ModifiableSolrParams params = new ModifiableSolrParams();
+      // Write the arguments; every item in a batch has the same ones
+      final Map<String,List<String>> arguments = sendItems.get(0).getArguments();
+      for (final String name : arguments.keySet())
+      {
+        final List<String> values = arguments.get(name);
+        writeField(params, name, values);
+      }
+      final UpdateRequest req = new UpdateRequest();
+      req.setParams(params);
+      for (UpdateBatchItem item : sendItems)
+      {
+        req.add(item.getDocument());
+      }
+      if (commitWithin != null) {
+        req.setCommitWithin(Integer.parseInt(commitWithin));
+      }
+      req.process(solrServer);
+    }
+  }
+
   /** Killable thread that does ingestions.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
   * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
@@ -952,7 +1234,7 @@ public class HttpPoster
           }
           else
           {
-            currentSolrDoc = buildSolrDocument( length, is );
+            currentSolrDoc = buildSolrDocument( documentURI, document, aclsMap, denyAclsMap, length, is );
           }
 
           // Fire off the request.
@@ -1048,95 +1330,6 @@ public class HttpPoster
       }
     }
 
-    private SolrInputDocument buildSolrDocument( long length, InputStream is )
-      throws IOException
-    {
-      SolrInputDocument outputDoc = new SolrInputDocument();
-
-      // Write the id field
-      outputDoc.addField( idAttributeName, documentURI );
-      
-      if (contentAttributeName != null)
-      {
-        // Copy the content into a string.  This is a bad thing to do, but we have no choice given SolrJ architecture at this time.
-        // We enforce a size limit upstream.
-        Reader r = new InputStreamReader(is, Consts.UTF_8);
-        StringBuilder sb = new StringBuilder((int)length);
-        char[] buffer = new char[65536];
-        while (true)
-        {
-          int amt = r.read(buffer,0,buffer.length);
-          if (amt == -1)
-            break;
-          sb.append(buffer,0,amt);
-        }
-        outputDoc.addField( contentAttributeName, sb.toString() );
-      }
-      
-      // Write the rest of the attributes
-      if ( originalSizeAttributeName != null )
-      {
-        Long size = document.getOriginalSize();
-        if ( size != null )
-        {
-          outputDoc.addField( originalSizeAttributeName, size.toString() );
-        }
-      }
-      if ( modifiedDateAttributeName != null )
-      {
-        Date date = document.getModifiedDate();
-        if ( date != null )
-        {
-          outputDoc.addField( modifiedDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-      }
-      if ( createdDateAttributeName != null )
-      {
-        Date date = document.getCreatedDate();
-        if ( date != null )
-        {
-          outputDoc.addField( createdDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-
-      }
-      if ( indexedDateAttributeName != null )
-      {
-        Date date = document.getIndexingDate();
-        if ( date != null )
-        {
-          outputDoc.addField( indexedDateAttributeName, DateParser.formatISO8601Date( date ) );
-        }
-      }
-      if ( fileNameAttributeName != null )
-      {
-        String fileName = document.getFileName();
-        if ( !StringUtils.isBlank(fileName) )
-        {
-          outputDoc.addField( fileNameAttributeName, fileName );
-        }
-      }
-      if ( mimeTypeAttributeName != null )
-      {
-        String mimeType = document.getMimeType();
-        if ( !StringUtils.isBlank(mimeType) )
-        {
-          outputDoc.addField( mimeTypeAttributeName, mimeType );
-        }
-      }
-
-      Iterator<String> typeIterator = aclsMap.keySet().iterator();
-      while (typeIterator.hasNext())
-      {
-        String aclType = typeIterator.next();
-        writeACLsInSolrDoc(outputDoc,aclType,aclsMap.get(aclType),denyAclsMap.get(aclType));
-      }
-
-      // Write the metadata, each in a field by itself
-      buildSolrParamsFromMetadata( outputDoc );
-
-      return outputDoc;
-    }
-
     private void buildExtractUpdateHandlerRequest( long length, InputStream is, String contentType,
       String contentName,
       ContentStreamUpdateRequest contentStreamUpdateRequest )
@@ -1247,17 +1440,6 @@ public class HttpPoster
       }
     }
 
-    private void buildSolrParamsFromMetadata(SolrInputDocument outputDocument) throws IOException
-    {
-      Iterator<String> iter = document.getFields();
-      while (iter.hasNext())
-      {
-        String originalFieldName = iter.next();
-        String fieldName = makeSafeLuceneField(originalFieldName);
-        applySingleMapping(originalFieldName, outputDocument, fieldName);
-      }
-    }
-
     private void applySingleMapping(String originalFieldName, ModifiableSolrParams out, String newFieldName) throws IOException {
       if(newFieldName != null && !newFieldName.isEmpty()) {
         if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
@@ -1268,16 +1450,6 @@ public class HttpPoster
       }
     }
 
-    private void applySingleMapping(String originalFieldName, SolrInputDocument outputDocument, String newFieldName) throws IOException {
-      if(newFieldName != null && !newFieldName.isEmpty()) {
-        if (newFieldName.toLowerCase(Locale.ROOT).equals(idAttributeName.toLowerCase(Locale.ROOT))) {
-          newFieldName = ID_METADATA;
-        }
-        String[] values = document.getFieldAsStrings(originalFieldName);
-        outputDocument.addField( newFieldName, values );
-      }
-    }
-
     public void finishUp()
       throws InterruptedException, SolrServerException, IOException
     {
@@ -1334,22 +1506,22 @@ public class HttpPoster
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
   * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
   *
-  * This thread does a single document deletion.
+  * This thread deletes one or more documents with a single request.
   */
   protected class DeleteThread extends java.lang.Thread
   {
-    protected String documentURI;
+    protected String[] documentURIs;
 
     protected Long activityStart = null;
     protected String activityCode = null;
     protected String activityDetails = null;
     protected Throwable exception = null;
 
-    public DeleteThread(String documentURI)
+    public DeleteThread(String[] documentURIs)
     {
       super();
       setDaemon(true);
-      this.documentURI = documentURI;
+      this.documentURIs = documentURIs;
     }
 
     public void run()
@@ -1361,7 +1533,7 @@ public class HttpPoster
         // Open a socket to ingest, and to the response stream to get the post result
         try
         {
-          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(documentURI).process(solrServer);
+          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(Arrays.asList(documentURIs)).process(solrServer);
             
           // Success
           activityStart = new Long(fullStartTime);
@@ -1443,6 +1615,11 @@ public class HttpPoster
     {
       return activityDetails;
     }
+
+    public String[] getDocumentURIs()
+    {
+      return documentURIs;
+    }
   }
   
   /** Killable thread that does a commit.
@@ -117,6 +117,12 @@ public class SolrConfig
   public static final String PARAM_EXTRACTUPDATE = "Use extract update handler";
   /** Optional content field (if not using extract update handler) */
   public static final String PARAM_CONTENTFIELD = "Solr content field name";
+  /** Maximum documents per batched update request (if not using extract update handler) */
+  public static final String PARAM_BATCHMAXDOCUMENTS = "Batch maximum documents";
+  /** Maximum content bytes per batched update request */
+  public static final String PARAM_BATCHMAXBYTES = "Batch maximum bytes";
+  /** Maximum time a document waits for its batch to fill, in milliseconds */
+  public static final String PARAM_BATCHMAXWAIT = "Batch maximum wait";
   /** Node describing an argument */
   public static final String NODE_ARGUMENT = "argument";
   /** Attribute with the argument name */
@@ -272,6 +272,29 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
       if (maxDocumentLength == null && !useExtractUpdateHandler)
         throw new ManifoldCFException("Maximum document length required for non-extract-update indexing");
       
+      String batchMaxDocumentsString = params.getParameter(SolrConfig.PARAM_BATCHMAXDOCUMENTS);
+      if (batchMaxDocumentsString == null || batchMaxDocumentsString.length() == 0)
+        batchMaxDocumentsString = "1";
+      String batchMaxBytesString = params.getParameter(SolrConfig.PARAM_BATCHMAXBYTES);
+      if (batchMaxBytesString == null || batchMaxBytesString.length() == 0)
+        batchMaxBytesString = "10485760";
+      String batchMaxWaitString = params.getParameter(SolrConfig.PARAM_BATCHMAXWAIT);
+      if (batchMaxWaitString == null || batchMaxWaitString.length() == 0)
+        batchMaxWaitString = "1000";
+      int batchMaxDocuments;
+      long batchMaxBytes;
+      long batchMaxWait;
+      try
+      {
+        batchMaxDocuments = Integer.parseInt(batchMaxDocumentsString);
+        batchMaxBytes = Long.parseLong(batchMaxBytesString);
+        batchMaxWait = Long.parseLong(batchMaxWaitString);
+      }
+      catch (NumberFormatException e)
+      {
+        throw new ManifoldCFException("Bad batch parameter: "+e.getMessage(),e);
+      }
+      
       includedMimeTypesString = params.getParameter(SolrConfig.PARAM_INCLUDEDMIMETYPES);
       if (includedMimeTypesString == null || includedMimeTypesString.length() == 0)
       {
@@ -366,6 +389,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             originalSizeAttributeName,modifiedDateAttributeName,createdDateAttributeName,indexedDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,contentAttributeName,
             keystoreManager,maxDocumentLength,commitWithin,useExtractUpdateHandler,
+            batchMaxDocuments,batchMaxBytes,batchMaxWait,
             includedMimeTypes,excludedMimeTypes,
             allowCompression);
           
@@ -424,6 +448,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             originalSizeAttributeName,modifiedDateAttributeName,createdDateAttributeName,indexedDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,contentAttributeName,
             maxDocumentLength,commitWithin,useExtractUpdateHandler,
+            batchMaxDocuments,batchMaxBytes,batchMaxWait,
             includedMimeTypes,excludedMimeTypes,
             allowCompression);
           
@@ -594,6 +619,21 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     poster.deletePost(documentURI,activities);
   }
 
+  /** Remove multiple documents using the connector.
+  * All of the documents are removed with a single delete-by-id request.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for these documents by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Establish a session
+    getSession();
+    poster.deletePosts(documentURIs,activities);
+  }
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
@@ -741,6 +781,24 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "    editconnection.commitwithin.focus();\n"+
 "    return false;\n"+
 "  }\n"+
+"  if (editconnection.batchmaxdocuments.value != \"\" && !isInteger(editconnection.batchmaxdocuments.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxDocumentsMustBeAnInteger")+"\");\n"+
+"    editconnection.batchmaxdocuments.focus();\n"+
+"    return false;\n"+
+"  }\n"+
+"  if (editconnection.batchmaxbytes.value != \"\" && !isInteger(editconnection.batchmaxbytes.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxBytesMustBeAnInteger")+"\");\n"+
+"    editconnection.batchmaxbytes.focus();\n"+
+"    return false;\n"+
+"  }\n"+
+"  if (editconnection.batchmaxwait.value != \"\" && !isInteger(editconnection.batchmaxwait.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxWaitMustBeAnInteger")+"\");\n"+
+"    editconnection.batchmaxwait.focus();\n"+
+"    return false;\n"+
+"  }\n"+
 "  if (editconnection.znodepath.value != \"\" && editconnection.znodepath.value.substring(0,1) != \"/\")\n"+
 "  {\n"+
 "    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.ZnodePathMustStartWithACharacter")+"\");\n"+
@@ -856,6 +914,27 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "    editconnection.commitwithin.focus();\n"+
 "    return false;\n"+
 "  }\n"+
+"  if (editconnection.batchmaxdocuments.value != \"\" && !isInteger(editconnection.batchmaxdocuments.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxDocumentsMustBeAnInteger")+"\");\n"+
+"    SelectTab(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.Documents")+"\");\n"+
+"    editconnection.batchmaxdocuments.focus();\n"+
+"    return false;\n"+
+"  }\n"+
+"  if (editconnection.batchmaxbytes.value != \"\" && !isInteger(editconnection.batchmaxbytes.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxBytesMustBeAnInteger")+"\");\n"+
+"    SelectTab(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.Documents")+"\");\n"+
+"    editconnection.batchmaxbytes.focus();\n"+
+"    return false;\n"+
+"  }\n"+
+"  if (editconnection.batchmaxwait.value != \"\" && !isInteger(editconnection.batchmaxwait.value))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.BatchMaxWaitMustBeAnInteger")+"\");\n"+
+"    SelectTab(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.Documents")+"\");\n"+
+"    editconnection.batchmaxwait.focus();\n"+
+"    return false;\n"+
+"  }\n"+
 "  if (editconnection.znodepath.value != \"\" && editconnection.znodepath.value.substring(0,1) != \"/\")\n"+
 "  {\n"+
 "    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.ZnodePathMustStartWithACharacter")+"\");\n"+
@@ -1084,6 +1163,18 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     if (excludedMimeTypes == null)
       excludedMimeTypes = "";
     
+    String batchMaxDocuments = parameters.getParameter(SolrConfig.PARAM_BATCHMAXDOCUMENTS);
+    if (batchMaxDocuments == null)
+      batchMaxDocuments = "1";
+    
+    String batchMaxBytes = parameters.getParameter(SolrConfig.PARAM_BATCHMAXBYTES);
+    if (batchMaxBytes == null)
+      batchMaxBytes = "10485760";
+    
+    String batchMaxWait = parameters.getParameter(SolrConfig.PARAM_BATCHMAXWAIT);
+    if (batchMaxWait == null)
+      batchMaxWait = "1000";
+    
     // "SOLR type" tab
     if (tabName.equals(Messages.getString(locale,"SolrConnector.SolrType")))
     {
@@ -1574,6 +1665,24 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "      <textarea rows=\"10\" cols=\"20\" name=\"excludedmimetypes\">"+org.apache.manifoldcf.ui.util.Encoder.bodyEscape(excludedMimeTypes)+"</textarea>\n"+
 "    </td>\n"+
 "  </tr>\n"+
+"  <tr>\n"+
+"    <td class=\"description\"><nobr>" + Messages.getBodyString(locale,"SolrConnector.BatchMaxDocuments") + "</nobr></td>\n"+
+"    <td class=\"value\">\n"+
+"      <input name=\"batchmaxdocuments\" type=\"text\" size=\"16\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxDocuments)+"\"/>\n"+
+"    </td>\n"+
+"  </tr>\n"+
+"  <tr>\n"+
+"    <td class=\"description\"><nobr>" + Messages.getBodyString(locale,"SolrConnector.BatchMaxBytes") + "</nobr></td>\n"+
+"    <td class=\"value\">\n"+
+"      <input name=\"batchmaxbytes\" type=\"text\" size=\"16\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxBytes)+"\"/>\n"+
+"    </td>\n"+
+"  </tr>\n"+
+"  <tr>\n"+
+"    <td class=\"description\"><nobr>" + Messages.getBodyString(locale,"SolrConnector.BatchMaxWait") + "</nobr></td>\n"+
+"    <td class=\"value\">\n"+
+"      <input name=\"batchmaxwait\" type=\"text\" size=\"16\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxWait)+"\"/>\n"+
+"    </td>\n"+
+"  </tr>\n"+
 "</table>\n"
       );
     }
@@ -1582,7 +1691,10 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
       out.print(
 "<input type=\"hidden\" name=\"maxdocumentlength\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(maxLength)+"\"/>\n"+
 "<input type=\"hidden\" name=\"includedmimetypes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(includedMimeTypes)+"\"/>\n"+
-"<input type=\"hidden\" name=\"excludedmimetypes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(excludedMimeTypes)+"\"/>\n"
+"<input type=\"hidden\" name=\"excludedmimetypes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(excludedMimeTypes)+"\"/>\n"+
+"<input type=\"hidden\" name=\"batchmaxdocuments\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxDocuments)+"\"/>\n"+
+"<input type=\"hidden\" name=\"batchmaxbytes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxBytes)+"\"/>\n"+
+"<input type=\"hidden\" name=\"batchmaxwait\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(batchMaxWait)+"\"/>\n"
       );
     }
     
@@ -1879,6 +1991,18 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     if (maxLength != null)
       parameters.setParameter(SolrConfig.PARAM_MAXLENGTH,maxLength);
     
+    String batchMaxDocuments = variableContext.getParameter("batchmaxdocuments");
+    if (batchMaxDocuments != null)
+      parameters.setParameter(SolrConfig.PARAM_BATCHMAXDOCUMENTS,batchMaxDocuments);
+    
+    String batchMaxBytes = variableContext.getParameter("batchmaxbytes");
+    if (batchMaxBytes != null)
+      parameters.setParameter(SolrConfig.PARAM_BATCHMAXBYTES,batchMaxBytes);
+    
+    String batchMaxWait = variableContext.getParameter("batchmaxwait");
+    if (batchMaxWait != null)
+      parameters.setParameter(SolrConfig.PARAM_BATCHMAXWAIT,batchMaxWait);
+    
     String includedMimeTypes = variableContext.getParameter("includedmimetypes");
     if (includedMimeTypes != null)
       parameters.setParameter(SolrConfig.PARAM_INCLUDEDMIMETYPES,includedMimeTypes);
@@ -0,0 +1,169 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output.solr;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+/** One document waiting to be sent as part of a non-extracting update request, and its eventual outcome.
+* Items are batched by a GroupCommitQueue, and the batch is sent by HttpPoster.
+*/
+public class UpdateBatchItem
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final SolrInputDocument document;
+  protected final Map<String,List<String>> arguments;
+  protected final long size;
+
+  protected Long activityStart = null;
+  protected Long activityBytes = null;
+  protected String activityCode = null;
+  protected String activityDetails = null;
+  protected Throwable exception = null;
+  protected boolean rval = false;
+
+  /** Constructor.
+  *@param document is the document to add.
+  *@param arguments are the request arguments; these are the same for every item in a queue.
+  *@param size is the content length of the document, for batch size accounting.
+  */
+  public UpdateBatchItem(SolrInputDocument document, Map<String,List<String>> arguments, long size)
+  {
+    this.document = document;
+    this.arguments = arguments;
+    this.size = size;
+  }
+
+  public SolrInputDocument getDocument()
+  {
+    return document;
+  }
+
+  public Map<String,List<String>> getArguments()
+  {
+    return arguments;
+  }
+
+  public long getSize()
+  {
+    return size;
+  }
+
+  /** Note that the document was indexed */
+  protected void setSuccess(long startTime)
+  {
+    activityStart = new Long(startTime);
+    activityBytes = new Long(size);
+    activityCode = "OK";
+    activityDetails = null;
+    exception = null;
+    rval = true;
+  }
+
+  /** Note that the document could not be indexed, recording the activity the same way that
+  * a single-document ingestion would.
+  */
+  protected void setFailure(long startTime, Throwable e)
+  {
+    rval = false;
+    exception = e;
+    if ((e instanceof InterruptedIOException) && (!(e instanceof java.net.SocketTimeoutException)))
+      return;
+    activityStart = new Long(startTime);
+    activityBytes = new Long(size);
+    if (e instanceof SolrServerException)
+    {
+      activityDetails = e.getMessage() +
+        ((e.getCause() != null)?": "+e.getCause().getMessage():"");
+      if (e.getCause() != null && e.getCause().getClass().getName().equals("java.net.SocketException") &&
+        (activityDetails.toLowerCase(Locale.ROOT).indexOf("broken pipe") != -1 ||
+          activityDetails.toLowerCase(Locale.ROOT).indexOf("connection reset") != -1 ||
+          activityDetails.toLowerCase(Locale.ROOT).indexOf("target server failed to respond") != -1))
+        activityCode = "SOLRREJECT";
+      else
+        activityCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+    }
+    else if (e instanceof SolrException)
+    {
+      activityCode = Integer.toString(((SolrException)e).code());
+      activityDetails = e.getMessage() +
+        ((e.getCause() != null)?": "+e.getCause().getMessage():"");
+    }
+    else
+    {
+      activityCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+      activityDetails = e.getMessage();
+    }
+  }
+
+  public Throwable getException()
+  {
+    return exception;
+  }
+
+  public Long getActivityStart()
+  {
+    return activityStart;
+  }
+
+  public Long getActivityBytes()
+  {
+    return activityBytes;
+  }
+
+  public String getActivityCode()
+  {
+    return activityCode;
+  }
+
+  public String getActivityDetails()
+  {
+    return activityDetails;
+  }
+
+  public boolean getRval()
+  {
+    return rval;
+  }
+
+  /** Rethrow the exception that kept this document from being indexed, if any, so that
+  * it can be interpreted just like a single-document failure.
+  */
+  public void throwException()
+    throws SolrServerException, IOException
+  {
+    Throwable thr = exception;
+    if (thr == null)
+      return;
+    if (thr instanceof SolrServerException)
+      throw (SolrServerException)thr;
+    if (thr instanceof IOException)
+      throw (IOException)thr;
+    if (thr instanceof RuntimeException)
+      throw (RuntimeException)thr;
+    if (thr instanceof Error)
+      throw (Error)thr;
+    throw new RuntimeException("Unexpected exception type: "+thr.getClass().getName()+": "+thr.getMessage(),thr);
+  }
+}
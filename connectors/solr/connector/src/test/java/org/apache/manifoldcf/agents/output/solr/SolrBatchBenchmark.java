@@ -0,0 +1,107 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output.solr;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Measures indexing throughput of small documents, in documents per second, against a
+* local stand-in for Solr's update handler, for a range of batch sizes.  Not run as part of
+* the unit tests; invoke main() directly.  Arguments (all optional): thread count, documents
+* per run, simulated per-request server latency in milliseconds.
+*/
+public class SolrBatchBenchmark
+{
+
+  public static void main(String[] argv)
+    throws Exception
+  {
+    final int threadCount = (argv.length > 0)?Integer.parseInt(argv[0]):20;
+    final int documentCount = (argv.length > 1)?Integer.parseInt(argv[1]):4000;
+    final long requestDelay = (argv.length > 2)?Long.parseLong(argv[2]):2L;
+    final int[] batchSizes = new int[]{1, 5, 10, 20, 50};
+
+    TestHttpPosterBatching.setUpLogging();
+
+    // Something the size of a chat message or a database row
+    final String content = "A short message, of about the size of a chat message or a database row.";
+
+    for (int batchSize : batchSizes)
+    {
+      TestHttpPosterBatching.StandInServer server = new TestHttpPosterBatching.StandInServer(requestDelay);
+      try
+      {
+        final int port = server.getPort();
+        final int maxDocuments = batchSize;
+        final AtomicInteger remaining = new AtomicInteger(documentCount);
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < threadCount; i++)
+        {
+          threads[i] = new Thread()
+          {
+            public void run()
+            {
+              // One poster per thread, as with one connector instance per worker thread
+              try
+              {
+                HttpPoster poster = TestHttpPosterBatching.makePoster(port, maxDocuments, 10485760L, 100L);
+                try
+                {
+                  while (true)
+                  {
+                    int docNumber = remaining.decrementAndGet();
+                    if (docNumber < 0)
+                      break;
+                    if (!TestHttpPosterBatching.indexDocument(poster, "http://localhost/doc" + docNumber, content,
+                      new TestHttpPosterBatching.ActivityRecorder()))
+                      failures.incrementAndGet();
+                  }
+                }
+                finally
+                {
+                  poster.shutdown();
+                }
+              }
+              catch (Exception e)
+              {
+                failures.incrementAndGet();
+              }
+            }
+          };
+          threads[i].start();
+        }
+        for (Thread t : threads)
+        {
+          t.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.println(String.format(Locale.ROOT, "batch size %4d: %8.1f docs/sec (%d requests, %d documents, %d failures)",
+          batchSize, documentCount * 1000000000.0 / elapsed,
+          server.getRequestCount(), server.getDocumentCount(), failures.get()));
+      }
+      finally
+      {
+        server.stop();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,444 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output.solr;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestHttpPosterBatching
+{
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    if (org.apache.manifoldcf.agents.system.Logging.ingest == null)
+      org.apache.manifoldcf.agents.system.Logging.ingest = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.ingest");
+  }
+
+  @Test
+  public void testGroupCommit()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      final int threadCount = 8;
+      final boolean[] results = new boolean[threadCount];
+      final ActivityRecorder[] activities = new ActivityRecorder[threadCount];
+      final Throwable[] exceptions = new Throwable[threadCount];
+      Thread[] threads = new Thread[threadCount];
+      for (int i = 0; i < threadCount; i++)
+      {
+        final int index = i;
+        final HttpPoster poster = makePoster(server.getPort(), 4, 10485760L, 30000L);
+        activities[i] = new ActivityRecorder();
+        threads[i] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              results[index] = indexDocument(poster, "http://localhost/doc" + index, "content", activities[index]);
+            }
+            catch (Throwable e)
+            {
+              exceptions[index] = e;
+            }
+            finally
+            {
+              poster.shutdown();
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread t : threads)
+      {
+        t.join();
+      }
+      for (int i = 0; i < threadCount; i++)
+      {
+        if (exceptions[i] != null)
+          throw new Exception("Thread "+i+" failed", exceptions[i]);
+        assertTrue(results[i]);
+        assertEquals("OK", activities[i].getResultCode());
+      }
+      // Eight documents at four per batch make exactly two update requests
+      assertEquals(2, server.getRequestCount());
+      assertEquals(8, server.getDocumentCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testWaitDeadline()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    HttpPoster poster = makePoster(server.getPort(), 100, 10485760L, 200L);
+    try
+    {
+      // A lone document is sent once its wait runs out, even though the batch is not full
+      assertTrue(indexDocument(poster, "http://localhost/lonely", "content", new ActivityRecorder()));
+      assertEquals(1, server.getRequestCount());
+      assertEquals(1, server.getDocumentCount());
+    }
+    finally
+    {
+      poster.shutdown();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRejectedDocumentInBatch()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      final String[] uris = new String[]{"http://localhost/good1", "http://localhost/" + StandInServer.BAD_MARKER, "http://localhost/good2"};
+      final boolean[] results = new boolean[uris.length];
+      final ActivityRecorder[] activities = new ActivityRecorder[uris.length];
+      final Throwable[] exceptions = new Throwable[uris.length];
+      Thread[] threads = new Thread[uris.length];
+      for (int i = 0; i < uris.length; i++)
+      {
+        final int index = i;
+        final HttpPoster poster = makePoster(server.getPort(), uris.length, 10485760L, 30000L);
+        activities[i] = new ActivityRecorder();
+        threads[i] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              results[index] = indexDocument(poster, uris[index], "content", activities[index]);
+            }
+            catch (Throwable e)
+            {
+              exceptions[index] = e;
+            }
+            finally
+            {
+              poster.shutdown();
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread t : threads)
+      {
+        t.join();
+      }
+      for (int i = 0; i < uris.length; i++)
+      {
+        if (exceptions[i] != null)
+          throw new Exception("Thread "+i+" failed", exceptions[i]);
+      }
+      // The batch is rejected as a whole, then each document is sent by itself, and only the bad one fails
+      assertTrue(results[0]);
+      assertEquals("OK", activities[0].getResultCode());
+      assertFalse(results[1]);
+      assertEquals("400", activities[1].getResultCode());
+      assertTrue(results[2]);
+      assertEquals("OK", activities[2].getResultCode());
+      assertEquals(1 + uris.length, server.getRequestCount());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testDeleteList()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    HttpPoster poster = makePoster(server.getPort(), 1, 10485760L, 0L);
+    try
+    {
+      String[] uris = new String[]{"http://localhost/gone1", "http://localhost/gone2", "http://localhost/gone3"};
+      RemoveActivityRecorder activities = new RemoveActivityRecorder();
+      poster.deletePosts(uris, activities);
+      // All three ids go in one delete request, and each document gets its own activity record
+      assertEquals(1, server.getRequestCount());
+      assertEquals(3, server.getDocumentCount());
+      assertEquals(Arrays.asList(uris), activities.getEntityURIs());
+      assertEquals(Arrays.asList("OK", "OK", "OK"), activities.getResultCodes());
+    }
+    finally
+    {
+      poster.shutdown();
+      server.stop();
+    }
+  }
+
+  public static HttpPoster makePoster(int port, int batchMaxDocuments, long batchMaxBytes, long batchMaxWait)
+    throws ManifoldCFException
+  {
+    return new HttpPoster("http", "localhost", port, "solr", "collection1",
+      60000, 60000,
+      "/update/extract", "/update", "/admin/ping",
+      null, null, null,
+      "allow_token_", "deny_token_", "id",
+      null, null, null, null,
+      null, null, "content",
+      null, new Long(10000000L),
+      null, false,
+      batchMaxDocuments, batchMaxBytes, batchMaxWait,
+      null, null,
+      false);
+  }
+
+  public static boolean indexDocument(HttpPoster poster, String documentURI, String content, IOutputAddActivity activities)
+    throws Exception
+  {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    RepositoryDocument document = new RepositoryDocument();
+    document.setBinary(new ByteArrayInputStream(bytes), bytes.length);
+    document.setMimeType("text/plain");
+    document.addField("title", "A title");
+    return poster.indexPost(documentURI, document, new HashMap<String,List<String>>(), null, activities);
+  }
+
+  /** Records the result of the last activity */
+  public static class ActivityRecorder implements IOutputAddActivity
+  {
+    protected String resultCode = null;
+
+    public String getResultCode()
+    {
+      return resultCode;
+    }
+
+    @Override
+    public int sendDocument(String documentURI, RepositoryDocument document)
+    {
+      return IPipelineConnector.DOCUMENTSTATUS_ACCEPTED;
+    }
+
+    @Override
+    public void noDocument()
+    {
+    }
+
+    @Override
+    public String qualifyAccessToken(String authorityNameString, String accessToken)
+    {
+      return accessToken;
+    }
+
+    @Override
+    public void recordActivity(Long startTime, String activityType, Long dataSize,
+      String entityURI, String resultCode, String resultDescription)
+    {
+      this.resultCode = resultCode;
+    }
+
+    @Override
+    public boolean checkDateIndexable(Date date)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean checkMimeTypeIndexable(String mimeType)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean checkDocumentIndexable(File localFile)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean checkLengthIndexable(long length)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean checkURLIndexable(String url)
+    {
+      return true;
+    }
+  }
+
+  /** Records the results of all removal activities */
+  public static class RemoveActivityRecorder implements IOutputRemoveActivity
+  {
+    protected final List<String> entityURIs = new ArrayList<String>();
+    protected final List<String> resultCodes = new ArrayList<String>();
+
+    public List<String> getEntityURIs()
+    {
+      return entityURIs;
+    }
+
+    public List<String> getResultCodes()
+    {
+      return resultCodes;
+    }
+
+    @Override
+    public void recordActivity(Long startTime, String activityType, Long dataSize,
+      String entityURI, String resultCode, String resultDescription)
+    {
+      entityURIs.add(entityURI);
+      resultCodes.add(resultCode);
+    }
+  }
+
+  /** Stands in for a Solr server's update handler, after an optional simulated delay per request.
+  * Documents are counted by their ids, which all start with "http://localhost/".  Any request
+  * containing BAD_MARKER is rejected with a 400.
+  */
+  public static class StandInServer
+  {
+    public static final String BAD_MARKER = "rejectme";
+    protected static final String ID_PREFIX = "http://localhost/";
+
+    protected final HttpServer server;
+    protected final long requestDelay;
+    protected final AtomicInteger requestCount = new AtomicInteger(0);
+    protected final AtomicInteger documentCount = new AtomicInteger(0);
+
+    public StandInServer(long requestDelay)
+      throws IOException
+    {
+      this.requestDelay = requestDelay;
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+        public void handle(HttpExchange exchange)
+          throws IOException
+        {
+          handleRequest(exchange);
+        }
+      });
+      server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+      server.start();
+    }
+
+    public int getPort()
+    {
+      return server.getAddress().getPort();
+    }
+
+    public int getRequestCount()
+    {
+      return requestCount.get();
+    }
+
+    public int getDocumentCount()
+    {
+      return documentCount.get();
+    }
+
+    public void stop()
+    {
+      server.stop(0);
+    }
+
+    protected void handleRequest(HttpExchange exchange)
+      throws IOException
+    {
+      requestCount.incrementAndGet();
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      InputStream is = exchange.getRequestBody();
+      byte[] buffer = new byte[65536];
+      while (true)
+      {
+        int amt = is.read(buffer);
+        if (amt == -1)
+          break;
+        bos.write(buffer, 0, amt);
+      }
+      // Ids are plain ASCII in either the XML or the javabin encoding
+      String body = new String(bos.toByteArray(), StandardCharsets.ISO_8859_1);
+      String response;
+      int code;
+      if (body.indexOf(BAD_MARKER) != -1)
+      {
+        code = 400;
+        response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response><lst name=\"responseHeader\"><int name=\"status\">400</int><int name=\"QTime\">0</int></lst>" +
+          "<lst name=\"error\"><str name=\"msg\">Document is bad</str><int name=\"code\">400</int></lst></response>\n";
+      }
+      else
+      {
+        int index = 0;
+        int documents = 0;
+        while (true)
+        {
+          index = body.indexOf(ID_PREFIX, index);
+          if (index == -1)
+            break;
+          documents++;
+          index += ID_PREFIX.length();
+        }
+        documentCount.addAndGet(documents);
+        code = 200;
+        response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response><lst name=\"responseHeader\"><int name=\"status\">0</int><int name=\"QTime\">0</int></lst></response>\n";
+      }
+      if (requestDelay > 0L)
+      {
+        try
+        {
+          Thread.sleep(requestDelay);
+        }
+        catch (InterruptedException e)
+        {
+        }
+      }
+      byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=UTF-8");
+      exchange.sendResponseHeaders(code, bytes.length);
+      OutputStream os = exchange.getResponseBody();
+      try
+      {
+        os.write(bytes);
+      }
+      finally
+      {
+        os.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,508 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.transformation.tika;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.system.Logging;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.html.HtmlParser;
+
+/** This class keeps Tika extraction results on disk, so that a document whose content has not changed need not be
+* parsed again.  Entries are keyed by a digest of the document's content together with everything else that affects
+* the result (see makeKey()).  Each entry is one file, holding the extracted metadata followed by the extracted text.
+*
+* The total size of the entries is bounded; the least recently used entries are removed when a new entry would exceed
+* it.  The recency order is kept in memory, and rebuilt from the files' modification times when the cache is first
+* used after a restart.  There is one instance per directory per process; a directory must not be shared between
+* processes.
+*/
+public class ExtractionCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Changing the file format or the key calculation requires changing this */
+  protected static final String cacheVersion = "2";
+  /** The Tika version; a different version may extract something different, so its entries are not used.
+  * The parsers are versioned separately from Tika core, so both go in. */
+  protected static final String tikaVersion = Tika.getString() + " " + HtmlParser.class.getPackage().getImplementationVersion();
+  protected static final String entrySuffix = ".cache";
+  protected static final String temporarySuffix = ".tmp";
+
+  /** The caches in this process, keyed by canonical directory path */
+  protected static final Map<String,ExtractionCache> caches = new HashMap<String,ExtractionCache>();
+
+  protected final File directory;
+  protected long maximumSize;
+
+  /** Entry sizes, keyed by entry key, in least recently used order */
+  protected final LinkedHashMap<String,Long> entries = new LinkedHashMap<String,Long>(16,0.75f,true);
+  protected long totalSize = 0L;
+
+  protected final AtomicLong hits = new AtomicLong(0L);
+  protected final AtomicLong misses = new AtomicLong(0L);
+  protected final AtomicLong evictions = new AtomicLong(0L);
+
+  /** Get the cache for a directory, creating it if needed.
+  *@param directory is the cache directory.
+  *@param maximumSize is the largest total size of the entries, in bytes.
+  *@return the cache.
+  */
+  public static ExtractionCache getCache(File directory, long maximumSize)
+    throws ManifoldCFException
+  {
+    String path;
+    try
+    {
+      path = directory.getCanonicalPath();
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("Tika extraction cache directory '"+directory+"' could not be resolved: "+e.getMessage(),e);
+    }
+    synchronized (caches)
+    {
+      ExtractionCache cache = caches.get(path);
+      if (cache == null)
+      {
+        cache = new ExtractionCache(new File(path),maximumSize);
+        caches.put(path,cache);
+      }
+      else
+        cache.setMaximumSize(maximumSize);
+      return cache;
+    }
+  }
+
+  /** Constructor.  Builds the recency order from the entries already present.
+  */
+  protected ExtractionCache(File directory, long maximumSize)
+    throws ManifoldCFException
+  {
+    this.directory = directory;
+    this.maximumSize = maximumSize;
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new ManifoldCFException("Tika extraction cache directory '"+directory+"' could not be created");
+    File[] files = directory.listFiles();
+    if (files == null)
+      throw new ManifoldCFException("Tika extraction cache directory '"+directory+"' could not be read");
+    List<File> entryFiles = new ArrayList<File>();
+    for (File file : files)
+    {
+      String name = file.getName();
+      if (name.endsWith(entrySuffix))
+        entryFiles.add(file);
+      else if (name.endsWith(temporarySuffix))
+        // Left behind by an earlier process
+        file.delete();
+    }
+    Collections.sort(entryFiles,new Comparator<File>()
+      {
+        @Override
+        public int compare(File a, File b)
+        {
+          long aTime = a.lastModified();
+          long bTime = b.lastModified();
+          return (aTime < bTime)?-1:((aTime > bTime)?1:0);
+        }
+      });
+    synchronized (this)
+    {
+      for (File file : entryFiles)
+      {
+        String name = file.getName();
+        long size = file.length();
+        entries.put(name.substring(0,name.length() - entrySuffix.length()),new Long(size));
+        totalSize += size;
+      }
+      evict();
+    }
+  }
+
+  /** Set the largest total size of the entries.
+  *@param maximumSize is the size in bytes.
+  */
+  public synchronized void setMaximumSize(long maximumSize)
+  {
+    this.maximumSize = maximumSize;
+    evict();
+  }
+
+  /** Build the key for a document.
+  *@param contentDigest is the digest of the document's content.
+  *@param parameters are all the other values the extraction result depends on; nulls are allowed.
+  *@return the key.
+  */
+  public static String makeKey(byte[] contentDigest, String... parameters)
+    throws ManifoldCFException
+  {
+    return makeKey(tikaVersion, contentDigest, parameters);
+  }
+
+  /** Build the key for a document, as extracted by a given Tika version.
+  */
+  protected static String makeKey(String tikaVersion, byte[] contentDigest, String... parameters)
+    throws ManifoldCFException
+  {
+    MessageDigest md = newDigest();
+    try
+    {
+      md.update(cacheVersion.getBytes("UTF-8"));
+      md.update((byte)0);
+      md.update(tikaVersion.getBytes("UTF-8"));
+      md.update((byte)0);
+      md.update(contentDigest);
+      for (String parameter : parameters)
+      {
+        // Distinguish null from empty, and keep values from running together
+        if (parameter == null)
+          md.update((byte)0);
+        else
+        {
+          md.update((byte)1);
+          md.update(parameter.getBytes("UTF-8"));
+          md.update((byte)0);
+        }
+      }
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new RuntimeException("No UTF-8 encoding: "+e.getMessage(),e);
+    }
+    return toHex(md.digest());
+  }
+
+  /** Create the digest used for document content.
+  */
+  public static MessageDigest newDigest()
+    throws ManifoldCFException
+  {
+    try
+    {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new ManifoldCFException("No SHA-256 digest available: "+e.getMessage(),e);
+    }
+  }
+
+  /** Look up an entry.
+  *@param key is the entry key.
+  *@return the entry, which the caller must close, or null if there is none.
+  */
+  public Entry lookup(String key)
+    throws ManifoldCFException
+  {
+    File file = new File(directory,key+entrySuffix);
+    synchronized (this)
+    {
+      if (entries.get(key) == null)
+      {
+        misses.incrementAndGet();
+        return null;
+      }
+    }
+    // The entry may be removed once we leave the lock.  An open file can still be read after it is deleted, so
+    // only the open itself can fail.
+    InputStream is;
+    try
+    {
+      is = new BufferedInputStream(new FileInputStream(file));
+    }
+    catch (FileNotFoundException e)
+    {
+      forget(key);
+      misses.incrementAndGet();
+      return null;
+    }
+    try
+    {
+      DataInputStream dis = new DataInputStream(is);
+      Metadata metadata = new Metadata();
+      int nameCount = dis.readInt();
+      for (int i = 0; i < nameCount; i++)
+      {
+        String name = readString(dis);
+        int valueCount = dis.readInt();
+        for (int j = 0; j < valueCount; j++)
+        {
+          metadata.add(name,readString(dis));
+        }
+      }
+      long contentLength = dis.readLong();
+      file.setLastModified(System.currentTimeMillis());
+      hits.incrementAndGet();
+      Entry entry = new Entry(metadata,contentLength,is);
+      is = null;
+      return entry;
+    }
+    catch (IOException e)
+    {
+      // Damaged; treat it as missing
+      Logging.ingest.warn("Tika extraction cache entry '"+file+"' could not be read; removing: "+e.getMessage(),e);
+      remove(key);
+      misses.incrementAndGet();
+      return null;
+    }
+    finally
+    {
+      if (is != null)
+        closeQuietly(is);
+    }
+  }
+
+  /** Store an entry, replacing any existing entry with the same key.
+  *@param key is the entry key.
+  *@param metadata is the extracted metadata.
+  *@param content is the extracted content.
+  *@param contentLength is the length of the extracted content.
+  */
+  public void store(String key, Metadata metadata, InputStream content, long contentLength)
+    throws ManifoldCFException
+  {
+    File file = new File(directory,key+entrySuffix);
+    File temporaryFile;
+    try
+    {
+      temporaryFile = File.createTempFile(key,temporarySuffix,directory);
+    }
+    catch (IOException e)
+    {
+      Logging.ingest.warn("Tika extraction cache entry could not be created in '"+directory+"': "+e.getMessage(),e);
+      return;
+    }
+    boolean stored = false;
+    try
+    {
+      DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+      try
+      {
+        String[] names = metadata.names();
+        dos.writeInt(names.length);
+        for (String name : names)
+        {
+          writeString(dos,name);
+          String[] values = metadata.getValues(name);
+          dos.writeInt(values.length);
+          for (String value : values)
+          {
+            writeString(dos,value);
+          }
+        }
+        dos.writeLong(contentLength);
+        byte[] buffer = new byte[65536];
+        long amount = 0L;
+        while (true)
+        {
+          int len = content.read(buffer);
+          if (len == -1)
+            break;
+          dos.write(buffer,0,len);
+          amount += len;
+        }
+        if (amount != contentLength)
+          throw new IOException("Expected "+contentLength+" bytes of content but got "+amount);
+      }
+      finally
+      {
+        dos.close();
+      }
+      long size = temporaryFile.length();
+      synchronized (this)
+      {
+        if (size > maximumSize)
+          return;
+        if (!temporaryFile.renameTo(file))
+        {
+          // Some platforms won't rename over an existing file
+          file.delete();
+          if (!temporaryFile.renameTo(file))
+            throw new IOException("Could not rename '"+temporaryFile+"' to '"+file+"'");
+        }
+        stored = true;
+        Long oldSize = entries.put(key,new Long(size));
+        if (oldSize != null)
+          totalSize -= oldSize.longValue();
+        totalSize += size;
+        evict();
+      }
+    }
+    catch (IOException e)
+    {
+      Logging.ingest.warn("Tika extraction cache entry '"+file+"' could not be written: "+e.getMessage(),e);
+    }
+    finally
+    {
+      if (!stored)
+        temporaryFile.delete();
+    }
+  }
+
+  /** Get the number of lookups that found an entry. */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /** Get the number of lookups that found no entry. */
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /** Get the number of entries removed to keep the cache within its size. */
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+
+  /** Get the number of entries. */
+  public synchronized int getEntryCount()
+  {
+    return entries.size();
+  }
+
+  /** Get the total size of the entries, in bytes. */
+  public synchronized long getTotalSize()
+  {
+    return totalSize;
+  }
+
+  /** Remove least recently used entries until the total size is within the maximum.
+  * Call only while synchronized.
+  */
+  protected void evict()
+  {
+    Iterator<Map.Entry<String,Long>> iter = entries.entrySet().iterator();
+    while (totalSize > maximumSize && iter.hasNext())
+    {
+      Map.Entry<String,Long> entry = iter.next();
+      iter.remove();
+      totalSize -= entry.getValue().longValue();
+      evictions.incrementAndGet();
+      File file = new File(directory,entry.getKey()+entrySuffix);
+      if (!file.delete() && Logging.ingest.isDebugEnabled())
+        Logging.ingest.debug("Tika extraction cache entry '"+file+"' could not be deleted");
+    }
+  }
+
+  /** Remove an entry and its file. */
+  protected synchronized void remove(String key)
+  {
+    forget(key);
+    new File(directory,key+entrySuffix).delete();
+  }
+
+  /** Stop accounting for an entry whose file is gone. */
+  protected synchronized void forget(String key)
+  {
+    Long size = entries.remove(key);
+    if (size != null)
+      totalSize -= size.longValue();
+  }
+
+  protected static String readString(DataInputStream dis)
+    throws IOException
+  {
+    int length = dis.readInt();
+    byte[] bytes = new byte[length];
+    dis.readFully(bytes);
+    return new String(bytes,"UTF-8");
+  }
+
+  protected static void writeString(DataOutputStream dos, String value)
+    throws IOException
+  {
+    byte[] bytes = value.getBytes("UTF-8");
+    dos.writeInt(bytes.length);
+    dos.write(bytes);
+  }
+
+  protected static String toHex(byte[] bytes)
+  {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+    {
+      int value = b & 0xff;
+      sb.append(Character.forDigit(value >> 4,16)).append(Character.forDigit(value & 0xf,16));
+    }
+    return sb.toString();
+  }
+
+  protected static void closeQuietly(InputStream is)
+  {
+    try
+    {
+      is.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing more can be done
+    }
+  }
+
+  /** A cache entry that was found.  The content stream is open, and must be released by calling close().
+  */
+  public static class Entry
+  {
+    protected final Metadata metadata;
+    protected final long contentLength;
+    protected final InputStream content;
+
+    protected Entry(Metadata metadata, long contentLength, InputStream content)
+    {
+      this.metadata = metadata;
+      this.contentLength = contentLength;
+      this.content = content;
+    }
+
+    /** Get the extracted metadata. */
+    public Metadata getMetadata()
+    {
+      return metadata;
+    }
+
+    /** Get the length of the extracted content. */
+    public long getContentLength()
+    {
+      return contentLength;
+    }
+
+    /** Get the extracted content.  This may be read only once. */
+    public InputStream getContent()
+    {
+      return content;
+    }
+
+    /** Release the entry. */
+    public void close()
+    {
+      closeQuietly(content);
+    }
+  }
+
+}
@@ -25,7 +25,11 @@ package org.apache.manifoldcf.agents.transformation.tika;
 public class TikaConfig {
 
   // Configuration parameters
-  // None
+  /** Directory of the extraction cache; empty or missing if there is no cache */
+  public static final String PARAM_CACHEDIRECTORY = "cachedirectory";
+  /** Largest total size of the extraction cache, in megabytes */
+  public static final String PARAM_CACHEMAXSIZE = "cachemaxsize";
+  public static final long CACHEMAXSIZE_DEFAULT = 1024L;
 
   // Specification nodes and values
   public static final String PARAM_TIKACONFIG = "tikaconfig";
@@ -24,6 +24,8 @@ import org.apache.manifoldcf.agents.system.Logging;
 
 import java.io.*;
 import java.util.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
@@ -60,6 +62,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
 
   protected String tikaConfig = null;
   protected TikaParser tikaParser = null;
+  protected String cacheDirectory = null;
+  protected String cacheMaxSize = null;
+  protected ExtractionCache extractionCache = null;
   
   /** Return a list of activities that this connector generates.
   * The connector does NOT need to be connected before this method is called.
@@ -191,27 +196,63 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     // (3) Modify RepositoryDocument to read from temporary file, and include Tika-extracted metadata
     // (4) Call downstream document processing
       
-    DestinationStorage ds;
-      
-    if (document.getBinaryLength() <= inMemoryMaximumFile)
-    {
-      ds = new MemoryDestinationStorage((int)document.getBinaryLength());
-    }
-    else
+    ExtractionCache cache = getExtractionCache();
+
+    Metadata metadata = new Metadata();
+    if (document.getFileName() != null)
     {
-      ds = new FileDestinationStorage();
+      metadata.add(TikaMetadataKeys.RESOURCE_NAME_KEY, document.getFileName());
+      metadata.add("stream_name", document.getFileName());
     }
+    if (document.getMimeType() != null)
+      metadata.add("Content-Type", document.getMimeType());
+    metadata.add("stream_size", new Long(document.getBinaryLength()).toString());
+
+    // With an extraction cache, the document is first copied aside, so that its digest is known before
+    // deciding whether to parse it.
+    DestinationStorage input = null;
+    ExtractionCache.Entry cacheEntry = null;
+    DestinationStorage ds = null;
     try
     {
-      Metadata metadata = new Metadata();
-      if (document.getFileName() != null)
+      String cacheKey = null;
+      if (cache != null)
       {
-        metadata.add(TikaMetadataKeys.RESOURCE_NAME_KEY, document.getFileName());
-        metadata.add("stream_name", document.getFileName());
+        if (document.getBinaryLength() <= inMemoryMaximumFile)
+        {
+          input = new MemoryDestinationStorage((int)document.getBinaryLength());
+        }
+        else
+        {
+          input = new FileDestinationStorage();
+        }
+        MessageDigest md = ExtractionCache.newDigest();
+        OutputStream os = input.getOutputStream();
+        try
+        {
+          InputStream dis = new DigestInputStream(document.getBinaryStream(), md);
+          byte[] buffer = new byte[65536];
+          while (true)
+          {
+            int amt = dis.read(buffer);
+            if (amt == -1)
+              break;
+            os.write(buffer, 0, amt);
+          }
+        }
+        finally
+        {
+          os.close();
+        }
+        // The key covers everything the extracted text and metadata depend on
+        cacheKey = ExtractionCache.makeKey(md.digest(), tikaConfig, Integer.toString(sp.writeLimit()),
+          sp.getExtractorClassName(), document.getFileName(), document.getMimeType());
+        cacheEntry = cache.lookup(cacheKey);
+        if (Logging.ingest.isDebugEnabled())
+          Logging.ingest.debug("Tika extraction cache "+((cacheEntry == null)?"miss":"hit")+" for '"+documentURI+"'; "+
+            cache.getHits()+" hits, "+cache.getMisses()+" misses, "+cache.getEvictions()+" evictions, "+
+            cache.getEntryCount()+" entries, "+cache.getTotalSize()+" bytes");
       }
-      if (document.getMimeType() != null)
-        metadata.add("Content-Type", document.getMimeType());
-      metadata.add("stream_size", new Long(document.getBinaryLength()).toString());
 
       // We only log the extraction
       long startTime = System.currentTimeMillis();
@@ -220,70 +261,109 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       Long length = null;
       try
       {
-        OutputStream os = ds.getOutputStream();
-        try
+        if (cacheEntry != null)
         {
-          Writer w = new OutputStreamWriter(os,"utf-8");
+          // Same content, same settings: no need to parse it again
+          metadata = cacheEntry.getMetadata();
+          description = "Extracted content found in cache";
+          length = new Long(cacheEntry.getContentLength());
+        }
+        else
+        {
+          if (document.getBinaryLength() <= inMemoryMaximumFile)
+          {
+            ds = new MemoryDestinationStorage((int)document.getBinaryLength());
+          }
+          else
+          {
+            ds = new FileDestinationStorage();
+          }
+          OutputStream os = ds.getOutputStream();
           try
           {
-            // Use tika to parse stuff
-            ContentHandler handler = tikaParser.newWriteOutBodyContentHandler(w, sp.writeLimit());
-            if (extractorClassInstance != null)
-              handler = new BoilerpipeContentHandler(handler, extractorClassInstance);
+            Writer w = new OutputStreamWriter(os,"utf-8");
             try
             {
-              tikaParser.parse(document.getBinaryStream(), metadata, handler);
-            }
-            catch (TikaException e)
-            {
-              if (sp.ignoreTikaException())
+              // Use tika to parse stuff
+              ContentHandler handler = tikaParser.newWriteOutBodyContentHandler(w, sp.writeLimit());
+              if (extractorClassInstance != null)
+                handler = new BoilerpipeContentHandler(handler, extractorClassInstance);
+              InputStream parseStream = (input == null)?document.getBinaryStream():input.getInputStream();
+              try
               {
-                resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
-                description = e.getMessage();
+                tikaParser.parse(parseStream, metadata, handler);
               }
-              else
+              catch (TikaException e)
               {
-                resultCode = "TIKAREJECTION";
+                if (sp.ignoreTikaException())
+                {
+                  resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+                  description = e.getMessage();
+                }
+                else
+                {
+                  resultCode = "TIKAREJECTION";
+                  description = e.getMessage();
+                  int rval = handleTikaException(e);
+                  if (rval == DOCUMENTSTATUS_REJECTED)
+                    activities.noDocument();
+                  return rval;
+                }
+              }
+              catch (SAXException e)
+              {
+                resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
                 description = e.getMessage();
-                int rval = handleTikaException(e);
+                int rval = handleSaxException(e);
                 if (rval == DOCUMENTSTATUS_REJECTED)
                   activities.noDocument();
                 return rval;
               }
+              catch (IOException e)
+              {
+                resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
+                description = e.getMessage();
+                throw e;
+              }
+              finally
+              {
+                // The spooled copy is ours to close; the document's stream is not
+                if (input != null)
+                  parseStream.close();
+              }
             }
-            catch (SAXException e)
-            {
-              resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
-              description = e.getMessage();
-              int rval = handleSaxException(e);
-              if (rval == DOCUMENTSTATUS_REJECTED)
-                activities.noDocument();
-              return rval;
-            }
-            catch (IOException e)
+            finally
             {
-              resultCode = e.getClass().getSimpleName().toUpperCase(Locale.ROOT);
-              description = e.getMessage();
-              throw e;
+              w.flush();
             }
           }
           finally
           {
-            w.flush();
+            os.close();
+            length = new Long(ds.getBinaryLength());
+          }
+
+          // Only clean extractions are kept; partial ones should be retried next time
+          if (cacheKey != null && resultCode.equals("OK"))
+          {
+            InputStream is = ds.getInputStream();
+            try
+            {
+              cache.store(cacheKey, metadata, is, ds.getBinaryLength());
+            }
+            finally
+            {
+              is.close();
+            }
           }
         }
-        finally
-        {
-          os.close();
-          length = new Long(ds.getBinaryLength());
-        }
-        
+
         // Check to be sure downstream pipeline will accept document of specified length
-        if (!activities.checkLengthIndexable(ds.getBinaryLength()))
+        if (!activities.checkLengthIndexable(length.longValue()))
         {
           activities.noDocument();
           resultCode = activities.EXCLUDED_LENGTH;
-          description = "Downstream pipeline rejected document with length "+ds.getBinaryLength();
+          description = "Downstream pipeline rejected document with length "+length;
           return DOCUMENTSTATUS_REJECTED;
         }
 
@@ -300,9 +380,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       RepositoryDocument docCopy = document.duplicate();
         
       // Get new stream length
-      long newBinaryLength = ds.getBinaryLength();
+      long newBinaryLength = length.longValue();
       // Open new input stream
-      InputStream is = ds.getInputStream();
+      InputStream is = (cacheEntry != null)?cacheEntry.getContent():ds.getInputStream();
       try
       {
         docCopy.setBinary(is,newBinaryLength);
@@ -346,7 +426,12 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     }
     finally
     {
-      ds.close();
+      if (cacheEntry != null)
+        cacheEntry.close();
+      if (ds != null)
+        ds.close();
+      if (input != null)
+        input.close();
     }
 
   }
@@ -436,6 +521,17 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       tikaConfigValue = variableContext.getParameter(TikaConfig.PARAM_TIKACONFIG);
     }
     parameters.setParameter(TikaConfig.PARAM_TIKACONFIG, tikaConfigValue);
+
+    String cacheDirectoryValue = variableContext.getParameter(TikaConfig.PARAM_CACHEDIRECTORY);
+    if (cacheDirectoryValue != null)
+    {
+      parameters.setParameter(TikaConfig.PARAM_CACHEDIRECTORY, cacheDirectoryValue.trim());
+    }
+    String cacheMaxSizeValue = variableContext.getParameter(TikaConfig.PARAM_CACHEMAXSIZE);
+    if (cacheMaxSizeValue != null)
+    {
+      parameters.setParameter(TikaConfig.PARAM_CACHEMAXSIZE, cacheMaxSizeValue.trim());
+    }
     
     return null;
   }
@@ -449,6 +545,8 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
   public void connect(ConfigParams configParams) {
     super.connect(configParams);
     tikaConfig = configParams.getParameter(TikaConfig.PARAM_TIKACONFIG);
+    cacheDirectory = configParams.getParameter(TikaConfig.PARAM_CACHEDIRECTORY);
+    cacheMaxSize = configParams.getParameter(TikaConfig.PARAM_CACHEMAXSIZE);
   }
 
   @Override
@@ -456,6 +554,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     super.disconnect();
     tikaConfig = null;
     tikaParser = null;
+    cacheDirectory = null;
+    cacheMaxSize = null;
+    extractionCache = null;
   }
 
   protected void initializeTikaParser() throws ManifoldCFException {
@@ -463,6 +564,25 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       tikaParser = new TikaParser(tikaConfig);
     }
   }
+
+  /** Get the extraction cache, or null if this connection doesn't use one. */
+  protected ExtractionCache getExtractionCache() throws ManifoldCFException {
+    if (cacheDirectory == null || cacheDirectory.length() == 0) {
+      return null;
+    }
+    if (extractionCache == null) {
+      long maxSize = TikaConfig.CACHEMAXSIZE_DEFAULT;
+      if (cacheMaxSize != null && cacheMaxSize.length() > 0) {
+        try {
+          maxSize = Long.parseLong(cacheMaxSize);
+        } catch (NumberFormatException e) {
+          throw new ManifoldCFException("Bad extraction cache size: '"+cacheMaxSize+"'",e);
+        }
+      }
+      extractionCache = ExtractionCache.getCache(new File(cacheDirectory), maxSize * 1024L * 1024L);
+    }
+    return extractionCache;
+  }
   
   /**
    * View configuration. This method is called in the body section of the
@@ -730,6 +850,17 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       tikaConfigValue = "";
     }
     velocityContext.put("TIKACONFIG", tikaConfigValue); 
+
+    String cacheDirectoryValue = parameters.getParameter(TikaConfig.PARAM_CACHEDIRECTORY);
+    if (cacheDirectoryValue == null) {
+      cacheDirectoryValue = "";
+    }
+    velocityContext.put("CACHEDIRECTORY", cacheDirectoryValue);
+    String cacheMaxSizeValue = parameters.getParameter(TikaConfig.PARAM_CACHEMAXSIZE);
+    if (cacheMaxSizeValue == null) {
+      cacheMaxSizeValue = Long.toString(TikaConfig.CACHEMAXSIZE_DEFAULT);
+    }
+    velocityContext.put("CACHEMAXSIZE", cacheMaxSizeValue);
     
   }
 
@@ -1099,6 +1230,10 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       return ignoreTikaException;
     }
     
+    public String getExtractorClassName() {
+      return extractorClassName;
+    }
+
     public BoilerpipeExtractor getExtractorClassInstance()
       throws ManifoldCFException {
       if (extractorClassName == null)
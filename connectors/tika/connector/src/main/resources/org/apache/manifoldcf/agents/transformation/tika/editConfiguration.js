@@ -17,7 +17,17 @@
 
 <script type="text/javascript">
 <!--
-
+function checkConfigForSave()
+{
+  if (editconnection.cachemaxsize.value == "" || !isInteger(editconnection.cachemaxsize.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('TikaExtractor.CacheMaxSizeMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('TikaExtractor.TikaConfigTabName'))");
+    editconnection.cachemaxsize.focus();
+    return false;
+  }
+  return true;
+}
 
 //-->
 </script>
@@ -0,0 +1,126 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.transformation.tika;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** Measures the extraction CPU time for a corpus of generated HTML documents in which a share of the documents
+* repeat the content of earlier ones, without and with the extraction cache.  Not run as part of the unit tests;
+* invoke main() directly.  Arguments (all optional): number of documents, document size in bytes, percentage of
+* duplicates.
+*/
+public class ExtractionCacheBenchmark
+{
+
+  public static void main(String[] argv)
+    throws Exception
+  {
+    int documentCount = (argv.length > 0)?Integer.parseInt(argv[0]):2000;
+    int documentSize = (argv.length > 1)?Integer.parseInt(argv[1]):100000;
+    int duplicatePercent = (argv.length > 2)?Integer.parseInt(argv[2]):30;
+
+    if (org.apache.manifoldcf.agents.system.Logging.ingest == null)
+      org.apache.manifoldcf.agents.system.Logging.ingest = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.ingest");
+
+    // Build the corpus; duplicates repeat a random earlier document
+    Random random = new Random(1L);
+    List<byte[]> corpus = new ArrayList<byte[]>();
+    for (int i = 0; i < documentCount; i++)
+    {
+      if (i > 0 && random.nextInt(100) < duplicatePercent)
+        corpus.add(corpus.get(random.nextInt(corpus.size())));
+      else
+        corpus.add(makeDocument(random, i, documentSize));
+    }
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    System.out.println("Documents: "+documentCount+", size: "+documentSize+" bytes, duplicates: "+duplicatePercent+"%");
+    for (boolean useCache : new boolean[]{false, true})
+    {
+      File directory = useCache?TestExtractionCache.makeDirectory():null;
+      try
+      {
+        TikaExtractor extractor = TestExtractionCache.makeExtractor(directory);
+        try
+        {
+          VersionContext pipelineDescription = extractor.getPipelineDescription(new Specification());
+          // Warm up the parser, outside the cache
+          TestExtractionCache.extract(extractor, pipelineDescription, "http://localhost/warmup",
+            makeDocument(new Random(2L), -1, documentSize), "warmup.txt");
+
+          long startCpu = threadBean.getCurrentThreadCpuTime();
+          long startTime = System.nanoTime();
+          for (int i = 0; i < corpus.size(); i++)
+          {
+            TestExtractionCache.extract(extractor, pipelineDescription, "http://localhost/"+i, corpus.get(i), "document.html");
+          }
+          long cpu = threadBean.getCurrentThreadCpuTime() - startCpu;
+          long elapsed = System.nanoTime() - startTime;
+          String cacheDescription = "";
+          if (useCache)
+          {
+            ExtractionCache cache = extractor.getExtractionCache();
+            cacheDescription = "; "+cache.getHits()+" hits, "+cache.getMisses()+" misses, "+cache.getEntryCount()+" entries, "+
+              cache.getTotalSize()+" bytes";
+          }
+          System.out.println(String.format(Locale.ROOT, "%-8s: %8.1f ms CPU, %8.1f ms elapsed, %6.3f ms CPU/doc%s",
+            useCache?"cache":"no cache", cpu / 1000000.0, elapsed / 1000000.0, cpu / 1000000.0 / documentCount, cacheDescription));
+        }
+        finally
+        {
+          extractor.disconnect();
+        }
+      }
+      finally
+      {
+        if (directory != null)
+          TestExtractionCache.deleteDirectory(directory);
+      }
+    }
+  }
+
+  protected static byte[] makeDocument(Random random, int number, int size)
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<html><head><title>Document ").append(number).append("</title></head><body>\n");
+    while (sb.length() < size)
+    {
+      sb.append("<p>");
+      for (int i = 0; i < 50; i++)
+      {
+        int wordLength = 2 + random.nextInt(8);
+        for (int j = 0; j < wordLength; j++)
+        {
+          sb.append((char)('a' + random.nextInt(26)));
+        }
+        sb.append(' ');
+      }
+      sb.append("</p>\n");
+    }
+    sb.append("</body></html>\n");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,245 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.transformation.tika;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.tests.DocumentRecorder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.apache.tika.metadata.Metadata;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestExtractionCache
+{
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    if (org.apache.manifoldcf.agents.system.Logging.ingest == null)
+      org.apache.manifoldcf.agents.system.Logging.ingest = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.ingest");
+  }
+
+  @Test
+  public void testUnchangedContentIsNotParsedAgain()
+    throws Exception
+  {
+    File directory = makeDirectory();
+    try
+    {
+      byte[] content = readResource("/test-documents/testHTML.html");
+      TikaExtractor extractor = makeExtractor(directory);
+      try
+      {
+        ExtractionCache cache = extractor.getExtractionCache();
+        VersionContext pipelineDescription = extractor.getPipelineDescription(new Specification());
+
+        DocumentRecorder first = extract(extractor, pipelineDescription, "http://localhost/1", content, "testHTML.html");
+        assertEquals("OK", first.getResultCode());
+        assertNull(first.getResultDescription());
+        assertEquals(0L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+        assertEquals(1, cache.getEntryCount());
+
+        // Same bytes under another URI: served from the cache, with the same result
+        DocumentRecorder second = extract(extractor, pipelineDescription, "http://localhost/2", content, "testHTML.html");
+        assertEquals("OK", second.getResultCode());
+        assertNotNull(second.getResultDescription());
+        assertEquals(1L, cache.getHits());
+        assertTrue(first.getContent().length() > 0);
+        assertEquals(first.getContent(), second.getContent());
+        assertArrayEquals(first.getDocument().getFieldAsStrings("Content-Type"), second.getDocument().getFieldAsStrings("Content-Type"));
+        assertArrayEquals(first.getDocument().getFieldAsStrings("title"), second.getDocument().getFieldAsStrings("title"));
+
+        // A different file name can change what Tika detects, so it is a different entry
+        DocumentRecorder third = extract(extractor, pipelineDescription, "http://localhost/3", content, "testHTML.txt");
+        assertNull(third.getResultDescription());
+        assertEquals(2L, cache.getMisses());
+
+        // So are different extraction settings
+        Specification spec = new Specification();
+        SpecificationNode node = new SpecificationNode(TikaConfig.NODE_WRITELIMIT);
+        node.setAttribute(TikaConfig.ATTRIBUTE_VALUE, "100000");
+        spec.addChild(spec.getChildCount(), node);
+        extract(extractor, extractor.getPipelineDescription(spec), "http://localhost/1", content, "testHTML.html");
+        assertEquals(3L, cache.getMisses());
+        assertEquals(3, cache.getEntryCount());
+      }
+      finally
+      {
+        extractor.disconnect();
+      }
+    }
+    finally
+    {
+      deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction()
+    throws Exception
+  {
+    File directory = makeDirectory();
+    try
+    {
+      byte[] content = new byte[1000];
+      ExtractionCache cache = new ExtractionCache(directory, 3500L){};
+      String[] keys = new String[4];
+      for (int i = 0; i < keys.length; i++)
+      {
+        keys[i] = ExtractionCache.makeKey(ExtractionCache.newDigest().digest(Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+      }
+      for (int i = 0; i < 3; i++)
+      {
+        store(cache, keys[i], content);
+      }
+      assertEquals(3, cache.getEntryCount());
+
+      // Use the oldest, so the next store evicts the second one instead
+      ExtractionCache.Entry entry = cache.lookup(keys[0]);
+      assertNotNull(entry);
+      assertEquals("value", entry.getMetadata().get("name"));
+      assertEquals((long)content.length, entry.getContentLength());
+      entry.close();
+
+      store(cache, keys[3], content);
+      assertEquals(1L, cache.getEvictions());
+      assertTrue(cache.getTotalSize() <= 3500L);
+      assertNull(cache.lookup(keys[1]));
+      for (String key : new String[]{keys[0], keys[2], keys[3]})
+      {
+        entry = cache.lookup(key);
+        assertNotNull(entry);
+        entry.close();
+      }
+
+      // A new process finds what was left
+      ExtractionCache reopened = new ExtractionCache(directory, 3500L){};
+      assertEquals(3, reopened.getEntryCount());
+      assertEquals(cache.getTotalSize(), reopened.getTotalSize());
+      entry = reopened.lookup(keys[3]);
+      assertNotNull(entry);
+      entry.close();
+
+      // Shrinking the cache evicts immediately
+      reopened.setMaximumSize(1500L);
+      assertEquals(1, reopened.getEntryCount());
+    }
+    finally
+    {
+      deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testKeyDependsOnTikaVersion()
+    throws Exception
+  {
+    byte[] digest = ExtractionCache.newDigest().digest("content".getBytes(StandardCharsets.UTF_8));
+    assertEquals(ExtractionCache.makeKey("Apache Tika 1.24 1.24", digest, "config"),
+      ExtractionCache.makeKey("Apache Tika 1.24 1.24", digest, "config"));
+    assertFalse(ExtractionCache.makeKey("Apache Tika 1.24 1.24", digest, "config").equals(
+      ExtractionCache.makeKey("Apache Tika 1.25 1.25", digest, "config")));
+    assertEquals(ExtractionCache.makeKey(ExtractionCache.tikaVersion, digest, "config"),
+      ExtractionCache.makeKey(digest, "config"));
+  }
+
+  protected static void store(ExtractionCache cache, String key, byte[] content)
+    throws Exception
+  {
+    Metadata metadata = new Metadata();
+    metadata.add("name", "value");
+    cache.store(key, metadata, new ByteArrayInputStream(content), content.length);
+  }
+
+  public static File makeDirectory()
+    throws IOException
+  {
+    File directory = File.createTempFile("mcftikacache", "dir");
+    directory.delete();
+    directory.mkdirs();
+    return directory;
+  }
+
+  public static void deleteDirectory(File directory)
+  {
+    File[] files = directory.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+      {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  public static byte[] readResource(String path)
+    throws IOException
+  {
+    InputStream is = TestExtractionCache.class.getResourceAsStream(path);
+    try
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[65536];
+      while (true)
+      {
+        int amt = is.read(buffer);
+        if (amt == -1)
+          break;
+        bos.write(buffer, 0, amt);
+      }
+      return bos.toByteArray();
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  public static TikaExtractor makeExtractor(File cacheDirectory)
+  {
+    ConfigParams params = new ConfigParams();
+    if (cacheDirectory != null)
+      params.setParameter(TikaConfig.PARAM_CACHEDIRECTORY, cacheDirectory.getAbsolutePath());
+    TikaExtractor extractor = new TikaExtractor();
+    extractor.connect(params);
+    return extractor;
+  }
+
+  public static DocumentRecorder extract(TikaExtractor extractor, VersionContext pipelineDescription, String documentURI,
+    byte[] content, String fileName)
+    throws Exception
+  {
+    RepositoryDocument document = new RepositoryDocument();
+    document.setBinary(new ByteArrayInputStream(content), content.length);
+    document.setFileName(fileName);
+    DocumentRecorder activities = new DocumentRecorder();
+    int status = extractor.addOrReplaceDocumentWithException(documentURI, pipelineDescription, document, null, activities);
+    assertEquals(IPipelineConnector.DOCUMENTSTATUS_ACCEPTED, status);
+    return activities;
+  }
+
+}
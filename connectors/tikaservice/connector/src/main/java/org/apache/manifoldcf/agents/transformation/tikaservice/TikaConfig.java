@@ -28,6 +28,8 @@ public class TikaConfig {
   public static final String PARAM_TIKAPORT = "tikaPort";
   public static final String TIKAHOSTNAME_DEFAULT = "localhost";
   public static final String TIKAPORT_DEFAULT = "9998";
+  public static final String PARAM_TIKASINGLEREQUEST = "tikaSingleRequest";
+  public static final String TIKASINGLEREQUEST_DEFAULT = "false";
 
   // Specification nodes and values
   public static final String NODE_FIELDMAP = "fieldmap";
@@ -28,6 +28,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.client.HttpClientBuilder;
@@ -54,6 +55,7 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.nio.charset.StandardCharsets;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -89,6 +91,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
   /** Tika port */
   private String tikaPortString = null;
 
+  /** Single request mode */
+  private String tikaSingleRequestString = null;
+
   // Computed parameters
 
   /** Session timeout */
@@ -97,6 +102,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
   /** Tika port */
   private int tikaPort = -1;
 
+  /** True if metadata and content should be extracted with a single request */
+  private boolean singleRequest = false;
+
   /** Connection manager */
   private HttpClientConnectionManager connectionManager = null;
   
@@ -112,6 +120,8 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
   protected final static URI metaURI;
   /** Content URI */
   protected final static URI contentURI;
+  /** Recursive metadata and text content URI */
+  protected final static URI rmetaURI;
   /** Check URI */
   protected final static URI checkURI;
   
@@ -119,6 +129,7 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     try {
       metaURI = new URI("/meta");
       contentURI = new URI("/tika");
+      rmetaURI = new URI("/rmeta/text");
       checkURI = new URI("/detect/stream");
     } catch (URISyntaxException e) {
       throw new RuntimeException(e.getMessage());
@@ -135,6 +146,7 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     super.connect(configParameters);
     tikaHostname = configParameters.getParameter(TikaConfig.PARAM_TIKAHOSTNAME);
     tikaPortString = configParameters.getParameter(TikaConfig.PARAM_TIKAPORT);
+    tikaSingleRequestString = configParameters.getParameter(TikaConfig.PARAM_TIKASINGLEREQUEST);
   }
 
   /** Close the connection.  Call this before discarding the repository connector.
@@ -146,6 +158,7 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     expireSession();
     tikaHostname = null;
     tikaPortString = null;
+    tikaSingleRequestString = null;
 
     super.disconnect();
   }
@@ -192,6 +205,7 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
       } catch (NumberFormatException e) {
         throw new ManifoldCFException("Bad port number: "+tikaPortString);
       }
+      this.singleRequest = Boolean.parseBoolean(tikaSingleRequestString);
       final int connectionTimeout = 60000;
       final int socketTimeout = 900000;
 
@@ -260,6 +274,8 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     } catch (IOException e) {
       return "Connection error: "+e.getMessage();
     }
+    // Give the connection back to the pool
+    EntityUtils.consumeQuietly(response.getEntity());
     final int responseCode = response.getStatusLine().getStatusCode();
     if (response.getStatusLine().getStatusCode() != 200) {
       return "Bad response: "+response.getStatusLine();
@@ -339,6 +355,13 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     if (tikaPort != null)
       parameters.setParameter(TikaConfig.PARAM_TIKAPORT,tikaPort);
 
+    final String tikaSingleRequestPresent = variableContext.getParameter("tikaSingleRequest_present");
+    if (tikaSingleRequestPresent != null)
+    {
+      final String tikaSingleRequest = variableContext.getParameter("tikaSingleRequest");
+      parameters.setParameter(TikaConfig.PARAM_TIKASINGLEREQUEST,(tikaSingleRequest == null)?"false":tikaSingleRequest);
+    }
+
     return null;
   }
   
@@ -370,9 +393,14 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     if (tikaPort == null)
       tikaPort = TikaConfig.TIKAPORT_DEFAULT;
 
+    String tikaSingleRequest = parameters.getParameter(TikaConfig.PARAM_TIKASINGLEREQUEST);
+    if (tikaSingleRequest == null)
+      tikaSingleRequest = TikaConfig.TIKASINGLEREQUEST_DEFAULT;
+
     // Fill in context
     velocityContext.put("TIKAHOSTNAME", tikaHostname);
     velocityContext.put("TIKAPORT", tikaPort);
+    velocityContext.put("TIKASINGLEREQUEST", tikaSingleRequest);
   }
 
   /**
@@ -556,8 +584,11 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     // Tika-extracted metadata
     // (4) Call downstream document processing
 
+    // In single request mode the document is streamed to Tika as it is read, so no copy is made
     final DestinationStorage ds;
-    if (document.getBinaryLength() <= inMemoryMaximumFile) {
+    if (singleRequest) {
+      ds = null;
+    } else if (document.getBinaryLength() <= inMemoryMaximumFile) {
       ds = new MemoryDestinationStorage((int) document.getBinaryLength());
     } else {
       ds = new FileDestinationStorage();
@@ -585,123 +616,175 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
         try {
           try {
 
-            // Make a copy of the original stream as it needs to be sent two
-            // times to Tika
-            // one for the metadata and one for the content
-            final OutputStream os = ds.getOutputStream();
-            try {
-              IOUtils.copyLarge(document.getBinaryStream(), os);
-            } finally {
-              os.close();
-            }
-
-            // Metadata
-            HttpPut httpPut = new HttpPut(metaURI);
-            if (!mime.isEmpty()) {
-              httpPut.addHeader("Content-Type", mime);
-            }
-            httpPut.addHeader("Accept", "application/json");
-            HttpEntity entity = new InputStreamEntity(ds.getInputStream());
-            httpPut.setEntity(entity);
-            try {
-              //System.out.println("About to PUT");
-              response = this.httpClient.execute(tikaHost, httpPut);
-              //System.out.println("PUT successful");
-            } catch (IOException e) {
-              // Retry 3 times, 10000 ms between retries, and abort if doesn't work
-              final long currentTime = System.currentTimeMillis();
-              throw new ServiceInterruption("Tika down, retrying: "+e.getMessage(),e,currentTime + 10000L,
-                -1L,3,true);
-            }
-            int responseCode = response.getStatusLine().getStatusCode();
-            if (response.getStatusLine().getStatusCode() == 200 || response.getStatusLine().getStatusCode() == 204) {
-              tikaServerIs = response.getEntity().getContent();
+            if (singleRequest) {
+              // Metadata and content together, from the recursive metadata endpoint
+              HttpPut httpPut = new HttpPut(rmetaURI);
+              if (!mime.isEmpty()) {
+                httpPut.addHeader("Content-Type", mime);
+              }
+              httpPut.addHeader("Accept", "application/json");
+              HttpEntity entity = new InputStreamEntity(document.getBinaryStream(), document.getBinaryLength());
+              httpPut.setEntity(entity);
               try {
-                final BufferedReader br = new BufferedReader(new InputStreamReader(tikaServerIs));
-                final JSONParser parser = new JSONParser();
-                JSONObject metaJson;
-                final StringBuilder sb = new StringBuilder();
-                String output;
-                while ((output = br.readLine()) != null) {
-                  sb.append(output);
-                }
-                metaJson = (JSONObject) parser.parse(sb.toString());
-                for (Object key : metaJson.keySet()) {
-                  String metadataKey = key.toString();
-                  String metadataValue =  metaJson.get(key).toString();
-                  
-                  // Replace the content type by the one found by Tika
-                  if(metadataKey.equals("Content-Type")) {
-                    metadata.remove(metadataKey);
+                response = this.httpClient.execute(tikaHost, httpPut);
+              } catch (IOException e) {
+                // Retry 3 times, 10000 ms between retries, and abort if doesn't work
+                final long currentTime = System.currentTimeMillis();
+                throw new ServiceInterruption("Tika down, retrying: "+e.getMessage(),e,currentTime + 10000L,
+                  -1L,3,true);
+              }
+              int responseCode = response.getStatusLine().getStatusCode();
+              if (responseCode == 200 || responseCode == 204) {
+                tikaServerIs = response.getEntity().getContent();
+                try {
+                  responseDs = new FileDestinationStorage();
+                  final OutputStream os2 = responseDs.getOutputStream();
+                  try {
+                    new RecursiveMetadataParser(new BufferedReader(new InputStreamReader(tikaServerIs, StandardCharsets.UTF_8)),
+                      metadata, os2, sp.writeLimit).parse();
+                  } finally {
+                    os2.close();
                   }
-                  
-                  metadata.add(metadataKey, metadataValue);
+                  length = new Long(responseDs.getBinaryLength());
+                } finally {
+                  tikaServerIs.close();
+                }
+              } else {
+                EntityUtils.consumeQuietly(response.getEntity());
+                activities.noDocument();
+                if (responseCode == 422) {
+                  resultCode = "TIKASERVERREJECTS";
+                  description = "Tika Server rejected document with the following reason: "
+                      + response.getStatusLine().getReasonPhrase();
+                  return handleTikaServerRejects(description);
+                } else {
+                  resultCode = "TIKASERVERERROR";
+                  description = "Tika Server failed to parse document with the following error: "
+                      + response.getStatusLine().getReasonPhrase();
+                  return handleTikaServerError(description);
                 }
-              } finally {
-                tikaServerIs.close();
               }
             } else {
-              activities.noDocument();
-              if (responseCode == 422) {
-                resultCode = "TIKASERVERREJECTS";
-                description = "Tika Server rejected document with the following reason: "
-                    + response.getStatusLine().getReasonPhrase();
-                handleTikaServerRejects(description);
-              } else {
-                resultCode = "TIKASERVERERROR";
-                description = "Tika Server failed to parse document with the following error: "
-                    + response.getStatusLine().getReasonPhrase();
-                handleTikaServerError(description);
+              // Make a copy of the original stream as it needs to be sent two
+              // times to Tika
+              // one for the metadata and one for the content
+              final OutputStream os = ds.getOutputStream();
+              try {
+                IOUtils.copyLarge(document.getBinaryStream(), os);
+              } finally {
+                os.close();
               }
-              return DOCUMENTSTATUS_REJECTED;
-            }
-
-            // Content
-            httpPut = new HttpPut(contentURI);
-            if (!mime.isEmpty()) {
-              httpPut.addHeader("Content-Type", mime);
-            }
-            httpPut.addHeader("Accept", "text/plain");
-            entity = new InputStreamEntity(ds.getInputStream());
-            httpPut.setEntity(entity);
-            try {
-              //System.out.println("About to do a content PUT");
-              response = this.httpClient.execute(tikaHost, httpPut);
-              //System.out.println("... content PUT succeeded");
-            } catch (IOException e) {
-              // Retry 3 times, 10000 ms between retries, and abort if doesn't work
-              final long currentTime = System.currentTimeMillis();
-              throw new ServiceInterruption("Tika down, retrying: "+e.getMessage(),e,currentTime + 10000L,
-                -1L,3,true);
-            }
 
-            responseCode = response.getStatusLine().getStatusCode();
-            if (response.getStatusLine().getStatusCode() == 200 || response.getStatusLine().getStatusCode() == 204) {
-              tikaServerIs = response.getEntity().getContent();
+              // Metadata
+              HttpPut httpPut = new HttpPut(metaURI);
+              if (!mime.isEmpty()) {
+                httpPut.addHeader("Content-Type", mime);
+              }
+              httpPut.addHeader("Accept", "application/json");
+              HttpEntity entity = new InputStreamEntity(ds.getInputStream());
+              httpPut.setEntity(entity);
               try {
-                responseDs = new FileDestinationStorage();
-                final OutputStream os2 = responseDs.getOutputStream();
+                //System.out.println("About to PUT");
+                response = this.httpClient.execute(tikaHost, httpPut);
+                //System.out.println("PUT successful");
+              } catch (IOException e) {
+                // Retry 3 times, 10000 ms between retries, and abort if doesn't work
+                final long currentTime = System.currentTimeMillis();
+                throw new ServiceInterruption("Tika down, retrying: "+e.getMessage(),e,currentTime + 10000L,
+                  -1L,3,true);
+              }
+              int responseCode = response.getStatusLine().getStatusCode();
+              if (response.getStatusLine().getStatusCode() == 200 || response.getStatusLine().getStatusCode() == 204) {
+                tikaServerIs = response.getEntity().getContent();
                 try {
-                  IOUtils.copyLarge(tikaServerIs, os2, 0L, sp.writeLimit);
+                  final BufferedReader br = new BufferedReader(new InputStreamReader(tikaServerIs));
+                  final JSONParser parser = new JSONParser();
+                  JSONObject metaJson;
+                  final StringBuilder sb = new StringBuilder();
+                  String output;
+                  while ((output = br.readLine()) != null) {
+                    sb.append(output);
+                  }
+                  metaJson = (JSONObject) parser.parse(sb.toString());
+                  for (Object key : metaJson.keySet()) {
+                    String metadataKey = key.toString();
+                    String metadataValue =  metaJson.get(key).toString();
+                  
+                    // Replace the content type by the one found by Tika
+                    if(metadataKey.equals("Content-Type")) {
+                      metadata.remove(metadataKey);
+                    }
+                  
+                    metadata.add(metadataKey, metadataValue);
+                  }
                 } finally {
-                  os2.close();
+                  tikaServerIs.close();
                 }
-                length = new Long(responseDs.getBinaryLength());
-              } finally {
-                tikaServerIs.close();
+              } else {
+                EntityUtils.consumeQuietly(response.getEntity());
+                activities.noDocument();
+                if (responseCode == 422) {
+                  resultCode = "TIKASERVERREJECTS";
+                  description = "Tika Server rejected document with the following reason: "
+                      + response.getStatusLine().getReasonPhrase();
+                  handleTikaServerRejects(description);
+                } else {
+                  resultCode = "TIKASERVERERROR";
+                  description = "Tika Server failed to parse document with the following error: "
+                      + response.getStatusLine().getReasonPhrase();
+                  handleTikaServerError(description);
+                }
+                return DOCUMENTSTATUS_REJECTED;
               }
-            } else {
-              activities.noDocument();
-              if (responseCode == 422) {
-                resultCode = "TIKASERVERREJECTS";
-                description = "Tika Server rejected document with the following reason: "
-                    + response.getStatusLine().getReasonPhrase();
-                return handleTikaServerRejects(description);
+
+              // Content
+              httpPut = new HttpPut(contentURI);
+              if (!mime.isEmpty()) {
+                httpPut.addHeader("Content-Type", mime);
+              }
+              httpPut.addHeader("Accept", "text/plain");
+              entity = new InputStreamEntity(ds.getInputStream());
+              httpPut.setEntity(entity);
+              try {
+                //System.out.println("About to do a content PUT");
+                response = this.httpClient.execute(tikaHost, httpPut);
+                //System.out.println("... content PUT succeeded");
+              } catch (IOException e) {
+                // Retry 3 times, 10000 ms between retries, and abort if doesn't work
+                final long currentTime = System.currentTimeMillis();
+                throw new ServiceInterruption("Tika down, retrying: "+e.getMessage(),e,currentTime + 10000L,
+                  -1L,3,true);
+              }
+
+              responseCode = response.getStatusLine().getStatusCode();
+              if (response.getStatusLine().getStatusCode() == 200 || response.getStatusLine().getStatusCode() == 204) {
+                tikaServerIs = response.getEntity().getContent();
+                try {
+                  responseDs = new FileDestinationStorage();
+                  final OutputStream os2 = responseDs.getOutputStream();
+                  try {
+                    IOUtils.copyLarge(tikaServerIs, os2, 0L, sp.writeLimit);
+                  } finally {
+                    os2.close();
+                  }
+                  length = new Long(responseDs.getBinaryLength());
+                } finally {
+                  tikaServerIs.close();
+                }
               } else {
-                resultCode = "TIKASERVERERROR";
-                description = "Tika Server failed to parse document with the following error: "
-                    + response.getStatusLine().getReasonPhrase();
-                return handleTikaServerError(description);
+                EntityUtils.consumeQuietly(response.getEntity());
+                activities.noDocument();
+                if (responseCode == 422) {
+                  resultCode = "TIKASERVERREJECTS";
+                  description = "Tika Server rejected document with the following reason: "
+                      + response.getStatusLine().getReasonPhrase();
+                  return handleTikaServerRejects(description);
+                } else {
+                  resultCode = "TIKASERVERERROR";
+                  description = "Tika Server failed to parse document with the following error: "
+                      + response.getStatusLine().getReasonPhrase();
+                  return handleTikaServerError(description);
+                }
               }
             }
 
@@ -723,7 +806,7 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
           if (!activities.checkLengthIndexable(responseDs.getBinaryLength())) {
             activities.noDocument();
             resultCode = activities.EXCLUDED_LENGTH;
-            description = "Downstream pipeline rejected document with length " + ds.getBinaryLength();
+            description = "Downstream pipeline rejected document with length " + responseDs.getBinaryLength();
             return DOCUMENTSTATUS_REJECTED;
           }
 
@@ -782,7 +865,9 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
         }
       }
     } finally {
-      ds.close();
+      if (ds != null) {
+        ds.close();
+      }
     }
 
   }
@@ -1082,6 +1167,343 @@ public class TikaExtractor extends org.apache.manifoldcf.agents.transformation.B
     throw new ManifoldCFException(e.getMessage(), e);
   }
 
+  /** Parses the response of the recursive metadata endpoint as it is read.  The response is an array with one
+  * object for each document, the container document first and then any embedded documents.  The container
+  * document's metadata is kept, and the text content of each document is written out in turn, up to the write
+  * limit, so that the result matches what the metadata and content endpoints return.
+  *
+  * A general-purpose JSON parser hands over each string value whole, and the text content of a large document
+  * is a single string value.  So this parser copies the text content to the output a buffer at a time, as it is
+  * read, and once the write limit is reached it skips the rest without keeping it.  Everything else in the
+  * response is small, and is read into memory as usual.
+  */
+  protected static class RecursiveMetadataParser {
+    protected static final String CONTENT_KEY = "X-TIKA:content";
+    protected static final int CONTENT_BUFFER_SIZE = 8192;
+
+    protected final Reader reader;
+    protected final Metadata metadata;
+    protected final OutputStream os;
+    /** Bytes that may still be written, or negative if unlimited */
+    protected long remaining;
+
+    protected int documentCount = 0;
+    /** The next character, if it has been peeked at, or -2 if not */
+    protected int peeked = -2;
+    /** Characters read so far, for error reporting */
+    protected int position = 0;
+
+    public RecursiveMetadataParser(Reader reader, Metadata metadata, OutputStream os, int writeLimit) {
+      this.reader = reader;
+      this.metadata = metadata;
+      this.os = os;
+      this.remaining = writeLimit;
+    }
+
+    /** Parse the whole response. */
+    public void parse()
+      throws IOException, ParseException {
+      expect('[');
+      if (peekToken() == ']') {
+        read();
+      } else {
+        while (true) {
+          parseDocument();
+          int ch = readToken();
+          if (ch == ']') {
+            break;
+          }
+          if (ch != ',') {
+            throw unexpected(ch);
+          }
+        }
+      }
+      int ch = readToken();
+      if (ch != -1) {
+        throw unexpected(ch);
+      }
+    }
+
+    /** Parse one document's object. */
+    protected void parseDocument()
+      throws IOException, ParseException {
+      expect('{');
+      if (peekToken() == '}') {
+        read();
+      } else {
+        while (true) {
+          expect('"');
+          String key = readString();
+          expect(':');
+          if (key.equals(CONTENT_KEY) && peekToken() == '"') {
+            read();
+            copyContent();
+          } else {
+            handleValue(key, readValue());
+          }
+          int ch = readToken();
+          if (ch == '}') {
+            break;
+          }
+          if (ch != ',') {
+            throw unexpected(ch);
+          }
+        }
+      }
+      documentCount++;
+    }
+
+    protected void handleValue(String key, Object value)
+      throws IOException {
+      if (value == null) {
+        return;
+      }
+      if (key.equals(CONTENT_KEY)) {
+        writeContent(value.toString());
+      } else if (documentCount == 0) {
+        // Replace the content type by the one found by Tika
+        if (key.equals("Content-Type")) {
+          metadata.remove(key);
+        }
+        metadata.add(key, value.toString());
+      }
+    }
+
+    /** Read any value.  Arrays come back as JSONArrays, whose string form is their JSON, as before; nested
+    * objects aren't used, and come back as null.
+    */
+    protected Object readValue()
+      throws IOException, ParseException {
+      int ch = readToken();
+      switch (ch) {
+      case '"':
+        return readString();
+      case '[':
+        JSONArray values = new JSONArray();
+        if (peekToken() == ']') {
+          read();
+          return values;
+        }
+        while (true) {
+          values.add(readValue());
+          ch = readToken();
+          if (ch == ']') {
+            return values;
+          }
+          if (ch != ',') {
+            throw unexpected(ch);
+          }
+        }
+      case '{':
+        if (peekToken() == '}') {
+          read();
+          return null;
+        }
+        while (true) {
+          expect('"');
+          readString();
+          expect(':');
+          readValue();
+          ch = readToken();
+          if (ch == '}') {
+            return null;
+          }
+          if (ch != ',') {
+            throw unexpected(ch);
+          }
+        }
+      default:
+        // A number, true, false or null
+        if (ch == -1) {
+          throw unexpected(ch);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append((char) ch);
+        while (true) {
+          int next = peek();
+          if (next == -1 || next == ',' || next == ']' || next == '}' || Character.isWhitespace(next)) {
+            break;
+          }
+          sb.append((char) read());
+        }
+        String literal = sb.toString();
+        if (literal.equals("null")) {
+          return null;
+        }
+        if (literal.equals("true")) {
+          return Boolean.TRUE;
+        }
+        if (literal.equals("false")) {
+          return Boolean.FALSE;
+        }
+        try {
+          if (literal.indexOf('.') != -1 || literal.indexOf('e') != -1 || literal.indexOf('E') != -1) {
+            return new Double(literal);
+          }
+          return new Long(literal);
+        } catch (NumberFormatException e) {
+          throw new ParseException(position, ParseException.ERROR_UNEXPECTED_TOKEN, literal);
+        }
+      }
+    }
+
+    /** Read the rest of a string, after its opening quote. */
+    protected String readString()
+      throws IOException, ParseException {
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        int ch = readStringChar();
+        if (ch == -1) {
+          return sb.toString();
+        }
+        sb.append((char) ch);
+      }
+    }
+
+    /** Copy the rest of a text content string, after its opening quote, to the output. */
+    protected void copyContent()
+      throws IOException, ParseException {
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        int ch = readStringChar();
+        if (ch == -1) {
+          break;
+        }
+        if (remaining == 0L) {
+          // Over the limit; just find the end of the string
+          continue;
+        }
+        sb.append((char) ch);
+        // Don't split a surrogate pair between buffers
+        if (sb.length() >= CONTENT_BUFFER_SIZE && !Character.isHighSurrogate((char) ch)) {
+          writeContent(sb.toString());
+          sb.setLength(0);
+        }
+      }
+      writeContent(sb.toString());
+    }
+
+    /** Read one character of a string, undoing any escape.
+    *@return the character, or -1 at the closing quote.
+    */
+    protected int readStringChar()
+      throws IOException, ParseException {
+      int ch = read();
+      if (ch == '"') {
+        return -1;
+      }
+      if (ch == -1) {
+        throw unexpected(ch);
+      }
+      if (ch != '\\') {
+        return ch;
+      }
+      ch = read();
+      switch (ch) {
+      case '"':
+      case '\\':
+      case '/':
+        return ch;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit == -1) {
+            throw new ParseException(position, ParseException.ERROR_UNEXPECTED_CHAR, null);
+          }
+          value = (value << 4) + digit;
+        }
+        return value;
+      default:
+        throw unexpected(ch);
+      }
+    }
+
+    protected void writeContent(String content)
+      throws IOException {
+      if (remaining == 0L || content.length() == 0) {
+        return;
+      }
+      final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+      int amount = bytes.length;
+      if (remaining > 0L) {
+        if (amount > remaining) {
+          amount = (int) remaining;
+        }
+        remaining -= amount;
+      }
+      os.write(bytes, 0, amount);
+    }
+
+    protected void expect(int expected)
+      throws IOException, ParseException {
+      int ch = readToken();
+      if (ch != expected) {
+        throw unexpected(ch);
+      }
+    }
+
+    protected ParseException unexpected(int ch) {
+      return new ParseException(position, ParseException.ERROR_UNEXPECTED_CHAR, (ch == -1)?null:new Character((char) ch));
+    }
+
+    /** Read the next character that isn't whitespace, or -1 at the end. */
+    protected int readToken()
+      throws IOException {
+      while (true) {
+        int ch = read();
+        if (ch == -1 || !Character.isWhitespace(ch)) {
+          return ch;
+        }
+      }
+    }
+
+    /** Look at the next character that isn't whitespace, or -1 at the end, without reading it. */
+    protected int peekToken()
+      throws IOException {
+      while (true) {
+        int ch = peek();
+        if (ch == -1 || !Character.isWhitespace(ch)) {
+          return ch;
+        }
+        read();
+      }
+    }
+
+    protected int peek()
+      throws IOException {
+      if (peeked == -2) {
+        peeked = reader.read();
+      }
+      return peeked;
+    }
+
+    protected int read()
+      throws IOException {
+      int ch;
+      if (peeked != -2) {
+        ch = peeked;
+        peeked = -2;
+      } else {
+        ch = reader.read();
+      }
+      if (ch != -1) {
+        position++;
+      }
+      return ch;
+    }
+  }
+
   protected static interface DestinationStorage {
     /**
      * Get the output stream to write to. Caller should explicitly close this
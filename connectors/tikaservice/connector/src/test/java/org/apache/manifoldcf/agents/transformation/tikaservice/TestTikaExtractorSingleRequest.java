@@ -0,0 +1,375 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.transformation.tikaservice;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.tests.DocumentRecorder;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestTikaExtractorSingleRequest
+{
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    if (org.apache.manifoldcf.agents.system.Logging.ingest == null)
+      org.apache.manifoldcf.agents.system.Logging.ingest = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.ingest");
+  }
+
+  @Test
+  public void testSingleRequest()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      byte[] content = makeContent(10000);
+
+      DocumentRecorder twoRequests = extract(server.getPort(), false, content, -1);
+      assertEquals(2, server.getRequestCount());
+      long twoRequestBytes = server.getBytesReceived();
+
+      server.reset();
+      DocumentRecorder oneRequest = extract(server.getPort(), true, content, -1);
+      assertEquals(1, server.getRequestCount());
+      long oneRequestBytes = server.getBytesReceived();
+
+      // The document crosses the network once instead of twice
+      assertEquals((long)content.length, oneRequestBytes);
+      assertEquals(2L * oneRequestBytes, twoRequestBytes);
+
+      // The same document goes downstream either way
+      assertEquals("OK", oneRequest.getResultCode());
+      assertEquals(StandInServer.CONTAINER_TEXT + StandInServer.EMBEDDED_TEXT, oneRequest.getContent());
+      assertEquals(twoRequests.getContent(), oneRequest.getContent());
+      assertArrayEquals(new String[]{StandInServer.CONTAINER_TITLE}, oneRequest.getDocument().getFieldAsStrings("title"));
+      assertArrayEquals(twoRequests.getDocument().getFieldAsStrings("title"), oneRequest.getDocument().getFieldAsStrings("title"));
+      assertArrayEquals(new String[]{"text/plain; charset=UTF-8"}, oneRequest.getDocument().getFieldAsStrings("Content-Type"));
+      assertArrayEquals(twoRequests.getDocument().getFieldAsStrings("Content-Type"), oneRequest.getDocument().getFieldAsStrings("Content-Type"));
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testSingleRequestWriteLimit()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      // The limit applies across the text of all documents
+      int limit = StandInServer.CONTAINER_TEXT.length() + 3;
+      DocumentRecorder oneRequest = extract(server.getPort(), true, makeContent(100), limit);
+      assertEquals((StandInServer.CONTAINER_TEXT + StandInServer.EMBEDDED_TEXT).substring(0, limit), oneRequest.getContent());
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testSingleRequestRejected()
+    throws Exception
+  {
+    StandInServer server = new StandInServer(0L);
+    try
+    {
+      TikaExtractor extractor = makeExtractor(server.getPort(), true);
+      try
+      {
+        VersionContext pipelineDescription = extractor.getPipelineDescription(new Specification());
+        for (int i = 0; i < 3; i++)
+        {
+          // Rejections don't leave the connection checked out
+          DocumentRecorder activities = new DocumentRecorder();
+          byte[] content = StandInServer.BAD_MARKER.getBytes(StandardCharsets.UTF_8);
+          RepositoryDocument document = makeDocument(content);
+          assertEquals(IPipelineConnector.DOCUMENTSTATUS_REJECTED,
+            extractor.addOrReplaceDocumentWithException("http://localhost/bad", pipelineDescription, document, null, activities));
+          assertEquals("TIKASERVERREJECTS", activities.getResultCode());
+          assertNull(activities.getDocument());
+        }
+      }
+      finally
+      {
+        extractor.disconnect();
+      }
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRecursiveMetadataParser()
+    throws Exception
+  {
+    // Text content much larger than the parser's buffer, with escapes, and characters of two to four bytes
+    StringBuilder text = new StringBuilder();
+    StringBuilder json = new StringBuilder();
+    for (int i = 0; i < 5000; i++)
+    {
+      text.append("line ").append(i).append(" \"\u00e9\u20ac\ud83d\ude00\"\n");
+      json.append("line ").append(i).append(" \\\"\\u00e9\u20ac\\ud83d\ude00\\\"\\n");
+    }
+    String response = "[ {\"Content-Type\" : \"text/plain\", \"pages\" : 3, \"authors\" : [\"a\", \"b\"], \"X-TIKA:content\" : \"" + json + "\"},\n" +
+      "{\"Content-Type\":\"text/html\",\"X-TIKA:content\":\"" + StandInServer.jsonEscape(StandInServer.EMBEDDED_TEXT) + "\"} ]";
+    byte[] expected = (text + StandInServer.EMBEDDED_TEXT).getBytes(StandardCharsets.UTF_8);
+
+    for (int limit : new int[]{-1, 0, 1, 8191, 8192, 8193, 40001, 40002, 40003, expected.length - 1})
+    {
+      org.apache.tika.metadata.Metadata metadata = new org.apache.tika.metadata.Metadata();
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      new TikaExtractor.RecursiveMetadataParser(new StringReader(response), metadata, os, limit).parse();
+      byte[] written = os.toByteArray();
+      // Limits may fall in the middle of a character, as they do for the content endpoint
+      assertEquals(Arrays.toString(Arrays.copyOf(expected, (limit < 0) ? expected.length : limit)), Arrays.toString(written));
+      assertEquals("text/plain", metadata.get("Content-Type"));
+      assertEquals("3", metadata.get("pages"));
+    }
+
+    for (String bad : new String[]{"[{\"a\":}]", "[{\"X-TIKA:content\":\"unterminated", "[{\"a\" \"b\"}]", "[] trailing", "[{\"a\":\"\\q\"}]"})
+    {
+      try
+      {
+        new TikaExtractor.RecursiveMetadataParser(new StringReader(bad), new org.apache.tika.metadata.Metadata(),
+          new ByteArrayOutputStream(), -1).parse();
+        fail("Parsed " + bad);
+      }
+      catch (org.json.simple.parser.ParseException e)
+      {
+      }
+    }
+  }
+
+  public static byte[] makeContent(int length)
+  {
+    byte[] rval = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      rval[i] = (byte)('a' + (i % 26));
+    }
+    return rval;
+  }
+
+  public static TikaExtractor makeExtractor(int port, boolean singleRequest)
+  {
+    ConfigParams params = new ConfigParams();
+    params.setParameter(TikaConfig.PARAM_TIKAHOSTNAME, "localhost");
+    params.setParameter(TikaConfig.PARAM_TIKAPORT, Integer.toString(port));
+    params.setParameter(TikaConfig.PARAM_TIKASINGLEREQUEST, Boolean.toString(singleRequest));
+    TikaExtractor extractor = new TikaExtractor();
+    extractor.connect(params);
+    return extractor;
+  }
+
+  public static RepositoryDocument makeDocument(byte[] content)
+    throws Exception
+  {
+    RepositoryDocument document = new RepositoryDocument();
+    document.setBinary(new ByteArrayInputStream(content), content.length);
+    document.setMimeType("application/octet-stream");
+    document.setFileName("document.bin");
+    return document;
+  }
+
+  public static DocumentRecorder extract(int port, boolean singleRequest, byte[] content, int writeLimit)
+    throws Exception
+  {
+    TikaExtractor extractor = makeExtractor(port, singleRequest);
+    try
+    {
+      Specification spec = new Specification();
+      if (writeLimit >= 0)
+      {
+        SpecificationNode node = new SpecificationNode(TikaConfig.NODE_WRITELIMIT);
+        node.setAttribute(TikaConfig.ATTRIBUTE_VALUE, Integer.toString(writeLimit));
+        spec.addChild(spec.getChildCount(), node);
+      }
+      DocumentRecorder activities = new DocumentRecorder();
+      int status = extractor.addOrReplaceDocumentWithException("http://localhost/document", extractor.getPipelineDescription(spec),
+        makeDocument(content), null, activities);
+      assertEquals(IPipelineConnector.DOCUMENTSTATUS_ACCEPTED, status);
+      return activities;
+    }
+    finally
+    {
+      extractor.disconnect();
+    }
+  }
+
+  /** Stands in for a Tika server's metadata, content, and recursive metadata endpoints, after an
+  * optional simulated delay per request.  Every document is treated as a container with one embedded
+  * document.  Any document containing BAD_MARKER is rejected with a 422.
+  */
+  public static class StandInServer
+  {
+    public static final String BAD_MARKER = "rejectme";
+    public static final String CONTAINER_TITLE = "Container title";
+    public static final String CONTAINER_TEXT = "Container text\n";
+    public static final String EMBEDDED_TEXT = "Embedded text\n";
+
+    protected final HttpServer server;
+    protected final long requestDelay;
+    protected final AtomicInteger requestCount = new AtomicInteger(0);
+    protected final AtomicLong bytesReceived = new AtomicLong(0L);
+
+    public StandInServer(long requestDelay)
+      throws IOException
+    {
+      this.requestDelay = requestDelay;
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", new HttpHandler()
+      {
+        public void handle(HttpExchange exchange)
+          throws IOException
+        {
+          handleRequest(exchange);
+        }
+      });
+      server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+      server.start();
+    }
+
+    public int getPort()
+    {
+      return server.getAddress().getPort();
+    }
+
+    public int getRequestCount()
+    {
+      return requestCount.get();
+    }
+
+    public long getBytesReceived()
+    {
+      return bytesReceived.get();
+    }
+
+    public void reset()
+    {
+      requestCount.set(0);
+      bytesReceived.set(0L);
+    }
+
+    public void stop()
+    {
+      server.stop(0);
+    }
+
+    protected void handleRequest(HttpExchange exchange)
+      throws IOException
+    {
+      requestCount.incrementAndGet();
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      InputStream is = exchange.getRequestBody();
+      byte[] buffer = new byte[65536];
+      while (true)
+      {
+        int amt = is.read(buffer);
+        if (amt == -1)
+          break;
+        bos.write(buffer, 0, amt);
+      }
+      bytesReceived.addAndGet(bos.size());
+      String body = new String(bos.toByteArray(), StandardCharsets.ISO_8859_1);
+
+      String path = exchange.getRequestURI().getPath();
+      String containerMetadata = "\"Content-Type\":\"text/plain; charset=UTF-8\",\"title\":\"" + CONTAINER_TITLE + "\"";
+      String embeddedMetadata = "\"Content-Type\":\"text/html; charset=UTF-8\",\"title\":\"Embedded title\",\"X-TIKA:embedded_resource_path\":\"/embedded.html\"";
+      String response;
+      String contentType;
+      int code = 200;
+      if (body.indexOf(BAD_MARKER) != -1)
+      {
+        code = 422;
+        response = "Unprocessable entity";
+        contentType = "text/plain";
+      }
+      else if (path.equals("/meta"))
+      {
+        response = "{" + containerMetadata + "}";
+        contentType = "application/json";
+      }
+      else if (path.equals("/tika"))
+      {
+        response = CONTAINER_TEXT + EMBEDDED_TEXT;
+        contentType = "text/plain; charset=UTF-8";
+      }
+      else if (path.equals("/rmeta/text"))
+      {
+        response = "[{" + containerMetadata + ",\"X-TIKA:content\":\"" + jsonEscape(CONTAINER_TEXT) + "\"}," +
+          "{" + embeddedMetadata + ",\"X-TIKA:content\":\"" + jsonEscape(EMBEDDED_TEXT) + "\"}]";
+        contentType = "application/json";
+      }
+      else
+      {
+        code = 404;
+        response = "Not found";
+        contentType = "text/plain";
+      }
+      if (requestDelay > 0L)
+      {
+        try
+        {
+          Thread.sleep(requestDelay);
+        }
+        catch (InterruptedException e)
+        {
+        }
+      }
+      byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(code, bytes.length);
+      OutputStream os = exchange.getResponseBody();
+      try
+      {
+        os.write(bytes);
+      }
+      finally
+      {
+        os.close();
+      }
+    }
+
+    protected static String jsonEscape(String value)
+    {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+  }
+
+}
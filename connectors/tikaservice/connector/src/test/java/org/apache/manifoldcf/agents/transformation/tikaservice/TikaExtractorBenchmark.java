@@ -0,0 +1,65 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.transformation.tikaservice;
+
+import java.util.Locale;
+
+/** Measures per-document extraction latency and bytes sent to a local stand-in Tika server,
+* with one request for metadata and one for content, and with a single request to the
+* recursive metadata endpoint.  Not run as part of the unit tests; invoke main() directly.
+* Arguments (all optional): documents per run, document size in bytes, simulated
+* per-request server latency in milliseconds.
+*/
+public class TikaExtractorBenchmark
+{
+
+  public static void main(String[] argv)
+    throws Exception
+  {
+    final int documentCount = (argv.length > 0)?Integer.parseInt(argv[0]):500;
+    final int documentSize = (argv.length > 1)?Integer.parseInt(argv[1]):1048576;
+    final long requestDelay = (argv.length > 2)?Long.parseLong(argv[2]):5L;
+
+    if (org.apache.manifoldcf.agents.system.Logging.ingest == null)
+      org.apache.manifoldcf.agents.system.Logging.ingest = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.ingest");
+
+    final byte[] content = TestTikaExtractorSingleRequest.makeContent(documentSize);
+    for (boolean singleRequest : new boolean[]{false, true})
+    {
+      TestTikaExtractorSingleRequest.StandInServer server = new TestTikaExtractorSingleRequest.StandInServer(requestDelay);
+      try
+      {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < documentCount; i++)
+        {
+          TestTikaExtractorSingleRequest.extract(server.getPort(), singleRequest, content, -1);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        System.out.println(String.format(Locale.ROOT, "%-15s: %7.2f ms/doc, %d requests, %d bytes sent",
+          singleRequest?"single request":"two requests", elapsed / 1000000.0 / documentCount,
+          server.getRequestCount(), server.getBytesReceived()));
+      }
+      finally
+      {
+        server.stop();
+      }
+    }
+  }
+
+}
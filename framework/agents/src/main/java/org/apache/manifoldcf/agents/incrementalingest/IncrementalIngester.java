@@ -85,6 +85,15 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   protected final IOutputConnectorPool outputConnectorPool;
   // Transformation connector pool manager
   protected final ITransformationConnectorPool transformationConnectorPool;
+  // Largest document stream copied in memory when a pipeline fans out
+  protected final int maxInMemoryCopy;
+  // Ingestions that output connectors have yet to acknowledge, oldest first
+  protected final LinkedList<PendingIngestion> pendingIngestions = new LinkedList<PendingIngestion>();
+  // Identifier hashes of the documents acknowledged as failed since the last flush
+  protected final Set<String> failedIdentifierHashes = new HashSet<String>();
+
+  /** The most unacknowledged ingestions a thread may have before it waits for the oldest */
+  protected final static int MAX_PENDING_INGESTIONS = 1000;
   
   /** Constructor.
   */
@@ -97,6 +106,8 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     connectionManager = OutputConnectionManagerFactory.make(threadContext);
     outputConnectorPool = OutputConnectorPoolFactory.make(threadContext);
     transformationConnectorPool = TransformationConnectorPoolFactory.make(threadContext);
+    maxInMemoryCopy = lockManager.getSharedConfiguration().getIntProperty(RepositoryDocumentFactory.maxInMemoryCopyProperty,
+      RepositoryDocumentFactory.DEFAULT_MAX_IN_MEMORY_COPY);
   }
 
   /** Install the incremental ingestion manager.
@@ -738,6 +749,9 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   {
     String docKey = makeKey(identifierClass,identifierHash);
 
+    // Note whatever has been acknowledged so far, and keep the number in flight bounded
+    processPendingIngestions(MAX_PENDING_INGESTIONS - 1);
+
     if (Logging.ingest.isDebugEnabled())
     {
       Logging.ingest.debug("Ingesting document '"+docKey+"' component hash "+((componentHash==null)?"(None)":("'"+componentHash+"'"))+" into output connections '"+extractOutputConnectionNames(pipelineSpecificationWithVersions)+"'");
@@ -761,6 +775,71 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Wait for output connectors to acknowledge all the documents this ingester has handed them, and note those
+  * ingestions.
+  *@return the identifier hashes of the documents that an output connector reported as failed.  Those documents
+  * have not been noted as ingested, and must be ingested again.
+  */
+  @Override
+  public Set<String> flushPendingIngestions()
+    throws ManifoldCFException
+  {
+    processPendingIngestions(0);
+    Set<String> rval = new HashSet<String>(failedIdentifierHashes);
+    failedIdentifierHashes.clear();
+    return rval;
+  }
+
+  /** Forget the documents that output connectors have yet to acknowledge, and any failures not yet returned by
+  * flushPendingIngestions().  The forgotten documents keep their markers, so they will be ingested again.
+  */
+  @Override
+  public void discardPendingIngestions()
+  {
+    if (pendingIngestions.size() > 0 && Logging.ingest.isDebugEnabled())
+      Logging.ingest.debug("Discarding "+pendingIngestions.size()+" unacknowledged ingestions");
+    pendingIngestions.clear();
+    failedIdentifierHashes.clear();
+  }
+
+  /** Note the acknowledged ingestions, oldest first, waiting for acknowledgements only if there are more than a
+  * given number outstanding.
+  *@param maxRemaining is the number of unacknowledged ingestions that may be left.
+  */
+  protected void processPendingIngestions(int maxRemaining)
+    throws ManifoldCFException
+  {
+    while (pendingIngestions.size() > 0)
+    {
+      PendingIngestion pending = pendingIngestions.getFirst();
+      if (!pending.isDone())
+      {
+        if (pendingIngestions.size() <= maxRemaining)
+          return;
+        pending.waitForAcknowledgement();
+      }
+      pendingIngestions.removeFirst();
+      pending.recordActivity();
+      if (pending.isFailed())
+      {
+        // Leave the marker; the document will be retried
+        Logging.ingest.warn(pending.describeFailure());
+        failedIdentifierHashes.add(extractIdentifierHash(pending.docKey));
+        continue;
+      }
+      String[] lockArray = computeLockArray(pending.documentURIHash,null,pending.outputConnectionName);
+      lockManager.enterLocks(null,null,lockArray);
+      try
+      {
+        noteAcknowledgedIngest(pending);
+      }
+      finally
+      {
+        lockManager.leaveLocks(null,null,lockArray);
+      }
+    }
+  }
+
   /** Remove a document component from the search engine index.
   *@param pipelineConnections is the pipeline specification.
   *@param identifierClass is the name of the space in which the identifier hash should be interpreted.
@@ -1020,6 +1099,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       String[] lockArray = new String[validURIcount];
       String[] validURIArray = new String[validURIcount];
       String[] validURIHashArray = new String[validURIcount];
+      String[] validOutputVersionArray = new String[validURIcount];
       validURIcount = 0;
       for (DeleteInfo uri : uris)
       {
@@ -1027,6 +1107,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         {
           validURIArray[validURIcount] = uri.getURI();
           validURIHashArray[validURIcount] = uri.getURIHash();
+          validOutputVersionArray[validURIcount] = uri.getOutputVersion();
           lockArray[validURIcount] = createURILockName(outputConnectionName,validURIHashArray[validURIcount]);
           validURIcount++;
         }
@@ -1035,14 +1116,9 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       lockManager.enterLocks(null,null,lockArray);
       try
       {
-        // Fetch the document URIs for the listed documents
-        for (DeleteInfo uri : uris)
-        {
-          if (uri.getURI() != null)
-          {
-            removeDocument(connection,uri.getURI(),uri.getOutputVersion(),activities);
-          }
-        }
+        // Remove the listed documents from the index, all together
+        if (validURIArray.length > 0)
+          removeDocuments(connection,validURIArray,validOutputVersionArray,activities);
 
         // Now, get rid of all rows that match the given uris.
         // Do the queries together, then the deletes
@@ -1237,6 +1313,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       String[] lockArray = new String[validURIcount];
       String[] validURIArray = new String[validURIcount];
       String[] validURIHashArray = new String[validURIcount];
+      String[] validOutputVersionArray = new String[validURIcount];
       validURIcount = 0;
       for (DeleteInfo uri : uris)
       {
@@ -1244,6 +1321,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         {
           validURIArray[validURIcount] = uri.getURI();
           validURIHashArray[validURIcount] = uri.getURIHash();
+          validOutputVersionArray[validURIcount] = uri.getOutputVersion();
           lockArray[validURIcount] = createURILockName(outputConnectionName,validURIHashArray[validURIcount]);
           validURIcount++;
         }
@@ -1252,12 +1330,9 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       lockManager.enterLocks(null,null,lockArray);
       try
       {
-        // Fetch the document URIs for the listed documents
-        for (DeleteInfo uri : uris)
-        {
-          if (uri.getURI() != null)
-            removeDocument(connection,uri.getURI(),uri.getOutputVersion(),activities);
-        }
+        // Remove the listed documents from the index, all together
+        if (validURIArray.length > 0)
+          removeDocuments(connection,validURIArray,validOutputVersionArray,activities);
 
         // Now, get rid of all rows that match the given uris.
         // Do the queries together, then the deletes
@@ -2188,6 +2263,84 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Note the ingestion of a document that an output connector acknowledged after the fact.  Only the marker
+  * written before the document was sent is updated; if anything else has happened to the row since, e.g. the
+  * document was removed, the acknowledgement is out of date and is ignored.  Unlike noteDocumentIngest(), this
+  * never inserts a row.
+  *@param pending is the acknowledged ingestion.
+  */
+  protected void noteAcknowledgedIngest(PendingIngestion pending)
+    throws ManifoldCFException
+  {
+    HashMap map = new HashMap();
+    map.put(lastVersionField,pending.documentVersion);
+    map.put(lastTransformationVersionField,pending.transformationVersion);
+    map.put(lastOutputVersionField,pending.outputVersion);
+    if (pending.authorityNameString != null)
+      map.put(authorityNameField,pending.authorityNameString);
+    else
+      map.put(authorityNameField,"");
+
+    // Transaction abort due to deadlock should be retried here.
+    while (true)
+    {
+      long sleepAmt = 0L;
+
+      beginTransaction();
+      try
+      {
+        ArrayList list = new ArrayList();
+        String query = buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause(docKeyField,pending.docKey),
+          new UnitaryClause(outputConnNameField,pending.outputConnectionName),
+          ((pending.componentHash==null)?new NullCheckClause(componentHashField,true):new UnitaryClause(componentHashField,pending.componentHash)),
+          new UnitaryClause(uriHashField,pending.documentURIHash),
+          new UnitaryClause(lastIngestField,new Long(pending.ingestTime)),
+          new NullCheckClause(lastVersionField,true)});
+        IResultSet set = performQuery("SELECT "+idField+","+changeCountField+","+docURIField+" FROM "+getTableName()+" WHERE "+
+          query+" FOR UPDATE",list,null,null);
+        for (int i = 0; i < set.getRowCount(); i++)
+        {
+          IResultRow row = set.getRow(i);
+          // Hashes can collide
+          if (!pending.documentURI.equals(row.getValue(docURIField)))
+            continue;
+          list.clear();
+          query = buildConjunctionClause(list,new ClauseDescription[]{
+            new UnitaryClause(idField,row.getValue(idField))});
+          long changeCount = ((Long)row.getValue(changeCountField)).longValue();
+          changeCount++;
+          map.put(changeCountField,new Long(changeCount));
+          performUpdate(map,"WHERE "+query,list,null);
+        }
+        performCommit();
+        return;
+      }
+      catch (ManifoldCFException e)
+      {
+        signalRollback();
+        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted transaction noting acknowledged ingestion: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      catch (Error e)
+      {
+        signalRollback();
+        throw e;
+      }
+      finally
+      {
+        endTransaction();
+        sleepFor(sleepAmt);
+      }
+    }
+  }
+
   /** Calculate how many clauses at a time
   */
   protected int maxClauseDocumentURIChunk(String outputConnectionName)
@@ -2313,12 +2466,37 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Remove multiple documents, using the specified output connection, via the standard pool.
+  */
+  protected void removeDocuments(IOutputConnection connection, String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnector connector = outputConnectorPool.grab(connection);
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      connector.removeDocuments(documentURIs,outputDescriptions,activities);
+    }
+    finally
+    {
+      outputConnectorPool.release(connection,connector);
+    }
+  }
+
   /** Make a key from a document class and a hash */
   protected static String makeKey(String documentClass, String documentHash)
   {
     return documentClass + ":" + documentHash;
   }
 
+  /** Get the identifier hash back out of a key.  The class may contain colons, but the hash doesn't. */
+  protected static String extractIdentifierHash(String docKey)
+  {
+    return docKey.substring(docKey.lastIndexOf(":") + 1);
+  }
+
   /** This class contains the information necessary to delete a document */
   protected static class DeleteInfo
   {
@@ -2817,7 +2995,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         PipelineAddFanout pcf = new PipelineAddFanout(siblingEntryPoints,
           (parent==-1)?null:new TransformationRecordingActivity(finalActivity,
             fullSpec.getStageConnectionName(parent)),
-          finalActivity);
+          finalActivity, maxInMemoryCopy);
         if (parent == -1)
           return pcf;
         PipelineAddEntryPoint newEntry = new PipelineAddEntryPoint(
@@ -2964,13 +3142,21 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     protected final PipelineAddEntryPoint[] entryPoints;
     protected final IOutputHistoryActivity finalHistoryActivity;
     protected final IOutputQualifyActivity finalQualifyActivity;
+    protected final int maxInMemoryCopy;
 
     public PipelineAddFanout(PipelineAddEntryPoint[] entryPoints, IOutputHistoryActivity finalHistoryActivity,
       IOutputQualifyActivity finalQualifyActivity)
+    {
+      this(entryPoints,finalHistoryActivity,finalQualifyActivity,RepositoryDocumentFactory.DEFAULT_MAX_IN_MEMORY_COPY);
+    }
+
+    public PipelineAddFanout(PipelineAddEntryPoint[] entryPoints, IOutputHistoryActivity finalHistoryActivity,
+      IOutputQualifyActivity finalQualifyActivity, int maxInMemoryCopy)
     {
       this.entryPoints = entryPoints;
       this.finalHistoryActivity = finalHistoryActivity;
       this.finalQualifyActivity = finalQualifyActivity;
+      this.maxInMemoryCopy = maxInMemoryCopy;
     }
     
     public boolean checkNeedToReindex()
@@ -3082,7 +3268,8 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       else
       {
         // Create a RepositoryDocumentFactory, which we'll need to clean up at the end.
-        RepositoryDocumentFactory factory = new RepositoryDocumentFactory(document);
+        // Small documents are copied in memory; only larger ones go to temporary files.
+        RepositoryDocumentFactory factory = new RepositoryDocumentFactory(document,maxInMemoryCopy);
         try
         {
           // If any of them accept the document, we return "accept".
@@ -3404,7 +3591,16 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
           // that we don't know anything about it.  That means it will be reingested when the
           // next version comes along, and will be deleted if called for also.
           noteDocumentIngest(outputConnectionName,docKey,componentHash,null,null,null,null,ingestTime,documentURI,documentURIHash);
-          int result = super.addOrReplaceDocumentWithException(documentURI, document);
+          PendingIngestion pending = new PendingIngestion(activity,outputConnectionName,docKey,componentHash,documentVersion,
+            transformationVersion,pipelineDescriptionString.getVersionString(),authorityNameString,ingestTime,documentURI,documentURIHash);
+          int result = addOrReplaceDocumentWithAcknowledgement(documentURI,document,pending);
+          if (result == IOutputConnector.DOCUMENTSTATUS_PENDING)
+          {
+            // The marker stays until the output connector acknowledges the document; see flushPendingIngestions().
+            // If we never get that far, the document will be sent again.
+            pendingIngestions.add(pending);
+            return IPipelineConnector.DOCUMENTSTATUS_ACCEPTED;
+          }
           noteDocumentIngest(outputConnectionName,docKey,componentHash,documentVersion,transformationVersion,pipelineDescriptionString.getVersionString(),authorityNameString,ingestTime,documentURI,documentURIHash);
           return result;
         }
@@ -3419,6 +3615,147 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         lockManager.leaveLocks(null,null,lockArray);
       }
     }
+
+    protected int addOrReplaceDocumentWithAcknowledgement(String documentURI, RepositoryDocument document,
+      IOutputAcknowledgement acknowledgement)
+      throws ManifoldCFException, ServiceInterruption, IOException
+    {
+      // Same as for any pipeline connector, but allowing the output connector to acknowledge the document later
+      MonitoredAddActivityWrapper wrapper = new MonitoredAddActivityWrapper(addActivity);
+      int rval = outputConnector.addOrReplaceDocumentWithAcknowledgement(
+        documentURI,pipelineDescriptionString,
+        document,authorityNameString,wrapper,acknowledgement);
+      if (!wrapper.wasDocumentActedUpon())
+        addActivity.noDocument();
+      return rval;
+    }
+  }
+
+  /** An ingestion that an output connector has yet to acknowledge.  The connector reports the outcome from
+  * whatever thread it likes; everything else happens on the thread that sent the document.
+  */
+  protected static class PendingIngestion implements IOutputAcknowledgement
+  {
+    protected final IOutputActivity activity;
+    protected final String outputConnectionName;
+    protected final String docKey;
+    protected final String componentHash;
+    protected final String documentVersion;
+    protected final String transformationVersion;
+    protected final String outputVersion;
+    protected final String authorityNameString;
+    protected final long ingestTime;
+    protected final String documentURI;
+    protected final String documentURIHash;
+
+    protected boolean done = false;
+    protected boolean failed = false;
+    protected Long startTime = null;
+    protected String activityType = null;
+    protected Long dataSize = null;
+    protected String resultCode = null;
+    protected String resultDescription = null;
+
+    public PendingIngestion(IOutputActivity activity, String outputConnectionName,
+      String docKey, String componentHash, String documentVersion, String transformationVersion,
+      String outputVersion, String authorityNameString,
+      long ingestTime, String documentURI, String documentURIHash)
+    {
+      this.activity = activity;
+      this.outputConnectionName = outputConnectionName;
+      this.docKey = docKey;
+      this.componentHash = componentHash;
+      this.documentVersion = documentVersion;
+      this.transformationVersion = transformationVersion;
+      this.outputVersion = outputVersion;
+      this.authorityNameString = authorityNameString;
+      this.ingestTime = ingestTime;
+      this.documentURI = documentURI;
+      this.documentURIHash = documentURIHash;
+    }
+
+    @Override
+    public void documentAcknowledged(Long startTime, String activityType, Long dataSize,
+      String resultCode, String resultDescription)
+    {
+      complete(false,startTime,activityType,dataSize,resultCode,resultDescription);
+    }
+
+    @Override
+    public void documentFailed(Long startTime, String activityType, Long dataSize,
+      String resultCode, String resultDescription)
+    {
+      complete(true,startTime,activityType,dataSize,resultCode,resultDescription);
+    }
+
+    protected synchronized void complete(boolean failed, Long startTime, String activityType, Long dataSize,
+      String resultCode, String resultDescription)
+    {
+      if (done)
+        throw new IllegalStateException("Document '"+documentURI+"' was already acknowledged");
+      this.failed = failed;
+      this.startTime = startTime;
+      this.activityType = activityType;
+      this.dataSize = dataSize;
+      this.resultCode = resultCode;
+      this.resultDescription = resultDescription;
+      done = true;
+      notifyAll();
+    }
+
+    public synchronized boolean isDone()
+    {
+      return done;
+    }
+
+    public synchronized boolean isFailed()
+    {
+      return failed;
+    }
+
+    /** Wait until the output connector acknowledges the document. */
+    public synchronized void waitForAcknowledgement()
+      throws ManifoldCFException
+    {
+      try
+      {
+        while (!done)
+        {
+          wait();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+    }
+
+    /** Record the activity the output connector described, if any. */
+    public void recordActivity()
+      throws ManifoldCFException
+    {
+      String activityType;
+      Long startTime;
+      Long dataSize;
+      String resultCode;
+      String resultDescription;
+      synchronized (this)
+      {
+        activityType = this.activityType;
+        startTime = this.startTime;
+        dataSize = this.dataSize;
+        resultCode = this.resultCode;
+        resultDescription = this.resultDescription;
+      }
+      if (activityType != null)
+        activity.recordActivity(startTime,activityType,dataSize,documentURI,resultCode,resultDescription);
+    }
+
+    public synchronized String describeFailure()
+    {
+      return "Output connection '"+outputConnectionName+"' failed to take document '"+documentURI+"': "+
+        ((resultCode==null)?"":resultCode)+((resultDescription==null)?"":(" "+resultDescription));
+    }
   }
 
   protected static String[] computeLockArray(String documentURIHash, String oldURIHash, String outputConnectionName)
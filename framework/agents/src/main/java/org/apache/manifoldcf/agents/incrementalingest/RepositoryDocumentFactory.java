@@ -23,6 +23,7 @@ import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.Logging;
 import org.apache.manifoldcf.agents.system.ManifoldCF;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
 
 /** This class accepts a RepositoryDocument in its constructor, and then
@@ -31,7 +32,16 @@ import java.io.*;
 */
 public class RepositoryDocumentFactory
 {
-  
+  /** Property naming the largest stream, in bytes, that is copied in memory rather than to a temporary file */
+  public static final String maxInMemoryCopyProperty = "org.apache.manifoldcf.pipeline.maxinmemorycopy";
+  /** Default in-memory copy limit */
+  public static final int DEFAULT_MAX_IN_MEMORY_COPY = 1048576;
+
+  // Copy statistics, across all factories in this JVM
+  protected final static AtomicLong documentsCopied = new AtomicLong(0L);
+  protected final static AtomicLong bytesCopiedInMemory = new AtomicLong(0L);
+  protected final static AtomicLong bytesSpooled = new AtomicLong(0L);
+
   // The objects we need to track are:
   // (1) The binary stream
   // (2) All metadata values that are Readers
@@ -54,11 +64,33 @@ public class RepositoryDocumentFactory
   */
   public RepositoryDocumentFactory(RepositoryDocument document)
     throws ManifoldCFException, IOException
+  {
+    this(document,DEFAULT_MAX_IN_MEMORY_COPY);
+  }
+
+  /** Constructor.
+  * Pass a RepositoryDocument.  This constructor reads all streams and stores them
+  * in memory, if they are no larger than the supplied limit, or in a temporary local
+  * location otherwise.
+  * If there is an error reading the streams, an IOException will be thrown.  Otherwise,
+  * a ManifoldCFException will be thrown instead.
+  *@param document is the repository document to read.
+  *@param maxInMemorySize is the largest stream, in bytes, to hold in memory.
+  */
+  public RepositoryDocumentFactory(RepositoryDocument document, int maxInMemorySize)
+    throws ManifoldCFException, IOException
   {
     this.original = document;
+    long inMemory = 0L;
+    long spooled = 0L;
     try
     {
-      this.binaryTracker = new TempFileInput(document.getBinaryStream());
+      TempFileInput binaryCopy = new TempFileInput(document.getBinaryStream(),-1L,maxInMemorySize);
+      this.binaryTracker = binaryCopy;
+      if (binaryCopy.isInMemory())
+        inMemory += binaryCopy.getLength();
+      else
+        spooled += binaryCopy.getLength();
       // Copy all reader streams
       Iterator<String> iter = document.getFields();
       while (iter.hasNext())
@@ -72,10 +104,20 @@ public class RepositoryDocumentFactory
           // Populate newValues
           for (int i = 0; i < newValues.length; i++)
           {
-            newValues[i] = new TempFileCharacterInput((Reader)objects[i]);
+            TempFileCharacterInput characterCopy = new TempFileCharacterInput((Reader)objects[i],-1L,maxInMemorySize);
+            newValues[i] = characterCopy;
+            if (characterCopy.isInMemory())
+              inMemory += characterCopy.getUtf8StreamLength();
+            else
+              spooled += characterCopy.getUtf8StreamLength();
           }
         }
       }
+      documentsCopied.incrementAndGet();
+      bytesCopiedInMemory.addAndGet(inMemory);
+      bytesSpooled.addAndGet(spooled);
+      if (Logging.ingest.isDebugEnabled())
+        Logging.ingest.debug("Copied document for pipeline fan-out: "+inMemory+" bytes in memory, "+spooled+" bytes spooled to disk");
     }
     catch (Throwable e)
     {
@@ -162,6 +204,24 @@ public class RepositoryDocumentFactory
     return rd;
   }
   
+  /** Get the number of documents copied for pipeline fan-out so far. */
+  public static long getDocumentsCopied()
+  {
+    return documentsCopied.get();
+  }
+
+  /** Get the number of bytes copied in memory for pipeline fan-out so far. */
+  public static long getBytesCopiedInMemory()
+  {
+    return bytesCopiedInMemory.get();
+  }
+
+  /** Get the number of bytes spooled to temporary files for pipeline fan-out so far. */
+  public static long getBytesSpooled()
+  {
+    return bytesSpooled.get();
+  }
+
   /** Close this object and release its resources.
   */
   public void close()
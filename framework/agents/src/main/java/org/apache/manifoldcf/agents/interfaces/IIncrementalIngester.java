@@ -232,6 +232,21 @@ public interface IIncrementalIngester
     IOutputActivity activities)
     throws ManifoldCFException, ServiceInterruption, IOException;
 
+  /** Wait for the output connectors to acknowledge every document that documentIngest() handed them without waiting,
+  * and note the acknowledged documents as ingested.  This must be called before the documents are considered done,
+  * on the same thread that ingested them.
+  *@return the identifier hashes of the documents that an output connector reported as failed.  Those documents
+  * must be ingested again.
+  */
+  public Set<String> flushPendingIngestions()
+    throws ManifoldCFException;
+
+  /** Forget the documents that output connectors have yet to acknowledge, e.g. because the documents are being
+  * abandoned.  Those documents will be ingested again.  Call this on the same thread when done with a set of
+  * documents, whether or not flushPendingIngestions() was called.
+  */
+  public void discardPendingIngestions();
+
   /** Remove a document component from the search engine index.
   *@param pipelineConnections is the pipeline specification.
   *@param identifierClass is the name of the space in which the identifier hash should be interpreted.
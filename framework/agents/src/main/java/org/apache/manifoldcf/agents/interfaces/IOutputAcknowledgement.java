@@ -0,0 +1,57 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.interfaces;
+
+/** This interface is handed to an output connector along with a document, so that the connector can report the
+* outcome for the document later, after the output data store has acknowledged it.  See
+* IOutputConnector.addOrReplaceDocumentWithAcknowledgement().
+*
+* A connector that returns IOutputConnector.DOCUMENTSTATUS_PENDING for a document must call exactly one of the methods
+* of this interface for that document, once.  The methods may be called from any thread, including a thread belonging
+* to the connector's client library, and do no more than record the outcome; the activity described is recorded, and
+* the document is noted as ingested, by the thread that sent the document.
+*/
+public interface IOutputAcknowledgement
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The output data store has acknowledged the document, either accepting it or permanently rejecting it.
+  *@param startTime is either null or the time since the start of epoch in milliseconds (Jan 1, 1970) when the activity
+  *       began.
+  *@param activityType is the activity to record for the document, or null if there's nothing to record.
+  *@param dataSize is the number of bytes of data involved in the activity, or null if not applicable.
+  *@param resultCode contains a terse description of the result of the activity.  May be null.
+  *@param resultDescription is a (possibly long) human-readable string which adds detail.  May be null.
+  */
+  public void documentAcknowledged(Long startTime, String activityType, Long dataSize,
+    String resultCode, String resultDescription);
+
+  /** The output data store did not take the document.  The document will be retried, just as if the connector had
+  * thrown a ServiceInterruption.
+  *@param startTime is either null or the time since the start of epoch in milliseconds (Jan 1, 1970) when the activity
+  *       began.
+  *@param activityType is the activity to record for the document, or null if there's nothing to record.
+  *@param dataSize is the number of bytes of data involved in the activity, or null if not applicable.
+  *@param resultCode contains a terse description of the result of the activity.  May be null.
+  *@param resultDescription is a (possibly long) human-readable string which adds detail.  May be null.
+  */
+  public void documentFailed(Long startTime, String activityType, Long dataSize,
+    String resultCode, String resultDescription);
+
+}
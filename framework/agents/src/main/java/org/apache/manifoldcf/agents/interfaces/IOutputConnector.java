@@ -50,6 +50,9 @@ public interface IOutputConnector extends IPipelineConnector
 {
   public static final String _rcsid = "@(#)$Id: IOutputConnector.java 998081 2010-09-17 11:33:15Z kwright $";
 
+  /** Document handed to the output data store, which has not acknowledged it yet */
+  public final static int DOCUMENTSTATUS_PENDING = 2;
+
   /** Return a list of activities that this connector generates.
   * The connector does NOT need to be connected before this method is called.
   *@return the set of activities.
@@ -66,6 +69,28 @@ public interface IOutputConnector extends IPipelineConnector
   public boolean requestInfo(Configuration output, String command)
     throws ManifoldCFException;
     
+  /** Add (or replace) a document in the output data store, without necessarily waiting for the output data store to
+  * acknowledge it.  A connector whose client library sends asynchronously should implement this method, so that a
+  * worker thread can have many documents in flight instead of waiting for each one in turn.  The default implementation
+  * calls addOrReplaceDocumentWithException().
+  * If this method returns DOCUMENTSTATUS_PENDING, the connector must later call one of the methods of the acknowledgement
+  * object, from any thread.  Until it does, the document is not noted as ingested, and the document is not finished by
+  * the crawler; if the agents process stops first, the document is sent again.  The document data is closed once this
+  * method returns, so the connector must have read whatever it needs by then.
+  *@param documentURI is the URI of the document.
+  *@param pipelineDescription includes the description string that was constructed for this document by the getOutputDescription() method.
+  *@param document is the document data to be processed (handed to the output data store).
+  *@param authorityNameString is the name of the authority responsible for authorizing any access tokens passed in with the repository document.  May be null.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  * It may not be used once this method has returned.
+  *@param acknowledgement is the object to report the document's outcome to, if this method returns DOCUMENTSTATUS_PENDING.
+  *@return the document status (accepted, permanently rejected, or pending).
+  *@throws IOException only if there's a stream error reading the document data.
+  */
+  public int addOrReplaceDocumentWithAcknowledgement(String documentURI, VersionContext pipelineDescription, RepositoryDocument document,
+    String authorityNameString, IOutputAddActivity activities, IOutputAcknowledgement acknowledgement)
+    throws ManifoldCFException, ServiceInterruption, IOException;
+
   /** Remove a document using the connector.
   * Note that the last outputDescription is included, since it may be necessary for the connector to use such information to know how to properly remove the document.
   *@param documentURI is the URI of the document.  The URI is presumed to be the unique identifier which the output data store will use to process
@@ -76,6 +101,18 @@ public interface IOutputConnector extends IPipelineConnector
   public void removeDocument(String documentURI, String outputDescription, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption;
 
+  /** Remove multiple documents using the connector.
+  * Connectors that can remove many documents from the output data store in one request should implement this method, since it is
+  * how documents are removed when a job is deleted or cleans up.  The default implementation removes each document in turn with
+  * removeDocument().
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for these documents by the getOutputDescription() method above,
+  * one per URI.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
@@ -190,6 +190,25 @@ public abstract class BaseOutputConnector extends org.apache.manifoldcf.core.con
     return DOCUMENTSTATUS_REJECTED;
   }
 
+  /** Add (or replace) a document in the output data store, without necessarily waiting for the output data store to
+  * acknowledge it.  See IOutputConnector.  The default implementation waits, by calling addOrReplaceDocumentWithException().
+  *@param documentURI is the URI of the document.
+  *@param pipelineDescription includes the description string that was constructed for this document by the getOutputDescription() method.
+  *@param document is the document data to be processed (handed to the output data store).
+  *@param authorityNameString is the name of the authority responsible for authorizing any access tokens passed in with the repository document.  May be null.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@param acknowledgement is the object to report the document's outcome to, if this method returns DOCUMENTSTATUS_PENDING.
+  *@return the document status (accepted, permanently rejected, or pending).
+  *@throws IOException only if there's a stream error reading the document data.
+  */
+  @Override
+  public int addOrReplaceDocumentWithAcknowledgement(String documentURI, VersionContext pipelineDescription, RepositoryDocument document,
+    String authorityNameString, IOutputAddActivity activities, IOutputAcknowledgement acknowledgement)
+    throws ManifoldCFException, ServiceInterruption, IOException
+  {
+    return addOrReplaceDocumentWithException(documentURI,pipelineDescription,document,authorityNameString,activities);
+  }
+
   /** Remove a document using the connector.
   * Note that the last outputDescription is included, since it may be necessary for the connector to use such information to know how to properly remove the document.
   *@param documentURI is the URI of the document.  The URI is presumed to be the unique identifier which the output data store will use to process
@@ -203,6 +222,24 @@ public abstract class BaseOutputConnector extends org.apache.manifoldcf.core.con
   {
     // Does nothing in the base class
   }
+
+  /** Remove multiple documents using the connector.
+  * Connectors that can remove many documents from the output data store in one request should override this method.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for these documents by the getOutputDescription() method above,
+  * one per URI.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Remove the documents one at a time
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      removeDocument(documentURIs[i],outputDescriptions[i],activities);
+    }
+  }
   
   /** Notify the connector that all records associated with this connection have been removed.
   * This method allows the connector to remove any internal data storage that is associated with records sent to the index on
@@ -0,0 +1,169 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.incrementalingest;
+
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.tests.BaseHSQLDB;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Spooling temporary files needs the ManifoldCF environment, which is why this
+* extends BaseHSQLDB.
+*/
+public class TestRepositoryDocumentFactory extends BaseHSQLDB
+{
+
+  @Test
+  public void testSmallDocumentCopiedInMemory()
+    throws Exception
+  {
+    byte[] content = makeContent(100000);
+    long spooledBefore = RepositoryDocumentFactory.getBytesSpooled();
+    long inMemoryBefore = RepositoryDocumentFactory.getBytesCopiedInMemory();
+    RepositoryDocumentFactory factory = new RepositoryDocumentFactory(makeDocument(content,"small reader"),1048576);
+    try
+    {
+      checkCopies(factory,content,"small reader");
+    }
+    finally
+    {
+      factory.close();
+    }
+    assertEquals(spooledBefore,RepositoryDocumentFactory.getBytesSpooled());
+    assertEquals(inMemoryBefore + content.length + "small reader".length(),RepositoryDocumentFactory.getBytesCopiedInMemory());
+  }
+
+  @Test
+  public void testTricklingDocumentCopiedInMemory()
+    throws Exception
+  {
+    // Arrives a little at a time, and is several chunks long, so the in-memory buffers have to grow
+    byte[] content = makeContent(700000);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 150000; i++)
+    {
+      sb.append((char)('a' + (i % 26)));
+    }
+    String readerValue = sb.toString();
+    long spooledBefore = RepositoryDocumentFactory.getBytesSpooled();
+    RepositoryDocument rd = new RepositoryDocument();
+    rd.setBinary(new TricklingInputStream(content),content.length);
+    rd.addField("text",new Reader[]{new StringReader(readerValue)});
+    rd.addField("title","title");
+    RepositoryDocumentFactory factory = new RepositoryDocumentFactory(rd,1048576);
+    try
+    {
+      checkCopies(factory,content,readerValue);
+    }
+    finally
+    {
+      factory.close();
+    }
+    assertEquals(spooledBefore,RepositoryDocumentFactory.getBytesSpooled());
+  }
+
+  @Test
+  public void testLargeDocumentSpooled()
+    throws Exception
+  {
+    byte[] content = makeContent(200000);
+    long spooledBefore = RepositoryDocumentFactory.getBytesSpooled();
+    RepositoryDocumentFactory factory = new RepositoryDocumentFactory(makeDocument(content,"reader"),65536);
+    try
+    {
+      checkCopies(factory,content,"reader");
+    }
+    finally
+    {
+      factory.close();
+    }
+    assertEquals(spooledBefore + content.length,RepositoryDocumentFactory.getBytesSpooled());
+  }
+
+  /** Returns at most 1000 bytes from each read */
+  protected static class TricklingInputStream extends ByteArrayInputStream
+  {
+    public TricklingInputStream(byte[] content)
+    {
+      super(content);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len)
+    {
+      return super.read(b,off,Math.min(len,1000));
+    }
+  }
+
+  protected static byte[] makeContent(int length)
+  {
+    byte[] rval = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      rval[i] = (byte)(i % 251);
+    }
+    return rval;
+  }
+
+  protected static RepositoryDocument makeDocument(byte[] content, String readerValue)
+    throws Exception
+  {
+    RepositoryDocument rd = new RepositoryDocument();
+    rd.setBinary(new ByteArrayInputStream(content),content.length);
+    rd.addField("text",new Reader[]{new StringReader(readerValue)});
+    rd.addField("title","title");
+    return rd;
+  }
+
+  protected static void checkCopies(RepositoryDocumentFactory factory, byte[] content, String readerValue)
+    throws Exception
+  {
+    // Every copy must see the complete data
+    for (int copy = 0; copy < 3; copy++)
+    {
+      RepositoryDocument rd = factory.createDocument();
+      assertEquals(content.length,rd.getBinaryLength());
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      InputStream is = rd.getBinaryStream();
+      byte[] buffer = new byte[8192];
+      while (true)
+      {
+        int amt = is.read(buffer);
+        if (amt == -1)
+          break;
+        os.write(buffer,0,amt);
+      }
+      assertArrayEquals(content,os.toByteArray());
+      Reader r = ((Reader[])rd.getField("text"))[0];
+      StringBuilder sb = new StringBuilder();
+      char[] cbuf = new char[1024];
+      while (true)
+      {
+        int amt = r.read(cbuf);
+        if (amt == -1)
+          break;
+        sb.append(cbuf,0,amt);
+      }
+      assertEquals(readerValue,sb.toString());
+      assertEquals("title",rd.getFieldAsStrings("title")[0]);
+    }
+  }
+
+}
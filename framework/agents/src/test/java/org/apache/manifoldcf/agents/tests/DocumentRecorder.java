@@ -0,0 +1,125 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.tests;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** Records the document sent downstream, and the result of the last activity */
+public class DocumentRecorder implements IOutputAddActivity
+{
+  protected RepositoryDocument document = null;
+  protected String content = null;
+  protected String resultCode = null;
+  protected String resultDescription = null;
+
+  public RepositoryDocument getDocument()
+  {
+    return document;
+  }
+
+  public String getContent()
+  {
+    return content;
+  }
+
+  public String getResultCode()
+  {
+    return resultCode;
+  }
+
+  public String getResultDescription()
+  {
+    return resultDescription;
+  }
+
+  @Override
+  public int sendDocument(String documentURI, RepositoryDocument document)
+    throws ManifoldCFException, ServiceInterruption, IOException
+  {
+    // The stream is only good until this returns
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    InputStream is = document.getBinaryStream();
+    byte[] buffer = new byte[65536];
+    while (true)
+    {
+      int amt = is.read(buffer);
+      if (amt == -1)
+        break;
+      bos.write(buffer, 0, amt);
+    }
+    this.document = document;
+    this.content = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    return IPipelineConnector.DOCUMENTSTATUS_ACCEPTED;
+  }
+
+  @Override
+  public void noDocument()
+  {
+  }
+
+  @Override
+  public String qualifyAccessToken(String authorityNameString, String accessToken)
+  {
+    return accessToken;
+  }
+
+  @Override
+  public void recordActivity(Long startTime, String activityType, Long dataSize,
+    String entityURI, String resultCode, String resultDescription)
+  {
+    this.resultCode = resultCode;
+    this.resultDescription = resultDescription;
+  }
+
+  @Override
+  public boolean checkDateIndexable(Date date)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean checkMimeTypeIndexable(String mimeType)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean checkDocumentIndexable(File localFile)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean checkLengthIndexable(long length)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean checkURLIndexable(String url)
+  {
+    return true;
+  }
+
+}
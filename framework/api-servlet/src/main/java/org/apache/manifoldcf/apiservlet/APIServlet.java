@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.system.JSONReportOutput;
 import org.apache.manifoldcf.crawler.system.Logging;
 import org.apache.manifoldcf.core.util.URLDecoder;
 
@@ -100,7 +101,9 @@ public class APIServlet extends HttpServlet
     {
       // We should only see this error if there's an API problem, not if there's an actual problem with the method being called.
       Logging.api.debug("API error doing GET: "+e.getMessage(),e);
-      response.sendError(response.SC_BAD_REQUEST,e.getMessage());
+      // A streamed report may have started the response already; all that can be done then is to stop
+      if (!response.isCommitted())
+        response.sendError(response.SC_BAD_REQUEST,e.getMessage());
     }
   }
 
@@ -251,6 +254,35 @@ public class APIServlet extends HttpServlet
     }
   }
   
+  /** Report output that writes JSON report rows to the servlet response.
+  */
+  protected static class ResponseReportOutput extends JSONReportOutput
+  {
+    protected final HttpServletResponse response;
+
+    public ResponseReportOutput(HttpServletResponse response)
+      throws IOException
+    {
+      super(new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),StandardCharsets.UTF_8)));
+      this.response = response;
+    }
+
+    @Override
+    public void startRows(String[] resultColumns)
+      throws ManifoldCFException
+    {
+      super.startRows(resultColumns);
+      // The length isn't known, so the response is chunked
+      response.setContentType("text/plain; charset=utf-8");
+    }
+
+    public void close()
+      throws IOException
+    {
+      writer.close();
+    }
+  }
+
   /** Perform a general "read" operation.
   */
   protected static void executeRead(IThreadContext tc, HttpServletResponse response, String pathInfo, String queryString, APIProfile ap)
@@ -289,7 +321,29 @@ public class APIServlet extends HttpServlet
     
     // There the only response distinction we have here is between exception and no exception.
     Configuration output = new Configuration();
-    int readResult = ManifoldCF.executeReadCommand(tc,output,command,queryParameters,ap);
+    // Report rows are written to the response as they are read, rather than being collected first
+    ResponseReportOutput reportOutput = null;
+    if (protocol.equals("json"))
+      reportOutput = new ResponseReportOutput(response);
+    int readResult = ManifoldCF.executeReadCommand(tc,output,command,queryParameters,ap,reportOutput);
+
+    if (reportOutput != null && reportOutput.isStarted())
+    {
+      // The response is already under way, so there is no status left to set
+      try
+      {
+        reportOutput.finish(output);
+      }
+      catch (ManifoldCFException e)
+      {
+        Logging.api.error("Error forming JSON response: "+e.getMessage(),e);
+      }
+      finally
+      {
+        reportOutput.close();
+      }
+      return;
+    }
 
     // Output
     
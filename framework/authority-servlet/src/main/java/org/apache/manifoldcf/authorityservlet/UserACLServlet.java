@@ -25,6 +25,7 @@ import org.apache.manifoldcf.authorities.system.Logging;
 import org.apache.manifoldcf.authorities.system.RequestQueue;
 import org.apache.manifoldcf.authorities.system.AuthRequest;
 import org.apache.manifoldcf.authorities.system.MappingRequest;
+import org.apache.manifoldcf.authorities.system.AuthorizationResponseCache;
 import org.apache.manifoldcf.core.util.URLEncoder;
 
 import java.io.*;
@@ -199,10 +200,10 @@ public class UserACLServlet extends HttpServlet
       // Get all mapping connections; we may not need them all but we do need to be able to look them all up
       IMappingConnection[] mappingConnections = mappingConnManager.getAllConnections();
       
-      // One thread per connection, which is responsible for starting the mapping process when it is ready.
-      List<MappingOrderThread> mappingThreads = new ArrayList<MappingOrderThread>();
-      // One thread per authority, which is responsible for starting the auth request when it is ready.
-      List<AuthOrderThread> authThreads = new ArrayList<AuthOrderThread>();
+      // Mapping requests that must wait for a prerequisite mapping before they can be queued.
+      List<MappingOrder> mappingOrders = new ArrayList<MappingOrder>();
+      // Auth requests that must wait for a prerequisite mapping before they can be queued.
+      List<AuthOrder> authOrders = new ArrayList<AuthOrder>();
 
       Map<MapperDescription,MappingRequest> mappingRequests = new HashMap<MapperDescription,MappingRequest>();
       Map<String,AuthRequest> authRequests = new HashMap<String,AuthRequest>();
@@ -236,7 +237,7 @@ public class UserACLServlet extends HttpServlet
           AuthRequest ar = new AuthRequest(thisConnection,identifyingString);
           authRequests.put(thisConnection.getName(), ar);
           
-          // We create an auth thread if there are prerequisites to meet.
+          // We queue the request later, once its prerequisite mapping is done, if there is one.
           // Otherwise, we just fire off the request
           String domainUserID = domainMap.get(authDomain);
           if (thisConnection.getPrerequisiteMapping() == null)
@@ -247,10 +248,7 @@ public class UserACLServlet extends HttpServlet
           else
           {
             MapperDescription md = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-            AuthOrderThread thread = new AuthOrderThread(identifyingString,
-              ar, md,
-              queue, mappingRequests);
-            authThreads.add(thread);
+            authOrders.add(new AuthOrder(ar, md, queue));
             // The same mapper can be used for multiple domains, although this is likely to be uncommon.  Nevertheless,
             // mapper invocations need to be segregated to prevent trouble
             activeConnections.add(md);
@@ -274,7 +272,7 @@ public class UserACLServlet extends HttpServlet
         MappingRequest mr = new MappingRequest(thisConnection,identifyingString);
         mappingRequests.put(mapperDesc, mr);
 
-        // Either start up a thread, or just fire it off immediately.
+        // Either chain it onto its prerequisite, or just fire it off immediately.
         if (thisConnection.getPrerequisiteMapping() == null)
         {
           mr.setUserID(domainMap.get(authDomain));
@@ -284,37 +282,26 @@ public class UserACLServlet extends HttpServlet
         {
           //System.out.println("Mapper: prerequisite found: '"+thisConnection.getPrerequisiteMapping()+"'");
           MapperDescription p = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-          MappingOrderThread thread = new MappingOrderThread(identifyingString,
-            mr, p, mappingQueue, mappingRequests);
-          mappingThreads.add(thread);
+          mappingOrders.add(new MappingOrder(mr, p, mappingQueue));
           if (mappingRequests.get(p) == null)
             activeConnections.add(p);
         }
         activeConnections.remove(mapperDesc);
       }
       
-      // Start threads.  We have to wait until all the requests have been
-      // at least created before we do this.
-      for (MappingOrderThread thread : mappingThreads)
+      // Chain the dependent requests onto their prerequisites.  We have to wait until all the requests have been
+      // at least created before we do this.  Each request is queued by whichever thread completes its
+      // prerequisite mapping, so no thread sits waiting on its behalf.
+      for (MappingOrder order : mappingOrders)
       {
-        thread.start();
+        order.chain(mappingRequests);
       }
-      for (AuthOrderThread thread : authThreads)
+      for (AuthOrder order : authOrders)
       {
-        thread.start();
+        order.chain(mappingRequests);
       }
       
-      // Wait for the threads to finish up.  This will guarantee that all entities have run to completion.
-      for (MappingOrderThread thread : mappingThreads)
-      {
-        thread.finishUp();
-      }
-      for (AuthOrderThread thread : authThreads)
-      {
-        thread.finishUp();
-      }
-      
-      // This is probably unnecessary, but we do it anyway just to adhere to the contract
+      // Wait for all the mappings to complete.
       for (MappingRequest mr : mappingRequests.values())
       {
         mr.waitForComplete();
@@ -335,6 +322,8 @@ public class UserACLServlet extends HttpServlet
 
       // Ask all the interrogated authorities for their ACLs, and merge the final list together.
       StringBuilder sb = new StringBuilder();
+      int cacheHits = 0;
+      int cacheMisses = 0;
       // Set response mime type
       response.setContentType("text/plain; charset=ISO8859-1");
       ServletOutputStream out = response.getOutputStream();
@@ -352,6 +341,11 @@ public class UserACLServlet extends HttpServlet
           if (Logging.authorityService.isDebugEnabled())
             Logging.authorityService.debug("Received answer from authority connection "+ar.getIdentifyingString()+" for user '"+ar.getUserID()+"'");
 
+          if (ar.isAnswerFromCache())
+            cacheHits++;
+          else
+            cacheMisses++;
+
           Throwable exception = ar.getAnswerException();
           AuthorizationResponse reply = ar.getAnswerResponse();
           if (exception != null)
@@ -439,7 +433,9 @@ public class UserACLServlet extends HttpServlet
           sb2.append("'").append(domain).append("':'").append(domainMap.get(domain)).append("'");
         }
         sb2.append("]");
-        Logging.authorityService.debug("Done with request for domain:user set "+sb2.toString());
+        Logging.authorityService.debug("Done with request for domain:user set "+sb2.toString()+"; "+
+          cacheHits+" cached and "+cacheMisses+" uncached authority responses (totals since startup: "+
+          AuthorizationResponseCache.getHits()+" hits, "+AuthorizationResponseCache.getMisses()+" misses)");
       }
     }
     catch (InterruptedException e)
@@ -481,130 +477,70 @@ public class UserACLServlet extends HttpServlet
     }
   }
   
-  /** This thread is responsible for making sure that the constraints for a given mapping connection
-  * are met, and then when they are, firing off a MappingRequest.  One of these threads is spun up
-  * for every IMappingConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_mappers>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This action queues a mapping request once its prerequisite mapping has completed.  It is
+  * run by whichever thread completes the prerequisite.
   */
-  protected static class MappingOrderThread extends Thread
+  protected static class MappingOrder implements Runnable
   {
     protected final MappingRequest request;
     protected final MapperDescription prerequisite;
-    protected final Map<MapperDescription,MappingRequest> requests;
     protected final RequestQueue<MappingRequest> mappingRequestQueue;
+    protected MappingRequest prerequisiteRequest = null;
 
-    protected Throwable exception = null;
-    
-    public MappingOrderThread(
-      String identifyingString,
-      MappingRequest request,
+    public MappingOrder(MappingRequest request,
       MapperDescription prerequisite,
-      RequestQueue<MappingRequest> mappingRequestQueue,
-      Map<MapperDescription, MappingRequest> requests)
+      RequestQueue<MappingRequest> mappingRequestQueue)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
       this.mappingRequestQueue = mappingRequestQueue;
-      this.requests = requests;
-      setName("Constraint matcher for mapper '"+identifyingString+"'");
-      setDaemon(true);
     }
-    
-    public void run()
+
+    public void chain(Map<MapperDescription,MappingRequest> requests)
     {
-      try
-      {
-        MappingRequest mappingRequest = requests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.
-        request.setUserID(mappingRequest.getAnswerResponse());
-        mappingRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
+      prerequisiteRequest = requests.get(prerequisite);
+      prerequisiteRequest.runWhenComplete(this);
     }
 
-    public void finishUp()
-      throws InterruptedException
+    public void run()
     {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      // Constraints are met.  Fire off the request.
+      request.setUserID(prerequisiteRequest.getAnswerResponse());
+      mappingRequestQueue.addRequest(request);
     }
-    
   }
 
-  /** This thread is responsible for making sure that the constraints for a given authority connection
-  * are met, and then when they are, firing off an AuthRequest.  One of these threads is spun up
-  * for every IAuthorityConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_authorities>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This action queues an auth request once its prerequisite mapping has completed.  It is
+  * run by whichever thread completes the prerequisite.
   */
-  protected static class AuthOrderThread extends Thread
+  protected static class AuthOrder implements Runnable
   {
     protected final AuthRequest request;
     protected final MapperDescription prerequisite;
-    protected final Map<MapperDescription,MappingRequest> mappingRequests;
     protected final RequestQueue<AuthRequest> authRequestQueue;
-    
-    protected Throwable exception = null;
-    
-    public AuthOrderThread(
-      String identifyingString,
-      AuthRequest request,
+    protected MappingRequest prerequisiteRequest = null;
+
+    public AuthOrder(AuthRequest request,
       MapperDescription prerequisite,
-      RequestQueue<AuthRequest> authRequestQueue,
-      Map<MapperDescription, MappingRequest> mappingRequests)
+      RequestQueue<AuthRequest> authRequestQueue)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
       this.authRequestQueue = authRequestQueue;
-      this.mappingRequests = mappingRequests;
-      setName("Constraint matcher for authority '"+identifyingString+"'");
-      setDaemon(true);
     }
-    
-    public void run()
+
+    public void chain(Map<MapperDescription,MappingRequest> requests)
     {
-      try
-      {
-        MappingRequest mappingRequest = mappingRequests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.  User may be null if mapper failed!!
-        request.setUserID(mappingRequest.getAnswerResponse());
-        authRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
+      prerequisiteRequest = requests.get(prerequisite);
+      prerequisiteRequest.runWhenComplete(this);
     }
 
-    public void finishUp()
-      throws InterruptedException
+    public void run()
     {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      // Constraints are met.  Fire off the request.
+      request.setUserID(prerequisiteRequest.getAnswerResponse());
+      authRequestQueue.addRequest(request);
     }
-    
   }
-  
+
 }
@@ -0,0 +1,251 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.connectorcommon.common;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** Group commit, for output connectors whose target accepts many documents in one request.
+* Worker threads sending to the same place with the same settings each hand an item to the shared
+* queue, and wait.  A batch is sealed by whichever thread fills it (by item count or byte size), or
+* whichever thread first notices that the batch's wait deadline has passed.  The batch is then sent on
+* a sender thread, which records the outcome for each item in the item, and the waiting threads return.
+* Sender threads are reused from batch to batch.  Sending happens on a sender thread, rather than on a
+* worker thread, because socket waits cannot be interrupted: a worker thread that is interrupted stops
+* waiting, and the batch is still sent for everyone else.
+*/
+public class GroupCommitQueue<T>
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How long a sender thread waits for another batch before it exits, in milliseconds */
+  protected final static long senderIdleTime = 60000L;
+
+  /** Queues, keyed by item class, destination, settings, and batch limits */
+  private final static Map<String,GroupCommitQueue<?>> queues = new HashMap<String,GroupCommitQueue<?>>();
+
+  /** Sender threads waiting for a batch to send.  Also the monitor used to hand them one. */
+  private final static List<SenderThread> idleSenders = new ArrayList<SenderThread>();
+
+  /** Get the queue shared by everyone sending items of the given class with the same key and limits.
+  *@param itemClass is the class of the items.
+  *@param key describes the destination and any settings that all items in a batch must share.
+  *@param maxItems is the most items in a batch.
+  *@param maxBytes is the size a batch is sent at, in bytes.
+  *@param maxWait is the longest an item waits for its batch to fill, in milliseconds.
+  *@return the queue.
+  */
+  public static <T> GroupCommitQueue<T> getQueue(Class<T> itemClass, String key, int maxItems, long maxBytes, long maxWait)
+  {
+    final String fullKey = itemClass.getName() + "\n" + key + "\n" + maxItems + "\n" + maxBytes + "\n" + maxWait;
+    synchronized (queues)
+    {
+      GroupCommitQueue<T> rval = (GroupCommitQueue<T>)queues.get(fullKey);
+      if (rval == null)
+      {
+        rval = new GroupCommitQueue<T>(maxItems, maxBytes, maxWait);
+        queues.put(fullKey, rval);
+      }
+      return rval;
+    }
+  }
+
+  protected final int maxItems;
+  protected final long maxBytes;
+  protected final long maxWait;
+
+  /** The batch currently accepting items, or null */
+  protected Batch<T> current = null;
+
+  public GroupCommitQueue(int maxItems, long maxBytes, long maxWait)
+  {
+    this.maxItems = maxItems;
+    this.maxBytes = maxBytes;
+    this.maxWait = maxWait;
+  }
+
+  /** Add an item to the current batch, and wait until the batch has been sent.
+  * If this thread seals the batch, the batch is sent using the supplied sender.
+  * On return the item's outcome has been recorded in the item by the sender.
+  *@param item is the item.
+  *@param size is the item's size in bytes, for batch size accounting.
+  *@param sender sends the batch, should this thread be the one to seal it.
+  */
+  public void submit(T item, long size, IBatchSender<T> sender)
+    throws ManifoldCFException
+  {
+    synchronized (this)
+    {
+      if (current == null)
+        current = new Batch<T>(System.currentTimeMillis() + maxWait);
+      Batch<T> batch = current;
+      batch.items.add(item);
+      batch.sizes.add(new Long(size));
+      batch.byteCount += size;
+      try
+      {
+        while (!batch.complete)
+        {
+          if (!batch.sealed)
+          {
+            long now = System.currentTimeMillis();
+            if (batch.items.size() >= maxItems || batch.byteCount >= maxBytes || now >= batch.deadline)
+            {
+              batch.sealed = true;
+              if (current == batch)
+                current = null;
+              startSend(batch, sender);
+              continue;
+            }
+            wait(batch.deadline - now);
+          }
+          else
+            wait();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Don't leave our item behind in a batch nobody is waiting on
+        if (!batch.sealed)
+        {
+          int index = batch.items.indexOf(item);
+          batch.items.remove(index);
+          batch.byteCount -= batch.sizes.remove(index).longValue();
+          if (batch.items.size() == 0 && current == batch)
+            current = null;
+        }
+        throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+    }
+  }
+
+  /** Hand a sealed batch to a sender thread.  Called with the queue's monitor held. */
+  protected void startSend(final Batch<T> batch, final IBatchSender<T> sender)
+  {
+    Runnable task = new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            sender.sendBatch(batch.items);
+          }
+          finally
+          {
+            synchronized (GroupCommitQueue.this)
+            {
+              batch.complete = true;
+              GroupCommitQueue.this.notifyAll();
+            }
+          }
+        }
+      };
+    synchronized (idleSenders)
+    {
+      if (idleSenders.size() > 0)
+      {
+        SenderThread t = idleSenders.remove(idleSenders.size() - 1);
+        t.task = task;
+        idleSenders.notifyAll();
+        return;
+      }
+    }
+    new SenderThread(task).start();
+  }
+
+  /** Sends batches for a connector. */
+  public static interface IBatchSender<T>
+  {
+    /** Send a batch of items, and record the outcome for each item in the item.  This is called on a
+    * sender thread, so every failure, including runtime exceptions, belongs in the items rather than
+    * being thrown.
+    *@param items are the items, in the order they were submitted.
+    */
+    public void sendBatch(List<T> items);
+  }
+
+  /** A batch of items being accumulated or sent. */
+  protected static class Batch<T>
+  {
+    protected final List<T> items = new ArrayList<T>();
+    protected final List<Long> sizes = new ArrayList<Long>();
+    protected final long deadline;
+    protected long byteCount = 0L;
+    protected boolean sealed = false;
+    protected boolean complete = false;
+
+    public Batch(long deadline)
+    {
+      this.deadline = deadline;
+    }
+  }
+
+  /** Sends one batch after another, exiting once it has been idle for a while. */
+  protected static class SenderThread extends Thread
+  {
+    /** The batch to send next, or null; protected by the idleSenders monitor */
+    protected Runnable task;
+
+    public SenderThread(Runnable task)
+    {
+      super();
+      setDaemon(true);
+      setName("Group commit sender");
+      this.task = task;
+    }
+
+    @Override
+    public void run()
+    {
+      Runnable next = task;
+      while (true)
+      {
+        next.run();
+        synchronized (idleSenders)
+        {
+          task = null;
+          idleSenders.add(this);
+          long idleEnd = System.currentTimeMillis() + senderIdleTime;
+          try
+          {
+            while (task == null)
+            {
+              long now = System.currentTimeMillis();
+              if (now >= idleEnd)
+                break;
+              idleSenders.wait(idleEnd - now);
+            }
+          }
+          catch (InterruptedException e)
+          {
+            // Exit, unless a batch has already been handed over
+          }
+          if (task == null)
+          {
+            idleSenders.remove(this);
+            return;
+          }
+          next = task;
+        }
+      }
+    }
+  }
+
+}
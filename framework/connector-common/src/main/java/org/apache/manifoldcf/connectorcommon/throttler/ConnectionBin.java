@@ -70,6 +70,11 @@ public class ConnectionBin
   * whenever a poolCount goes from zero to 1, and we decrement it whenever a poolCount
   * goes from one to zero. */
   protected int referencingPools = 0;
+  /** Returned by tryReserve() when the caller must wait */
+  protected final static int MUST_WAIT = -2;
+
+  /** Threads waiting for a connection, in the order they arrived */
+  protected final List<WaitTicket> waiters = new LinkedList<WaitTicket>();
   
   /** The service type prefix for connection bins */
   protected final static String serviceTypePrefix = "_CONNECTIONBIN_";
@@ -124,43 +129,92 @@ public class ConnectionBin
   * subsequent call to noteConnectionCreation() will be needed to confirm the reservation, or clearReservation() to
   * release the reservation.
   */
-  public synchronized int waitConnectionAvailable(AtomicInteger poolCount, IBreakCheck breakCheck)
+  public int waitConnectionAvailable(AtomicInteger poolCount, IBreakCheck breakCheck)
     throws InterruptedException, BreakException
   {
     // Reserved connections keep a slot available which can't be used by anyone else.
     // Connection bins are always sorted so that deadlocks can't occur.
     // Once all slots are reserved, the caller will go ahead and create the necessary connection
     // and convert the reservation to a new connection.
-    
-    while (true)
+
+    WaitTicket ticket;
+    synchronized (this)
     {
-      if (!isAlive)
-        return IConnectionThrottler.CONNECTION_FROM_NOWHERE;
-      int currentPoolCount = poolCount.get();
-      if (currentPoolCount > 0)
-      {
-        // Recommendation is to pull the connection from the pool.
-        poolCount.set(currentPoolCount - 1);
-        if (currentPoolCount == 1)
-          referencingPools--;
-        return IConnectionThrottler.CONNECTION_FROM_POOL;
-      }
-      if (inUseConnections + reservedConnections < localMax)
-      {
-        reservedConnections++;
-        return IConnectionThrottler.CONNECTION_FROM_CREATION;
-      }
-      // Wait for a connection to free up.  Note that it is up to the caller to free stuff up.
-      if (breakCheck == null)
+      // Whenever something frees up, it is handed straight to whichever waiters can use it, so
+      // nobody already waiting can use what is available now; we don't have to queue behind them.
+      int recommendation = tryReserve(poolCount);
+      if (recommendation != MUST_WAIT)
+        return recommendation;
+      ticket = new WaitTicket(poolCount);
+      waiters.add(ticket);
+    }
+
+    // Wait for a connection to free up.  Note that it is up to the caller to free stuff up.
+    boolean granted = false;
+    try
+    {
+      int recommendation = ticket.waitGranted(breakCheck);
+      granted = true;
+      return recommendation;
+    }
+    finally
+    {
+      if (!granted)
       {
-        wait();
+        synchronized (this)
+        {
+          if (ticket.withdraw())
+            waiters.remove(ticket);
+          else
+            // We were granted something after all; give it back
+            undoReservation(ticket.getResult(),poolCount);
+        }
       }
-      else
+    }
+  }
+
+  /** Decide what a caller should do, and reserve it, if a connection is available to it now.
+  * Call with the bin lock held.
+  *@return the recommendation, or MUST_WAIT if the caller must wait.
+  */
+  protected int tryReserve(AtomicInteger poolCount)
+  {
+    if (!isAlive)
+      return IConnectionThrottler.CONNECTION_FROM_NOWHERE;
+    int currentPoolCount = poolCount.get();
+    if (currentPoolCount > 0)
+    {
+      // Recommendation is to pull the connection from the pool.
+      poolCount.set(currentPoolCount - 1);
+      if (currentPoolCount == 1)
+        referencingPools--;
+      WaitTicket.noteGrant();
+      return IConnectionThrottler.CONNECTION_FROM_POOL;
+    }
+    if (inUseConnections + reservedConnections < localMax)
+    {
+      reservedConnections++;
+      WaitTicket.noteGrant();
+      return IConnectionThrottler.CONNECTION_FROM_CREATION;
+    }
+    return MUST_WAIT;
+  }
+
+  /** Hand out whatever has become available to the waiters that can use it, oldest first, and
+  * wake up just those.  Call with the bin lock held, whenever a connection or pool slot frees up.
+  */
+  protected void grantWaiters()
+  {
+    Iterator<WaitTicket> iter = waiters.iterator();
+    while (iter.hasNext())
+    {
+      WaitTicket ticket = iter.next();
+      int recommendation = tryReserve(ticket.getPoolCount());
+      if (recommendation != MUST_WAIT)
       {
-        long amt = breakCheck.abortCheck();
-        wait(amt);
+        iter.remove();
+        ticket.grant(recommendation);
       }
-      // Back around
     }
   }
   
@@ -174,7 +228,7 @@ public class ConnectionBin
       if (reservedConnections == 0)
         throw new IllegalStateException("Can't clear a reservation we don't have");
       reservedConnections--;
-      notifyAll();
+      grantWaiters();
     }
     else if (recommendation == IConnectionThrottler.CONNECTION_FROM_POOL)
     {
@@ -182,7 +236,7 @@ public class ConnectionBin
       poolCount.set(currentCount + 1);
       if (currentCount == 0)
         referencingPools++;
-      notifyAll();
+      grantWaiters();
     }
   }
   
@@ -261,7 +315,7 @@ public class ConnectionBin
     poolCount.set(currentPoolCount + 1);
     if (currentPoolCount == 0)
       referencingPools++;
-    notifyAll();
+    grantWaiters();
   }
   
   /** Note a connection returned to the pool.
@@ -272,8 +326,8 @@ public class ConnectionBin
     poolCount.set(currentPoolCount + 1);
     if (currentPoolCount == 0)
       referencingPools++;
-    // Wake up threads possibly waiting on a pool return.
-    notifyAll();
+    // Hand it to a thread possibly waiting on a pool return.
+    grantWaiters();
   }
   
   /** Note the destruction of an active connection that belongs to this bin.
@@ -281,7 +335,7 @@ public class ConnectionBin
   public synchronized void noteConnectionDestroyed()
   {
     inUseConnections--;
-    notifyAll();
+    grantWaiters();
   }
 
   /** Poll this bin */
@@ -365,7 +419,7 @@ public class ConnectionBin
       if (target == localMax)
         return;
       localMax = target;
-      notifyAll();
+      grantWaiters();
     }
     finally
     {
@@ -379,7 +433,8 @@ public class ConnectionBin
     throws ManifoldCFException
   {
     isAlive = false;
-    notifyAll();
+    // Everyone still waiting gets CONNECTION_FROM_NOWHERE
+    grantWaiters();
     ILockManager lockManager = LockManagerFactory.make(threadContext);
     lockManager.endServiceActivity(serviceTypeName, serviceName);
   }
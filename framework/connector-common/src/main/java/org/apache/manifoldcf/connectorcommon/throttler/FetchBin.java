@@ -21,6 +21,7 @@ package org.apache.manifoldcf.connectorcommon.throttler;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.connectorcommon.interfaces.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import java.util.*;
 
 /** Connection tracking for a bin.
 *
@@ -52,6 +53,8 @@ public class FetchBin
   protected long lastFetchTime = 0L;
   /** Is the next fetch reserved? */
   protected boolean reserveNextFetch = false;
+  /** Threads waiting to reserve the next fetch, in the order they arrived */
+  protected final LinkedList<WaitTicket> waiters = new LinkedList<WaitTicket>();
 
   /** The service type prefix for fetch bins */
   protected final static String serviceTypePrefix = "_FETCHBIN_";
@@ -100,27 +103,46 @@ public class FetchBin
   * has permission to do the fetch, and can update the last fetch time.
   *@return false if the fetch bin is being shut down.
   */
-  public synchronized boolean reserveFetchRequest(IBreakCheck breakCheck)
+  public boolean reserveFetchRequest(IBreakCheck breakCheck)
     throws InterruptedException, BreakException
   {
-    // First wait for the ability to even get the next fetch from this bin
-    while (true)
+    // First wait for the ability to even get the next fetch from this bin.  Only one thread at a time
+    // can hold the reservation, so the others queue up, and the reservation is handed directly
+    // to the next one in line when it is released.
+    WaitTicket ticket;
+    synchronized (this)
     {
       if (!isAlive)
         return false;
       if (!reserveNextFetch)
       {
         reserveNextFetch = true;
+        WaitTicket.noteGrant();
         return true;
       }
-      if (breakCheck == null)
-      {
-        wait();
-      }
-      else
+      ticket = new WaitTicket(null);
+      waiters.add(ticket);
+    }
+
+    boolean granted = false;
+    try
+    {
+      boolean rval = ticket.waitGranted(breakCheck) != 0;
+      granted = true;
+      return rval;
+    }
+    finally
+    {
+      if (!granted)
       {
-        long amt = breakCheck.abortCheck();
-        wait(amt);
+        synchronized (this)
+        {
+          if (ticket.withdraw())
+            waiters.remove(ticket);
+          else if (ticket.getResult() != 0)
+            // The reservation was handed to us after all; pass it along
+            passReservation();
+        }
       }
     }
   }
@@ -131,8 +153,23 @@ public class FetchBin
   {
     if (!reserveNextFetch)
       throw new IllegalStateException("Can't clear a fetch reservation we don't have");
-    reserveNextFetch = false;
-    notifyAll();
+    passReservation();
+  }
+  
+  /** Hand the fetch reservation to the next waiting thread, or release it if nobody is waiting.
+  * Call with the bin lock held.
+  */
+  protected void passReservation()
+  {
+    WaitTicket ticket = waiters.poll();
+    if (ticket == null)
+    {
+      reserveNextFetch = false;
+      return;
+    }
+    // reserveNextFetch stays true; it now belongs to the waiter
+    WaitTicket.noteGrant();
+    ticket.grant(1);
   }
   
   /** Wait the necessary time to do the fetch.  Presumes we've reserved the next fetch
@@ -163,6 +200,7 @@ public class FetchBin
           long amt = breakCheck.abortCheck();
           wait(amt);
         }
+        WaitTicket.noteWakeup();
         // Back around
       }
       else
@@ -175,8 +213,7 @@ public class FetchBin
           // Note actual time we start the fetch.
           if (currentTime > lastFetchTime)
             lastFetchTime = currentTime;
-          reserveNextFetch = false;
-          notifyAll();
+          passReservation();
           return true;
         }
         if (breakCheck == null)
@@ -190,6 +227,7 @@ public class FetchBin
             amt = waitAmt;
           wait(amt);
         }
+        WaitTicket.noteWakeup();
         // Back around
       }
     }
@@ -293,6 +331,14 @@ public class FetchBin
     throws ManifoldCFException
   {
     isAlive = false;
+    // Tell everyone waiting for the reservation that there's nothing to reserve
+    while (true)
+    {
+      WaitTicket ticket = waiters.poll();
+      if (ticket == null)
+        break;
+      ticket.grant(0);
+    }
     notifyAll();
     ILockManager lockManager = LockManagerFactory.make(threadContext);
     lockManager.endServiceActivity(serviceTypeName, serviceName);
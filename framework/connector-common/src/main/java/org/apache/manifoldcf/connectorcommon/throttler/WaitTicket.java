@@ -0,0 +1,136 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.connectorcommon.throttler;
+
+import org.apache.manifoldcf.connectorcommon.interfaces.*;
+import java.util.concurrent.atomic.*;
+
+/** A ticket held by a thread waiting its turn in a connection or fetch bin.
+*
+* Each waiting thread waits on its own ticket, rather than on the bin, so when the bin's
+* state changes, the bin can hand the resource directly to the waiter that gets it, and wake
+* up only that thread.  The bin decides, while holding its own lock, and then grants the ticket;
+* a waiter that gives up must withdraw its ticket while holding the bin lock, and if it finds
+* that it was granted something in the meantime, must give that back.  Locks are always taken in
+* the order bin, then ticket.
+*/
+public class WaitTicket
+{
+  protected static final int STATE_WAITING = 0;
+  protected static final int STATE_GRANTED = 1;
+  protected static final int STATE_WITHDRAWN = 2;
+
+  /** Times a waiting thread has woken up, in any bin */
+  protected static final AtomicLong wakeupCount = new AtomicLong(0L);
+  /** Times a thread was granted what it was after, in any bin */
+  protected static final AtomicLong grantCount = new AtomicLong(0L);
+
+  /** The pool count of the waiter, for connection bins */
+  protected final AtomicInteger poolCount;
+
+  protected int state = STATE_WAITING;
+  protected int result = 0;
+
+  public WaitTicket(AtomicInteger poolCount)
+  {
+    this.poolCount = poolCount;
+  }
+
+  /** Get the pool count that came with the ticket */
+  public AtomicInteger getPoolCount()
+  {
+    return poolCount;
+  }
+
+  /** Grant the ticket, and wake up its thread.  Call with the bin lock held.
+  *@param result is what the waiter gets, e.g. a connection recommendation.
+  */
+  public synchronized void grant(int result)
+  {
+    if (state != STATE_WAITING)
+      throw new IllegalStateException("Can't grant a ticket that is not waiting");
+    state = STATE_GRANTED;
+    this.result = result;
+    notifyAll();
+  }
+
+  /** Withdraw the ticket, if it has not been granted yet.  Call with the bin lock held.
+  *@return true if it was withdrawn, false if it had already been granted.
+  */
+  public synchronized boolean withdraw()
+  {
+    if (state != STATE_WAITING)
+      return false;
+    state = STATE_WITHDRAWN;
+    return true;
+  }
+
+  /** Wait until the ticket is granted.  Call WITHOUT the bin lock held.
+  *@return the result the ticket was granted with.
+  */
+  public synchronized int waitGranted(IBreakCheck breakCheck)
+    throws InterruptedException, BreakException
+  {
+    while (state == STATE_WAITING)
+    {
+      if (breakCheck == null)
+      {
+        wait();
+      }
+      else
+      {
+        long amt = breakCheck.abortCheck();
+        wait(amt);
+      }
+      wakeupCount.incrementAndGet();
+    }
+    return result;
+  }
+
+  /** Get the result the ticket was granted with */
+  public synchronized int getResult()
+  {
+    return result;
+  }
+
+  /** Count a wakeup that happened outside of a ticket wait */
+  public static void noteWakeup()
+  {
+    wakeupCount.incrementAndGet();
+  }
+
+  /** Count a grant */
+  public static void noteGrant()
+  {
+    grantCount.incrementAndGet();
+  }
+
+  /** Get the number of wakeups, since startup, of threads waiting in bins */
+  public static long getWakeupCount()
+  {
+    return wakeupCount.get();
+  }
+
+  /** Get the number of grants, since startup, of connection and fetch reservations */
+  public static long getGrantCount()
+  {
+    return grantCount.get();
+  }
+
+}
@@ -0,0 +1,223 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.connectorcommon.common;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestGroupCommitQueue
+{
+
+  @Test
+  public void testFullBatches()
+    throws Exception
+  {
+    GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(5, Long.MAX_VALUE, 60000L);
+    RecordingSender sender = new RecordingSender();
+    List<Item> items = submitAll(queue, sender, 10);
+    assertEquals(2, sender.getBatchSizes().size());
+    for (Integer size : sender.getBatchSizes())
+    {
+      assertEquals(5, size.intValue());
+    }
+    for (Item item : items)
+    {
+      assertTrue(item.sent);
+      assertNull(item.exception);
+    }
+  }
+
+  @Test
+  public void testByteLimit()
+    throws Exception
+  {
+    GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(100, 30L, 60000L);
+    RecordingSender sender = new RecordingSender();
+    submitAll(queue, sender, 9);
+    // Each item is 10 bytes, so a batch is sent as soon as it holds three
+    assertEquals(3, sender.getBatchSizes().size());
+  }
+
+  @Test
+  public void testDeadline()
+    throws Exception
+  {
+    GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(100, Long.MAX_VALUE, 200L);
+    RecordingSender sender = new RecordingSender();
+    long startTime = System.currentTimeMillis();
+    Item item = new Item();
+    queue.submit(item, 10L, sender);
+    assertTrue(System.currentTimeMillis() - startTime >= 200L);
+    assertTrue(item.sent);
+    assertEquals(1, sender.getBatchSizes().size());
+  }
+
+  @Test
+  public void testSenderThreadsReused()
+    throws Exception
+  {
+    GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(1, Long.MAX_VALUE, 60000L);
+    RecordingSender sender = new RecordingSender();
+    int rounds = 20;
+    for (int i = 0; i < rounds; i++)
+    {
+      queue.submit(new Item(), 10L, sender);
+      // Give the sender thread time to go back to waiting for work
+      Thread.sleep(10L);
+    }
+    assertEquals(rounds, sender.getBatchSizes().size());
+    assertTrue(sender.getThreads().size() < rounds);
+  }
+
+  @Test
+  public void testInterruptedItemLeavesBatch()
+    throws Exception
+  {
+    final GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(2, Long.MAX_VALUE, 60000L);
+    final RecordingSender sender = new RecordingSender();
+    final Item interrupted = new Item();
+    final Throwable[] thrown = new Throwable[1];
+    Thread t = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            queue.submit(interrupted, 10L, sender);
+          }
+          catch (Throwable e)
+          {
+            thrown[0] = e;
+          }
+        }
+      };
+    t.start();
+    Thread.sleep(100L);
+    t.interrupt();
+    t.join();
+    assertTrue(thrown[0] instanceof ManifoldCFException);
+    assertEquals(ManifoldCFException.INTERRUPTED, ((ManifoldCFException)thrown[0]).getErrorCode());
+
+    List<Item> items = submitAll(queue, sender, 2);
+    assertEquals(1, sender.getBatchSizes().size());
+    assertEquals(2, sender.getBatchSizes().get(0).intValue());
+    assertFalse(interrupted.sent);
+    for (Item item : items)
+    {
+      assertTrue(item.sent);
+    }
+  }
+
+  @Test
+  public void testSendFailure()
+    throws Exception
+  {
+    GroupCommitQueue<Item> queue = new GroupCommitQueue<Item>(3, Long.MAX_VALUE, 60000L);
+    RecordingSender sender = new RecordingSender();
+    sender.fail = true;
+    List<Item> items = submitAll(queue, sender, 3);
+    for (Item item : items)
+    {
+      assertFalse(item.sent);
+      assertNotNull(item.exception);
+    }
+  }
+
+  /** Submit items from separate threads, the way worker threads would, and wait for them all. */
+  protected static List<Item> submitAll(final GroupCommitQueue<Item> queue, final RecordingSender sender, int count)
+    throws Exception
+  {
+    List<Item> items = new ArrayList<Item>();
+    List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> thrown = Collections.synchronizedList(new ArrayList<Throwable>());
+    for (int i = 0; i < count; i++)
+    {
+      final Item item = new Item();
+      items.add(item);
+      Thread t = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              queue.submit(item, 10L, sender);
+            }
+            catch (Throwable e)
+            {
+              thrown.add(e);
+            }
+          }
+        };
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    if (thrown.size() > 0)
+      throw new Exception("Submit failed: "+thrown.get(0).getMessage(), thrown.get(0));
+    return items;
+  }
+
+  protected static class Item
+  {
+    protected volatile boolean sent = false;
+    protected volatile Exception exception = null;
+  }
+
+  protected static class RecordingSender implements GroupCommitQueue.IBatchSender<Item>
+  {
+    protected final List<Integer> batchSizes = new ArrayList<Integer>();
+    protected final Set<Thread> threads = new HashSet<Thread>();
+    protected volatile boolean fail = false;
+
+    @Override
+    public void sendBatch(List<Item> items)
+    {
+      synchronized (this)
+      {
+        batchSizes.add(new Integer(items.size()));
+        threads.add(Thread.currentThread());
+      }
+      for (Item item : items)
+      {
+        if (fail)
+          item.exception = new Exception("Rejected");
+        else
+          item.sent = true;
+      }
+    }
+
+    public synchronized List<Integer> getBatchSizes()
+    {
+      return new ArrayList<Integer>(batchSizes);
+    }
+
+    public synchronized Set<Thread> getThreads()
+    {
+      return new HashSet<Thread>(threads);
+    }
+  }
+
+}
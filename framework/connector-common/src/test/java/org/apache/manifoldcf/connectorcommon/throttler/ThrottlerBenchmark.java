@@ -0,0 +1,176 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.connectorcommon.throttler;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.connectorcommon.interfaces.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Measures connection and fetch grants per second, and thread wakeups per grant, for many
+* worker threads contending for a few connections in each of a number of bins.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+* Each fetch holds its connection for a simulated fetch time.
+*   java -cp ... org.apache.manifoldcf.connectorcommon.throttler.ThrottlerBenchmark [threads] [bins] [seconds] [fetch ms]
+*/
+public class ThrottlerBenchmark extends org.apache.manifoldcf.core.tests.BaseHSQLDB
+{
+  protected final static int maxConnectionsPerBin = 2;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int threadCount = (args.length > 0)?Integer.parseInt(args[0]):500;
+    int binCount = (args.length > 1)?Integer.parseInt(args[1]):50;
+    int seconds = (args.length > 2)?Integer.parseInt(args[2]):10;
+    long fetchTime = (args.length > 3)?Long.parseLong(args[3]):1L;
+
+    ThrottlerBenchmark benchmark = new ThrottlerBenchmark();
+    benchmark.setUp();
+    try
+    {
+      benchmark.run(threadCount,binCount,seconds,fetchTime);
+    }
+    finally
+    {
+      benchmark.cleanUp();
+    }
+  }
+
+  protected void run(int threadCount, int binCount, int seconds, final long fetchTime)
+    throws Exception
+  {
+    IThreadContext threadContext = ThreadContextFactory.make();
+    final IThrottleGroups tg = ThrottleGroupsFactory.make(threadContext);
+    tg.createOrUpdateThrottleGroup("benchmark","benchmark",new ThrottleSpec());
+
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicLong fetches = new AtomicLong(0L);
+    final AtomicLong failures = new AtomicLong(0L);
+
+    // The poller sets up each bin's share of connections; poll often so they ramp up quickly
+    Thread poller = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          while (!stop.get())
+          {
+            tg.poll("benchmark");
+            Thread.sleep(100L);
+          }
+        }
+        catch (Exception e)
+        {
+          failures.incrementAndGet();
+        }
+      }
+    };
+    poller.start();
+
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+    {
+      final IConnectionThrottler connectionThrottler = tg.obtainConnectionThrottler("benchmark","benchmark",
+        new String[]{"bin"+(i % binCount)});
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            while (!stop.get())
+            {
+              int rval = connectionThrottler.waitConnectionAvailable();
+              if (rval == IConnectionThrottler.CONNECTION_FROM_NOWHERE)
+                break;
+              IFetchThrottler fetchThrottler = connectionThrottler.getNewConnectionFetchThrottler();
+              if (!fetchThrottler.obtainFetchDocumentPermission())
+                break;
+              if (fetchTime > 0L)
+                Thread.sleep(fetchTime);
+              fetches.incrementAndGet();
+              if (connectionThrottler.noteReturnedConnection())
+                connectionThrottler.noteConnectionDestroyed();
+              else
+                connectionThrottler.noteConnectionReturnedToPool();
+            }
+          }
+          catch (Exception e)
+          {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    // Let the connection targets ramp up before measuring
+    Thread.sleep(3000L);
+    long startFetches = fetches.get();
+    long startWakeups = WaitTicket.getWakeupCount();
+    long startGrants = WaitTicket.getGrantCount();
+    long startTime = System.currentTimeMillis();
+    Thread.sleep(seconds * 1000L);
+    long elapsed = System.currentTimeMillis() - startTime;
+    long fetchCount = fetches.get() - startFetches;
+    long wakeups = WaitTicket.getWakeupCount() - startWakeups;
+    long grants = WaitTicket.getGrantCount() - startGrants;
+
+    stop.set(true);
+    // Shutting the group down releases anyone still waiting
+    tg.removeThrottleGroup("benchmark","benchmark");
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    poller.join();
+
+    System.out.println("Threads: "+threadCount+"; bins: "+binCount+"; connections per bin: "+maxConnectionsPerBin+
+      "; fetch time: "+fetchTime+" ms");
+    System.out.println("Fetches: "+(fetchCount * 1000L / elapsed)+" per second");
+    System.out.println("Grants: "+grants+"; wakeups: "+wakeups+"; wakeups per grant: "+
+      ((grants == 0L)?"n/a":Double.toString((double)wakeups / (double)grants)));
+    if (failures.get() > 0L)
+      System.out.println("Failures: "+failures.get());
+  }
+
+  protected static class ThrottleSpec implements IThrottleSpec
+  {
+    @Override
+    public int getMaxOpenConnections(String binName)
+    {
+      return maxConnectionsPerBin;
+    }
+
+    @Override
+    public double getMinimumMillisecondsPerByte(String binName)
+    {
+      return 0.0;
+    }
+
+    @Override
+    public long getMinimumMillisecondsPerFetch(String binName)
+    {
+      return 0L;
+    }
+  }
+
+}
@@ -20,86 +20,104 @@ package org.apache.manifoldcf.core.cachemanager;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 /** General cache class.  This class will be statically instantiated.  It contains all the structures
 * needed to maintain a cache of objects, with both LRU flushing behavior, and timed expiration of
 * objects.
 * This cache is entirely local to a JVM and does NOT have any locking and synchronization semantics
 * cross-JVM.  That is handled at a higher level.
+*
+* To keep threads from serializing on a single monitor, the cache is divided into segments by the hash
+* of the object description.  Each segment has its own object table, invalidation table, LRU lists, and
+* expiration tree, and its own lock.  Each object class has one count across all the segments, and when
+* that goes over the class's maximum count, the least recently added object of the class is flushed from
+* whichever segment holds it.  A concurrent index records which segments have objects for each
+* invalidation key, so that invalidation only needs to visit (and lock) those segments.
 */
 public class GeneralCache
 {
   public static final String _rcsid = "@(#)$Id: GeneralCache.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // This table is for looking stuff up by object description
-  protected ObjectRecordTable hashtable = new ObjectRecordTable();
-  // This table is for looking stuff up by cache key - hash table of hash tables
-  protected InvalidationTable invalidationTable = new InvalidationTable();
-  // This table keeps the running count of each object class
-  protected ObjectClassTable objectClassTable = new ObjectClassTable();
-  // This structure is the general expiration tree
-  public ExpirationTree expirationTree = new ExpirationTree();
+  /** The default number of segments */
+  public static final int DEFAULT_SEGMENT_COUNT = 16;
+
+  // The segments
+  protected final Segment[] segments;
+  // This is the index of invalidation key to bitmask of segments that may have objects with that key.
+  // A bit is set (before the object is added) under the segment's lock, and cleared under the same
+  // lock once the segment's objects for the key have been invalidated.
+  protected final ConcurrentHashMap<String,Integer> invalidationKeySegments = new ConcurrentHashMap<String,Integer>();
+  // This is the number of objects of each class, across all segments.  It is changed under the lock of
+  // the segment the object is in.  Flushing objects to meet a class's maximum count is done while
+  // synchronized on the class's counter, and so one flush at a time for each class.
+  protected final ConcurrentHashMap<String,AtomicInteger> objectClassCounts = new ConcurrentHashMap<String,AtomicInteger>();
+  // This orders objects by when they were given their class, across all segments, for LRU flushing
+  protected final AtomicLong objectClassSequence = new AtomicLong(0L);
 
   public GeneralCache()
   {
+    this(DEFAULT_SEGMENT_COUNT);
+  }
+
+  /** Constructor.
+  *@param segmentCount is the number of segments, from 1 to 32.
+  */
+  public GeneralCache(int segmentCount)
+  {
+    if (segmentCount < 1 || segmentCount > 32)
+      throw new IllegalArgumentException("Segment count must be between 1 and 32");
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++)
+    {
+      segments[i] = new Segment(i);
+    }
   }
 
   /** Locate an object in the cache, and return it if found.
   *@param objectDescription is the object's unique identifier.
   *@return the object if found, or null if not present in the cache.
   */
-  public synchronized Object lookup(Object objectDescription)
+  public Object lookup(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return null;
-    return o.getObject();
+    return getSegment(objectDescription).lookup(objectDescription);
   }
 
   /** Get the creation time of an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the creation time, or -1 if object not found.
   */
-  public synchronized long getObjectCreationTime(Object objectDescription)
+  public long getObjectCreationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return -1L;
-    return o.getCreationTime();
+    return getSegment(objectDescription).getObjectCreationTime(objectDescription);
   }
 
   /** Get the invalidation keys for an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the keys, or null if not found.
   */
-  public synchronized StringSet getObjectInvalidationKeys(Object objectDescription)
+  public StringSet getObjectInvalidationKeys(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return null;
-    return o.getKeys();
+    return getSegment(objectDescription).getObjectInvalidationKeys(objectDescription);
   }
 
   /** Get the expiration time for an object in the cache.
   *@param objectDescription is the object's unique identifier.
   *@return the expiration time (-1L means none).
   */
-  public synchronized long getObjectExpirationTime(Object objectDescription)
+  public long getObjectExpirationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o == null)
-      return -1L;
-    return o.getObjectExpiration();
+    return getSegment(objectDescription).getObjectExpirationTime(objectDescription);
   }
 
   /** Delete a record from the cache.
   *@param objectDescription is the unique description.
   */
-  public synchronized void deleteObject(Object objectDescription)
+  public void deleteObject(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o != null)
-      deleteEntry(o);
+    getSegment(objectDescription).deleteObject(objectDescription);
   }
 
   /** Add a newly created object to the cache.  Use ONLY for newly created objects!
@@ -108,38 +126,18 @@ public class GeneralCache
   *@param keys are the invalidation keys for the newly created object.
   *@param timestamp is the creation timestamp for this object (used for cross-JVM invalidation)
   */
-  public synchronized void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
+  public void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
   {
-    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
-    hashtable.add(record);
-    // Make an entry in the invalidation hash
-    invalidationTable.addKeys(keys,record);
-    // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
-    // class trees
+    getSegment(objectDescription).setObject(objectDescription,object,keys,timestamp);
   }
 
   /** Set an object's expiration time.
   *@param objectDescription is the object's unique description.
   *@param expirationTime is the object's new expiration time, in milliseconds since epoch.
   */
-  public synchronized void setObjectExpiration(Object objectDescription, long expirationTime)
+  public void setObjectExpiration(Object objectDescription, long expirationTime)
   {
-    // Find existing object
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectExpiration() != -1)
-    {
-      // Pull the object from the expiration tree
-      expirationTree.removeEntry(existing);
-    }
-    // Set the new expiration
-    existing.setObjectExpiration(expirationTime);
-    if (expirationTime != -1)
-    {
-      //Put the object back into the expiration tree
-      expirationTree.addEntry(existing);
-    }
+    getSegment(objectDescription).setObjectExpiration(objectDescription,expirationTime);
   }
 
   /** Set an object's class and maximum count.  This will clean up extra objects
@@ -149,50 +147,272 @@ public class GeneralCache
   *@param maxCount is the maximum number of objects of the class to permit to
   * remain in the cache.
   */
-  public synchronized void setObjectClass(Object objectDescription, String objectClass,
+  public void setObjectClass(Object objectDescription, String objectClass,
     int maxCount)
   {
-    // Lookup the existing object class
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
+    getSegment(objectDescription).setObjectClass(objectDescription,objectClass);
+    if (objectClass == null || maxCount < 0)
       return;
-    if (existing.getObjectClass() != null)
-    {
-      // Pull the object from the object class expiration tree
-      objectClassTable.removeEntry(existing);
-    }
-    // Set the new object class & LRU value
-    existing.setObjectClass(objectClass);
-    if (objectClass != null)
+    AtomicInteger count = getObjectClassCount(objectClass);
+    if (count.get() <= maxCount)
+      return;
+    synchronized (count)
     {
-      // Put the object into the object class expiration tree
-      objectClassTable.addEntry(existing);
-
-      if (maxCount >= 0)
+      // Now, clean up objects to meet the count
+      while (count.get() > maxCount)
       {
-        // Now, clean up objects to meet the count
-        while (objectClassTable.getCurrentMemberCount(objectClass) > maxCount)
+        // Find the segment with the oldest object of the class.  Segment locks are taken one at a time.
+        Segment oldestSegment = null;
+        long oldestSequence = Long.MAX_VALUE;
+        for (Segment segment : segments)
         {
-          ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
-          // Delete this entry from all places it lives
-          deleteEntry(oldestRecord);
+          long sequence = segment.getOldestClassSequence(objectClass);
+          if (sequence != -1L && sequence < oldestSequence)
+          {
+            oldestSequence = sequence;
+            oldestSegment = segment;
+          }
         }
-
+        if (oldestSegment == null)
+          break;
+        oldestSegment.deleteOldestEntry(objectClass);
       }
     }
-
   }
 
   /** Invalidate a set of keys.  This causes all objects that have any of the specified
   * keys as invalidation keys to be removed from the cache.
   *@param keys is the StringSet describing the keys to invalidate.
   */
-  public synchronized void invalidateKeys(StringSet keys)
+  public void invalidateKeys(StringSet keys)
   {
     Iterator enum2 = keys.getKeys();
     while (enum2.hasNext())
     {
       String invalidateKey = (String)enum2.next();
+      Integer segmentMask = invalidationKeySegments.get(invalidateKey);
+      if (segmentMask == null)
+        continue;
+      int mask = segmentMask.intValue();
+      for (int i = 0; i < segments.length; i++)
+      {
+        if ((mask & (1 << i)) != 0)
+          segments[i].invalidateKey(invalidateKey);
+      }
+    }
+  }
+
+  /** Expire all records that have older expiration times than that passed in.
+  * @param expireTime is the time to compare against, in milliseconds since epoch.
+  */
+  public void expireRecords(long expireTime)
+  {
+    for (Segment segment : segments)
+    {
+      segment.expireRecords(expireTime);
+    }
+  }
+
+  /** Find the segment for an object description.
+  */
+  protected Segment getSegment(Object objectDescription)
+  {
+    int hash = objectDescription.hashCode();
+    // Spread the bits, since descriptions often have poor low-order hash bits
+    hash ^= (hash >>> 16);
+    return segments[(hash & 0x7fffffff) % segments.length];
+  }
+
+  /** Get the counter of objects in the cache for an object class.
+  */
+  protected AtomicInteger getObjectClassCount(String objectClass)
+  {
+    return objectClassCounts.computeIfAbsent(objectClass,new Function<String,AtomicInteger>()
+    {
+      public AtomicInteger apply(String objectClass)
+      {
+        return new AtomicInteger(0);
+      }
+    });
+  }
+
+  /** Note that a segment may have objects for an invalidation key.
+  */
+  protected void setInvalidationKeySegment(String key, final int segmentBit)
+  {
+    // The bit can only be cleared under the segment lock, which the caller holds, so if it
+    // is already set there's nothing to do.
+    Integer currentMask = invalidationKeySegments.get(key);
+    if (currentMask != null && (currentMask.intValue() & segmentBit) != 0)
+      return;
+    invalidationKeySegments.merge(key,new Integer(segmentBit),new BiFunction<Integer,Integer,Integer>()
+    {
+      public Integer apply(Integer oldValue, Integer newValue)
+      {
+        return new Integer(oldValue.intValue() | newValue.intValue());
+      }
+    });
+  }
+
+  /** Note that a segment no longer has any objects for an invalidation key.
+  */
+  protected void clearInvalidationKeySegment(String key, final int segmentBit)
+  {
+    invalidationKeySegments.computeIfPresent(key,new BiFunction<String,Integer,Integer>()
+    {
+      public Integer apply(String key, Integer oldValue)
+      {
+        int newValue = oldValue.intValue() & ~segmentBit;
+        if (newValue == 0)
+          return null;
+        return new Integer(newValue);
+      }
+    });
+  }
+
+  /** This class is one segment of the cache.  It contains all the structures the whole cache
+  * used to have, and all access to them is synchronized on the segment.
+  */
+  protected class Segment
+  {
+    // This segment's bit in the invalidation key index
+    protected final int segmentBit;
+    // This table is for looking stuff up by object description
+    protected final ObjectRecordTable hashtable = new ObjectRecordTable();
+    // This table is for looking stuff up by cache key - hash table of hash tables
+    protected final InvalidationTable invalidationTable = new InvalidationTable();
+    // This table keeps the running count of each object class
+    protected final ObjectClassTable objectClassTable = new ObjectClassTable();
+    // This structure is the general expiration tree
+    protected final ExpirationTree expirationTree = new ExpirationTree();
+
+    public Segment(int segmentNumber)
+    {
+      this.segmentBit = 1 << segmentNumber;
+    }
+
+    public synchronized Object lookup(Object objectDescription)
+    {
+      ObjectRecord o = hashtable.lookup(objectDescription);
+      if (o == null)
+        return null;
+      return o.getObject();
+    }
+
+    public synchronized long getObjectCreationTime(Object objectDescription)
+    {
+      ObjectRecord o = hashtable.lookup(objectDescription);
+      if (o == null)
+        return -1L;
+      return o.getCreationTime();
+    }
+
+    public synchronized StringSet getObjectInvalidationKeys(Object objectDescription)
+    {
+      ObjectRecord o = hashtable.lookup(objectDescription);
+      if (o == null)
+        return null;
+      return o.getKeys();
+    }
+
+    public synchronized long getObjectExpirationTime(Object objectDescription)
+    {
+      ObjectRecord o = hashtable.lookup(objectDescription);
+      if (o == null)
+        return -1L;
+      return o.getObjectExpiration();
+    }
+
+    public synchronized void deleteObject(Object objectDescription)
+    {
+      ObjectRecord o = hashtable.lookup(objectDescription);
+      if (o != null)
+        deleteEntry(o);
+    }
+
+    public synchronized void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
+    {
+      ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
+      // Publish the keys in the index first, so that a concurrent invalidation either
+      // precedes this add entirely or waits for us and sees the new record.
+      Iterator enum1 = keys.getKeys();
+      while (enum1.hasNext())
+      {
+        setInvalidationKeySegment((String)enum1.next(),segmentBit);
+      }
+      hashtable.add(record);
+      // Make an entry in the invalidation hash
+      invalidationTable.addKeys(keys,record);
+      // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
+      // class trees
+    }
+
+    public synchronized void setObjectExpiration(Object objectDescription, long expirationTime)
+    {
+      // Find existing object
+      ObjectRecord existing = hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectExpiration() != -1)
+      {
+        // Pull the object from the expiration tree
+        expirationTree.removeEntry(existing);
+      }
+      // Set the new expiration
+      existing.setObjectExpiration(expirationTime);
+      if (expirationTime != -1)
+      {
+        //Put the object back into the expiration tree
+        expirationTree.addEntry(existing);
+      }
+    }
+
+    public synchronized void setObjectClass(Object objectDescription, String objectClass)
+    {
+      // Lookup the existing object class
+      ObjectRecord existing = hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectClass() != null)
+      {
+        // Pull the object from the object class expiration tree
+        objectClassTable.removeEntry(existing);
+      }
+      // Set the new object class & LRU value
+      existing.setObjectClass(objectClass);
+      if (objectClass != null)
+      {
+        // Put the object into the object class expiration tree
+        existing.setClassSequence(objectClassSequence.incrementAndGet());
+        objectClassTable.addEntry(existing);
+      }
+
+    }
+
+    /** Get the sequence number of this segment's oldest object of a class, or -1 if there are none.
+    */
+    public synchronized long getOldestClassSequence(String objectClass)
+    {
+      ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
+      if (oldestRecord == null)
+        return -1L;
+      return oldestRecord.getClassSequence();
+    }
+
+    /** Delete this segment's oldest object of a class, if there is one.
+    */
+    public synchronized void deleteOldestEntry(String objectClass)
+    {
+      ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
+      if (oldestRecord != null)
+      {
+        // Delete this entry from all places it lives
+        deleteEntry(oldestRecord);
+      }
+    }
+
+    public synchronized void invalidateKey(String invalidateKey)
+    {
       Iterator enum1 = invalidationTable.getObjectRecordsForKey(invalidateKey);
       while (enum1.hasNext())
       {
@@ -212,55 +432,53 @@ public class GeneralCache
       }
       // We do this last, because we are enumerating over something in here!
       invalidationTable.removeKey(invalidateKey);
+      clearInvalidationKeySegment(invalidateKey,segmentBit);
     }
-  }
 
-  /** Expire all records that have older expiration times than that passed in.
-  * @param expireTime is the time to compare against, in milliseconds since epoch.
-  */
-  public void expireRecords(long expireTime)
-  {
-    while (true)
+    public void expireRecords(long expireTime)
     {
-      // Do the synchronizer inside the loop.  Cleanup is slower,
-      // but the cache does not get locked for long periods.
-      synchronized (this)
+      while (true)
       {
-        // Get the oldest record, if any
-        ObjectRecord x = expirationTree.getOldestEntry();
-        if (x == null)
-          break;
-        if (x.getExpirationTime() > expireTime)
-          break;
-        // Remove the entry
-        deleteEntry(x);
+        // Do the synchronizer inside the loop.  Cleanup is slower,
+        // but the segment does not get locked for long periods.
+        synchronized (this)
+        {
+          // Get the oldest record, if any
+          ObjectRecord x = expirationTree.getOldestEntry();
+          if (x == null)
+            break;
+          if (x.getExpirationTime() > expireTime)
+            break;
+          // Remove the entry
+          deleteEntry(x);
+        }
       }
     }
-  }
 
-  /** Delete a record from the cache. NOTE WELL: This method cannot be used
-  * if the data associated with the record is currently being processed with
-  * an enumeration (for example), since it modifies the structures that the
-  * enumeration is based on!
-  *@param record is the object record.
-  */
-  protected void deleteEntry(ObjectRecord record)
-  {
-    // Delete from the main cache
-    hashtable.remove(record);
-    // Delete from key hash
-    invalidationTable.removeObjectRecord(record);
-    // Remove from object class table
-    if (record.getObjectClass() != null)
-    {
-      objectClassTable.removeEntry(record);
-    }
-    // Remove from expiration table
-    if (record.getExpirationTime() >= 0)
-    {
-      expirationTree.removeEntry(record);
-    }
+    /** Delete a record from the segment. NOTE WELL: This method cannot be used
+    * if the data associated with the record is currently being processed with
+    * an enumeration (for example), since it modifies the structures that the
+    * enumeration is based on!
+    *@param record is the object record.
+    */
+    protected void deleteEntry(ObjectRecord record)
+    {
+      // Delete from the main cache
+      hashtable.remove(record);
+      // Delete from key hash
+      invalidationTable.removeObjectRecord(record);
+      // Remove from object class table
+      if (record.getObjectClass() != null)
+      {
+        objectClassTable.removeEntry(record);
+      }
+      // Remove from expiration table
+      if (record.getExpirationTime() >= 0)
+      {
+        expirationTree.removeEntry(record);
+      }
 
+    }
   }
 
   /** This class represents a cached object.  It has enough hooks to allow it
@@ -274,6 +492,7 @@ public class GeneralCache
     protected long creationTime;
     protected long expirationTime = -1;
     protected String objectClass = null;
+    protected long classSequence = -1L;
     protected ObjectRecord prevLRU = null;
     protected ObjectRecord nextLRU = null;
     protected ObjectRecord sameExpirationPrev = null;
@@ -337,6 +556,16 @@ public class GeneralCache
       return objectClass;
     }
 
+    public void setClassSequence(long sequence)
+    {
+      classSequence = sequence;
+    }
+
+    public long getClassSequence()
+    {
+      return classSequence;
+    }
+
     public ObjectRecord getPrevLRU()
     {
       return prevLRU;
@@ -504,6 +733,7 @@ public class GeneralCache
         hashtable.put(record.getObjectClass(),x);
       }
       x.addEntry(record);
+      getObjectClassCount(record.getObjectClass()).incrementAndGet();
     }
 
     /** Call ONLY if there is known to be an existing record in the object class table
@@ -514,6 +744,7 @@ public class GeneralCache
       if (x == null)
         return;
       x.removeEntry(record);
+      getObjectClassCount(record.getObjectClass()).decrementAndGet();
     }
 
     public int getCurrentMemberCount(String objectClassName)
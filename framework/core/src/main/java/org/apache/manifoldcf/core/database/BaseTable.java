@@ -68,6 +68,16 @@ public class BaseTable
     dbInterface.performInsert(tableName,parameterMap,invalidateKeys);
   }
 
+  /** Perform a batch insert operation.
+  *@param parameterMaps are the rows to write, each a map of column name/values.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  protected void performInsertBatch(List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performInsertBatch(tableName,parameterMaps,invalidateKeys);
+  }
+
   /** Perform an update operation.
   *@param invalidateKeys are the cache keys that should be invalidated.
   *@param parameterMap is the map of column name/values to write.
@@ -173,6 +183,49 @@ public class BaseTable
     dbInterface.performDrop(tableName,invalidateKeys);
   }
 
+  /** Perform a table creation operation, for a table partitioned by the value of a column.
+  *@param columnMap is the map describing the columns and types, in the same form as for performCreate.
+  *@param partitionColumn is the column whose value decides the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  protected void performCreatePartitioned(Map columnMap, String partitionColumn, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performCreatePartitioned(tableName,columnMap,partitionColumn,invalidateKeys);
+  }
+
+  /** Add a partition.
+  *@param partitionName is the name of the partition.
+  *@param partitionValue is the value of the partition column for the rows of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  protected void performAddPartition(String partitionName, Long partitionValue, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performAddPartition(tableName,partitionName,partitionValue,invalidateKeys);
+  }
+
+  /** Drop a partition, along with its rows.
+  *@param partitionName is the name of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  protected void performDropPartition(String partitionName, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performDropPartition(tableName,partitionName,invalidateKeys);
+  }
+
+  /** Get the table's partitions.
+  *@param cacheKeys are the keys against which to cache the query, or null.
+  *@param queryClass is the name of the query class, or null.
+  *@return the set of partition names, or null if the table is not partitioned.
+  */
+  protected StringSet getTablePartitions(StringSet cacheKeys, String queryClass)
+    throws ManifoldCFException
+  {
+    return dbInterface.getTablePartitions(tableName,cacheKeys,queryClass);
+  }
+
   /** Get the current table schema.
   *@param invalidateKeys are the cache keys, if needed (null if no cache desired).
   *@param queryClass is the LRU class name against which this query would be cached,
@@ -236,6 +289,18 @@ public class BaseTable
     return dbInterface.performQuery(query,params,cacheKeys,queryClass,resultLimit,null);
   }
 
+  /** Perform a general "data fetch" query, returning a forward-only cursor.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param fetchSize is the number of rows to fetch from the database at a time, or 0 for the driver's default.
+  *@return the cursor, which must be closed.
+  */
+  protected IResultCursor performStreamingQuery(String query, List params, int fetchSize)
+    throws ManifoldCFException
+  {
+    return dbInterface.performStreamingQuery(query,params,fetchSize,null);
+  }
+
   /** Begin a database transaction.  This method call MUST be paired with an endTransaction() call,
   * or database handles will be lost.  If the transaction should be rolled back, then signalRollback() should
   * be called before the transaction is ended.
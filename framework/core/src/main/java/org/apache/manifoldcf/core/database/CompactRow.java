@@ -0,0 +1,105 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This class represents a result row as an array of values, indexed by column number.
+* The column names are shared by all rows of a result, so each row costs little more
+* than its values.
+*/
+public class CompactRow implements IResultRow
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final Columns columns;
+  protected final Object[] values;
+
+  /** Constructor.
+  *@param columns describes the columns, shared across rows.
+  *@param values are the column values, in column order.
+  */
+  public CompactRow(Columns columns, Object[] values)
+  {
+    this.columns = columns;
+    this.values = values;
+  }
+
+  /** Obtain the number of columns in the row.
+  *@return the number of columns that row contains.
+  */
+  @Override
+  public int getColumnCount()
+  {
+    return columns.indexes.size();
+  }
+
+  /** Obtain the set of columns for a row.
+  @return an iterator that will list all the (String) column names stored in that row.
+  */
+  @Override
+  public Iterator<String> getColumns()
+  {
+    return columns.indexes.keySet().iterator();
+  }
+
+  /** Get the row value for a column.
+  *@param columnName is the name of the column.
+  *@return the value, or null if not present.
+  */
+  @Override
+  public Object getValue(String columnName)
+  {
+    Integer index = columns.indexes.get(columnName);
+    if (index == null)
+      return null;
+    return values[index.intValue()];
+  }
+
+  /** Get the row value for a column number.
+  *@param index is the zero-based column number, in the order of the query's select list.
+  *@return the value.
+  */
+  public Object getValue(int index)
+  {
+    return values[index];
+  }
+
+  /** The column names of a result, shared by all of its rows.
+  */
+  public static class Columns
+  {
+    protected final Map<String,Integer> indexes;
+
+    /** Constructor.
+    *@param labels are the column labels, in select-list order.  Where a label repeats,
+    * the last column with that label is the one looked up by name.
+    */
+    public Columns(String[] labels)
+    {
+      indexes = new HashMap<String,Integer>(labels.length * 2);
+      for (int i = 0; i < labels.length; i++)
+      {
+        indexes.put(labels[i],new Integer(i));
+      }
+    }
+  }
+
+}
@@ -47,6 +47,13 @@ public class ConnectionFactory
   public static WrappedConnection getConnection(String jdbcUrl, String jdbcDriver, String database, String userName, String password,
     int maxDBConnections, boolean debug)
     throws ManifoldCFException
+  {
+    return getConnection(jdbcUrl,jdbcDriver,database,userName,password,maxDBConnections,0,debug);
+  }
+
+  public static WrappedConnection getConnection(String jdbcUrl, String jdbcDriver, String database, String userName, String password,
+    int maxDBConnections, int statementCacheSize, boolean debug)
+    throws ManifoldCFException
   {
     // Make sure database driver is registered
     try
@@ -69,7 +76,7 @@ public class ConnectionFactory
       {
         cpm.addAlias(database, jdbcDriver, jdbcUrl,
           userName, password,
-          maxDBConnections, 300000L);
+          maxDBConnections, 300000L, statementCacheSize);
         cp = cpm.getPool(database);
       }
       return getConnectionWithRetries(cp);
@@ -560,6 +560,63 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
     performModification("DROP TABLE "+tableName,null,invalidateKeys);
   }
 
+  /** Check whether tables can be partitioned by the value of a column.
+  *@return true if performCreatePartitioned() and the other partition methods are supported.
+  */
+  public boolean supportsPartitions()
+  {
+    // HSQLDB has no table partitioning
+    return false;
+  }
+
+  /** Perform a table creation operation, for a table whose rows are partitioned by the value of a column.
+  *@param tableName is the name of the table to create.
+  *@param columnMap is the map describing the columns and types, in the same form as for performCreate.
+  *@param partitionColumn is the column whose value decides the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performCreatePartitioned(String tableName, Map<String,ColumnDescription> columnMap, String partitionColumn,
+    StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Add a partition to a partitioned table.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition, which is itself a table.
+  *@param partitionValue is the value of the partition column for the rows of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performAddPartition(String tableName, String partitionName, Long partitionValue, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Drop a partition of a partitioned table, along with all of its rows.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performDropPartition(String tableName, String partitionName, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Get a table's partitions.
+  *@param tableName is the name of the table.
+  *@param cacheKeys are the keys against which to cache the query, or null.
+  *@param queryClass is the name of the query class, or null.
+  *@return the set of partition names, or null if the table is not partitioned.
+  */
+  public StringSet getTablePartitions(String tableName, StringSet cacheKeys, String queryClass)
+    throws ManifoldCFException
+  {
+    return null;
+  }
+
   /** Create user and database.
   *@param adminUserName is the admin user name.
   *@param adminPassword is the admin password.
@@ -702,6 +759,42 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
       System.out.println("Failed to delete file "+f.toString());
   }
   
+  /** Prepare a connection of its own for a streaming query.
+  * HSQLDB builds the entire result in memory before returning the first row, unless the session is told to keep
+  * results larger than a given number of rows on disk instead.
+  */
+  @Override
+  protected void beginStreaming(Connection connection, int fetchSize)
+    throws SQLException
+  {
+    Statement s = connection.createStatement();
+    try
+    {
+      s.execute("SET SESSION RESULT MEMORY ROWS "+Integer.toString(Math.max(fetchSize,1000)));
+    }
+    finally
+    {
+      s.close();
+    }
+  }
+
+  /** Undo beginStreaming(), so ordinary queries on this connection are kept in memory again.
+  */
+  @Override
+  protected void endStreaming(Connection connection)
+    throws SQLException
+  {
+    Statement s = connection.createStatement();
+    try
+    {
+      s.execute("SET SESSION RESULT MEMORY ROWS 0");
+    }
+    finally
+    {
+      s.close();
+    }
+  }
+
   /** Reinterpret an exception tossed by the database layer.  We need to disambiguate the various kinds of exception that
   * should be thrown.
   *@param theException is the exception to reinterpret
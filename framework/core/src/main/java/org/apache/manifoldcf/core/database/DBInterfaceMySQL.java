@@ -108,6 +108,16 @@ public class DBInterfaceMySQL extends Database implements IDBInterface
     // Do nothing in the case of MySQL.
   }
 
+  /** Map the fetch size requested for a streaming query to what the driver needs.
+  * MySQL Connector/J only streams rows, rather than reading the whole result, when the fetch size is
+  * Integer.MIN_VALUE.
+  */
+  @Override
+  protected int getStreamingFetchSize(int fetchSize)
+  {
+    return Integer.MIN_VALUE;
+  }
+
   /** Reinterpret an exception tossed by the database layer.  We need to disambiguate the various kinds of exception that
   * should be thrown.
   *@param theException is the exception to reinterpret
@@ -653,6 +663,68 @@ public class DBInterfaceMySQL extends Database implements IDBInterface
     performModification("DROP TABLE "+tableName,null,invalidateKeys);
   }
 
+  /** Check whether tables can be partitioned by the value of a column.
+  *@return true if performCreatePartitioned() and the other partition methods are supported.
+  */
+  @Override
+  public boolean supportsPartitions()
+  {
+    // MySQL cannot partition tables that have foreign keys
+    return false;
+  }
+
+  /** Perform a table creation operation, for a table whose rows are partitioned by the value of a column.
+  *@param tableName is the name of the table to create.
+  *@param columnMap is the map describing the columns and types, in the same form as for performCreate.
+  *@param partitionColumn is the column whose value decides the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performCreatePartitioned(String tableName, Map<String,ColumnDescription> columnMap, String partitionColumn,
+    StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Add a partition to a partitioned table.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition, which is itself a table.
+  *@param partitionValue is the value of the partition column for the rows of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performAddPartition(String tableName, String partitionName, Long partitionValue, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Drop a partition of a partitioned table, along with all of its rows.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performDropPartition(String tableName, String partitionName, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    throw new ManifoldCFException("Partitioned tables are not supported by this database");
+  }
+
+  /** Get a table's partitions.
+  *@param tableName is the name of the table.
+  *@param cacheKeys are the keys against which to cache the query, or null.
+  *@param queryClass is the name of the query class, or null.
+  *@return the set of partition names, or null if the table is not partitioned.
+  */
+  @Override
+  public StringSet getTablePartitions(String tableName, StringSet cacheKeys, String queryClass)
+    throws ManifoldCFException
+  {
+    return null;
+  }
+
   /** Create user and database.
   *@param adminUserName is the admin user name.
   *@param adminPassword is the admin password.
@@ -519,6 +519,143 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     performModification("DROP TABLE "+tableName,null,invalidateKeys);
   }
 
+  /** Check whether tables can be partitioned by the value of a column.
+  *@return true if performCreatePartitioned() and the other partition methods are supported.
+  */
+  @Override
+  public boolean supportsPartitions()
+    throws ManifoldCFException
+  {
+    // Declarative partitioning, with default partitions and indexes on the partitioned table, needs 11 or later
+    return getDatabaseMajorVersion() >= 11;
+  }
+
+  /** Perform a table creation operation, for a table whose rows are partitioned by the value of a column.
+  * Rows go into the partition created for their value by performAddPartition(), or into a default partition
+  * if there is none.  The primary key, if any, is extended with the partition column, and foreign keys
+  * may not refer to the table.
+  *@param tableName is the name of the table to create.
+  *@param columnMap is the map describing the columns and types, in the same form as for performCreate.
+  *@param partitionColumn is the column whose value decides the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performCreatePartitioned(String tableName, Map<String,ColumnDescription> columnMap, String partitionColumn,
+    StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    StringBuilder queryBuffer = new StringBuilder("CREATE TABLE ");
+    queryBuffer.append(tableName);
+    queryBuffer.append('(');
+    List<String> primaryKey = new ArrayList<String>();
+    Iterator<String> iter = columnMap.keySet().iterator();
+    boolean first = true;
+    while (iter.hasNext())
+    {
+      String columnName = iter.next();
+      ColumnDescription cd = columnMap.get(columnName);
+      if (!first)
+        queryBuffer.append(',');
+      else
+        first = false;
+      if (cd.getIsPrimaryKey())
+      {
+        // Unique constraints on a partitioned table must include the partition column
+        primaryKey.add(columnName);
+        cd = new ColumnDescription(cd.getTypeString(),false,cd.getIsNull(),cd.getReferenceTable(),
+          cd.getReferenceColumn(),cd.getReferenceCascade());
+      }
+      appendDescription(queryBuffer,columnName,cd,false);
+    }
+    if (primaryKey.size() > 0)
+    {
+      queryBuffer.append(",PRIMARY KEY(");
+      for (String columnName : primaryKey)
+      {
+        queryBuffer.append(columnName).append(',');
+      }
+      queryBuffer.append(partitionColumn).append(')');
+    }
+    queryBuffer.append(") PARTITION BY LIST (").append(partitionColumn).append(')');
+
+    beginTransaction(TRANSACTION_ENCLOSING);
+    try
+    {
+      performModification(queryBuffer.toString(),null,invalidateKeys);
+      performModification("CREATE TABLE "+tableName+"_default PARTITION OF "+tableName+" DEFAULT",null,invalidateKeys);
+    }
+    catch (ManifoldCFException e)
+    {
+      signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      signalRollback();
+      throw e;
+    }
+    finally
+    {
+      endTransaction();
+    }
+  }
+
+  /** Add a partition to a partitioned table.  The default partition must not hold rows with the partition's value.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition, which is itself a table.
+  *@param partitionValue is the value of the partition column for the rows of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performAddPartition(String tableName, String partitionName, Long partitionValue, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    // Partition bounds can't be parameters
+    performModification("CREATE TABLE "+partitionName+" PARTITION OF "+tableName+" FOR VALUES IN ("+
+      partitionValue.toString()+")",null,invalidateKeys);
+  }
+
+  /** Drop a partition of a partitioned table, along with all of its rows.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  @Override
+  public void performDropPartition(String tableName, String partitionName, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    performModification("DROP TABLE "+partitionName,null,invalidateKeys);
+  }
+
+  /** Get a table's partitions.
+  *@param tableName is the name of the table.
+  *@param cacheKeys are the keys against which to cache the query, or null.
+  *@param queryClass is the name of the query class, or null.
+  *@return the set of partition names, including the default partition, or null if the table is not partitioned.
+  */
+  @Override
+  public StringSet getTablePartitions(String tableName, StringSet cacheKeys, String queryClass)
+    throws ManifoldCFException
+  {
+    List list = new ArrayList();
+    list.add(tableName);
+    IResultSet set = performQuery("SELECT c.relkind AS relkind,c2.relname AS partitionname FROM pg_catalog.pg_class c "+
+      "LEFT OUTER JOIN pg_catalog.pg_inherits i ON i.inhparent=c.oid LEFT OUTER JOIN pg_catalog.pg_class c2 ON c2.oid=i.inhrelid "+
+      "WHERE c.relname=? AND c.relkind IN ('r','p')",list,cacheKeys,queryClass);
+    if (set.getRowCount() == 0 || !"p".equals(set.getRow(0).getValue("relkind").toString()))
+      return null;
+    StringSetBuffer ssb = new StringSetBuffer();
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow row = set.getRow(i++);
+      Object partitionName = row.getValue("partitionname");
+      if (partitionName != null)
+        ssb.add(partitionName.toString());
+    }
+    return new StringSet(ssb);
+  }
+
   /** Create user and database.
   *@param adminUserName is the admin user name.
   *@param adminPassword is the admin password.
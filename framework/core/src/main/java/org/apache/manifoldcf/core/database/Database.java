@@ -24,6 +24,7 @@ import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 
 import java.util.*;
+import java.util.regex.*;
 import java.sql.*;
 import javax.naming.*;
 import javax.sql.*;
@@ -50,14 +51,21 @@ public abstract class Database
   protected boolean doRollback = false;
   protected boolean commitDone = false;
   protected int delayedTransactionDepth = 0;
+  /** Set when the schema was changed inside the current transaction; prepared statements are invalidated
+  * again once the outermost transaction ends, since that is when other connections see the change. */
+  protected boolean schemaChanged = false;
   protected Map<String,Modifications> modificationsSet = new HashMap<String,Modifications>();
 
   protected final long maxQueryTime;
   protected final boolean debug;
   protected final int maxDBConnections;
+  protected final int statementCacheSize;
   
   protected static Random random = new Random();
 
+  /** Statements that change the schema */
+  protected final static Pattern schemaChangePattern = Pattern.compile("\\s*(CREATE|ALTER|DROP)\\s",Pattern.CASE_INSENSITIVE);
+
   protected final static String _TRANSACTION_ = "_TRANSACTION_";
 
   public Database(IThreadContext context, String jdbcUrl, String jdbcDriverClass, String databaseName, String userName, String password)
@@ -73,6 +81,7 @@ public abstract class Database
     this.maxQueryTime = ((long)LockManagerFactory.getIntProperty(context, ManifoldCF.databaseQueryMaxTimeProperty,60)) * 1000L;
     this.debug = LockManagerFactory.getBooleanProperty(context, ManifoldCF.databaseConnectionTrackingProperty, false);
     this.maxDBConnections = LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleMaxcountProperty, 50);
+    this.statementCacheSize = LockManagerFactory.getIntProperty(context, ManifoldCF.databaseStatementCacheSizeProperty, 50);
 
     this.cacheManager = CacheManagerFactory.make(context);
   }
@@ -144,6 +153,39 @@ public abstract class Database
     ConnectionFactory.flush();
   }
   
+  /** Get the major version of the database server, as reported by the JDBC driver.
+  *@return the major version.
+  */
+  protected int getDatabaseMajorVersion()
+    throws ManifoldCFException
+  {
+    if (connection != null)
+      return getDatabaseMajorVersion(connection.getConnection());
+    WrappedConnection tempConnection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
+      maxDBConnections,statementCacheSize,debug);
+    try
+    {
+      return getDatabaseMajorVersion(tempConnection.getConnection());
+    }
+    finally
+    {
+      ConnectionFactory.releaseConnection(tempConnection);
+    }
+  }
+
+  protected static int getDatabaseMajorVersion(Connection connection)
+    throws ManifoldCFException
+  {
+    try
+    {
+      return connection.getMetaData().getDatabaseMajorVersion();
+    }
+    catch (java.sql.SQLException e)
+    {
+      throw new ManifoldCFException("Couldn't get the database version: "+e.getMessage(),e,ManifoldCFException.DATABASE_CONNECTION_ERROR);
+    }
+  }
+
   /** Execute arbitrary database query, and optionally cache the result.  Cached results are
   * returned for this operation if they are valid and appropriate.  Note that any cached results
   * returned were only guaranteed to be pertinent at the time the cached result was obtained; the
@@ -266,7 +308,7 @@ public abstract class Database
     if (connection == null)
     {
       connection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
-        maxDBConnections,debug);
+        maxDBConnections,statementCacheSize,debug);
       try
       {
         // Initialize the connection (for HSQLDB)
@@ -421,6 +463,11 @@ public abstract class Database
       th = parentTransaction;
       if (th == null)
       {
+        if (schemaChanged)
+        {
+          schemaChanged = false;
+          PreparedStatementCache.invalidateAll();
+        }
         if (doRollback)
           modificationsSet.clear();
         else
@@ -623,6 +670,98 @@ public abstract class Database
     return sb.toString();
   }
 
+  /** Perform a modification query, e.g. an insert or update.
+  *@param query is the query.
+  *@param params are the parameters.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  public abstract void performModification(String query, List params, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Get the largest number of parameters a single multi-row insert statement should carry.
+  *@return the parameter count.
+  */
+  protected int getMaxInsertBatchParameters()
+  {
+    return 2000;
+  }
+
+  /** Perform a batch insert operation, writing many rows with as few statements as possible.
+  * Rows that set the same columns are written together, as a single INSERT with a multi-row VALUES
+  * list.  Null values are omitted, just as with single-row inserts.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the rows to write, each a map of column name/values.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    // Group the rows by the set of columns they have values for.  The columns are sorted, so that
+    // rows built by different maps end up in the same group.
+    Map<List<String>,List<Map<String,Object>>> rowGroups = new LinkedHashMap<List<String>,List<Map<String,Object>>>();
+    for (Map<String,Object> parameterMap : parameterMaps)
+    {
+      List<String> columns = new ArrayList<String>();
+      for (Map.Entry<String,Object> e : parameterMap.entrySet())
+      {
+        if (e.getValue() != null)
+          columns.add(e.getKey());
+      }
+      Collections.sort(columns);
+      List<Map<String,Object>> rows = rowGroups.get(columns);
+      if (rows == null)
+      {
+        rows = new ArrayList<Map<String,Object>>();
+        rowGroups.put(columns,rows);
+      }
+      rows.add(parameterMap);
+    }
+
+    for (Map.Entry<List<String>,List<Map<String,Object>>> group : rowGroups.entrySet())
+    {
+      List<String> columns = group.getKey();
+      List<Map<String,Object>> rows = group.getValue();
+      int maxRows = Math.max(1,getMaxInsertBatchParameters() / Math.max(1,columns.size()));
+
+      StringBuilder prefix = new StringBuilder("INSERT INTO ");
+      prefix.append(tableName).append(" (");
+      StringBuilder rowValues = new StringBuilder("(");
+      for (int i = 0; i < columns.size(); i++)
+      {
+        if (i > 0)
+        {
+          prefix.append(',');
+          rowValues.append(',');
+        }
+        prefix.append(columns.get(i));
+        rowValues.append('?');
+      }
+      prefix.append(") VALUES ");
+      rowValues.append(')');
+
+      int rowIndex = 0;
+      while (rowIndex < rows.size())
+      {
+        int endIndex = Math.min(rows.size(),rowIndex + maxRows);
+        List paramArray = new ArrayList();
+        StringBuilder bf = new StringBuilder(prefix);
+        for (int j = rowIndex; j < endIndex; j++)
+        {
+          Map<String,Object> parameterMap = rows.get(j);
+          if (j > rowIndex)
+            bf.append(',');
+          bf.append(rowValues);
+          for (String column : columns)
+          {
+            paramArray.add(parameterMap.get(column));
+          }
+        }
+        performModification(bf.toString(),paramArray,invalidateKeys);
+        rowIndex = endIndex;
+      }
+    }
+  }
+
   /** Class to keep track of modifications while we're in a transaction.
   */
   protected static class Modifications
@@ -658,28 +797,29 @@ public abstract class Database
     }
   }
   
-  /** Thread used to execute queries.  An instance of this thread is spun up every time a query is executed.  This is necessary because JDBC does not
-  * guarantee interruptability, and the Postgresql JDBC driver unfortunately eats all thread interrupts.  So, we fire up a thread to do each interaction with
-  * the database server, thus insuring that the owning thread remains interruptable and will therefore not block shutdown.
+  /** Task used to execute queries.  Every interaction with the database server is handed to a helper thread from
+  * QueryThreadPool, while the owning thread waits.  This is necessary because JDBC does not guarantee interruptability, and
+  * the Postgresql JDBC driver unfortunately eats all thread interrupts.  So, the owning thread remains interruptable and will
+  * therefore not block shutdown.  When the owning thread is interrupted, the statement in progress is cancelled.
   */
-  protected class ExecuteQueryThread extends Thread
+  protected class ExecuteQueryTask extends QueryThreadPool.Task
   {
-    protected Connection connection;
-    protected String query;
-    protected List params;
-    protected boolean bResults;
-    protected int maxResults;
-    protected ResultSpecification spec;
-    protected ILimitChecker returnLimit;
-    protected Throwable exception = null;
+    protected final Connection connection;
+    protected final PreparedStatementCache statementCache;
+    protected final String query;
+    protected final List params;
+    protected final boolean bResults;
+    protected final int maxResults;
+    protected final ResultSpecification spec;
+    protected final ILimitChecker returnLimit;
     protected IResultSet rval = null;
+    protected Statement statement = null;
 
-    public ExecuteQueryThread(Connection connection, String query, List params, boolean bResults, int maxResults,
-      ResultSpecification spec, ILimitChecker returnLimit)
+    public ExecuteQueryTask(Connection connection, PreparedStatementCache statementCache, String query, List params,
+      boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit)
     {
-      super();
-      setDaemon(true);
       this.connection = connection;
+      this.statementCache = statementCache;
       this.query = query;
       this.params = params;
       this.bResults = bResults;
@@ -688,24 +828,51 @@ public abstract class Database
       this.returnLimit = returnLimit;
     }
 
-    public void run()
+    @Override
+    protected void doWork()
+      throws Throwable
     {
-      try
-      {
-        // execute using the passed connection handle
-        rval = execute(connection,query,params,bResults,maxResults,spec,returnLimit);
-      }
-      catch (Throwable e)
+      // execute using the passed connection handle
+      rval = execute(connection,query,params,bResults,maxResults,spec,returnLimit,this);
+    }
+
+    /** Get the prepared statement cache for the connection, or null */
+    public PreparedStatementCache getStatementCache()
+    {
+      return statementCache;
+    }
+
+    /** Note the statement currently executing, or null if none */
+    public synchronized void setStatement(Statement statement)
+    {
+      this.statement = statement;
+    }
+
+    @Override
+    protected void abortActivity()
+    {
+      if (statement != null)
       {
-        this.exception = e;
+        try
+        {
+          statement.cancel();
+        }
+        catch (SQLException e)
+        {
+          // Cancel is only advisory; the connection will be abandoned anyhow
+        }
+        catch (java.lang.AbstractMethodError e)
+        {
+          // Driver does not implement cancel
+        }
       }
     }
 
     public IResultSet finishUp()
       throws ManifoldCFException, InterruptedException
     {
-      join();
-      Throwable thr = exception;
+      waitForComplete();
+      Throwable thr = getException();
       if (thr != null)
       {
         if (thr instanceof ManifoldCFException)
@@ -714,6 +881,8 @@ public abstract class Database
           ManifoldCFException me = (ManifoldCFException)thr;
           throw new ManifoldCFException("Database exception: "+me.getMessage(),me.getCause(),me.getErrorCode());
         }
+        else if (thr instanceof InterruptedException)
+          throw (InterruptedException)thr;
         else if (thr instanceof Error)
           throw (Error)thr;
         else if (thr instanceof RuntimeException)
@@ -725,25 +894,35 @@ public abstract class Database
     }
   }
 
-  /** Do query execution via a subthread, so the primary thread can be interrupted */
+  /** Do query execution via a helper thread, so the primary thread can be interrupted */
   protected IResultSet executeViaThread(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return executeViaThread(connection,null,query,params,bResults,maxResults,spec,returnLimit);
+  }
+
+  /** Do query execution via a helper thread, so the primary thread can be interrupted.
+  *@param statementCache is the connection's prepared statement cache, or null.
+  */
+  protected IResultSet executeViaThread(Connection connection, PreparedStatementCache statementCache, String query, List params,
+    boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit)
+    throws ManifoldCFException
   {
     if (connection == null)
       // This probably means that the thread was interrupted and the connection was abandoned.  Just return null.
       return null;
 
-    ExecuteQueryThread t = new ExecuteQueryThread(connection,query,params,bResults,maxResults,spec,returnLimit);
+    ExecuteQueryTask t = new ExecuteQueryTask(connection,statementCache,query,params,bResults,maxResults,spec,returnLimit);
     try
     {
-      t.start();
+      QueryThreadPool.execute(t);
       return t.finishUp();
     }
     catch (InterruptedException e)
     {
-      // Try to kill the background thread - but we can't wait for it...
-      t.interrupt();
+      // Cancel the statement and interrupt the helper thread - but we can't wait for it...
+      t.cancel();
       interruptCleanup(connection);
       // We need the caller to abandon any connections left around, so rethrow in a way that forces them to process the event properly.
       throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
@@ -781,7 +960,7 @@ public abstract class Database
     {
       try
       {
-        return executeViaThread(connection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(connection.getConnection(),connection.getStatementCache(),query,params,bResults,maxResults,spec,returnLimit);
       }
       catch (ManifoldCFException e)
       {
@@ -795,12 +974,12 @@ public abstract class Database
     {
       // Grab a connection
       WrappedConnection tempConnection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
-        maxDBConnections,debug);
+        maxDBConnections,statementCacheSize,debug);
       try
       {
         // Initialize the connection (for HSQLDB)
         initializeConnection(tempConnection.getConnection());
-        return executeViaThread(tempConnection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(tempConnection.getConnection(),tempConnection.getStatementCache(),query,params,bResults,maxResults,spec,returnLimit);
       }
       catch (ManifoldCFException e)
       {
@@ -818,6 +997,434 @@ public abstract class Database
   }
 
 
+  /** Perform a general "data fetch" query, returning a forward-only cursor rather than a resultset.
+  * Rows are read as the caller asks for them, and never cached.  Outside of a transaction, the query runs
+  * on a connection of its own, which the cursor holds until it is closed; inside a transaction, it runs on
+  * the transaction's connection, and the database driver may read ahead more than fetchSize rows.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param fetchSize is the number of rows to fetch from the database at a time, or 0 for the driver's default.
+  *@param resultSpec is a result specification, or null for the standard treatment.
+  *@return the cursor, which must be closed.
+  */
+  public IResultCursor performStreamingQuery(String query, List params, int fetchSize, ResultSpecification resultSpec)
+    throws ManifoldCFException
+  {
+    if (commitDone)
+      throw new ManifoldCFException("Commit already done");
+    if (Logging.db.isDebugEnabled())
+      Logging.db.debug("Requested streaming query: [" + query + "]");
+
+    synchronizeTransactions();
+    if (connection != null)
+    {
+      StreamingCursor cursor = new StreamingCursor(connection.getConnection(),null,query,params,fetchSize,resultSpec);
+      cursor.start();
+      return cursor;
+    }
+
+    // Grab a connection for the duration of the scan
+    WrappedConnection tempConnection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
+      maxDBConnections,statementCacheSize,debug);
+    boolean started = false;
+    try
+    {
+      // Initialize the connection (for HSQLDB)
+      initializeConnection(tempConnection.getConnection());
+      StreamingCursor cursor = new StreamingCursor(tempConnection.getConnection(),tempConnection,query,params,
+        getStreamingFetchSize(fetchSize),resultSpec);
+      cursor.start();
+      started = true;
+      return cursor;
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        // drop the connection object on the floor, so it cannot possibly be reused
+        tempConnection = null;
+      throw e;
+    }
+    finally
+    {
+      if (!started && tempConnection != null)
+        ConnectionFactory.releaseConnection(tempConnection);
+    }
+  }
+
+  /** Map the fetch size requested for a streaming query on a connection of its own to what the driver needs.
+  *@param fetchSize is the requested fetch size, or 0 for the driver's default.
+  *@return the fetch size to set on the statement.
+  */
+  protected int getStreamingFetchSize(int fetchSize)
+  {
+    return fetchSize;
+  }
+
+  /** Prepare a connection of its own for a streaming query, beyond setting the fetch size on the statement.
+  * The default does nothing.
+  *@param connection is the JDBC connection.
+  *@param fetchSize is the fetch size that will be set on the statement.
+  */
+  protected void beginStreaming(Connection connection, int fetchSize)
+    throws SQLException
+  {
+  }
+
+  /** Undo whatever beginStreaming() did, before the connection is reused.
+  *@param connection is the JDBC connection.
+  */
+  protected void endStreaming(Connection connection)
+    throws SQLException
+  {
+  }
+
+  /** Marks the end of a streaming query's rows */
+  protected final static Object END_OF_ROWS = new Object();
+
+  /** Cursor over the rows of a streaming query.  A helper thread from QueryThreadPool runs the query and hands
+  * rows over through a bounded queue, so the owning thread stays interruptible while waiting for the next row.
+  */
+  protected class StreamingCursor implements IResultCursor
+  {
+    protected final Connection jdbcConnection;
+    protected WrappedConnection ownedConnection;
+    protected final StreamingQueryTask task;
+    protected final java.util.concurrent.BlockingQueue<Object> queue;
+    protected IResultRow nextRow = null;
+    protected boolean finished = false;
+
+    /** Constructor.
+    *@param ownedConnection is the connection to release when done, or null if the connection is the transaction's.
+    */
+    public StreamingCursor(Connection jdbcConnection, WrappedConnection ownedConnection, String query, List params,
+      int fetchSize, ResultSpecification spec)
+    {
+      this.jdbcConnection = jdbcConnection;
+      this.ownedConnection = ownedConnection;
+      this.queue = new java.util.concurrent.ArrayBlockingQueue<Object>(Math.max(16,Math.min(fetchSize,1000)));
+      this.task = new StreamingQueryTask(jdbcConnection,ownedConnection != null,query,params,fetchSize,spec,queue);
+    }
+
+    public void start()
+    {
+      QueryThreadPool.execute(task);
+    }
+
+    @Override
+    public boolean hasNext()
+      throws ManifoldCFException
+    {
+      if (nextRow != null)
+        return true;
+      if (finished)
+        return false;
+      Object o = take();
+      if (o == END_OF_ROWS)
+      {
+        finish();
+        return false;
+      }
+      nextRow = (IResultRow)o;
+      return true;
+    }
+
+    @Override
+    public IResultRow next()
+      throws ManifoldCFException
+    {
+      if (!hasNext())
+        throw new NoSuchElementException("No more rows");
+      IResultRow rval = nextRow;
+      nextRow = null;
+      return rval;
+    }
+
+    @Override
+    public void close()
+      throws ManifoldCFException
+    {
+      if (finished)
+        return;
+      if (nextRow != null)
+      {
+        discardRow(nextRow);
+        nextRow = null;
+      }
+      task.stop();
+      // Drain until the helper thread acknowledges, so it is never left blocked on a full queue
+      while (true)
+      {
+        Object o = take();
+        if (o == END_OF_ROWS)
+          break;
+        discardRow((IResultRow)o);
+      }
+      finish();
+    }
+
+    /** Wait for the next item from the helper thread */
+    protected Object take()
+      throws ManifoldCFException
+    {
+      try
+      {
+        return queue.take();
+      }
+      catch (InterruptedException e)
+      {
+        abandon();
+        throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+    }
+
+    /** Wait for the helper thread to complete, release the connection, and report any error */
+    protected void finish()
+      throws ManifoldCFException
+    {
+      finished = true;
+      try
+      {
+        task.waitForComplete();
+      }
+      catch (InterruptedException e)
+      {
+        abandon();
+        throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+      if (ownedConnection != null)
+      {
+        ConnectionFactory.releaseConnection(ownedConnection);
+        ownedConnection = null;
+      }
+      Throwable thr = task.getException();
+      if (thr != null)
+      {
+        if (thr instanceof ManifoldCFException)
+        {
+          ManifoldCFException me = (ManifoldCFException)thr;
+          throw new ManifoldCFException("Database exception: "+me.getMessage(),me.getCause(),me.getErrorCode());
+        }
+        else if (thr instanceof Error)
+          throw (Error)thr;
+        else if (thr instanceof RuntimeException)
+          throw (RuntimeException)thr;
+        else
+          throw new RuntimeException("Unknown exception: "+thr.getClass().getName()+": "+thr.getMessage(),thr);
+      }
+    }
+
+    /** The owning thread was interrupted: cancel the query and abandon the connection */
+    protected void abandon()
+    {
+      finished = true;
+      task.cancel();
+      interruptCleanup(jdbcConnection);
+      if (ownedConnection != null)
+        // drop the connection object on the floor, so it cannot possibly be reused
+        ownedConnection = null;
+      else
+        connection = null;
+    }
+
+    protected void discardRow(IResultRow row)
+      throws ManifoldCFException
+    {
+      Iterator<String> iter = row.getColumns();
+      while (iter.hasNext())
+      {
+        Object o = row.getValue(iter.next());
+        if (o instanceof PersistentDatabaseObject)
+          ((PersistentDatabaseObject)o).discard();
+      }
+    }
+  }
+
+  /** Task that runs a streaming query on a helper thread, handing rows to the cursor as they are read.
+  */
+  protected class StreamingQueryTask extends QueryThreadPool.Task
+  {
+    protected final Connection connection;
+    protected final boolean ownConnection;
+    protected final String query;
+    protected final List params;
+    protected final int fetchSize;
+    protected final ResultSpecification spec;
+    protected final java.util.concurrent.BlockingQueue<Object> queue;
+    protected volatile boolean stopped = false;
+    protected Statement statement = null;
+
+    public StreamingQueryTask(Connection connection, boolean ownConnection, String query, List params, int fetchSize,
+      ResultSpecification spec, java.util.concurrent.BlockingQueue<Object> queue)
+    {
+      this.connection = connection;
+      this.ownConnection = ownConnection;
+      this.query = query;
+      this.params = params;
+      this.fetchSize = fetchSize;
+      this.spec = spec;
+      this.queue = queue;
+    }
+
+    /** Ask the task to stop reading rows */
+    public void stop()
+    {
+      stopped = true;
+    }
+
+    @Override
+    protected void abortActivity()
+    {
+      if (statement != null)
+      {
+        try
+        {
+          statement.cancel();
+        }
+        catch (SQLException e)
+        {
+          // Cancel is only advisory; the connection will be abandoned anyhow
+        }
+        catch (java.lang.AbstractMethodError e)
+        {
+          // Driver does not implement cancel
+        }
+      }
+    }
+
+    @Override
+    protected void doWork()
+      throws Throwable
+    {
+      boolean interrupted = false;
+      try
+      {
+        readRows();
+      }
+      catch (InterruptedException e)
+      {
+        // The cursor has been abandoned, so nobody is waiting for the end marker
+        interrupted = true;
+        throw e;
+      }
+      finally
+      {
+        if (!interrupted)
+          queue.put(END_OF_ROWS);
+      }
+    }
+
+    protected void readRows()
+      throws ManifoldCFException, InterruptedException
+    {
+      try
+      {
+        // Some drivers (e.g. PostgreSQL) only fetch in batches outside of auto-commit mode
+        boolean restoreAutoCommit = false;
+        boolean streaming = ownConnection && fetchSize != 0;
+        if (streaming)
+        {
+          if (connection.getAutoCommit())
+          {
+            connection.setAutoCommit(false);
+            restoreAutoCommit = true;
+          }
+          beginStreaming(connection,fetchSize);
+        }
+        try
+        {
+          Statement stmt;
+          ResultSet rs;
+          if (params == null)
+          {
+            stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,ResultSet.CONCUR_READ_ONLY);
+          }
+          else
+          {
+            stmt = connection.prepareStatement(query,ResultSet.TYPE_FORWARD_ONLY,ResultSet.CONCUR_READ_ONLY);
+          }
+          synchronized (this)
+          {
+            statement = stmt;
+          }
+          try
+          {
+            if (fetchSize != 0)
+              stmt.setFetchSize(fetchSize);
+            if (params == null)
+              rs = stmt.executeQuery(query);
+            else
+            {
+              loadPS((PreparedStatement)stmt,params);
+              rs = ((PreparedStatement)stmt).executeQuery();
+            }
+            try
+            {
+              ResultSetMetaData rsmd = rs.getMetaData();
+              int colcount = rsmd.getColumnCount();
+              if (colcount == 0)
+                throw new ManifoldCFException("Empty query, no columns returned",ManifoldCFException.GENERAL_ERROR);
+              String[] resultLabels = new String[colcount];
+              int[] columnNumbers = new int[colcount];
+              int[] forms = new int[colcount];
+              for (int i = 0; i < colcount; i++)
+              {
+                String labelName = rsmd.getColumnLabel(i+1);
+                String key = mapLookupName(rsmd.getColumnName(i+1),labelName);
+                resultLabels[i] = mapLabelName(labelName);
+                columnNumbers[i] = findColumn(rs,key);
+                forms[i] = (spec == null)?ResultSpecification.FORM_DEFAULT:spec.getForm(key.toLowerCase(Locale.ROOT));
+              }
+              CompactRow.Columns columns = new CompactRow.Columns(resultLabels);
+
+              while (!stopped && rs.next())
+              {
+                Object[] values = new Object[colcount];
+                for (int i = 0; i < colcount; i++)
+                {
+                  if (columnNumbers[i] > -1)
+                    values[i] = getObject(rs,rsmd,columnNumbers[i],forms[i]);
+                }
+                queue.put(new CompactRow(columns,values));
+              }
+            }
+            finally
+            {
+              rs.close();
+            }
+          }
+          finally
+          {
+            synchronized (this)
+            {
+              statement = null;
+            }
+            stmt.close();
+          }
+        }
+        finally
+        {
+          if (streaming)
+            endStreaming(connection);
+          if (restoreAutoCommit)
+          {
+            // Nothing was written, so there is nothing to commit
+            connection.rollback();
+            connection.setAutoCommit(true);
+          }
+        }
+      }
+      catch (java.sql.SQLException e)
+      {
+        throw new ManifoldCFException("SQLException doing streaming query"+((e.getSQLState() != null)?" ("+e.getSQLState()+")":"")+": "+e.getMessage(),e,ManifoldCFException.DATABASE_CONNECTION_ERROR);
+      }
+      finally
+      {
+        if (params != null)
+          cleanupParameters(params);
+      }
+    }
+  }
+
   // These are protected helper methods
 
   /** Initialize the connection (for HSQLDB).
@@ -841,6 +1448,16 @@ public abstract class Database
   protected IResultSet execute(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return execute(connection,query,params,bResults,maxResults,spec,returnLimit,null);
+  }
+
+  /** Run a query, noting each statement with the task doing the execution, so that it can be cancelled.
+  * @param task is the task executing the query, or null.
+  */
+  protected IResultSet execute(Connection connection, String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit, ExecuteQueryTask task)
+    throws ManifoldCFException
   {
     IResultSet rval = null;
     try
@@ -871,8 +1488,15 @@ public abstract class Database
           //                                                                      ResultSet.CONCUR_READ_ONLY);
           // lightest statement type
           Statement stmt = connection.createStatement();
+          if (task != null)
+            task.setStatement(stmt);
+          // Prepared statements may no longer match the schema after this.  Invalidate them both before
+          // and after, so that none prepared while the statement runs survives it.
+          boolean schemaChange = isSchemaChange(query);
           try
           {
+            if (schemaChange)
+              PreparedStatementCache.invalidateAll();
             stmt.execute(query);
             rs = stmt.getResultSet();
             try
@@ -888,12 +1512,30 @@ public abstract class Database
           }
           finally
           {
+            if (schemaChange)
+            {
+              PreparedStatementCache.invalidateAll();
+              // Inside a transaction, the change only becomes visible to other connections when it commits
+              if (th != null)
+                schemaChanged = true;
+            }
+            if (task != null)
+              task.setStatement(null);
             stmt.close();
           }
         }
         else
         {
-          PreparedStatement ps = connection.prepareStatement(query);
+          PreparedStatementCache statementCache = (task == null)?null:task.getStatementCache();
+          PreparedStatement ps = null;
+          if (statementCache != null)
+            ps = statementCache.take(query);
+          if (ps == null)
+            ps = connection.prepareStatement(query);
+          if (task != null)
+            task.setStatement(ps);
+          // Only a statement that executed without error goes back into the cache
+          boolean reusable = false;
           try
           {
             loadPS(ps, params);
@@ -916,10 +1558,26 @@ public abstract class Database
               ps.executeUpdate();
               rval = getData(null,false,0,spec,null);
             }
+            reusable = true;
           }
           finally
           {
-            ps.close();
+            if (task != null)
+              task.setStatement(null);
+            if (reusable && statementCache != null)
+            {
+              try
+              {
+                ps.clearParameters();
+                statementCache.put(query,ps);
+              }
+              catch (java.sql.SQLException e)
+              {
+                ps.close();
+              }
+            }
+            else
+              ps.close();
           }
         }
         if (Logging.db.isDebugEnabled())
@@ -941,6 +1599,13 @@ public abstract class Database
     return rval;
   }
 
+  /** Check whether a statement changes the schema, and may therefore make prepared statements stale.
+  */
+  protected static boolean isSchemaChange(String query)
+  {
+    return schemaChangePattern.matcher(query).lookingAt();
+  }
+
   // Read data from a resultset
   protected IResultSet getData(ResultSet rs, boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
@@ -0,0 +1,258 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Pool of long-lived threads that perform database interactions on behalf of callers.
+* JDBC does not guarantee interruptibility, so every statement is executed by a helper thread while
+* the calling thread waits, and can therefore be interrupted.  Starting a thread per statement is expensive,
+* so helper threads are kept around and reused.  There is never more than one helper thread busy per
+* database connection in use, so the number of helper threads is bounded by the number of connections;
+* helper threads that have been idle for a while exit.
+*/
+public class QueryThreadPool
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How long an idle helper thread waits for work before exiting */
+  protected final static long IDLE_TIMEOUT = 60000L;
+
+  /** Idle helper threads, most recently used last */
+  private final static LinkedList<HelperThread> idleThreads = new LinkedList<HelperThread>();
+
+  /** Number of helper threads ever started, for statistics */
+  private final static AtomicLong threadsStarted = new AtomicLong(0L);
+
+  /** Number of tasks executed, for statistics */
+  private final static AtomicLong tasksExecuted = new AtomicLong(0L);
+
+  /** Start a task on a helper thread.  The caller is expected to wait for the task to finish.
+  */
+  public static void execute(Task task)
+  {
+    HelperThread thread;
+    synchronized (idleThreads)
+    {
+      // Take the most recently used thread, so that rarely-needed threads age out
+      thread = idleThreads.pollLast();
+    }
+    if (thread == null)
+    {
+      thread = new HelperThread(threadsStarted.incrementAndGet());
+      thread.assign(task);
+      thread.start();
+    }
+    else
+      thread.assign(task);
+    tasksExecuted.incrementAndGet();
+  }
+
+  /** Get the number of helper threads started so far */
+  public static long getThreadsStarted()
+  {
+    return threadsStarted.get();
+  }
+
+  /** Get the number of tasks executed so far */
+  public static long getTasksExecuted()
+  {
+    return tasksExecuted.get();
+  }
+
+  /** Return a helper thread to the idle list */
+  protected static void releaseThread(HelperThread thread)
+  {
+    synchronized (idleThreads)
+    {
+      idleThreads.add(thread);
+    }
+  }
+
+  /** Remove an idle helper thread from the idle list, if it is still there.
+  *@return true if the thread was removed and may exit, false if it has been handed work.
+  */
+  protected static boolean retireThread(HelperThread thread)
+  {
+    synchronized (idleThreads)
+    {
+      return idleThreads.remove(thread);
+    }
+  }
+
+  /** A unit of work to be done by a helper thread.  The owning thread waits for the work to complete
+  * by calling waitForComplete(); if it is interrupted while waiting, it should call cancel().
+  */
+  public static abstract class Task
+  {
+    protected Thread runner = null;
+    protected boolean complete = false;
+    protected boolean cancelled = false;
+    protected Throwable exception = null;
+
+    /** Do the work.  Any Throwable is captured and made available via getException(). */
+    protected abstract void doWork()
+      throws Throwable;
+
+    /** Abort whatever database activity is in progress for this task, e.g. by cancelling the
+    * current statement.  Called with the task lock held, only while the task has not yet completed.
+    */
+    protected void abortActivity()
+    {
+    }
+
+    /** Run the task on the current (helper) thread.  The task is not marked complete until
+    * finish() is called.
+    */
+    protected void run()
+    {
+      synchronized (this)
+      {
+        if (cancelled)
+        {
+          exception = new InterruptedException("Task cancelled before it started");
+          return;
+        }
+        runner = Thread.currentThread();
+      }
+      try
+      {
+        doWork();
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    /** Mark the task complete, and wake up the owning thread. */
+    protected void finish()
+    {
+      synchronized (this)
+      {
+        // Once complete is set, cancel() no longer interrupts the runner, so it is safe to reuse it afterwards
+        complete = true;
+        runner = null;
+        notifyAll();
+      }
+    }
+
+    /** Wait for the task to complete. */
+    public void waitForComplete()
+      throws InterruptedException
+    {
+      synchronized (this)
+      {
+        while (!complete)
+          wait();
+      }
+    }
+
+    /** Cancel the task: abort its database activity and interrupt the helper thread running it.
+    * Does not wait for the task to complete.
+    */
+    public void cancel()
+    {
+      synchronized (this)
+      {
+        if (complete)
+          return;
+        cancelled = true;
+        abortActivity();
+        if (runner != null)
+          runner.interrupt();
+      }
+    }
+
+    /** Get the exception thrown by the work, if any. */
+    public Throwable getException()
+    {
+      return exception;
+    }
+  }
+
+  /** A long-lived helper thread */
+  protected static class HelperThread extends Thread
+  {
+    protected Task task = null;
+
+    public HelperThread(long threadNumber)
+    {
+      super("Database query thread "+threadNumber);
+      setDaemon(true);
+    }
+
+    /** Hand this thread a task to run */
+    public synchronized void assign(Task task)
+    {
+      this.task = task;
+      notifyAll();
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        Task currentTask;
+        try
+        {
+          synchronized (this)
+          {
+            long deadline = System.currentTimeMillis() + IDLE_TIMEOUT;
+            while (task == null)
+            {
+              long now = System.currentTimeMillis();
+              if (now >= deadline)
+                break;
+              wait(deadline - now);
+            }
+            currentTask = task;
+          }
+        }
+        catch (InterruptedException e)
+        {
+          // Nobody should interrupt an idle helper thread; just keep going
+          continue;
+        }
+
+        if (currentTask == null)
+        {
+          // Idle too long; leave unless someone has just picked us
+          if (retireThread(this))
+            return;
+          continue;
+        }
+
+        currentTask.run();
+        synchronized (this)
+        {
+          task = null;
+        }
+        // Become available before waking the owner, so that an owner issuing another statement right away
+        // finds this thread idle rather than starting a new one
+        releaseThread(this);
+        currentTask.finish();
+        // Discard any interrupt aimed at the task just finished, before picking up the next one
+        Thread.interrupted();
+      }
+    }
+  }
+
+}
@@ -76,6 +76,14 @@ public interface IDBInterface
   public void performInsert(String tableName, Map<String,Object> parameterMap, StringSet invalidateKeys)
     throws ManifoldCFException;
 
+  /** Perform a batch insert operation, writing many rows with as few statements as possible.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the rows to write, each a map of column name/values.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertBatch(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
   /** Perform an update operation.
   *@param tableName is the name of the table.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -164,6 +172,51 @@ public interface IDBInterface
   public void performDrop(String tableName, StringSet invalidateKeys)
     throws ManifoldCFException;
 
+  /** Check whether tables can be partitioned by the value of a column.
+  *@return true if performCreatePartitioned() and the other partition methods are supported.
+  */
+  public boolean supportsPartitions()
+    throws ManifoldCFException;
+
+  /** Perform a table creation operation, for a table whose rows are partitioned by the value of a column.
+  * Rows go into the partition created for their value by performAddPartition(), or into a default partition
+  * if there is none.  The primary key, if any, is extended with the partition column, and foreign keys
+  * may not refer to the table.
+  *@param tableName is the name of the table to create.
+  *@param columnMap is the map describing the columns and types, in the same form as for performCreate.
+  *@param partitionColumn is the column whose value decides the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performCreatePartitioned(String tableName, Map<String,ColumnDescription> columnMap, String partitionColumn,
+    StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Add a partition to a partitioned table.  The default partition must not hold rows with the partition's value.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition, which is itself a table.
+  *@param partitionValue is the value of the partition column for the rows of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performAddPartition(String tableName, String partitionName, Long partitionValue, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Drop a partition of a partitioned table, along with all of its rows.
+  *@param tableName is the name of the partitioned table.
+  *@param partitionName is the name of the partition.
+  *@param invalidateKeys are the cache keys that should be invalidated, if any.
+  */
+  public void performDropPartition(String tableName, String partitionName, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Get a table's partitions.
+  *@param tableName is the name of the table.
+  *@param cacheKeys are the keys against which to cache the query, or null.
+  *@param queryClass is the name of the query class, or null.
+  *@return the set of partition names, including the default partition, or null if the table is not partitioned.
+  */
+  public StringSet getTablePartitions(String tableName, StringSet cacheKeys, String queryClass)
+    throws ManifoldCFException;
+
   /** Create user and database.
   *@param adminUserName is the admin user name.
   *@param adminPassword is the admin password.
@@ -254,6 +307,18 @@ public interface IDBInterface
     int maxResults, ResultSpecification resultSpec, ILimitChecker returnLimit)
     throws ManifoldCFException;
 
+  /** Perform a general "data fetch" query, returning a forward-only cursor rather than a resultset.
+  * Rows are read from the database as they are asked for, and are never cached, so this is suited to
+  * scans whose results would be too large to hold in memory.  The cursor must be closed.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param fetchSize is the number of rows to fetch from the database at a time, or 0 for the driver's default.
+  *@param resultSpec is a result specification, or null for the standard treatment.
+  *@return the cursor.
+  */
+  public IResultCursor performStreamingQuery(String query, List params, int fetchSize, ResultSpecification resultSpec)
+    throws ManifoldCFException;
+
   /** Construct index hint clause.
   * On most databases this returns an empty string, but on MySQL this returns
   * a USE INDEX hint.  It requires the name of an index.
@@ -0,0 +1,49 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+/** This interface represents a forward-only cursor over the rows of a query result.
+* Unlike IResultSet, rows are read from the database as they are asked for, so the whole
+* result never has to be held in memory.  A cursor MUST be closed when it is no longer
+* needed, whether or not all rows were read, typically in a finally block.
+*/
+public interface IResultCursor
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Find out whether there is another row.
+  *@return true if next() will return a row.
+  */
+  public boolean hasNext()
+    throws ManifoldCFException;
+
+  /** Get the next row.
+  *@return the immutable row description.
+  *@throws java.util.NoSuchElementException if there are no more rows.
+  */
+  public IResultRow next()
+    throws ManifoldCFException;
+
+  /** Close the cursor, abandoning any rows not yet read.  It is harmless to close a
+  * cursor more than once.
+  */
+  public void close()
+    throws ManifoldCFException;
+
+}
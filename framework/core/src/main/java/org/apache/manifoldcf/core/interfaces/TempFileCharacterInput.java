@@ -80,10 +80,12 @@ public class TempFileCharacterInput extends CharacterInput
     // Before we do anything else, we read the first chunk.  This will allow
     // us to determine if we're going to buffer the data in memory or not.  However,
     // it may need to be read in chunks, since there's no guarantee it will come in
-    // in the size requested.
-    int chunkSize = CHUNK_SIZE;
+    // in the size requested.  The first chunk must be able to hold everything we
+    // might keep in memory, but its buffer starts at the usual chunk size and only
+    // grows, by doubling, as more data actually arrives.
+    int chunkSize = Math.max(CHUNK_SIZE,maxInMemoryLength);
 
-    char[] buffer = new char[chunkSize];
+    char[] buffer = new char[CHUNK_SIZE];
     int chunkTotal = 0;
     boolean eofSeen = false;
     while (true)
@@ -98,7 +100,9 @@ public class TempFileCharacterInput extends CharacterInput
       }
       if (chunkAmount == 0)
         break;
-      int readsize = is.read(buffer,chunkTotal,chunkAmount);
+      if (chunkTotal == buffer.length)
+        buffer = java.util.Arrays.copyOf(buffer,(int)Math.min((long)chunkSize,buffer.length * 2L));
+      int readsize = is.read(buffer,chunkTotal,Math.min(chunkAmount,buffer.length-chunkTotal));
       if (readsize == -1)
       {
         eofSeen = true;
@@ -183,8 +187,8 @@ public class TempFileCharacterInput extends CharacterInput
           while (true)
           {
             int moveAmount;
-            if (length == -1L || length-totalMoved > chunkSize)
-              moveAmount = chunkSize;
+            if (length == -1L || length-totalMoved > buffer.length)
+              moveAmount = buffer.length;
             else
               moveAmount = (int)(length-totalMoved);
             if (moveAmount == 0)
@@ -262,6 +266,14 @@ public class TempFileCharacterInput extends CharacterInput
     super();
   }
 
+  /** Check whether the data is being held in memory, rather than in a backing file.
+  *@return true if there is no backing file.
+  */
+  public boolean isInMemory()
+  {
+    return file == null;
+  }
+
   /** Open a Utf8 stream directly from the backing file */
   @Override
   public InputStream getUtf8Stream()
@@ -72,10 +72,12 @@ public class TempFileInput extends BinaryInput
     // Before we do anything else, we read the first chunk.  This will allow
     // us to determine if we're going to buffer the data in memory or not.  However,
     // it may need to be read in chunks, since there's no guarantee it will come in
-    // in the size requested.
-    int chunkSize = CHUNK_SIZE;
+    // in the size requested.  The first chunk must be able to hold everything we
+    // might keep in memory, but its buffer starts at the usual chunk size and only
+    // grows, by doubling, as more data actually arrives.
+    int chunkSize = Math.max(CHUNK_SIZE,maxMemSize);
 
-    byte[] buffer = new byte[chunkSize];
+    byte[] buffer = new byte[CHUNK_SIZE];
     int chunkTotal = 0;
     boolean eofSeen = false;
     while (true)
@@ -90,7 +92,9 @@ public class TempFileInput extends BinaryInput
       }
       if (chunkAmount == 0)
         break;
-      int readsize = is.read(buffer,chunkTotal,chunkAmount);
+      if (chunkTotal == buffer.length)
+        buffer = java.util.Arrays.copyOf(buffer,(int)Math.min((long)chunkSize,buffer.length * 2L));
+      int readsize = is.read(buffer,chunkTotal,Math.min(chunkAmount,buffer.length-chunkTotal));
       if (readsize == -1)
       {
         eofSeen = true;
@@ -158,8 +162,8 @@ public class TempFileInput extends BinaryInput
           while (true)
           {
             int moveAmount;
-            if (length == -1L || length-totalMoved > chunkSize)
-              moveAmount = chunkSize;
+            if (length == -1L || length-totalMoved > buffer.length)
+              moveAmount = buffer.length;
             else
               moveAmount = (int)(length-totalMoved);
             if (moveAmount == 0)
@@ -234,6 +238,14 @@ public class TempFileInput extends BinaryInput
     super();
   }
 
+  /** Check whether the data is being held in memory, rather than in a backing file.
+  *@return true if there is no backing file.
+  */
+  public boolean isInMemory()
+  {
+    return file == null;
+  }
+
   /** Transfer to a new object; this causes the current object to become "already discarded" */
   public BinaryInput transfer()
   {
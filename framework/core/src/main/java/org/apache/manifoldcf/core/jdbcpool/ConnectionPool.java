@@ -37,8 +37,10 @@ public class ConnectionPool
   protected volatile int activeConnections;
   protected volatile boolean closed;
   protected final Connection[] freeConnections;
+  protected final PreparedStatementCache[] freeStatementCaches;
   protected final long[] connectionCleanupTimeouts;
   protected final long expiration;
+  protected final int statementCacheSize;
   
   protected final boolean debug;
   
@@ -46,16 +48,27 @@ public class ConnectionPool
   
   /** Constructor */
   public ConnectionPool(String dbURL, String userName, String password, int maxConnections, long expiration, boolean debug)
+  {
+    this(dbURL,userName,password,maxConnections,expiration,0,debug);
+  }
+
+  /** Constructor.
+  *@param statementCacheSize is the maximum number of prepared statements to cache per connection; 0 disables caching.
+  */
+  public ConnectionPool(String dbURL, String userName, String password, int maxConnections, long expiration,
+    int statementCacheSize, boolean debug)
   {
     this.dbURL = dbURL;
     this.userName = userName;
     this.password = password;
     this.freeConnections = new Connection[maxConnections];
+    this.freeStatementCaches = new PreparedStatementCache[maxConnections];
     this.connectionCleanupTimeouts = new long[maxConnections];
     this.freePointer = 0;
     this.activeConnections = 0;
     this.closed = false;
     this.expiration = expiration;
+    this.statementCacheSize = statementCacheSize;
     this.debug = debug;
   }
   
@@ -73,6 +86,7 @@ public class ConnectionPool
     else
       instantiationException = null;
     Connection rval = null;
+    PreparedStatementCache statementCache = null;
     boolean returnedValue = true;
     try
     {
@@ -85,7 +99,9 @@ public class ConnectionPool
             if (closed)
               throw new InterruptedException("Pool already closed");
             rval = freeConnections[--freePointer];
+            statementCache = freeStatementCaches[freePointer];
             freeConnections[freePointer] = null;
+            freeStatementCaches[freePointer] = null;
             boolean isValid = true;
             try
             {
@@ -107,6 +123,11 @@ public class ConnectionPool
               final Connection closeValue = rval;
               rval = null;
               activeConnections--;
+              if (statementCache != null)
+              {
+                statementCache.clear();
+                statementCache = null;
+              }
               try
               {
                 closeValue.close();
@@ -144,11 +165,13 @@ public class ConnectionPool
             rval = DriverManager.getConnection(dbURL, userName, password);
           else
             rval = DriverManager.getConnection(dbURL);
+          if (statementCacheSize > 0)
+            statementCache = new PreparedStatementCache(statementCacheSize);
           break;
         }
       }
 
-      WrappedConnection wc = new WrappedConnection(this,rval,instantiationException);
+      WrappedConnection wc = new WrappedConnection(this,rval,statementCache,instantiationException);
       if (debug)
       {
         synchronized (outstandingConnections)
@@ -185,7 +208,7 @@ public class ConnectionPool
         if (rval != null)
         {
           // We have a handle, so just free it and leave activeConnections alone
-          release(rval);
+          release(rval,statementCache);
         }
         else
         {
@@ -199,12 +222,15 @@ public class ConnectionPool
     }
   }
   
-  /** Flush the pool.
+  /** Flush the pool.  Cached prepared statements are invalidated everywhere, including on connections
+  * that are currently checked out.
   */
   public synchronized void flushPool()
   {
+    PreparedStatementCache.invalidateAll();
     for (int i = 0 ; i < freePointer ; i++)
     {
+      closeStatementCache(i);
       try
       {
         freeConnections[i].close();
@@ -226,6 +252,7 @@ public class ConnectionPool
   {
     for (int i = 0 ; i < freePointer ; i++)
     {
+      closeStatementCache(i);
       try
       {
         freeConnections[i].close();
@@ -251,6 +278,7 @@ public class ConnectionPool
       if (connectionCleanupTimeouts[i] <= currentTime)
       {
         Connection c = freeConnections[i];
+        closeStatementCache(i);
         freeConnections[i] = null;
         freePointer--;
         activeConnections--;
@@ -261,8 +289,10 @@ public class ConnectionPool
         else
         {
           freeConnections[i] = freeConnections[freePointer];
+          freeStatementCaches[i] = freeStatementCaches[freePointer];
           connectionCleanupTimeouts[i] = connectionCleanupTimeouts[freePointer];
           freeConnections[freePointer] = null;
+          freeStatementCaches[freePointer] = null;
         }
         try
         {
@@ -291,14 +321,15 @@ public class ConnectionPool
       }
     }
 
-    release(connection.getConnection());
+    release(connection.getConnection(),connection.getStatementCache());
   }
   
-  protected void release(Connection c)
+  protected void release(Connection c, PreparedStatementCache statementCache)
   {
     synchronized (this)
     {
       freeConnections[freePointer] = c;
+      freeStatementCaches[freePointer] = statementCache;
       connectionCleanupTimeouts[freePointer] = System.currentTimeMillis() + expiration;
       freePointer++;
       notifyAll();
@@ -306,6 +337,14 @@ public class ConnectionPool
     
   }
   
+  /** Close the cached statements of a free connection, before closing the connection itself */
+  protected void closeStatementCache(int i)
+  {
+    if (freeStatementCaches[i] != null)
+    {
+      freeStatementCaches[i].clear();
+      freeStatementCaches[i] = null;
+    }
+  }
+  
 }
-
-
@@ -0,0 +1,167 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.manifoldcf.core.system.Logging;
+
+/** Least-recently-used cache of prepared statements belonging to a single pooled connection, keyed by SQL text.
+* A statement is taken out of the cache while it is in use, and put back afterwards, so it can never be
+* evicted (and closed) underneath its user.  The cache lives as long as its connection does, across checkouts.
+* All caches can be invalidated at once, e.g. when the schema changes; each cache notices this the next
+* time it is used, and closes its statements.
+*/
+public class PreparedStatementCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Invalidation generation; bumped to invalidate every cache */
+  private final static AtomicLong currentGeneration = new AtomicLong(0L);
+
+  // Statistics, across all caches
+  private final static AtomicLong hitCount = new AtomicLong(0L);
+  private final static AtomicLong missCount = new AtomicLong(0L);
+  private final static AtomicLong evictionCount = new AtomicLong(0L);
+
+  protected final int maxSize;
+  protected final LinkedHashMap<String,PreparedStatement> statements;
+  protected long generation;
+
+  /** Constructor.
+  *@param maxSize is the maximum number of statements to keep.
+  */
+  public PreparedStatementCache(int maxSize)
+  {
+    this.maxSize = maxSize;
+    // Access order, so iteration starts with the least recently used statement
+    this.statements = new LinkedHashMap<String,PreparedStatement>(16,0.75f,true);
+    this.generation = currentGeneration.get();
+  }
+
+  /** Take a statement for the given SQL out of the cache.
+  *@return the statement, or null if there is none cached.
+  */
+  public synchronized PreparedStatement take(String sql)
+  {
+    checkGeneration();
+    PreparedStatement rval = statements.remove(sql);
+    if (rval == null)
+      missCount.incrementAndGet();
+    else
+      hitCount.incrementAndGet();
+    return rval;
+  }
+
+  /** Put a statement (back) into the cache, after use.  The least recently used statement is closed
+  * if the cache is full.  The statement's parameters should already have been cleared.
+  */
+  public synchronized void put(String sql, PreparedStatement statement)
+  {
+    checkGeneration();
+    PreparedStatement old = statements.put(sql,statement);
+    if (old != null && old != statement)
+      closeStatement(old);
+    Iterator<PreparedStatement> iter = statements.values().iterator();
+    while (statements.size() > maxSize && iter.hasNext())
+    {
+      PreparedStatement eldest = iter.next();
+      iter.remove();
+      closeStatement(eldest);
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  /** Close all cached statements.  Call this before the owning connection is closed.
+  */
+  public synchronized void clear()
+  {
+    for (PreparedStatement statement : statements.values())
+    {
+      closeStatement(statement);
+    }
+    statements.clear();
+  }
+
+  /** Get the number of statements currently cached */
+  public synchronized int size()
+  {
+    return statements.size();
+  }
+
+  /** Invalidate all caches in this JVM.  Each cache discards its statements the next time it is used.
+  */
+  public static void invalidateAll()
+  {
+    currentGeneration.incrementAndGet();
+  }
+
+  /** Get the number of times a cached statement was found */
+  public static long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  /** Get the number of times no cached statement was found */
+  public static long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  /** Get the number of statements evicted because a cache was full */
+  public static long getEvictionCount()
+  {
+    return evictionCount.get();
+  }
+
+  /** Get the fraction of lookups that found a cached statement, or 0.0 if there have been none */
+  public static double getHitRate()
+  {
+    long hits = hitCount.get();
+    long total = hits + missCount.get();
+    if (total == 0L)
+      return 0.0;
+    return ((double)hits) / ((double)total);
+  }
+
+  /** Discard everything if the caches have been invalidated since we last looked */
+  protected void checkGeneration()
+  {
+    long latest = currentGeneration.get();
+    if (latest != generation)
+    {
+      clear();
+      generation = latest;
+    }
+  }
+
+  protected static void closeStatement(PreparedStatement statement)
+  {
+    try
+    {
+      statement.close();
+    }
+    catch (SQLException e)
+    {
+      Logging.db.warn("Error closing cached prepared statement: "+e.getMessage(),e);
+    }
+  }
+
+}
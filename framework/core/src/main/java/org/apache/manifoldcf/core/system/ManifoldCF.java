@@ -144,6 +144,8 @@ public class ManifoldCF
   public static final String databaseHandleTimeoutProperty = "org.apache.manifoldcf.database.handletimeout";
   /** Connection tracking debug property */
   public static final String databaseConnectionTrackingProperty = "org.apache.manifoldcf.database.connectiontracking";
+  /** Maximum prepared statements cached per database handle property */
+  public static final String databaseStatementCacheSizeProperty = "org.apache.manifoldcf.database.preparedstatementcachesize";
 
   // Database performance monitoring properties
   /** Elapsed time a query can take before a warning is output to the log, in seconds */
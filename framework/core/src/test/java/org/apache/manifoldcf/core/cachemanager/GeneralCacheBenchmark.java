@@ -0,0 +1,98 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Contention benchmark for GeneralCache.  Many threads do mixed lookup, set, and invalidate
+* traffic against one cache.  A one-segment cache behaves exactly like the old single-monitor
+* implementation, so it is used as the baseline.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.core.cachemanager.GeneralCacheBenchmark [threads] [seconds]
+*/
+public class GeneralCacheBenchmark
+{
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int threads = (args.length > 0)?Integer.parseInt(args[0]):64;
+    int seconds = (args.length > 1)?Integer.parseInt(args[1]):10;
+
+    System.out.println("Threads: "+threads+"; seconds per run: "+seconds);
+    run(new GeneralCache(1),threads,1);
+    run(new GeneralCache(),threads,1);
+    long single = run(new GeneralCache(1),threads,seconds);
+    long segmented = run(new GeneralCache(),threads,seconds);
+    System.out.println("Single monitor: "+(single/seconds)+" ops/sec");
+    System.out.println("Segmented ("+GeneralCache.DEFAULT_SEGMENT_COUNT+"): "+(segmented/seconds)+" ops/sec");
+  }
+
+  /** Run one measurement, returning the number of operations completed.
+  * Each thread does roughly 90% lookups, 8% sets, and 2% invalidations, over 10000 objects
+  * spread among 100 invalidation keys.
+  */
+  protected static long run(final GeneralCache cache, int threadCount, int seconds)
+    throws Exception
+  {
+    final AtomicLong operations = new AtomicLong(0L);
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+    {
+      final Random random = new Random(i);
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          long count = 0L;
+          while (!stop.get())
+          {
+            int objectNumber = random.nextInt(10000);
+            String objectDescription = "object"+objectNumber;
+            int action = random.nextInt(100);
+            if (action < 90)
+              cache.lookup(objectDescription);
+            else if (action < 98)
+            {
+              cache.deleteObject(objectDescription);
+              cache.setObject(objectDescription,objectDescription,new StringSet("key"+(objectNumber % 100)),System.currentTimeMillis());
+              cache.setObjectClass(objectDescription,"benchmark",5000);
+            }
+            else
+              cache.invalidateKeys(new StringSet("key"+random.nextInt(100)));
+            count++;
+          }
+          operations.addAndGet(count);
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(seconds * 1000L);
+    stop.set(true);
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    return operations.get();
+  }
+
+}
@@ -0,0 +1,149 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestGeneralCache
+{
+
+  @Test
+  public void testInvalidationAcrossSegments()
+  {
+    GeneralCache cache = new GeneralCache(8);
+    for (int i = 0; i < 100; i++)
+    {
+      String key = ((i % 2) == 0)?"even":"odd";
+      cache.setObject("object"+i,new Integer(i),new StringSet(new String[]{key,"all"}),1000L);
+    }
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(new Integer(i),cache.lookup("object"+i));
+      assertEquals(1000L,cache.getObjectCreationTime("object"+i));
+    }
+    cache.invalidateKeys(new StringSet("even"));
+    for (int i = 0; i < 100; i++)
+    {
+      if ((i % 2) == 0)
+        assertNull(cache.lookup("object"+i));
+      else
+        assertEquals(new Integer(i),cache.lookup("object"+i));
+    }
+    // Unknown keys are harmless
+    cache.invalidateKeys(new StringSet("nothing"));
+    cache.invalidateKeys(new StringSet("all"));
+    for (int i = 0; i < 100; i++)
+    {
+      assertNull(cache.lookup("object"+i));
+    }
+    // Keys can be reused after invalidation
+    cache.setObject("again",new Integer(1),new StringSet("even"),2000L);
+    assertEquals(new Integer(1),cache.lookup("again"));
+    cache.invalidateKeys(new StringSet("even"));
+    assertNull(cache.lookup("again"));
+  }
+
+  @Test
+  public void testExpiration()
+  {
+    GeneralCache cache = new GeneralCache(4);
+    for (int i = 0; i < 50; i++)
+    {
+      cache.setObject("object"+i,new Integer(i),new StringSet("key"),1000L);
+      cache.setObjectExpiration("object"+i,(long)i);
+    }
+    assertEquals(10L,cache.getObjectExpirationTime("object10"));
+    cache.expireRecords(24L);
+    for (int i = 0; i < 50; i++)
+    {
+      if (i <= 24)
+        assertNull(cache.lookup("object"+i));
+      else
+        assertEquals(new Integer(i),cache.lookup("object"+i));
+    }
+  }
+
+  @Test
+  public void testObjectClassLimit()
+  {
+    // With one segment, the LRU behavior is exact
+    GeneralCache cache = new GeneralCache(1);
+    for (int i = 0; i < 20; i++)
+    {
+      cache.setObject("object"+i,new Integer(i),new StringSet("key"),1000L);
+      cache.setObjectClass("object"+i,"class",10);
+    }
+    for (int i = 0; i < 20; i++)
+    {
+      if (i < 10)
+        assertNull(cache.lookup("object"+i));
+      else
+        assertEquals(new Integer(i),cache.lookup("object"+i));
+    }
+
+    // With several segments, the limit still applies to the class as a whole, and the objects
+    // flushed are the least recently added ones, whichever segments they are in
+    cache = new GeneralCache(4);
+    for (int i = 0; i < 200; i++)
+    {
+      cache.setObject("object"+i,new Integer(i),new StringSet("key"),1000L);
+      cache.setObjectClass("object"+i,"class",40);
+    }
+    for (int i = 0; i < 200; i++)
+    {
+      if (i < 160)
+        assertNull(cache.lookup("object"+i));
+      else
+        assertEquals(new Integer(i),cache.lookup("object"+i));
+    }
+  }
+
+  @Test
+  public void testSmallObjectClassLimit()
+  {
+    // A limit smaller than the segment count is not multiplied by it
+    GeneralCache cache = new GeneralCache(16);
+    for (int i = 0; i < 50; i++)
+    {
+      cache.setObject("object"+i,new Integer(i),new StringSet("key"),1000L);
+      cache.setObjectClass("object"+i,"class",1);
+    }
+    for (int i = 0; i < 49; i++)
+    {
+      assertNull(cache.lookup("object"+i));
+    }
+    assertEquals(new Integer(49),cache.lookup("object49"));
+
+    // Objects removed other ways no longer count against the limit
+    cache.invalidateKeys(new StringSet("key"));
+    for (int i = 0; i < 3; i++)
+    {
+      cache.setObject("other"+i,new Integer(i),new StringSet("key"),1000L);
+      cache.setObjectClass("other"+i,"class",3);
+    }
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(new Integer(i),cache.lookup("other"+i));
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import org.apache.manifoldcf.core.tests.BasePostgresql;
+import java.util.*;
+
+/** Measures link-style row inserts per second, one performInsert() per row versus performInsertBatch().
+* Rows are written in transactions of 100, the way links for one document are recorded.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.core.database.InsertBatchBenchmark [hsqldb|postgresql] [rows]
+* PostgreSQL must be set up as for the PostgreSQL integration tests.
+*/
+public class InsertBatchBenchmark
+{
+  protected final static String tableName = "insertbatchbenchmark";
+  protected final static int rowsPerTransaction = 100;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    String databaseType = (args.length > 0)?args[0]:"hsqldb";
+    int rowCount = (args.length > 1)?Integer.parseInt(args[1]):1000000;
+
+    if (databaseType.equals("postgresql"))
+    {
+      PostgresqlSetup setup = new PostgresqlSetup();
+      setup.setUp();
+      try
+      {
+        run(rowCount);
+      }
+      finally
+      {
+        setup.cleanUp();
+      }
+    }
+    else
+    {
+      HSQLDBSetup setup = new HSQLDBSetup();
+      setup.setUp();
+      try
+      {
+        run(rowCount);
+      }
+      finally
+      {
+        setup.cleanUp();
+      }
+    }
+  }
+
+  protected static void run(int rowCount)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    System.out.println("Rows: "+rowCount);
+    for (int pass = 0; pass < 2; pass++)
+    {
+      boolean batch = (pass == 1);
+      TestInsertBatch.createTable(database,tableName);
+      try
+      {
+        long startTime = System.currentTimeMillis();
+        int rowID = 0;
+        while (rowID < rowCount)
+        {
+          List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+          for (int i = 0; i < rowsPerTransaction && rowID < rowCount; i++)
+          {
+            Map<String,Object> row = new HashMap<String,Object>();
+            row.put("id",new Long(rowID));
+            row.put("parentid","parent"+(rowID / rowsPerTransaction));
+            row.put("linktype","link");
+            rows.add(row);
+            rowID++;
+          }
+          database.beginTransaction();
+          try
+          {
+            if (batch)
+              database.performInsertBatch(tableName,rows,null);
+            else
+            {
+              for (Map<String,Object> row : rows)
+              {
+                database.performInsert(tableName,row,null);
+              }
+            }
+          }
+          catch (Error e)
+          {
+            database.signalRollback();
+            throw e;
+          }
+          catch (ManifoldCFException e)
+          {
+            database.signalRollback();
+            throw e;
+          }
+          finally
+          {
+            database.endTransaction();
+          }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        System.out.println((batch?"Batched":"Single-row")+" inserts: "+(rowCount * 1000L / Math.max(1L,elapsed))+" rows/sec");
+      }
+      finally
+      {
+        database.performDrop(tableName,null);
+      }
+    }
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+  }
+
+  protected static class PostgresqlSetup extends BasePostgresql
+  {
+  }
+
+}
@@ -0,0 +1,140 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.jdbcpool.PreparedStatementCache;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Measures short primary-key lookups per second against HSQLDB, from one or more threads.
+* Each lookup is a separate, uncached query, so the cost is dominated by per-statement overhead.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.core.database.QueryExecutionBenchmark [threads] [queries per thread]
+*/
+public class QueryExecutionBenchmark
+{
+  protected final static String tableName = "queryexecutionbenchmark";
+  protected final static int rowCount = 1000;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int threadCount = (args.length > 0)?Integer.parseInt(args[0]):1;
+    int queryCount = (args.length > 1)?Integer.parseInt(args[1]):100000;
+
+    HSQLDBSetup setup = new HSQLDBSetup();
+    setup.setUp();
+    try
+    {
+      run(threadCount,queryCount);
+    }
+    finally
+    {
+      setup.cleanUp();
+    }
+  }
+
+  protected static void run(int threadCount, final int queryCount)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    TestInsertBatch.createTable(database,tableName);
+    try
+    {
+      List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+      for (int i = 0; i < rowCount; i++)
+      {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put("id",new Long(i));
+        row.put("parentid","parent"+i);
+        rows.add(row);
+      }
+      database.performInsertBatch(tableName,rows,null);
+
+      System.out.println("Threads: "+threadCount+", queries per thread: "+queryCount);
+      // The first pass warms up the JIT and the connection pool
+      for (int pass = 0; pass < 2; pass++)
+      {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        long threadsBefore = QueryThreadPool.getThreadsStarted();
+        long startTime = System.currentTimeMillis();
+        for (int t = 0; t < threadCount; t++)
+        {
+          final int seed = t;
+          threads[t] = new Thread()
+          {
+            public void run()
+            {
+              try
+              {
+                IThreadContext threadContext = ThreadContextFactory.make();
+                IDBInterface threadDatabase = DBInterfaceFactory.make(threadContext,
+                  ManifoldCF.getMasterDatabaseName(),
+                  ManifoldCF.getMasterDatabaseUsername(),
+                  ManifoldCF.getMasterDatabasePassword());
+                Random random = new Random(seed);
+                for (int i = 0; i < queryCount; i++)
+                {
+                  List params = new ArrayList();
+                  params.add(new Long(random.nextInt(rowCount)));
+                  IResultSet set = threadDatabase.performQuery("SELECT parentid FROM "+tableName+" WHERE id=?",params,null,null);
+                  if (set.getRowCount() != 1)
+                    throw new Exception("Expected one row, saw "+set.getRowCount());
+                }
+              }
+              catch (Throwable e)
+              {
+                failure.set(e);
+              }
+            }
+          };
+          threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+          thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (failure.get() != null)
+          throw new Exception("Query thread failed: "+failure.get().getMessage(),failure.get());
+        if (pass == 1)
+          System.out.println("Queries: "+((long)threadCount * queryCount * 1000L / Math.max(1L,elapsed))+" queries/sec, "+
+            (QueryThreadPool.getThreadsStarted() - threadsBefore)+" helper threads started, prepared statement cache hit rate "+
+            String.format(Locale.ROOT,"%.3f",PreparedStatementCache.getHitRate()));
+      }
+    }
+    finally
+    {
+      database.performDrop(tableName,null);
+    }
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+  }
+
+}
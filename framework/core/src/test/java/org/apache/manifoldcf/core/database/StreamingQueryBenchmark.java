@@ -0,0 +1,160 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.util.*;
+
+/** Measures the heap needed to scan a jobqueue-like table, reading it as a resultset versus through a
+* streaming cursor.  The heap figure is the live heap, after a full collection, part way through the
+* scan (for the cursor) or once the resultset has been read (for performQuery), less the live heap
+* before the scan started.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -Xmx4g -cp ... org.apache.manifoldcf.core.database.StreamingQueryBenchmark [rows]
+* A resultset over millions of rows may not fit the heap at all; that is reported rather than fatal.
+*/
+public class StreamingQueryBenchmark
+{
+  protected final static String tableName = "streamingquerybenchmark";
+  protected final static int rowsPerInsert = 10000;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int rowCount = (args.length > 0)?Integer.parseInt(args[0]):5000000;
+
+    HSQLDBSetup setup = new HSQLDBSetup();
+    setup.setUp();
+    try
+    {
+      run(rowCount);
+    }
+    finally
+    {
+      setup.cleanUp();
+    }
+  }
+
+  protected static void run(int rowCount)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Map<String,ColumnDescription> columnMap = new HashMap<String,ColumnDescription>();
+    columnMap.put("id",new ColumnDescription("BIGINT",true,false,null,null,false));
+    columnMap.put("jobid",new ColumnDescription("BIGINT",false,false,null,null,false));
+    columnMap.put("dochash",new ColumnDescription("VARCHAR(40)",false,false,null,null,false));
+    columnMap.put("docid",new ColumnDescription("VARCHAR(255)",false,false,null,null,false));
+    columnMap.put("checktime",new ColumnDescription("BIGINT",false,true,null,null,false));
+    columnMap.put("status",new ColumnDescription("CHAR(1)",false,false,null,null,false));
+    database.performCreate(tableName,columnMap,null);
+    try
+    {
+      System.out.println("Rows: "+rowCount);
+      long insertStart = System.currentTimeMillis();
+      int rowID = 0;
+      while (rowID < rowCount)
+      {
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        for (int i = 0; i < rowsPerInsert && rowID < rowCount; i++)
+        {
+          Map<String,Object> row = new HashMap<String,Object>();
+          row.put("id",new Long(rowID));
+          row.put("jobid",new Long(1L));
+          row.put("dochash",String.format(Locale.ROOT,"%040x",rowID));
+          row.put("docid","http://www.example.com/documents/"+rowID+".html");
+          row.put("checktime",new Long(1000000L + rowID));
+          row.put("status","P");
+          rows.add(row);
+          rowID++;
+        }
+        database.performInsertBatch(tableName,rows,null);
+      }
+      System.out.println("Loaded in "+(System.currentTimeMillis() - insertStart)+" ms");
+
+      String query = "SELECT id,jobid,dochash,docid,checktime,status FROM "+tableName;
+
+      // Streaming cursor
+      long baseline = liveHeap();
+      long startTime = System.currentTimeMillis();
+      long midScanHeap = 0L;
+      long count = 0L;
+      IResultCursor cursor = database.performStreamingQuery(query,null,1000,null);
+      try
+      {
+        while (cursor.hasNext())
+        {
+          cursor.next();
+          count++;
+          if (count == rowCount / 2)
+            midScanHeap = liveHeap();
+        }
+      }
+      finally
+      {
+        cursor.close();
+      }
+      long elapsed = System.currentTimeMillis() - startTime;
+      System.out.println("Streaming cursor: "+count+" rows in "+elapsed+" ms, heap held mid-scan "+
+        ((midScanHeap - baseline) / 1048576L)+" MB");
+
+      // Whole resultset
+      baseline = liveHeap();
+      startTime = System.currentTimeMillis();
+      try
+      {
+        IResultSet set = database.performQuery(query,null,null,null);
+        elapsed = System.currentTimeMillis() - startTime;
+        long heldHeap = liveHeap();
+        System.out.println("Resultset: "+set.getRowCount()+" rows in "+elapsed+" ms, heap held "+
+          ((heldHeap - baseline) / 1048576L)+" MB");
+      }
+      catch (OutOfMemoryError e)
+      {
+        System.out.println("Resultset: out of memory after "+(System.currentTimeMillis() - startTime)+" ms, heap limit "+
+          (Runtime.getRuntime().maxMemory() / 1048576L)+" MB");
+      }
+    }
+    finally
+    {
+      database.performDrop(tableName,null);
+    }
+  }
+
+  /** Get the live heap, after collecting garbage */
+  protected static long liveHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+  }
+
+}
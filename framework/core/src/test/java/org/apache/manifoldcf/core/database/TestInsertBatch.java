@@ -0,0 +1,87 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestInsertBatch extends BaseHSQLDB
+{
+  protected final static String tableName = "testinsertbatch";
+
+  @Test
+  public void testInsertBatch()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    createTable(database,tableName);
+    try
+    {
+      // Enough rows to need several statements, and a mix of null and non-null values
+      List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+      for (int i = 0; i < 5000; i++)
+      {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put("id",new Long(i));
+        row.put("parentid","parent"+(i % 7));
+        if (i % 3 == 0)
+          row.put("linktype","link");
+        rows.add(row);
+      }
+      database.performInsertBatch(tableName,rows,null);
+
+      IResultSet set = database.performQuery("SELECT COUNT(*) AS cnt FROM "+tableName,null,null,null);
+      assertEquals(5000L,((Long)set.getRow(0).getValue("cnt")).longValue());
+      set = database.performQuery("SELECT COUNT(*) AS cnt FROM "+tableName+" WHERE linktype IS NULL",null,null,null);
+      assertEquals(3333L,((Long)set.getRow(0).getValue("cnt")).longValue());
+      List params = new ArrayList();
+      params.add(new Long(4242L));
+      set = database.performQuery("SELECT parentid,linktype FROM "+tableName+" WHERE id=?",params,null,null);
+      assertEquals(1,set.getRowCount());
+      assertEquals("parent"+(4242 % 7),set.getRow(0).getValue("parentid"));
+      assertEquals("link",set.getRow(0).getValue("linktype"));
+
+      // An empty batch does nothing
+      database.performInsertBatch(tableName,new ArrayList<Map<String,Object>>(),null);
+    }
+    finally
+    {
+      database.performDrop(tableName,null);
+    }
+  }
+
+  protected static void createTable(IDBInterface database, String tableName)
+    throws ManifoldCFException
+  {
+    Map<String,ColumnDescription> columnMap = new HashMap<String,ColumnDescription>();
+    columnMap.put("id",new ColumnDescription("BIGINT",true,false,null,null,false));
+    columnMap.put("parentid",new ColumnDescription("VARCHAR(40)",false,false,null,null,false));
+    columnMap.put("linktype",new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
+    database.performCreate(tableName,columnMap,null);
+  }
+
+}
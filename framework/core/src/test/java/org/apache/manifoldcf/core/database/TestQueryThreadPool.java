@@ -0,0 +1,133 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestQueryThreadPool
+{
+
+  @Test
+  public void testThreadReuse()
+    throws Exception
+  {
+    // Warm up, so there is at least one idle helper thread
+    runTask(new CountingTask());
+    long threadsBefore = QueryThreadPool.getThreadsStarted();
+    for (int i = 0; i < 1000; i++)
+    {
+      runTask(new CountingTask());
+    }
+    // Sequential tasks are all run by the same helper thread
+    assertEquals(threadsBefore,QueryThreadPool.getThreadsStarted());
+  }
+
+  @Test
+  public void testException()
+    throws Exception
+  {
+    QueryThreadPool.Task task = new QueryThreadPool.Task()
+    {
+      protected void doWork()
+        throws Throwable
+      {
+        throw new IllegalStateException("failed");
+      }
+    };
+    runTask(task);
+    assertTrue(task.getException() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void testCancel()
+    throws Exception
+  {
+    final AtomicBoolean aborted = new AtomicBoolean(false);
+    final AtomicBoolean interrupted = new AtomicBoolean(false);
+    final Object started = new Object();
+    final boolean[] isStarted = new boolean[]{false};
+    QueryThreadPool.Task task = new QueryThreadPool.Task()
+    {
+      protected void doWork()
+        throws Throwable
+      {
+        synchronized (started)
+        {
+          isStarted[0] = true;
+          started.notifyAll();
+        }
+        try
+        {
+          // Stands in for a long-running statement
+          Thread.sleep(60000L);
+        }
+        catch (InterruptedException e)
+        {
+          interrupted.set(true);
+        }
+      }
+
+      protected void abortActivity()
+      {
+        aborted.set(true);
+      }
+    };
+    QueryThreadPool.execute(task);
+    synchronized (started)
+    {
+      while (!isStarted[0])
+        started.wait();
+    }
+    task.cancel();
+    task.waitForComplete();
+    assertTrue(aborted.get());
+    assertTrue(interrupted.get());
+
+    // The helper thread is reusable, and carries no leftover interrupt
+    final AtomicBoolean sawInterrupt = new AtomicBoolean(true);
+    QueryThreadPool.Task next = new QueryThreadPool.Task()
+    {
+      protected void doWork()
+        throws Throwable
+      {
+        sawInterrupt.set(Thread.currentThread().isInterrupted());
+      }
+    };
+    runTask(next);
+    assertFalse(sawInterrupt.get());
+  }
+
+  protected static void runTask(QueryThreadPool.Task task)
+    throws InterruptedException
+  {
+    QueryThreadPool.execute(task);
+    task.waitForComplete();
+  }
+
+  protected static class CountingTask extends QueryThreadPool.Task
+  {
+    protected void doWork()
+      throws Throwable
+    {
+    }
+  }
+
+}
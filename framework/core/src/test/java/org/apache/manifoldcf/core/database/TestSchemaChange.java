@@ -0,0 +1,40 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestSchemaChange
+{
+
+  @Test
+  public void testSchemaChangeDetection()
+  {
+    assertTrue(Database.isSchemaChange("CREATE TABLE t1 (a BIGINT)"));
+    assertTrue(Database.isSchemaChange("  alter table t1 ADD b BIGINT"));
+    assertTrue(Database.isSchemaChange("DROP\tTABLE t1"));
+    assertTrue(Database.isSchemaChange("\nCreate\nINDEX i1 ON t1 (a)"));
+    assertFalse(Database.isSchemaChange("SELECT * FROM t1"));
+    assertFalse(Database.isSchemaChange("DROPPED"));
+    assertFalse(Database.isSchemaChange("CREATE"));
+    assertFalse(Database.isSchemaChange("UPDATE t1 SET a=1 WHERE b='CREATE TABLE'"));
+  }
+
+}
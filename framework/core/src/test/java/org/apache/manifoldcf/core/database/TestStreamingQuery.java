@@ -0,0 +1,168 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestStreamingQuery extends BaseHSQLDB
+{
+  protected final static String tableName = "teststreamingquery";
+  protected final static int rowCount = 5000;
+
+  @Test
+  public void testStreamingQuery()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    TestInsertBatch.createTable(database,tableName);
+    try
+    {
+      List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+      for (int i = 0; i < rowCount; i++)
+      {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put("id",new Long(i));
+        row.put("parentid","parent"+i);
+        if (i % 2 == 0)
+          row.put("linktype","link");
+        rows.add(row);
+      }
+      database.performInsertBatch(tableName,rows,null);
+
+      // Read everything, in order
+      IResultCursor cursor = database.performStreamingQuery("SELECT id,parentid,linktype FROM "+tableName+" ORDER BY id ASC",null,100,null);
+      try
+      {
+        int count = 0;
+        while (cursor.hasNext())
+        {
+          IResultRow row = cursor.next();
+          assertEquals(3,row.getColumnCount());
+          assertEquals(new Long(count),row.getValue("id"));
+          assertEquals("parent"+count,row.getValue("parentid"));
+          assertEquals((count % 2 == 0)?"link":null,row.getValue("linktype"));
+          assertEquals(row.getValue("parentid"),((CompactRow)row).getValue(1));
+          count++;
+        }
+        assertEquals(rowCount,count);
+        assertFalse(cursor.hasNext());
+        try
+        {
+          cursor.next();
+          fail("Expected NoSuchElementException");
+        }
+        catch (NoSuchElementException e)
+        {
+        }
+      }
+      finally
+      {
+        cursor.close();
+      }
+
+      // Abandon many cursors early; each must give its connection back to the pool
+      for (int i = 0; i < 200; i++)
+      {
+        List params = new ArrayList();
+        params.add("link");
+        cursor = database.performStreamingQuery("SELECT id FROM "+tableName+" WHERE linktype=?",params,10,null);
+        try
+        {
+          assertTrue(cursor.hasNext());
+          cursor.next();
+        }
+        finally
+        {
+          cursor.close();
+        }
+        cursor.close();
+      }
+
+      // Inside a transaction, the cursor sees the transaction's own changes
+      database.beginTransaction();
+      try
+      {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put("id",new Long(rowCount));
+        row.put("parentid","uncommitted");
+        database.performInsert(tableName,row,null);
+        List params = new ArrayList();
+        params.add("uncommitted");
+        cursor = database.performStreamingQuery("SELECT id FROM "+tableName+" WHERE parentid=?",params,0,null);
+        try
+        {
+          assertTrue(cursor.hasNext());
+          assertEquals(new Long(rowCount),cursor.next().getValue("id"));
+          assertFalse(cursor.hasNext());
+        }
+        finally
+        {
+          cursor.close();
+        }
+        // The connection is still usable for the rest of the transaction
+        IResultSet set = database.performQuery("SELECT COUNT(*) AS cnt FROM "+tableName,null,null,null);
+        assertEquals((long)(rowCount+1),((Long)set.getRow(0).getValue("cnt")).longValue());
+      }
+      catch (Error e)
+      {
+        database.signalRollback();
+        throw e;
+      }
+      catch (ManifoldCFException e)
+      {
+        database.signalRollback();
+        throw e;
+      }
+      finally
+      {
+        database.endTransaction();
+      }
+
+      // Errors are reported when rows are asked for
+      cursor = database.performStreamingQuery("SELECT nosuchcolumn FROM "+tableName,null,0,null);
+      try
+      {
+        cursor.hasNext();
+        fail("Expected an exception");
+      }
+      catch (ManifoldCFException e)
+      {
+        assertEquals(ManifoldCFException.DATABASE_CONNECTION_ERROR,e.getErrorCode());
+      }
+      finally
+      {
+        cursor.close();
+      }
+    }
+    finally
+    {
+      database.performDrop(tableName,null);
+    }
+  }
+
+}
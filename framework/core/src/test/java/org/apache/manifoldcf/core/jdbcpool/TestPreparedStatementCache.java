@@ -0,0 +1,124 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+import java.sql.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestPreparedStatementCache
+{
+  protected Connection connection;
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    if (org.apache.manifoldcf.core.system.Logging.db == null)
+      org.apache.manifoldcf.core.system.Logging.db = org.apache.log4j.Logger.getLogger("org.apache.manifoldcf.db");
+  }
+
+  @Before
+  public void openConnection()
+    throws Exception
+  {
+    Class.forName("org.hsqldb.jdbcDriver");
+    connection = DriverManager.getConnection("jdbc:hsqldb:mem:teststatementcache","sa","");
+  }
+
+  @After
+  public void closeConnection()
+    throws Exception
+  {
+    connection.close();
+  }
+
+  @Test
+  public void testLRUEviction()
+    throws Exception
+  {
+    PreparedStatementCache cache = new PreparedStatementCache(2);
+    PreparedStatement ps1 = connection.prepareStatement("VALUES (1)");
+    PreparedStatement ps2 = connection.prepareStatement("VALUES (2)");
+    PreparedStatement ps3 = connection.prepareStatement("VALUES (3)");
+    cache.put("VALUES (1)",ps1);
+    cache.put("VALUES (2)",ps2);
+    // Use the first, so the second becomes least recently used
+    long hits = PreparedStatementCache.getHitCount();
+    assertSame(ps1,cache.take("VALUES (1)"));
+    assertEquals(hits + 1L,PreparedStatementCache.getHitCount());
+    cache.put("VALUES (1)",ps1);
+    cache.put("VALUES (3)",ps3);
+    assertEquals(2,cache.size());
+    assertTrue(ps2.isClosed());
+    assertFalse(ps1.isClosed());
+    long misses = PreparedStatementCache.getMissCount();
+    assertNull(cache.take("VALUES (2)"));
+    assertEquals(misses + 1L,PreparedStatementCache.getMissCount());
+    // A statement that is checked out cannot be evicted
+    assertSame(ps3,cache.take("VALUES (3)"));
+    cache.put("VALUES (4)",connection.prepareStatement("VALUES (4)"));
+    cache.put("VALUES (5)",connection.prepareStatement("VALUES (5)"));
+    assertFalse(ps3.isClosed());
+    ps3.close();
+    cache.clear();
+    assertTrue(ps1.isClosed());
+  }
+
+  @Test
+  public void testInvalidation()
+    throws Exception
+  {
+    PreparedStatementCache cache = new PreparedStatementCache(10);
+    PreparedStatement ps = connection.prepareStatement("VALUES (1)");
+    cache.put("VALUES (1)",ps);
+    PreparedStatementCache.invalidateAll();
+    assertNull(cache.take("VALUES (1)"));
+    assertTrue(ps.isClosed());
+  }
+
+  @Test
+  public void testPoolFlush()
+    throws Exception
+  {
+    ConnectionPool pool = new ConnectionPool("jdbc:hsqldb:mem:teststatementcache","sa","",2,300000L,10,false);
+    WrappedConnection wc = pool.getConnection();
+    PreparedStatementCache cache = wc.getStatementCache();
+    assertNotNull(cache);
+    PreparedStatement ps = wc.getConnection().prepareStatement("VALUES (1)");
+    cache.put("VALUES (1)",ps);
+    wc.release();
+    // The cache goes along with the connection into and out of the pool
+    wc = pool.getConnection();
+    assertSame(cache,wc.getStatementCache());
+    assertSame(ps,cache.take("VALUES (1)"));
+    cache.put("VALUES (1)",ps);
+    wc.release();
+    pool.flushPool();
+    assertTrue(ps.isClosed());
+    pool.closePool();
+
+    // A pool without a statement cache size hands out no cache
+    pool = new ConnectionPool("jdbc:hsqldb:mem:teststatementcache","sa","",2,300000L,false);
+    wc = pool.getConnection();
+    assertNull(wc.getStatementCache());
+    wc.release();
+    pool.closePool();
+  }
+
+}
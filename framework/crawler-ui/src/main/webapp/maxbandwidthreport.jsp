@@ -721,7 +721,9 @@ try
       <input type="hidden" name="startrow" value='<%=Integer.toString(startRow)%>'/>
       <input type="hidden" name="sortorder" value='<%=org.apache.manifoldcf.ui.util.Encoder.attributeEscape(sortOrder.toString())%>'/>
 <%
-    long count = connMgr.countHistoryRows(reportConnection,criteria);
+    BucketDescription idBucket = new BucketDescription(reportBucketDesc,false);
+    // Reports answered from the history rollups don't depend on the number of history rows
+    long count = connMgr.canUseHistoryRollups(criteria,idBucket,intervalMilliseconds)?0L:connMgr.countHistoryRows(reportConnection,criteria);
     long maxCount = connMgr.getMaxRows();
     boolean hasMoreRows;
     if (count > maxCount)
@@ -733,8 +735,6 @@ try
     }
     else
     {
-      BucketDescription idBucket = new BucketDescription(reportBucketDesc,false);
-
       IResultSet set = connMgr.genHistoryByteCount(reportConnection,criteria,sortOrder,idBucket,
         intervalMilliseconds,startRow,rowCount+1);
 
@@ -54,6 +54,9 @@ public class AuthCheckThread extends Thread
     {
       // Create an authority connection pool object.
       IAuthorityConnectorPool authorityConnectorPool = AuthorityConnectorPoolFactory.make(threadContext);
+      // Set up the response cache
+      ICacheManager cacheManager = CacheManagerFactory.make(threadContext);
+      AuthorizationResponseCache responseCache = new AuthorizationResponseCache(threadContext);
       
       // Loop
       while (true)
@@ -76,60 +79,57 @@ public class AuthCheckThread extends Thread
           AuthorizationResponse response = null;
           Throwable exception = null;
 
+          boolean fromCache = false;
+
           // Grab an authorization response only if there's a user
           if (theRequest.getUserID() != null)
           {
-            try
+            ICacheDescription objectDescription = responseCache.makeDescription(theRequest.getAuthorityConnection(),theRequest.getUserID());
+            if (objectDescription == null)
+            {
+              ConnectorAnswer answer = fetchResponse(threadContext,authorityConnectorPool,theRequest);
+              response = answer.response;
+              exception = answer.exception;
+            }
+            else
             {
-              IAuthorityConnector connector = authorityConnectorPool.grab(theRequest.getAuthorityConnection());
-              // If this is null, we MUST treat this as an "unauthorized" condition!!
-              // We signal that by setting the exception value.
+              // Holding the cache handle keeps the connection and group from being edited underneath us
+              ICacheHandle ch = cacheManager.enterCache(new ICacheDescription[]{objectDescription},null,null);
               try
               {
-                if (connector == null)
-                  exception = new ManifoldCFException("Authority connector "+theRequest.getAuthorityConnection().getClassName()+" is not registered.");
-                else
+                ICacheCreateHandle createHandle = cacheManager.enterCreateSection(ch);
+                try
                 {
-                  // Get the acl for the user
-                  try
+                  response = (AuthorizationResponse)cacheManager.lookupObject(createHandle,objectDescription);
+                  if (response != null)
                   {
-                    response = connector.getAuthorizationResponse(theRequest.getUserID());
+                    fromCache = true;
+                    AuthorizationResponseCache.noteHit();
                   }
-                  catch (ManifoldCFException e)
+                  else
                   {
-                    if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                      throw e;
-                    Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
-                    response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+                    AuthorizationResponseCache.noteMiss();
+                    ConnectorAnswer answer = fetchResponse(threadContext,authorityConnectorPool,theRequest);
+                    response = answer.response;
+                    exception = answer.exception;
+                    if (answer.fromConnector && AuthorizationResponseCache.isCacheable(response))
+                      cacheManager.saveObject(createHandle,objectDescription,response);
                   }
-
+                }
+                finally
+                {
+                  cacheManager.leaveCreateSection(createHandle);
                 }
               }
               finally
               {
-                authorityConnectorPool.release(theRequest.getAuthorityConnection(),connector);
+                cacheManager.leaveCache(ch);
               }
             }
-            catch (ManifoldCFException e)
-            {
-              if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                throw e;
-              Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
-              response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
-              if (response == null)
-                exception = e;
-            }
-            catch (Throwable e)
-            {
-              Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
-              response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
-              if (response == null)
-                exception = e;
-            }
           }
 
           // The request is complete
-          theRequest.completeRequest(response,exception);
+          theRequest.completeRequest(response,exception,fromCache);
 
           // Repeat, and only go to sleep if there are no more requests.
         }
@@ -169,4 +169,82 @@ public class AuthCheckThread extends Thread
     }
   }
 
+  /** Ask the authority connector for its response to a request.
+  *@return the answer.
+  */
+  protected static ConnectorAnswer fetchResponse(IThreadContext threadContext, IAuthorityConnectorPool authorityConnectorPool,
+    AuthRequest theRequest)
+    throws ManifoldCFException
+  {
+    AuthorizationResponse response = null;
+    Throwable exception = null;
+    boolean fromConnector = false;
+    try
+    {
+      IAuthorityConnector connector = authorityConnectorPool.grab(theRequest.getAuthorityConnection());
+      // If this is null, we MUST treat this as an "unauthorized" condition!!
+      // We signal that by setting the exception value.
+      try
+      {
+        if (connector == null)
+          exception = new ManifoldCFException("Authority connector "+theRequest.getAuthorityConnection().getClassName()+" is not registered.");
+        else
+        {
+          // Get the acl for the user
+          try
+          {
+            response = connector.getAuthorizationResponse(theRequest.getUserID());
+            fromConnector = true;
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              throw e;
+            Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
+            response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+          }
+
+        }
+      }
+      finally
+      {
+        authorityConnectorPool.release(theRequest.getAuthorityConnection(),connector);
+      }
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      if (response == null)
+        exception = e;
+    }
+    catch (Throwable e)
+    {
+      Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      if (response == null)
+        exception = e;
+    }
+    return new ConnectorAnswer(response,exception,fromConnector);
+  }
+
+  /** The result of asking a connector for a response.  Default responses, which stand in
+  * when the connector fails, are not from the connector, and must not be cached.
+  */
+  protected static class ConnectorAnswer
+  {
+    public final AuthorizationResponse response;
+    public final Throwable exception;
+    public final boolean fromConnector;
+
+    public ConnectorAnswer(AuthorizationResponse response, Throwable exception, boolean fromConnector)
+    {
+      this.response = response;
+      this.exception = exception;
+      this.fromConnector = fromConnector;
+    }
+  }
+
 }
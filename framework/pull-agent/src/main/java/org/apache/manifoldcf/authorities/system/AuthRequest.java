@@ -39,6 +39,10 @@ public class AuthRequest
   protected boolean answerComplete = false;
   protected AuthorizationResponse answerResponse = null;
   protected Throwable answerException = null;
+  protected boolean answerFromCache = false;
+
+  // When the request was made, for latency statistics
+  protected final long startTime = System.nanoTime();
 
   /** Construct the request, and record the question.
   */
@@ -79,15 +83,22 @@ public class AuthRequest
   {
     synchronized (this)
     {
-      if (answerComplete)
-        return;
-      this.wait();
+      while (!answerComplete)
+        this.wait();
     }
   }
 
   /** Note that the request is complete, and record the answers.
   */
   public void completeRequest(AuthorizationResponse answerResponse, Throwable answerException)
+  {
+    completeRequest(answerResponse,answerException,false);
+  }
+
+  /** Note that the request is complete, and record the answers.
+  *@param answerFromCache is true if the answer came from the authorization response cache.
+  */
+  public void completeRequest(AuthorizationResponse answerResponse, Throwable answerException, boolean answerFromCache)
   {
     synchronized (this)
     {
@@ -98,10 +109,12 @@ public class AuthRequest
       answerComplete = true;
       this.answerResponse = answerResponse;
       this.answerException = answerException;
+      this.answerFromCache = answerFromCache;
 
       // Notify threads waiting on the answer.
       this.notifyAll();
     }
+    AuthorityStatistics.recordLatency(authorityConnection.getName(),System.nanoTime() - startTime);
   }
 
   /** Get the answer tokens */
@@ -116,4 +129,10 @@ public class AuthRequest
     return answerException;
   }
 
+  /** Find out whether the answer came from the authorization response cache */
+  public boolean isAnswerFromCache()
+  {
+    return answerFromCache;
+  }
+
 }
@@ -0,0 +1,177 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class keeps track of how long authorization requests take, per authority connection,
+* from the time the request is created until the answer is in.  That includes any time spent waiting
+* for prerequisite mappings and for a free auth check thread, as well as the time spent in the connector.
+* Latencies are kept in a histogram with four buckets per power of two, so percentiles are accurate to
+* within about 20%.
+*/
+public class AuthorityStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Histograms, keyed by authority connection name */
+  protected final static ConcurrentMap<String,LatencyHistogram> histograms = new ConcurrentHashMap<String,LatencyHistogram>();
+
+  private AuthorityStatistics()
+  {
+  }
+
+  /** Record the latency of one authorization request.
+  *@param connectionName is the name of the authority connection.
+  *@param nanos is the elapsed time in nanoseconds.
+  */
+  public static void recordLatency(String connectionName, long nanos)
+  {
+    LatencyHistogram h = histograms.get(connectionName);
+    if (h == null)
+    {
+      h = new LatencyHistogram();
+      LatencyHistogram existing = histograms.putIfAbsent(connectionName,h);
+      if (existing != null)
+        h = existing;
+    }
+    h.record(nanos / 1000L);
+  }
+
+  /** Get the number of requests recorded for a connection since statistics were last logged.
+  */
+  public static long getCount(String connectionName)
+  {
+    LatencyHistogram h = histograms.get(connectionName);
+    if (h == null)
+      return 0L;
+    return h.getCount();
+  }
+
+  /** Get a latency percentile for a connection, in milliseconds, covering requests since statistics were last logged.
+  *@param connectionName is the name of the authority connection.
+  *@param fraction is the percentile wanted, as a fraction, e.g. 0.99.
+  *@return the latency in milliseconds, or -1.0 if there have been no requests.
+  */
+  public static double getPercentile(String connectionName, double fraction)
+  {
+    LatencyHistogram h = histograms.get(connectionName);
+    if (h == null)
+      return -1.0;
+    return h.getPercentile(fraction);
+  }
+
+  /** Log the latency percentiles for every connection that has seen requests, and start a new
+  * interval.
+  */
+  public static void logStatistics()
+  {
+    for (Map.Entry<String,LatencyHistogram> entry : histograms.entrySet())
+    {
+      LatencyHistogram snapshot = entry.getValue().snapshotAndReset();
+      long count = snapshot.getCount();
+      if (count == 0L)
+        continue;
+      Logging.authorityService.info("Authority connection '"+entry.getKey()+"': "+count+" requests; latency p50="+
+        snapshot.getPercentile(0.5)+"ms, p99="+snapshot.getPercentile(0.99)+"ms");
+    }
+  }
+
+  /** Log-scale histogram of latencies in microseconds.
+  */
+  protected static class LatencyHistogram
+  {
+    protected final static int SUBBUCKETS = 4;
+    protected final static int BUCKETS = 64 * SUBBUCKETS;
+
+    protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long micros)
+    {
+      counts.incrementAndGet(bucketIndex(micros));
+    }
+
+    public long getCount()
+    {
+      long rval = 0L;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        rval += counts.get(i);
+      }
+      return rval;
+    }
+
+    /** Get a percentile, in milliseconds.  The upper bound of the bucket holding the percentile is returned. */
+    public double getPercentile(double fraction)
+    {
+      long total = getCount();
+      if (total == 0L)
+        return -1.0;
+      long target = (long)Math.ceil(fraction * (double)total);
+      if (target < 1L)
+        target = 1L;
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        seen += counts.get(i);
+        if (seen >= target)
+          return (double)bucketUpperBound(i) / 1000.0;
+      }
+      return (double)bucketUpperBound(BUCKETS - 1) / 1000.0;
+    }
+
+    /** Take the current counts into a new histogram, and zero this one. */
+    public LatencyHistogram snapshotAndReset()
+    {
+      LatencyHistogram rval = new LatencyHistogram();
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        rval.counts.set(i,counts.getAndSet(i,0L));
+      }
+      return rval;
+    }
+
+    protected static int bucketIndex(long micros)
+    {
+      if (micros < 1L)
+        micros = 1L;
+      int octave = 63 - Long.numberOfLeadingZeros(micros);
+      // The two bits below the top bit pick the sub-bucket
+      int sub;
+      if (octave >= 2)
+        sub = (int)((micros >> (octave - 2)) & 3L);
+      else
+        sub = (int)((micros << (2 - octave)) & 3L);
+      return octave * SUBBUCKETS + sub;
+    }
+
+    protected static long bucketUpperBound(int index)
+    {
+      int octave = index / SUBBUCKETS;
+      int sub = index % SUBBUCKETS;
+      // Bucket covers [(4+sub) * 2^octave / 4, (5+sub) * 2^octave / 4)
+      if (octave >= 2)
+        return ((long)(5 + sub)) << (octave - 2);
+      return Math.max(1L,((long)(5 + sub)) >> (2 - octave));
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.CacheKeyFactory;
+import java.util.concurrent.atomic.*;
+
+/** This class holds the configuration and statistics for the authority service's cache of
+* authorization responses.  Responses are cached through the cache manager, keyed by authority
+* connection, authority group, domain, and user.  Each cached response is invalidated along with
+* its authority connection and authority group, so editing either one discards what was cached for it.
+* Caching is off unless a response lifetime is configured.
+*/
+public class AuthorizationResponseCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How long a response stays cached, in milliseconds; 0 disables the cache */
+  protected static final String cacheLifetimeProperty = "org.apache.manifoldcf.authorityservice.cachelifetime";
+  /** The maximum number of cached responses */
+  protected static final String cacheSizeProperty = "org.apache.manifoldcf.authorityservice.cachesize";
+
+  protected static final AtomicLong hits = new AtomicLong(0L);
+  protected static final AtomicLong misses = new AtomicLong(0L);
+
+  protected final long responseLifetime;
+  protected final int maxSize;
+
+  /** Constructor.
+  */
+  public AuthorizationResponseCache(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    this(LockManagerFactory.getIntProperty(threadContext,cacheLifetimeProperty,0),
+      LockManagerFactory.getIntProperty(threadContext,cacheSizeProperty,10000));
+  }
+
+  /** Constructor.
+  *@param responseLifetime is the cached response lifetime in milliseconds, or 0 for no caching.
+  *@param maxSize is the maximum number of responses to cache.
+  */
+  public AuthorizationResponseCache(long responseLifetime, int maxSize)
+  {
+    this.responseLifetime = responseLifetime;
+    this.maxSize = maxSize;
+  }
+
+  /** Build the cache description for a response.
+  *@param connection is the authority connection.
+  *@param userID is the user, as presented to the authority connection.
+  *@return the description, or null if responses should not be cached.
+  */
+  public ICacheDescription makeDescription(IAuthorityConnection connection, String userID)
+  {
+    if (responseLifetime <= 0L || maxSize <= 0)
+      return null;
+    return new AuthorizationResponseDescription(connection.getName(),connection.getAuthGroup(),
+      connection.getAuthDomain(),userID,responseLifetime,maxSize);
+  }
+
+  /** Decide whether a response from a connector is worth caching.  Unreachable responses are not,
+  * since the authority may well be back on the next try.
+  */
+  public static boolean isCacheable(AuthorizationResponse response)
+  {
+    return response != null && response.getResponseStatus() != AuthorizationResponse.RESPONSE_UNREACHABLE;
+  }
+
+  /** Count a cache hit */
+  public static void noteHit()
+  {
+    hits.incrementAndGet();
+  }
+
+  /** Count a cache miss */
+  public static void noteMiss()
+  {
+    misses.incrementAndGet();
+  }
+
+  /** Get the number of cache hits since startup */
+  public static long getHits()
+  {
+    return hits.get();
+  }
+
+  /** Get the number of cache misses since startup */
+  public static long getMisses()
+  {
+    return misses.get();
+  }
+
+  /** This is the cache object descriptor for cached authorization responses.
+  */
+  protected static class AuthorizationResponseDescription extends org.apache.manifoldcf.core.cachemanager.BaseDescription
+  {
+    protected final String connectionName;
+    protected final String authGroup;
+    protected final String authDomain;
+    protected final String userID;
+    protected final long responseLifetime;
+    protected final StringSet invalidationKeys;
+    protected long expirationTime = -1L;
+
+    public AuthorizationResponseDescription(String connectionName, String authGroup, String authDomain,
+      String userID, long responseLifetime, int LRUsize)
+    {
+      super("authorizationresponsecache",LRUsize);
+      this.connectionName = connectionName;
+      this.authGroup = (authGroup==null)?"":authGroup;
+      this.authDomain = (authDomain==null)?"":authDomain;
+      this.userID = userID;
+      this.responseLifetime = responseLifetime;
+      StringSetBuffer ssb = new StringSetBuffer();
+      ssb.add(CacheKeyFactory.makeAuthorityConnectionKey(connectionName));
+      if (authGroup != null)
+        ssb.add(CacheKeyFactory.makeAuthorityGroupKey(authGroup));
+      this.invalidationKeys = new StringSet(ssb);
+    }
+
+    /** Return the invalidation keys for this object. */
+    @Override
+    public StringSet getObjectKeys()
+    {
+      return invalidationKeys;
+    }
+
+    /** Get the critical section name, used for synchronizing the creation of the object */
+    @Override
+    public String getCriticalSectionName()
+    {
+      StringBuilder sb = new StringBuilder(getClass().getName());
+      sb.append("-").append(connectionName).append("-").append(authGroup).append("-")
+        .append(authDomain).append("-").append(userID);
+      return sb.toString();
+    }
+
+    /** Return the object expiration interval */
+    @Override
+    public long getObjectExpirationTime(long currentTime)
+    {
+      if (expirationTime == -1L)
+        expirationTime = currentTime + responseLifetime;
+      return expirationTime;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return connectionName.hashCode() + authGroup.hashCode() + authDomain.hashCode() + userID.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof AuthorizationResponseDescription))
+        return false;
+      AuthorizationResponseDescription other = (AuthorizationResponseDescription)o;
+      return other.connectionName.equals(connectionName) &&
+        other.authGroup.equals(authGroup) &&
+        other.authDomain.equals(authDomain) &&
+        other.userID.equals(userID);
+    }
+  }
+
+}
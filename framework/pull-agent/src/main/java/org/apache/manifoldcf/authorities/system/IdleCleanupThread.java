@@ -34,6 +34,8 @@ public class IdleCleanupThread extends Thread
 
   // Local data
 
+  /** How often to log authority latency statistics */
+  protected final static long STATISTICS_INTERVAL = 60000L;
 
   /** Constructor.
   */
@@ -53,6 +55,7 @@ public class IdleCleanupThread extends Thread
       IThreadContext threadContext = ThreadContextFactory.make();
       IAuthorityConnectorPool authorityConnectorPool = AuthorityConnectorPoolFactory.make(threadContext);
       IMappingConnectorPool mappingConnectorPool = MappingConnectorPoolFactory.make(threadContext);
+      long lastStatisticsTime = System.currentTimeMillis();
       
       // Loop
       while (true)
@@ -65,6 +68,14 @@ public class IdleCleanupThread extends Thread
           mappingConnectorPool.pollAllConnectors();
           // Poll all basic services
           ManifoldCF.pollAll(threadContext);
+
+          long currentTime = System.currentTimeMillis();
+          if (currentTime - lastStatisticsTime >= STATISTICS_INTERVAL)
+          {
+            if (Logging.authorityService.isInfoEnabled())
+              AuthorityStatistics.logStatistics();
+            lastStatisticsTime = currentTime;
+          }
           
           // Sleep for the retry interval.
           ManifoldCF.sleep(5000L);
@@ -40,6 +40,9 @@ public class MappingRequest
   protected String outputUserID = null;
   protected Throwable answerException = null;
 
+  // Actions to run once the answer is in
+  protected List<Runnable> completionActions = null;
+
   /** Construct the request, and record the question.
   */
   public MappingRequest(IMappingConnection mappingConnection, String identifyingString)
@@ -80,16 +83,37 @@ public class MappingRequest
   {
     synchronized (this)
     {
-      if (answerComplete)
+      while (!answerComplete)
+        this.wait();
+    }
+  }
+
+  /** Arrange for an action to be run once this request is complete.  This is how requests
+  * that depend on this mapping get fired off, without tying up a thread waiting for it.
+  * The action runs in the thread that completes the request, so it must be brief.  If the
+  * request is already complete, the action is run immediately, in the calling thread.
+  *@param action is the action to run.
+  */
+  public void runWhenComplete(Runnable action)
+  {
+    synchronized (this)
+    {
+      if (!answerComplete)
+      {
+        if (completionActions == null)
+          completionActions = new ArrayList<Runnable>();
+        completionActions.add(action);
         return;
-      this.wait();
+      }
     }
+    action.run();
   }
 
   /** Note that the request is complete, and record the answers.
   */
   public void completeRequest(String outputUserID, Throwable answerException)
   {
+    List<Runnable> actions;
     synchronized (this)
     {
       if (answerComplete)
@@ -102,6 +126,17 @@ public class MappingRequest
 
       // Notify threads waiting on the answer.
       this.notifyAll();
+
+      actions = completionActions;
+      completionActions = null;
+    }
+    // Fire off anything that was waiting on us, outside of the lock
+    if (actions != null)
+    {
+      for (Runnable action : actions)
+      {
+        action.run();
+      }
     }
   }
 
@@ -21,19 +21,21 @@ package org.apache.manifoldcf.authorities.system;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class describes a authorization request queue, which has a "stuffer" servlet and many "reader" threads.
 * The queue manages thread synchronization so that (a) the "stuffer" servlet blindly appends authority requests, and
 * then waits for these requests to be completed, and
 * (b) the "reader" threads block if queue is empty.
 * The objects being queued are all AuthRequest objects.
+* Requests are handed out in the order they were added.  Adding and removing use separate locks, so
+* servlet threads adding requests never contend with reader threads taking them.
 */
 public class RequestQueue<T>
 {
   public static final String _rcsid = "@(#)$Id: RequestQueue.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // Since the queue has a maximum size, an ArrayList is a fine way to keep it
-  protected List<T> queue = new ArrayList<T>();
+  protected final BlockingQueue<T> queue = new LinkedBlockingQueue<T>();
 
   /** Constructor.
   */
@@ -46,11 +48,7 @@ public class RequestQueue<T>
   */
   public void addRequest(T dd)
   {
-    synchronized (queue)
-    {
-      queue.add(dd);
-      queue.notify();
-    }
+    queue.add(dd);
   }
 
   /** Pull the next request off the queue, but wait if there is
@@ -60,15 +58,14 @@ public class RequestQueue<T>
   public T getRequest()
     throws InterruptedException
   {
-    synchronized (queue)
-    {
-      // If queue is empty, go to sleep
-      while (queue.size() == 0)
-        queue.wait();
-
-      return queue.remove(queue.size()-1);
-    }
+    return queue.take();
   }
 
+  /** Get the number of requests waiting to be picked up.
+  */
+  public int size()
+  {
+    return queue.size();
+  }
 
 }
@@ -0,0 +1,36 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+/** This interface describes an object that wants to be told whenever the active count
+* for a bin changes in a QueueTracker.  Since assignment ratings depend only on the active
+* bin counts, a listener can use these notifications to keep cached ratings current.
+* Notifications are delivered on the thread that changed the count, and no QueueTracker
+* locks are held at the time, so implementations must be thread-safe but may do their own locking.
+*/
+public interface IActiveBinListener
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Note that the active count for a bin has changed.
+  *@param binName is the name of the bin.
+  */
+  public void activeBinCountChanged(String binName);
+
+}
@@ -1245,6 +1245,19 @@ public interface IJobManager
     int startRow, int rowCount)
     throws ManifoldCFException;
 
+  /** Run a 'document status' report, reading the rows as they are asked for, in a single query.
+  *@param connectionName is the name of the connection.
+  *@param filterCriteria are the criteria used to limit the records considered for the report.
+  *@param sortOrder is the specified sort order of the final report.
+  *@param startRow is the first row to include.
+  *@param rowCount is the number of rows to include.
+  *@param fetchSize is the number of rows to read from the database at a time.
+  *@return a cursor over the rows, which have the same columns as for genDocumentStatus().  The cursor must be closed.
+  */
+  public IResultCursor genDocumentStatusCursor(String connectionName, StatusFilterCriteria filterCriteria, SortOrder sortOrder,
+    int startRow, int rowCount, int fetchSize)
+    throws ManifoldCFException;
+
   /** Run a 'queue status' report.
   *@param connectionName is the name of the connection.
   *@param filterCriteria are the criteria used to limit the records considered for the report.
@@ -0,0 +1,43 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+/** This interface describes an object that receives the rows of an API report as they are read, one at a time,
+* instead of having them added to the read command's output.  Anything else the read command produces, such as an
+* error, is still added to the output.
+*/
+public interface IReportOutput
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Start the rows.  This is called once, before the first row, and only if the report's query could be run.
+  *@param resultColumns are the columns of each row, in order.
+  */
+  public void startRows(String[] resultColumns)
+    throws ManifoldCFException;
+
+  /** Write a row.
+  *@param row is the row.
+  */
+  public void writeRow(IResultRow row)
+    throws ManifoldCFException;
+
+}
@@ -133,6 +133,11 @@ public interface IRepositoryConnectionManager
   public void cleanUpHistoryData(long timeCutoff)
     throws ManifoldCFException;
 
+  /** Merge the pre-aggregated history rollups written since the last time this was called.
+  */
+  public void compactHistoryData()
+    throws ManifoldCFException;
+
   // Activities the Connector Framework records
 
   /** Start a job */
@@ -197,6 +202,19 @@ public interface IRepositoryConnectionManager
   public IResultSet genHistorySimple(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount)
     throws ManifoldCFException;
 
+  /** Generate the same report as genHistorySimple(), reading the rows as they are asked for, in a single query.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria, which selects the records of interest.
+  *@param sort is the sorting order, which can specify sort based on the result columns.
+  *@param startRow is the first row to include (beginning with 0)
+  *@param maxRowCount is the maximum number of rows to include.
+  *@param fetchSize is the number of rows to read from the database at a time.
+  *@return a cursor over the rows, which must be closed.
+  */
+  public IResultCursor genHistorySimpleCursor(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount,
+    int fetchSize)
+    throws ManifoldCFException;
+
   /** Count the number of rows specified by a given set of criteria.  This can be used to make decisions
   * as to whether a query based on those rows will complete in an acceptable amount of time.
   *@param connectionName is the name of the connection.
@@ -211,6 +229,16 @@ public interface IRepositoryConnectionManager
   */
   public long getMaxRows()
     throws ManifoldCFException;
+
+  /** Find out whether a maximum activity or maximum bandwidth report will be answered from the pre-aggregated
+  * history rollups.  If so, the number of history rows the criteria select does not limit the report.
+  *@param criteria is the filtering criteria.
+  *@param idBucket is the description of the bucket based on processed entity identifiers.
+  *@param interval is the time interval, in milliseconds.
+  *@return true if the rollups will be used.
+  */
+  public boolean canUseHistoryRollups(FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException;
     
   /** Generate a report, listing the start time, activity count, and identifier bucket, given
   * a time slice (interval) size.
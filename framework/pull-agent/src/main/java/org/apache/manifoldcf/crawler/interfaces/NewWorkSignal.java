@@ -0,0 +1,226 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.*;
+
+/** This class carries "new eligible work" signals from the code that puts documents on the job queue
+* to the stuffer thread, so that the stuffer can sleep through stretches where the job queue has nothing
+* for it, and wake up immediately when that changes.  It is only used when the stuffer is in event-driven
+* mode.
+*
+* Signals are delivered two ways.  Within a process, a local generation counter is bumped and waiters are
+* notified.  Across processes, a shared generation counter, kept in lock manager shared data, is bumped.
+* Each stuffer remembers both generations as of the start of its last scan, and only waits while neither
+* has changed, so one stuffer noticing a signal does not hide it from the stuffers in other processes.
+* Since shared data is implemented by every lock manager (in-process, file-based, and ZooKeeper), this
+* works for any cluster configuration and any database.
+*
+* Signals are sent after the corresponding transaction commits, but the stuffer does not rely on that:
+* it does not go idle until it has seen consecutive empty scans with no signal in between.
+*/
+public class NewWorkSignal
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Property which enables event-driven stuffing */
+  public static final String eventDrivenProperty = "org.apache.manifoldcf.crawler.stuffer.eventdriven";
+  /** Property describing the maximum time, in milliseconds, the stuffer may go without scanning the queue
+  * in event-driven mode.  Some documents become eligible just because time passes, so this must not be too long. */
+  public static final String maxIdleTimeProperty = "org.apache.manifoldcf.crawler.stuffer.maxidletime";
+
+  /** The shared generation lock and data names */
+  protected static final String sharedGenerationLockName = "_NEWQUEUEWORKLOCK_";
+  protected static final String sharedGenerationDataName = "_NEWQUEUEWORKGENERATION_";
+
+  /** Local signal generation, and the monitor for waiting on it */
+  protected static final Object localSignalLock = new Object();
+  protected static long localGeneration = 0L;
+
+  /** Bumping the shared generation takes a cluster-wide lock, so only one thread in a process does it
+  * at a time.  Signals sent meanwhile are folded into one more bump by that thread.  These are
+  * protected by the sharedBumpLock monitor. */
+  protected static final Object sharedBumpLock = new Object();
+  protected static boolean sharedBumpPending = false;
+  protected static boolean sharedBumpInProgress = false;
+
+  /** Statistics */
+  protected static final AtomicLong signalsSent = new AtomicLong(0L);
+  protected static final AtomicLong signalWakeups = new AtomicLong(0L);
+  protected static final AtomicLong emptyScansAvoided = new AtomicLong(0L);
+
+  private NewWorkSignal()
+  {
+  }
+
+  /** Check whether event-driven stuffing is enabled.
+  */
+  public static boolean isEnabled(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    return LockManagerFactory.getBooleanProperty(threadContext,eventDrivenProperty,false);
+  }
+
+  /** Signal that the job queue may have new eligible documents.  Call this after the
+  * change has been committed.
+  */
+  public static void signalNewWork(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    signalsSent.incrementAndGet();
+    synchronized (localSignalLock)
+    {
+      localGeneration++;
+      localSignalLock.notifyAll();
+    }
+    synchronized (sharedBumpLock)
+    {
+      sharedBumpPending = true;
+      // Whoever is bumping will bump again, after our change was committed
+      if (sharedBumpInProgress)
+        return;
+      sharedBumpInProgress = true;
+    }
+    boolean done = false;
+    try
+    {
+      while (true)
+      {
+        synchronized (sharedBumpLock)
+        {
+          if (!sharedBumpPending)
+          {
+            sharedBumpInProgress = false;
+            done = true;
+            return;
+          }
+          sharedBumpPending = false;
+        }
+        bumpSharedGeneration(lockManager);
+      }
+    }
+    finally
+    {
+      if (!done)
+      {
+        // Leave any pending bump to the next signal
+        synchronized (sharedBumpLock)
+        {
+          sharedBumpInProgress = false;
+        }
+      }
+    }
+  }
+
+  /** Increment the shared generation.
+  */
+  protected static void bumpSharedGeneration(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    lockManager.enterWriteLock(sharedGenerationLockName);
+    try
+    {
+      long generation = getSharedGeneration(lockManager);
+      lockManager.writeData(sharedGenerationDataName,Long.toString(generation + 1L).getBytes(StandardCharsets.UTF_8));
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(sharedGenerationLockName);
+    }
+  }
+
+  /** Get the current local generation.  The stuffer records this before scanning the job queue.
+  */
+  public static long getGeneration()
+  {
+    synchronized (localSignalLock)
+    {
+      return localGeneration;
+    }
+  }
+
+  /** Get the current shared generation.  The stuffer records this before scanning the job queue, so that
+  * any signal sent after this point will be seen.
+  */
+  public static long getSharedGeneration(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    byte[] data = lockManager.readData(sharedGenerationDataName);
+    if (data == null)
+      return 0L;
+    return new Long(new String(data,StandardCharsets.UTF_8)).longValue();
+  }
+
+  /** Wait for a signal.
+  *@param lockManager is the lock manager.
+  *@param generation is the local generation recorded before the last scan.
+  *@param sharedGeneration is the shared generation recorded before the last scan.
+  *@param maxWaitTime is the maximum time to wait, in milliseconds.
+  *@return true if a signal has been sent since the last scan.
+  */
+  public static boolean waitForSignal(ILockManager lockManager, long generation, long sharedGeneration, long maxWaitTime)
+    throws ManifoldCFException, InterruptedException
+  {
+    synchronized (localSignalLock)
+    {
+      if (localGeneration == generation && maxWaitTime > 0L)
+        localSignalLock.wait(maxWaitTime);
+      if (localGeneration != generation)
+      {
+        signalWakeups.incrementAndGet();
+        return true;
+      }
+    }
+    // Nothing local; see if another process signaled
+    if (getSharedGeneration(lockManager) != sharedGeneration)
+    {
+      signalWakeups.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /** Note that the stuffer skipped some scans of the job queue that it would otherwise have done.
+  */
+  public static void noteEmptyScansAvoided(long count)
+  {
+    emptyScansAvoided.addAndGet(count);
+  }
+
+  /** Get the number of signals sent by this process. */
+  public static long getSignalsSent()
+  {
+    return signalsSent.get();
+  }
+
+  /** Get the number of times the stuffer in this process was woken by a signal. */
+  public static long getSignalWakeups()
+  {
+    return signalWakeups.get();
+  }
+
+  /** Get the number of empty job queue scans avoided by the stuffer in this process. */
+  public static long getEmptyScansAvoided()
+  {
+    return emptyScansAvoided.get();
+  }
+
+}
@@ -66,11 +66,37 @@ public class QueueTracker
   /** These are the bin counts for active threads */
   protected final Map<String,BinCount> activeBinCounts = new HashMap<String,BinCount>();
 
+  /** These are the listeners that want to hear about active bin count changes */
+  protected final List<IActiveBinListener> activeBinListeners = new ArrayList<IActiveBinListener>();
+
   /** Constructor */
   public QueueTracker()
   {
   }
 
+  /** Register a listener that will be told whenever an active bin count changes.
+  *@param listener is the listener.
+  */
+  public void addActiveBinListener(IActiveBinListener listener)
+  {
+    synchronized (activeBinListeners)
+    {
+      if (!activeBinListeners.contains(listener))
+        activeBinListeners.add(listener);
+    }
+  }
+
+  /** Remove a previously-registered active bin listener.
+  *@param listener is the listener.
+  */
+  public void removeActiveBinListener(IActiveBinListener listener)
+  {
+    synchronized (activeBinListeners)
+    {
+      activeBinListeners.remove(listener);
+    }
+  }
+
   /** Add an access record to the queue tracker.  This happens when a document
   * is added to the in-memory queue, and allows us to keep track of that particular event so
   * we can schedule in a way that meets our distribution goals.
@@ -147,6 +173,8 @@ public class QueueTracker
         }
         value.increment();
       }
+      
+      noteActiveBinCountChanged(binName);
     }
   }
 
@@ -171,6 +199,27 @@ public class QueueTracker
             activeBinCounts.remove(binName);
         }
       }
+      
+      noteActiveBinCountChanged(binName);
+    }
+  }
+
+  /** Tell all registered listeners that the active count for a bin has changed.
+  * This must be called without holding the activeBinCounts lock, since listeners may
+  * call back into calculateAssignmentRating().
+  */
+  protected void noteActiveBinCountChanged(String binName)
+  {
+    IActiveBinListener[] listeners;
+    synchronized (activeBinListeners)
+    {
+      if (activeBinListeners.size() == 0)
+        return;
+      listeners = activeBinListeners.toArray(new IActiveBinListener[activeBinListeners.size()]);
+    }
+    for (IActiveBinListener listener : listeners)
+    {
+      listener.activeBinCountChanged(binName);
     }
   }
 
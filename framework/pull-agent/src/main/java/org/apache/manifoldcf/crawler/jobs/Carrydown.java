@@ -36,8 +36,8 @@ import org.apache.manifoldcf.crawler.system.ManifoldCF;
  * <tr><td>parentidhash</td><td>VARCHAR(40)</td><td></td></tr>
  * <tr><td>childidhash</td><td>VARCHAR(40)</td><td></td></tr>
  * <tr><td>dataname</td><td>VARCHAR(255)</td><td></td></tr>
- * <tr><td>datavaluehash</td><td>VARCHAR(40)</td><td></td></tr>
- * <tr><td>datavalue</td><td>LONGTEXT</td><td></td></tr>
+ * <tr><td>datavaluehash</td><td>VARCHAR(40)</td><td>Reference:carrydownvalues.datavaluehash</td></tr>
+ * <tr><td>datavalue</td><td>LONGTEXT</td><td>Only for rows written before values were kept in carrydownvalues</td></tr>
  * <tr><td>isnew</td><td>CHAR(1)</td><td></td></tr>
  * <tr><td>processid</td><td>VARCHAR(16)</td><td></td></tr>
  * </table>
@@ -66,6 +66,10 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
   /** This value means that the link existed before, and has been found during this scan. */
   protected static final int ISNEW_EXISTING = 2;
 
+  /** Property which, if false, stores each carrydown row's value in the row itself, rather than once per
+  * job in the carrydownvalues table. */
+  public static final String deduplicateValuesProperty = "org.apache.manifoldcf.crawler.carrydown.deduplicate_values";
+
   // Map from string character to link status
   protected static Map isNewMap;
   static
@@ -76,13 +80,21 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     isNewMap.put("E",new Integer(ISNEW_EXISTING));
   }
 
+  /** The table holding the data values */
+  protected final CarrydownValues valueManager;
+  /** Lock manager, for configuration */
+  protected final ILockManager lockManager;
+
   /** Constructor.
+  *@param tc is the thread context.
   *@param database is the database handle.
   */
-  public Carrydown(IDBInterface database)
+  public Carrydown(IThreadContext tc, IDBInterface database)
     throws ManifoldCFException
   {
     super(database,"carrydown");
+    valueManager = new CarrydownValues(database);
+    lockManager = LockManagerFactory.make(tc);
   }
 
   /** Install or upgrade.
@@ -123,6 +135,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       IndexDescription uniqueIndex = new IndexDescription(true,new String[]{jobIDField,parentIDHashField,childIDHashField,dataNameField,dataValueHashField});
       IndexDescription jobChildDataIndex = new IndexDescription(false,new String[]{jobIDField,childIDHashField,dataNameField});
       IndexDescription newIndex = new IndexDescription(false,new String[]{newField,processIDField});
+      IndexDescription jobValueIndex = new IndexDescription(false,new String[]{jobIDField,dataValueHashField});
 
       Map indexes = getTableIndexes(null,null);
       Iterator iter = indexes.keySet().iterator();
@@ -137,6 +150,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
           jobChildDataIndex = null;
         else if (newIndex != null && id.equals(newIndex))
           newIndex = null;
+        else if (jobValueIndex != null && id.equals(jobValueIndex))
+          jobValueIndex = null;
         else if (indexName.indexOf("_pkey") == -1)
           // This index shouldn't be here; drop it
           performRemoveIndex(indexName);
@@ -150,6 +165,9 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       if (newIndex != null)
         performAddIndex(null,newIndex);
 
+      if (jobValueIndex != null)
+        performAddIndex(null,jobValueIndex);
+
       // This index is the constraint.  Only one row per job,dataname,datavalue,parent,and child.
       if (uniqueIndex != null)
         performAddIndex(null,uniqueIndex);
@@ -158,6 +176,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       break;
     }
 
+    valueManager.install(jobsTable,jobsColumn);
   }
 
   /** Uninstall.
@@ -165,6 +184,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
   public void deinstall()
     throws ManifoldCFException
   {
+    valueManager.deinstall();
     performDrop(null);
   }
 
@@ -176,6 +196,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     long startTime = System.currentTimeMillis();
     Logging.perf.debug("Beginning to analyze carrydown table");
     analyzeTable();
+    valueManager.analyzeTables();
     Logging.perf.debug("Done analyzing carrydown table in "+new Long(System.currentTimeMillis()-startTime)+" ms");
   }
 
@@ -188,6 +209,18 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID)});
     performDelete("WHERE "+query,list,null);
+    valueManager.deleteOwner(jobID);
+  }
+
+  /** Remove stored data values that no carrydown row refers to any more.  Call this only when the job
+  * cannot be recording carrydown data, e.g. when it has just completed.  While the job runs, values are removed
+  * as the rows that refer to them are, by restoreRecords() and deleteRecords(); this catches any left over,
+  * e.g. by revertRecords().
+  */
+  public void deleteUnreferencedValues(Long jobID)
+    throws ManifoldCFException
+  {
+    valueManager.deleteUnreferencedValues(jobID,getTableName(),jobIDField,dataValueHashField);
   }
 
   // The strategy here is to leave all rows that have a given document as a parent labelled as "BASE" at the start of the
@@ -347,6 +380,11 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     // an update.  Keep track of this information also, so we can build the return array when done.
 
     HashMap insertHappened = new HashMap();
+    // New rows are inserted all together, at the end
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    // The values the new rows refer to, by hash, if values are kept apart from the rows
+    boolean deduplicateValues = lockManager.getSharedConfiguration().getBooleanProperty(deduplicateValuesProperty,true);
+    Map<String,Object> newValues = new HashMap<String,Object>();
 
     int j = 0;
     Iterator iter = duplicateRemoval.keySet().iterator();
@@ -370,13 +408,15 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
         if (dataValueHash != null)
         {
           map.put(dataValueHashField,dataValueHash);
-          map.put(dataValueField,dataValue);
+          if (deduplicateValues)
+            newValues.put(dataValueHash,dataValue);
+          else
+            map.put(dataValueField,dataValue);
         }
 
         map.put(newField,statusToString(ISNEW_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertRows.add(map);
         insertHappened.put(childDocumentIDHash,new Boolean(true));
       }
       else
@@ -419,6 +459,13 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
         noteModifications(0,1,0);
       }
     }
+    // Values go in first, so that no row ever refers to a missing value
+    valueManager.recordValues(jobID,newValues);
+    if (insertRows.size() > 0)
+    {
+      performInsertBatch(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
 
     boolean[] rval = new boolean[childDocumentIDHashes.length];
     i = 0;
@@ -559,7 +606,10 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       
     sb.append(newField).append("=?");
     newList.add(statusToString(ISNEW_BASE));
+    Set<String> sharedValueHashes = new HashSet<String>();
+    findSharedValueHashes(sharedValueHashes,sb.toString(),newList);
     performDelete(sb.toString(),newList,null);
+    valueManager.deleteUnreferencedValues(jobID,sharedValueHashes,getTableName(),jobIDField,dataValueHashField);
 
     // Restore new values
     sb = new StringBuilder("WHERE ");
@@ -620,6 +670,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     sb.append(buildConjunctionClause(newList,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID),
       new MultiClause(childIDHashField,list)}));
+    Set<String> sharedValueHashes = new HashSet<String>();
+    findSharedValueHashes(sharedValueHashes,sb.toString(),newList);
     performDelete(sb.toString(),newList,null);
     
     sb = new StringBuilder("WHERE ");
@@ -628,11 +680,31 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     sb.append(buildConjunctionClause(newList,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID),
       new MultiClause(parentIDHashField,list)}));
+    findSharedValueHashes(sharedValueHashes,sb.toString(),newList);
     performDelete(sb.toString(),newList,null);
 
+    valueManager.deleteUnreferencedValues(jobID,sharedValueHashes,getTableName(),jobIDField,dataValueHashField);
     noteModifications(0,0,list.size()*2);
   }
 
+  /** Find the hashes of the shared values that the rows about to be deleted refer to.  Rows that hold their
+  * own value don't refer to a shared one.
+  *@param sharedValueHashes is the set the hashes are added to.
+  *@param whereClause is the where clause of the delete.
+  *@param list is the where clause's parameters.
+  */
+  protected void findSharedValueHashes(Set<String> sharedValueHashes, String whereClause, List list)
+    throws ManifoldCFException
+  {
+    IResultSet set = performQuery("SELECT DISTINCT "+dataValueHashField+" FROM "+getTableName()+" "+whereClause+
+      " AND "+dataValueField+" IS NULL AND "+dataValueHashField+" IS NOT NULL",list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      sharedValueHashes.add((String)row.getValue(dataValueHashField));
+    }
+  }
+
   /** Get unique values given a document identifier, data name, an job identifier */
   public String[] getDataValues(Long jobID, String documentIdentifierHash, String dataName)
     throws ManifoldCFException
@@ -643,15 +715,42 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       new UnitaryClause(childIDHashField,documentIdentifierHash),
       new UnitaryClause(dataNameField,dataName)});
 
+    // Rows written before values were kept in their own table still have the value inline
     IResultSet set = getDBInterface().performQuery("SELECT "+dataValueHashField+","+dataValueField+" FROM "+getTableName()+" WHERE "+
       query+" ORDER BY 1 ASC",list,null,null,-1,null,new ResultDuplicateEliminator());
 
     String[] rval = new String[set.getRowCount()];
+    List<String> missingHashes = new ArrayList<String>();
     int i = 0;
     while (i < rval.length)
     {
       IResultRow row = set.getRow(i);
       rval[i] = (String)row.getValue(dataValueField);
+      if (rval[i] == null && row.getValue(dataValueHashField) != null)
+        missingHashes.add((String)row.getValue(dataValueHashField));
+      i++;
+    }
+
+    if (missingHashes.size() > 0)
+    {
+      // Look up all the stored values at once
+      Map<String,String> values = valueManager.getValues(jobID,missingHashes);
+      i = 0;
+      while (i < rval.length)
+      {
+        if (rval[i] == null)
+        {
+          String dataValueHash = (String)set.getRow(i).getValue(dataValueHashField);
+          if (dataValueHash != null)
+            rval[i] = values.get(dataValueHash);
+        }
+        i++;
+      }
+    }
+
+    i = 0;
+    while (i < rval.length)
+    {
       if (rval[i] == null)
         rval[i] = "";
       i++;
@@ -675,13 +774,45 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       query+" ORDER BY 1 ASC",list,null,null,-1,rs,new ResultDuplicateEliminator());
 
     CharacterInput[] rval = new CharacterInput[set.getRowCount()];
+    List<String> missingHashes = new ArrayList<String>();
     int i = 0;
     while (i < rval.length)
     {
       IResultRow row = set.getRow(i);
       rval[i] = (CharacterInput)row.getValue(dataValueField);
+      if (rval[i] == null && row.getValue(dataValueHashField) != null)
+        missingHashes.add((String)row.getValue(dataValueHashField));
       i++;
     }
+
+    if (missingHashes.size() > 0)
+    {
+      Map<String,CharacterInput> values;
+      try
+      {
+        values = valueManager.getValuesAsFiles(jobID,missingHashes);
+      }
+      catch (ManifoldCFException e)
+      {
+        for (CharacterInput ci : rval)
+        {
+          if (ci != null)
+            ci.discard();
+        }
+        throw e;
+      }
+      i = 0;
+      while (i < rval.length)
+      {
+        if (rval[i] == null)
+        {
+          String dataValueHash = (String)set.getRow(i).getValue(dataValueHashField);
+          if (dataValueHash != null)
+            rval[i] = values.get(dataValueHash);
+        }
+        i++;
+      }
+    }
     return rval;
   }
 
@@ -0,0 +1,371 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+
+/** This class manages the table that holds each distinct carrydown data value once per job.  Carrydown rows
+* refer to these values by their hash, so a value carried down to many children is stored only once.
+*
+* <br><br>
+* <b>carrydownvalues</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>jobid</td><td>BIGINT</td><td>Reference:jobs.id</td></tr>
+* <tr><td>datavaluehash</td><td>VARCHAR(40)</td><td></td></tr>
+* <tr><td>datavalue</td><td>LONGTEXT</td><td></td></tr>
+* </table>
+* <br><br>
+*
+*/
+public class CarrydownValues extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Field names
+  public static final String jobIDField = "jobid";
+  public static final String dataValueHashField = "datavaluehash";
+  public static final String dataValueField = "datavalue";
+
+  /** Constructor.
+  *@param database is the database handle.
+  */
+  public CarrydownValues(IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"carrydownvalues");
+  }
+
+  /** Install or upgrade.
+  */
+  public void install(String jobsTable, String jobsColumn)
+    throws ManifoldCFException
+  {
+    // Standard practice: Outer loop, to support upgrade requirements.
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(jobIDField,new ColumnDescription("BIGINT",false,false,jobsTable,jobsColumn,false));
+        map.put(dataValueHashField,new ColumnDescription("VARCHAR(40)",false,false,null,null,false));
+        map.put(dataValueField,new ColumnDescription("LONGTEXT",false,true,null,null,false));
+
+        performCreate(map,null);
+      }
+      else
+      {
+        // Upgrade code goes here, if needed.
+      }
+
+      // Now do index management
+
+      IndexDescription uniqueIndex = new IndexDescription(true,new String[]{jobIDField,dataValueHashField});
+
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (uniqueIndex != null && id.equals(uniqueIndex))
+          uniqueIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // This index is the constraint.  Only one row per job and value hash.
+      if (uniqueIndex != null)
+        performAddIndex(null,uniqueIndex);
+
+      // Install/upgrade complete
+      break;
+    }
+  }
+
+  /** Uninstall.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Analyze the table.
+  */
+  public void analyzeTables()
+    throws ManifoldCFException
+  {
+    analyzeTable();
+  }
+
+  /** Delete an owning job's values.
+  */
+  public void deleteOwner(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)});
+    performDelete("WHERE "+query,list,null);
+  }
+
+  /** Make sure values are present.  Values already stored for the job are not written again.
+  * This must be called within the same transaction as the one that records the carrydown rows that refer to
+  * the values.  Two transactions storing the same new value will conflict on the unique index, and one of them
+  * will be retried.  Values already stored are locked until the transaction ends, so that they can't be
+  * collected before the rows that refer to them are visible.
+  *@param jobID is the job.
+  *@param values is a map from value hash to value, which is either a String or a CharacterInput.
+  */
+  public void recordValues(Long jobID, Map<String,Object> values)
+    throws ManifoldCFException
+  {
+    if (values.size() == 0)
+      return;
+    Set<String> present = new HashSet<String>();
+    int maxClause = maxClauseFindValues(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String dataValueHash : values.keySet())
+    {
+      if (list.size() == maxClause)
+      {
+        findPresentValues(present,jobID,list);
+        list.clear();
+      }
+      list.add(dataValueHash);
+    }
+    if (list.size() > 0)
+      findPresentValues(present,jobID,list);
+
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    for (Map.Entry<String,Object> entry : values.entrySet())
+    {
+      String dataValueHash = entry.getKey();
+      if (present.contains(dataValueHash))
+        continue;
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(jobIDField,jobID);
+      map.put(dataValueHashField,dataValueHash);
+      map.put(dataValueField,entry.getValue());
+      insertRows.add(map);
+    }
+    if (insertRows.size() > 0)
+    {
+      performInsertBatch(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
+  }
+
+  /** Get values as strings.
+  *@param jobID is the job.
+  *@param dataValueHashes are the hashes of the values wanted.
+  *@return a map from value hash to value, for the values found.
+  */
+  public Map<String,String> getValues(Long jobID, Collection<String> dataValueHashes)
+    throws ManifoldCFException
+  {
+    Map<String,String> rval = new HashMap<String,String>();
+    int maxClause = maxClauseFindValues(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String dataValueHash : dataValueHashes)
+    {
+      if (list.size() == maxClause)
+      {
+        readValues(rval,jobID,list,null);
+        list.clear();
+      }
+      list.add(dataValueHash);
+    }
+    if (list.size() > 0)
+      readValues(rval,jobID,list,null);
+    return rval;
+  }
+
+  /** Get values as CharacterInput objects, which the caller must discard.
+  *@param jobID is the job.
+  *@param dataValueHashes are the hashes of the values wanted.
+  *@return a map from value hash to value, for the values found.
+  */
+  public Map<String,CharacterInput> getValuesAsFiles(Long jobID, Collection<String> dataValueHashes)
+    throws ManifoldCFException
+  {
+    Map<String,CharacterInput> rval = new HashMap<String,CharacterInput>();
+    ResultSpecification rs = new ResultSpecification();
+    rs.setForm(dataValueField,ResultSpecification.FORM_STREAM);
+    boolean succeeded = false;
+    try
+    {
+      int maxClause = maxClauseFindValues(jobID);
+      List<String> list = new ArrayList<String>();
+      for (String dataValueHash : dataValueHashes)
+      {
+        if (list.size() == maxClause)
+        {
+          readValues(rval,jobID,list,rs);
+          list.clear();
+        }
+        list.add(dataValueHash);
+      }
+      if (list.size() > 0)
+        readValues(rval,jobID,list,rs);
+      succeeded = true;
+      return rval;
+    }
+    finally
+    {
+      if (!succeeded)
+      {
+        for (CharacterInput ci : rval.values())
+        {
+          ci.discard();
+        }
+      }
+    }
+  }
+
+  /** Delete the values of a job that no carrydown row refers to any more.  This must only be called when no
+  * carrydown data can be recorded for the job, e.g. when the job is not running.  While the job runs, values
+  * are collected as the rows referring to them are removed, by deleteUnreferencedValues(jobID,dataValueHashes,...).
+  *@param jobID is the job.
+  *@param carrydownTable is the carrydown table name.
+  *@param carrydownJobIDColumn is the carrydown table's job id column.
+  *@param carrydownValueHashColumn is the carrydown table's value hash column.
+  */
+  public void deleteUnreferencedValues(Long jobID, String carrydownTable, String carrydownJobIDColumn,
+    String carrydownValueHashColumn)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("WHERE ");
+    sb.append(buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)})).append(" AND NOT EXISTS(SELECT 'x' FROM ").append(carrydownTable)
+      .append(" t1 WHERE ").append(buildConjunctionClause(list,new ClauseDescription[]{
+        new JoinClause("t1."+carrydownJobIDColumn,getTableName()+"."+jobIDField),
+        new JoinClause("t1."+carrydownValueHashColumn,getTableName()+"."+dataValueHashField)})).append(")");
+    long startTime = System.currentTimeMillis();
+    performDelete(sb.toString(),list,null);
+    if (Logging.perf.isDebugEnabled())
+      Logging.perf.debug("Removed unreferenced carrydown values for job "+jobID+" in "+(System.currentTimeMillis()-startTime)+" ms");
+  }
+
+  /** Delete those of the given values that no carrydown row refers to any more.  This may be called while the
+  * job is running, within the transaction that removed the carrydown rows that referred to the values.  Each
+  * value is locked before its references are checked, so a transaction that is recording a new reference to it
+  * (see recordValues()) either finishes first, and its reference is seen, or waits, and then stores the value
+  * again.
+  *@param jobID is the job.
+  *@param dataValueHashes are the hashes of the values that may no longer be referred to.
+  *@param carrydownTable is the carrydown table name.
+  *@param carrydownJobIDColumn is the carrydown table's job id column.
+  *@param carrydownValueHashColumn is the carrydown table's value hash column.
+  */
+  public void deleteUnreferencedValues(Long jobID, Collection<String> dataValueHashes, String carrydownTable,
+    String carrydownJobIDColumn, String carrydownValueHashColumn)
+    throws ManifoldCFException
+  {
+    if (dataValueHashes.size() == 0)
+      return;
+    // Lock in a consistent order, to make deadlocks less likely
+    SortedSet<String> sortedHashes = new TreeSet<String>(dataValueHashes);
+    int maxClause = maxClauseFindValues(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String dataValueHash : sortedHashes)
+    {
+      if (list.size() == maxClause)
+      {
+        deleteUnreferencedValues(jobID,list,carrydownTable,carrydownJobIDColumn,carrydownValueHashColumn);
+        list.clear();
+      }
+      list.add(dataValueHash);
+    }
+    if (list.size() > 0)
+      deleteUnreferencedValues(jobID,list,carrydownTable,carrydownJobIDColumn,carrydownValueHashColumn);
+  }
+
+  /** Delete those of a batch of values that no carrydown row refers to any more. */
+  protected void deleteUnreferencedValues(Long jobID, List<String> dataValueHashes, String carrydownTable,
+    String carrydownJobIDColumn, String carrydownValueHashColumn)
+    throws ManifoldCFException
+  {
+    Set<String> present = new HashSet<String>();
+    findPresentValues(present,jobID,dataValueHashes);
+    if (present.size() == 0)
+      return;
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("WHERE ");
+    sb.append(buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,new ArrayList<String>(present))})).append(" AND NOT EXISTS(SELECT 'x' FROM ")
+      .append(carrydownTable).append(" t1 WHERE ").append(buildConjunctionClause(list,new ClauseDescription[]{
+        new JoinClause("t1."+carrydownJobIDColumn,getTableName()+"."+jobIDField),
+        new JoinClause("t1."+carrydownValueHashColumn,getTableName()+"."+dataValueHashField)})).append(")");
+    performDelete(sb.toString(),list,null);
+  }
+
+  protected int maxClauseFindValues(Long jobID)
+  {
+    return findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)});
+  }
+
+  /** Find which of a set of value hashes are already present, and lock them for the rest of the transaction. */
+  protected void findPresentValues(Set<String> present, Long jobID, List<String> dataValueHashes)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,dataValueHashes)});
+    IResultSet set = performQuery("SELECT "+dataValueHashField+" FROM "+getTableName()+" WHERE "+query+" FOR UPDATE",list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      present.add((String)row.getValue(dataValueHashField));
+    }
+  }
+
+  /** Read values for a set of value hashes. */
+  protected void readValues(Map rval, Long jobID, List<String> dataValueHashes, ResultSpecification rs)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,dataValueHashes)});
+    IResultSet set = getDBInterface().performQuery("SELECT "+dataValueHashField+","+dataValueField+" FROM "+getTableName()+" WHERE "+
+      query,list,null,null,-1,rs,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      Object value = row.getValue(dataValueField);
+      if (value != null)
+        rval.put(row.getValue(dataValueHashField),value);
+    }
+  }
+
+}
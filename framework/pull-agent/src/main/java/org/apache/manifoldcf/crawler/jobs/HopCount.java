@@ -132,6 +132,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   protected static Map markMap;
 
+  /** Property giving the most hop distances to cache per job in each JVM; zero disables the cache */
+  protected static final String cacheSizeProperty = "org.apache.manifoldcf.crawler.hopcountcache.maxentries";
+  /** Prefix of the shared datum holding a job's hop count cache epoch */
+  protected static final String cacheEpochPrefix = "_HOPCOUNTEPOCH_";
+  /** Prefix of the lock protecting a job's hop count cache epoch */
+  protected static final String cacheEpochLockPrefix = "_HOPCOUNTEPOCHLOCK_";
+
   static
   {
     markMap = new HashMap();
@@ -147,6 +154,8 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Thread context */
   protected IThreadContext threadContext;
+  /** Lock manager */
+  protected final ILockManager lockManager;
   
   /** Constructor.
   *@param database is the database handle.
@@ -158,6 +167,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     this.threadContext = tc;
     intrinsicLinkManager = new IntrinsicLink(database);
     deleteDepsManager = new HopDeleteDeps(database);
+    lockManager = LockManagerFactory.make(tc);
   }
 
   /** Install or upgrade.
@@ -336,11 +346,12 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   }
 
   /** Finish seed references.  Seed references are special in that the only source is the root.
+  *@return true if any recorded distance was invalidated, and so may have grown.
   */
-  public void finishSeedReferences(Long jobID, String[] legalLinkTypes, int hopcountMethod)
+  public boolean finishSeedReferences(Long jobID, String[] legalLinkTypes, int hopcountMethod)
     throws ManifoldCFException
   {
-    doFinish(jobID,legalLinkTypes,new String[]{""},hopcountMethod);
+    return doFinish(jobID,legalLinkTypes,new String[]{""},hopcountMethod);
   }
 
   /** Record a reference from source to target.  This reference will be marked as "new" or "existing".
@@ -363,11 +374,12 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Complete a recalculation pass for a set of source documents.  All child links that are not marked as "new"
   * or "existing" will be removed.  At the completion of this pass, the links will have their "new" flag cleared.
+  *@return true if any recorded distance was invalidated, and so may have grown.
   */
-  public void finishParents(Long jobID, String[] legalLinkTypes, String[] sourceDocumentHashes, int hopcountMethod)
+  public boolean finishParents(Long jobID, String[] legalLinkTypes, String[] sourceDocumentHashes, int hopcountMethod)
     throws ManifoldCFException
   {
-    doFinish(jobID,legalLinkTypes,sourceDocumentHashes,hopcountMethod);
+    return doFinish(jobID,legalLinkTypes,sourceDocumentHashes,hopcountMethod);
   }
 
   /** Revert newly-added links, because of a possibly incomplete document processing phase.
@@ -505,8 +517,9 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Remove a set of document identifiers specified as a criteria.  This will remove hopcount rows and
   * also intrinsic links that have the specified document identifiers as sources.
+  *@return true if any recorded distance was invalidated, and so may have grown.
   */
-  public void deleteMatchingDocuments(Long jobID, String[] legalLinkTypes,
+  public boolean deleteMatchingDocuments(Long jobID, String[] legalLinkTypes,
     String joinTableName,
     String joinTableIDColumn, String joinTableJobColumn,
     String joinTableCriteria, ArrayList joinTableParams,
@@ -518,17 +531,19 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // This also removes the links themselves...
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
     {
-      doDeleteDocuments(jobID,joinTableName,
+      return doDeleteDocuments(jobID,joinTableName,
         joinTableIDColumn,joinTableJobColumn,
         joinTableCriteria,joinTableParams);
     }
+    return false;
   }
 
 
   /** Remove a set of document identifier hashes.  This will also remove the intrinsic links that have these document
   * identifier hashes as sources, as well as invalidating cached hop counts that depend on them.
+  *@return true if any recorded distance was invalidated, and so may have grown.
   */
-  public void deleteDocumentIdentifiers(Long jobID, String[] legalLinkTypes, String[] documentHashes, int hopcountMethod)
+  public boolean deleteDocumentIdentifiers(Long jobID, String[] legalLinkTypes, String[] documentHashes, int hopcountMethod)
     throws ManifoldCFException
   {
     // What I want to do here is to first perform the invalidation of the cached hopcounts.
@@ -543,8 +558,8 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
     // This also removes the links themselves...
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
-      doDeleteDocuments(jobID,documentHashes);
-
+      return doDeleteDocuments(jobID,documentHashes);
+    return false;
   }
 
   /** Calculate a bunch of hop-counts.  The values returned are only guaranteed to be an upper bound, unless
@@ -587,6 +602,141 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     return rval;
   }
 
+  /** Calculate a bunch of hop-counts, as upper bounds, using the hop count cache where possible.  The answers
+  * are those findHopCounts() would give, except that a cached distance may be larger than the one now in the
+  * table.  This must not be called inside a transaction.
+  */
+  public int[] findHopCountEstimates(Long jobID, String[] parentIdentifierHashes, String linkType)
+    throws ManifoldCFException
+  {
+    int maxEntries = lockManager.getSharedConfiguration().getIntProperty(cacheSizeProperty,0);
+    if (maxEntries <= 0)
+      return findHopCounts(jobID,parentIdentifierHashes,linkType);
+
+    long epoch = readCacheEpoch(jobID);
+    int[] rval = new int[parentIdentifierHashes.length];
+    boolean[] found = HopCountCache.lookup(jobID,epoch,linkType,parentIdentifierHashes,rval);
+    int missCount = 0;
+    for (int i = 0; i < found.length; i++)
+    {
+      if (!found[i])
+        missCount++;
+    }
+    if (missCount == 0)
+      return rval;
+
+    String[] missHashes = new String[missCount];
+    int[] missIndexes = new int[missCount];
+    int j = 0;
+    for (int i = 0; i < found.length; i++)
+    {
+      if (!found[i])
+      {
+        missHashes[j] = parentIdentifierHashes[i];
+        missIndexes[j++] = i;
+      }
+    }
+    int[] distances = findHopCounts(jobID,missHashes,linkType);
+    for (j = 0; j < distances.length; j++)
+    {
+      rval[missIndexes[j]] = distances[j];
+    }
+    // These are stored under the epoch read before the table was; if links were removed since, the epoch has
+    // moved on and the next lookup discards them, so there is no need to read the epoch again here.
+    HopCountCache.store(jobID,epoch,linkType,missHashes,distances,maxEntries);
+    return rval;
+  }
+
+  /** Discard the cached hop distances for a job, in every JVM.  This must be called after any change that
+  * invalidated recorded distances has been committed, i.e. whenever finishParents(), finishSeedReferences(),
+  * deleteDocumentIdentifiers() or deleteMatchingDocuments() returned true.
+  *@param jobID is the job.
+  */
+  public void invalidateCache(Long jobID)
+    throws ManifoldCFException
+  {
+    if (lockManager.getSharedConfiguration().getIntProperty(cacheSizeProperty,0) <= 0)
+      return;
+    writeCacheEpoch(jobID,new Long(IDFactory.make(threadContext)).longValue());
+    HopCountCache.invalidate(jobID);
+  }
+
+  /** Discard the cached hop distances for a job that has been deleted, in every JVM.
+  *@param jobID is the job.
+  */
+  public void removeCache(Long jobID)
+    throws ManifoldCFException
+  {
+    if (lockManager.getSharedConfiguration().getIntProperty(cacheSizeProperty,0) <= 0)
+      return;
+    String lockName = cacheEpochLockPrefix+jobID.toString();
+    lockManager.enterWriteLock(lockName);
+    try
+    {
+      lockManager.writeData(cacheEpochPrefix+jobID.toString(),null);
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(lockName);
+    }
+    HopCountCache.invalidate(jobID);
+  }
+
+  /** Read a job's cache epoch.
+  */
+  protected long readCacheEpoch(Long jobID)
+    throws ManifoldCFException
+  {
+    byte[] data;
+    String lockName = cacheEpochLockPrefix+jobID.toString();
+    lockManager.enterReadLock(lockName);
+    try
+    {
+      data = lockManager.readData(cacheEpochPrefix+jobID.toString());
+    }
+    finally
+    {
+      lockManager.leaveReadLock(lockName);
+    }
+    if (data == null || data.length != 8)
+      return 0L;
+    long value = (((long)data[0]) & 0xffL) +
+      ((((long)data[1]) << 8) & 0xff00L) +
+      ((((long)data[2]) << 16) & 0xff0000L) +
+      ((((long)data[3]) << 24) & 0xff000000L) +
+      ((((long)data[4]) << 32) & 0xff00000000L) +
+      ((((long)data[5]) << 40) & 0xff0000000000L) +
+      ((((long)data[6]) << 48) & 0xff000000000000L) +
+      ((((long)data[7]) << 56) & 0xff00000000000000L);
+    return value;
+  }
+
+  /** Write a job's cache epoch.
+  */
+  protected void writeCacheEpoch(Long jobID, long epoch)
+    throws ManifoldCFException
+  {
+    byte[] data = new byte[8];
+    data[0] = (byte)(epoch & 0xffL);
+    data[1] = (byte)((epoch >> 8) & 0xffL);
+    data[2] = (byte)((epoch >> 16) & 0xffL);
+    data[3] = (byte)((epoch >> 24) & 0xffL);
+    data[4] = (byte)((epoch >> 32) & 0xffL);
+    data[5] = (byte)((epoch >> 40) & 0xffL);
+    data[6] = (byte)((epoch >> 48) & 0xffL);
+    data[7] = (byte)((epoch >> 56) & 0xffL);
+    String lockName = cacheEpochLockPrefix+jobID.toString();
+    lockManager.enterWriteLock(lockName);
+    try
+    {
+      lockManager.writeData(cacheEpochPrefix+jobID.toString(),data);
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(lockName);
+    }
+  }
+
   /** Find max clause count.
   */
   protected int maxClauseProcessFind(Long jobID, String linkType)
@@ -810,7 +960,9 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // distance against the distance estimate we would have given it.  If the new distance is LOWER, it gets left around
     // for queuing.
 
-    HashMap map = new HashMap();
+    // New rows, and their delete dependencies, are inserted all together once we know what they are
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    List<Map<String,Object>> dependencyRows = new ArrayList<Map<String,Object>>();
     for (int i = 0; i < documentIDHashes.length; i++)
     {
       String documentIDHash = documentIDHashes[i];
@@ -833,7 +985,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           // The dependencies are the old dependencies, plus the one we are about to add.
           DeleteDependency dd = new DeleteDependency(linkType,documentIDHash,sourceDocumentIDHash);
           // Build a new answer, based on the starting answer and the kind of link this is.
-          map.clear();
+          Map<String,Object> map = new HashMap<String,Object>();
           Long hopCountID = new Long(IDFactory.make(threadContext));
           map.put(idField,hopCountID);
           map.put(parentIDHashField,q.getDocumentIdentifierHash());
@@ -846,16 +998,15 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           map.put(markForDeathField,markToString(MARK_NORMAL));
           if (Logging.hopcount.isDebugEnabled())
             Logging.hopcount.debug("Inserting new record for '"+documentIDHash+"' linktype '"+affectedLinkType+"' distance "+Integer.toString(newAnswerValue)+" for job "+jobID);
-          performInsert(map,null);
-          noteModifications(1,0,0);
+          insertRows.add(map);
           if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
           {
-            deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+            dependencyRows.add(deleteDepsManager.makeDependencyRow(hopCountID,jobID,dd));
             Iterator iter2 = startingAnswer.getDeleteDependencies();
             while (iter2.hasNext())
             {
               dd = (DeleteDependency)iter2.next();
-              deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+              dependencyRows.add(deleteDepsManager.makeDependencyRow(hopCountID,jobID,dd));
             }
           }
         }
@@ -877,6 +1028,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    if (insertRows.size() > 0)
+    {
+      performInsertBatch(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
+    deleteDepsManager.writeDependencies(dependencyRows);
+
     // For all the records still in the matchmap, queue them.
 
     // The query I want to run is:
@@ -949,10 +1107,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   }
 
 
-  /** Method that does the work of "finishing" a set of child references. */
-  protected void doFinish(Long jobID, String[] legalLinkTypes, String[] sourceDocumentHashes, int hopcountMethod)
+  /** Method that does the work of "finishing" a set of child references.
+  *@return true if any recorded distance was invalidated.
+  */
+  protected boolean doFinish(Long jobID, String[] legalLinkTypes, String[] sourceDocumentHashes, int hopcountMethod)
     throws ManifoldCFException
   {
+    boolean rval = false;
     if (hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE)
     {
       // First, blow the cache.
@@ -967,16 +1128,18 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
 
       // Invalidate all links with the given source documents that match the common expression
-      doDeleteInvalidation(jobID,sourceDocumentHashes);
+      rval = doDeleteInvalidation(jobID,sourceDocumentHashes);
     }
     // Make all new and existing links become just "base" again.
     intrinsicLinkManager.restoreLinks(jobID,sourceDocumentHashes);
+    return rval;
   }
 
   /** Invalidate links that start with a specific set of documents, described by
   * a table join.
+  *@return true if any hopcount row was marked for recalculation.
   */
-  protected void doDeleteDocuments(Long jobID,
+  protected boolean doDeleteDocuments(Long jobID,
     String joinTableName,
     String joinTableIDColumn, String joinTableJobColumn,
     String joinTableCriteria, ArrayList joinTableParams)
@@ -1029,6 +1192,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     map.put(markForDeathField,markToString(MARK_DELETING));
     performUpdate(map,sb.toString(),list,null);
     noteModifications(0,1,0);
+    boolean rval = hasRowsMarkedDeleting(jobID);
       
     // We do NOT do the parentID because otherwise we have the potential to delete links that we need later.  See CONNECTORS-501.
 
@@ -1061,14 +1225,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     if (Logging.hopcount.isDebugEnabled())
       Logging.hopcount.debug("Done queueing for deletion for "+jobID);
 
+    return rval;
   }
   
   /** Invalidate links that start with a specific set of documents.
+  *@return true if any hopcount row was marked for recalculation.
   */
-  protected void doDeleteDocuments(Long jobID,
+  protected boolean doDeleteDocuments(Long jobID,
     String[] documentHashes)
     throws ManifoldCFException
   {
+    boolean rval = false;
     // Clear up hopcount table
     if (documentHashes.length > 0)
     {
@@ -1121,6 +1288,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       if (k > 0)
         markForDocumentDelete(jobID,list);
       noteModifications(0,documentHashes.length,0);
+      rval = hasRowsMarkedDeleting(jobID);
 
       if (Logging.hopcount.isDebugEnabled())
         Logging.hopcount.debug("Done setting hopcount rows for job "+jobID+" to initial distances");
@@ -1150,6 +1318,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
         Logging.hopcount.debug("Done queueing for deletion for "+jobID);
 
     }
+    return rval;
   }
   
   protected int maxClauseMarkForDocumentDelete(Long jobID)
@@ -1191,11 +1360,14 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   /** Invalidate links meeting a simple criteria which have a given set of source documents.  This also runs a queue
   * which is initialized with all the documents that have sources that exist in the hopcount table.  The purpose
   * of that queue is to re-establish non-infinite values for all nodes that are described in IntrinsicLinks, that are
-  * still connected to the root. */
-  protected void doDeleteInvalidation(Long jobID,
+  * still connected to the root.
+  *@return true if any hopcount row was marked for recalculation.
+  */
+  protected boolean doDeleteInvalidation(Long jobID,
     String[] sourceDocumentHashes)
     throws ManifoldCFException
   {
+    boolean rval = false;
     ArrayList commonNewList = new ArrayList();
     commonNewList.add(intrinsicLinkManager.statusToString(intrinsicLinkManager.LINKSTATUS_BASE));
     String commonNewExpression = intrinsicLinkManager.newField+"=?";
@@ -1252,6 +1424,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       if (k > 0)
         markForDelete(jobID,list,commonNewExpression,commonNewList);
       noteModifications(0,sourceDocumentHashes.length,0);
+      rval = hasRowsMarkedDeleting(jobID);
 
       if (Logging.hopcount.isDebugEnabled())
         Logging.hopcount.debug("Done setting hopcount rows for job "+jobID+" to initial distances");
@@ -1282,7 +1455,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
         Logging.hopcount.debug("Done queueing for deletion for "+jobID);
 
     }
-
+    return rval;
   }
   
   protected int maxClauseMarkForDelete(Long jobID)
@@ -1291,6 +1464,21 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       new UnitaryClause("t0."+deleteDepsManager.jobIDField,jobID)});
   }
 
+  /** Check whether any of a job's hopcount rows were just marked as deleting.  Only such rows can end up
+  * with a larger distance than they had, so if there are none, cached distances for the job are still good.
+  */
+  protected boolean hasRowsMarkedDeleting(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new UnitaryClause(markForDeathField,markToString(MARK_DELETING))});
+    IResultSet set = performQuery("SELECT "+idField+" FROM "+getTableName()+
+      " WHERE "+query+" "+constructOffsetLimitClause(0,1),list,null,null,1);
+    return set.getRowCount() > 0;
+  }
+
   protected void markForDelete(Long jobID, ArrayList list, String commonNewExpression, ArrayList commonNewList)
     throws ManifoldCFException
   {
@@ -0,0 +1,196 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** This class keeps, per JVM, the hop distances most recently read from the hopcount table, so that
+* repeated hop count checks can be answered without a query.
+*
+* A distance read from the hopcount table is an upper bound on the true distance.  Adding links can only
+* lower true distances, so a cached distance stays an upper bound however many links are added; only removing
+* links can raise one, and only when the removal marks hopcount rows for recalculation.  Every operation that
+* marks such rows changes the job's epoch, once it has committed, and cached distances are only used while the
+* epoch they were read under is still current.  Jobs that never recalculate distances never change epoch.
+*
+* Each job has a HopCountDistanceMap per link type.  A job's entries are discarded wholesale when the epoch
+* changes, or when the job reaches the configured maximum number of entries.
+*/
+public class HopCountCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The cached distances for each job */
+  protected final static ConcurrentMap<Long,JobDistances> jobs = new ConcurrentHashMap<Long,JobDistances>();
+
+  // Statistics
+  private final static AtomicLong hits = new AtomicLong(0L);
+  private final static AtomicLong misses = new AtomicLong(0L);
+  private final static AtomicLong discards = new AtomicLong(0L);
+
+  /** Look up cached distances.
+  *@param jobID is the job.
+  *@param epoch is the job's current epoch.
+  *@param linkType is the link type.
+  *@param documentIdentifierHashes are the documents to look up.
+  *@param rval receives the distances found; entries for documents not found are left alone.
+  *@return an array, parallel to the document hashes, which is true for each document found.
+  */
+  public static boolean[] lookup(Long jobID, long epoch, String linkType, String[] documentIdentifierHashes, int[] rval)
+  {
+    boolean[] found = new boolean[documentIdentifierHashes.length];
+    JobDistances jd = jobs.get(jobID);
+    int hitCount = 0;
+    if (jd != null)
+    {
+      synchronized (jd)
+      {
+        if (jd.epoch == epoch)
+        {
+          HopCountDistanceMap map = jd.distances.get(linkType);
+          if (map != null)
+          {
+            for (int i = 0; i < documentIdentifierHashes.length; i++)
+            {
+              int distance = map.get(documentIdentifierHashes[i]);
+              if (distance != HopCountDistanceMap.NOT_FOUND)
+              {
+                rval[i] = distance;
+                found[i] = true;
+                hitCount++;
+              }
+            }
+          }
+        }
+      }
+    }
+    hits.addAndGet(hitCount);
+    misses.addAndGet(documentIdentifierHashes.length - hitCount);
+    return found;
+  }
+
+  /** Remember distances read from the hopcount table.  Only known distances are kept; "infinity" can be
+  * lowered by adding a link, so it is not an upper bound.
+  *@param jobID is the job.
+  *@param epoch is the job's epoch as it was read before the distances were read.
+  *@param linkType is the link type.
+  *@param documentIdentifierHashes are the documents.
+  *@param distances are the distances read, with negative values meaning no distance is known.
+  *@param maxEntries is the most entries to keep for a job.
+  */
+  public static void store(Long jobID, long epoch, String linkType, String[] documentIdentifierHashes, int[] distances,
+    int maxEntries)
+  {
+    JobDistances jd = jobs.get(jobID);
+    if (jd == null)
+    {
+      jd = new JobDistances(epoch);
+      JobDistances existing = jobs.putIfAbsent(jobID,jd);
+      if (existing != null)
+        jd = existing;
+    }
+    synchronized (jd)
+    {
+      if (jd.epoch != epoch)
+      {
+        // Entries from one epoch are of no use to lookups under another, and lookups always compare epochs,
+        // so it doesn't matter which of the two is newer
+        jd.clear(epoch);
+        discards.incrementAndGet();
+      }
+      HopCountDistanceMap map = jd.distances.get(linkType);
+      if (map == null)
+      {
+        map = new HopCountDistanceMap(documentIdentifierHashes.length);
+        jd.distances.put(linkType,map);
+      }
+      for (int i = 0; i < documentIdentifierHashes.length; i++)
+      {
+        if (distances[i] < 0)
+          continue;
+        if (jd.size() >= maxEntries)
+        {
+          jd.clear(epoch);
+          discards.incrementAndGet();
+          map = new HopCountDistanceMap(documentIdentifierHashes.length);
+          jd.distances.put(linkType,map);
+        }
+        map.put(documentIdentifierHashes[i],distances[i]);
+      }
+    }
+  }
+
+  /** Forget everything cached for a job in this JVM.  Other JVMs notice the job's epoch change instead.
+  *@param jobID is the job.
+  */
+  public static void invalidate(Long jobID)
+  {
+    if (jobs.remove(jobID) != null)
+      discards.incrementAndGet();
+  }
+
+  /** Get the number of document distances answered from the cache */
+  public static long getHits()
+  {
+    return hits.get();
+  }
+
+  /** Get the number of document distances that had to be read from the database */
+  public static long getMisses()
+  {
+    return misses.get();
+  }
+
+  /** Get the number of times a job's cached distances were thrown away */
+  public static long getDiscards()
+  {
+    return discards.get();
+  }
+
+  /** The cached distances for one job, under one epoch */
+  protected static class JobDistances
+  {
+    protected long epoch;
+    protected final Map<String,HopCountDistanceMap> distances = new HashMap<String,HopCountDistanceMap>();
+
+    public JobDistances(long epoch)
+    {
+      this.epoch = epoch;
+    }
+
+    public int size()
+    {
+      int rval = 0;
+      for (HopCountDistanceMap map : distances.values())
+      {
+        rval += map.size();
+      }
+      return rval;
+    }
+
+    public void clear(long epoch)
+    {
+      this.epoch = epoch;
+      distances.clear();
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+/** An open-addressed map from document identifier hash to hop distance, held in a single primitive array.
+* Document identifier hashes are 40-character hexadecimal SHA-1 values; only the first 96 bits are kept,
+* which is far fewer bytes per entry than a String-keyed map would need, while still making a collision
+* between two documents of a crawl vanishingly unlikely.
+* Each slot is two adjacent longs: the first 64 bits of the key, then the remaining 32 bits of the key
+* together with the distance, so that a probe reads one cache line.  Distances are non-negative; a
+* negative distance marks an empty slot.
+* This class is not thread-safe.
+*/
+public class HopCountDistanceMap
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Value returned when there is no entry */
+  public static final int NOT_FOUND = -1;
+
+  /** Number of hexadecimal characters of the hash that make up the key */
+  protected static final int KEY_CHARACTERS = 24;
+
+  /** Slot contents, two longs per slot */
+  protected long[] table;
+  protected int size = 0;
+
+  /** Constructor.
+  *@param initialCapacity is the number of entries to size the map for.
+  */
+  public HopCountDistanceMap(int initialCapacity)
+  {
+    allocate(tableSizeFor(initialCapacity));
+  }
+
+  /** Get the number of entries.
+  */
+  public int size()
+  {
+    return size;
+  }
+
+  /** Look up the distance for a document identifier hash.
+  *@return the distance, or NOT_FOUND.
+  */
+  public int get(String documentIdentifierHash)
+  {
+    if (documentIdentifierHash == null || documentIdentifierHash.length() < KEY_CHARACTERS)
+      return NOT_FOUND;
+    long first = parseHex(documentIdentifierHash,0);
+    long second = parseHex(documentIdentifierHash,8);
+    long third = parseHex(documentIdentifierHash,16);
+    if ((first | second | third) < 0L)
+      return NOT_FOUND;
+    return get((first << 32) | second,(int)third);
+  }
+
+  /** Look up the distance for a key.
+  *@return the distance, or NOT_FOUND.
+  */
+  public int get(long highKey, int lowKey)
+  {
+    int mask = slotCount() - 1;
+    int slot = slotFor(highKey,lowKey,mask);
+    while (true)
+    {
+      long second = table[slot * 2 + 1];
+      int value = (int)second;
+      if (value < 0)
+        return NOT_FOUND;
+      if (table[slot * 2] == highKey && (int)(second >>> 32) == lowKey)
+        return value;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Record the distance for a document identifier hash.  Hashes that are not in the expected form
+  * are ignored.
+  *@param distance is the distance, which must be non-negative.
+  */
+  public void put(String documentIdentifierHash, int distance)
+  {
+    if (documentIdentifierHash == null || documentIdentifierHash.length() < KEY_CHARACTERS)
+      return;
+    long first = parseHex(documentIdentifierHash,0);
+    long second = parseHex(documentIdentifierHash,8);
+    long third = parseHex(documentIdentifierHash,16);
+    if ((first | second | third) < 0L)
+      return;
+    put((first << 32) | second,(int)third,distance);
+  }
+
+  /** Record the distance for a key.
+  *@param distance is the distance, which must be non-negative.
+  */
+  public void put(long highKey, int lowKey, int distance)
+  {
+    if (distance < 0)
+      throw new IllegalArgumentException("Distance must be non-negative");
+    // Keep the load factor at or below one half, so probe sequences stay short
+    if ((size + 1) * 2 > slotCount())
+      rehash(slotCount() * 2);
+    int mask = slotCount() - 1;
+    int slot = slotFor(highKey,lowKey,mask);
+    long second = (((long)lowKey) << 32) | (((long)distance) & 0xffffffffL);
+    while (true)
+    {
+      int value = (int)table[slot * 2 + 1];
+      if (value < 0)
+      {
+        table[slot * 2] = highKey;
+        table[slot * 2 + 1] = second;
+        size++;
+        return;
+      }
+      if (table[slot * 2] == highKey && (int)(table[slot * 2 + 1] >>> 32) == lowKey)
+      {
+        table[slot * 2 + 1] = second;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Parse eight hexadecimal characters, which is one pass over the characters for both validating and
+  * decoding them.
+  *@return the value, which is negative if any of the characters is not a hexadecimal digit.
+  */
+  protected static long parseHex(String value, int offset)
+  {
+    long rval = 0L;
+    for (int i = offset; i < offset + 8; i++)
+    {
+      // An invalid digit is -1, which sets every bit, including the sign bit
+      rval = (rval << 4) | (long)hexDigit(value.charAt(i));
+    }
+    return rval;
+  }
+
+  /** Hexadecimal digit values, indexed by character, with -1 for characters that aren't digits.
+  * The digits of a hash are random, so decoding them with comparisons mispredicts nearly every branch.
+  */
+  protected static final byte[] hexDigits = new byte[128];
+
+  static
+  {
+    java.util.Arrays.fill(hexDigits,(byte)-1);
+    for (int i = 0; i < 10; i++)
+    {
+      hexDigits['0' + i] = (byte)i;
+    }
+    for (int i = 0; i < 6; i++)
+    {
+      hexDigits['A' + i] = (byte)(10 + i);
+      hexDigits['a' + i] = (byte)(10 + i);
+    }
+  }
+
+  /** Hexadecimal digit value, or -1.
+  */
+  protected static int hexDigit(char c)
+  {
+    if (c >= 128)
+      return -1;
+    return hexDigits[c];
+  }
+
+  protected static int slotFor(long highKey, int lowKey, int mask)
+  {
+    // Keys taken from a cryptographic hash are already well distributed, but a multiplicative mix is cheap
+    // insurance against identifier hashes that aren't
+    long mixed = (highKey ^ (long)lowKey) * 0x9E3779B97F4A7C15L;
+    return ((int)(mixed >>> 32)) & mask;
+  }
+
+  protected static int tableSizeFor(int capacity)
+  {
+    int slotCount = 16;
+    while (slotCount < capacity * 2 && slotCount < (1 << 29))
+    {
+      slotCount <<= 1;
+    }
+    return slotCount;
+  }
+
+  protected int slotCount()
+  {
+    return table.length >> 1;
+  }
+
+  protected void allocate(int slotCount)
+  {
+    table = new long[slotCount * 2];
+    for (int i = 1; i < table.length; i += 2)
+    {
+      table[i] = (long)NOT_FOUND;
+    }
+  }
+
+  protected void rehash(int slotCount)
+  {
+    long[] oldTable = table;
+    allocate(slotCount);
+    size = 0;
+    for (int i = 0; i < oldTable.length; i += 2)
+    {
+      int value = (int)oldTable[i + 1];
+      if (value >= 0)
+        put(oldTable[i],(int)(oldTable[i + 1] >>> 32),value);
+    }
+  }
+
+}
@@ -227,7 +227,27 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
   public void writeDependency(Long ownerID, Long jobID, DeleteDependency dd)
     throws ManifoldCFException
   {
-    HashMap map = new HashMap();
+    performInsert(makeDependencyRow(ownerID,jobID,dd),null);
+    noteModifications(1,0,0);
+  }
+
+  /** Write a set of delete dependencies all at once.
+  *@param rows are the rows to write, built by makeDependencyRow().
+  */
+  public void writeDependencies(List<Map<String,Object>> rows)
+    throws ManifoldCFException
+  {
+    if (rows.size() == 0)
+      return;
+    performInsertBatch(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Build the row for a delete dependency.
+  */
+  public Map<String,Object> makeDependencyRow(Long ownerID, Long jobID, DeleteDependency dd)
+  {
+    Map<String,Object> map = new HashMap<String,Object>();
     map.put(jobIDField,jobID);
     map.put(ownerIDField,ownerID);
     if (dd.getLinkType().length() > 0)
@@ -237,8 +257,7 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
     {
       map.put(childIDHashField,dd.getChildIDHash());
     }
-    performInsert(map,null);
-    noteModifications(1,0,0);
+    return map;
   }
 
 }
@@ -262,8 +262,9 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
         count++;
     }
     String[] newReferences = new String[count];
+    // New links are inserted all together, at the end
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>(count);
     int j = 0;
-    // Note: May be able to make this more efficient if we update things in batches...
     iter = duplicateRemoval.iterator();
     while (iter.hasNext())
     {
@@ -272,15 +273,14 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
       if (!presentMap.contains(targetDocumentIDHash))
       {
         newReferences[j++] = targetDocumentIDHash;
-        HashMap map = new HashMap();
+        Map<String,Object> map = new HashMap<String,Object>();
         map.put(jobIDField,jobID);
         map.put(parentIDHashField,targetDocumentIDHash);
         map.put(childIDHashField,sourceDocumentIDHash);
         map.put(linkTypeField,linkType);
         map.put(newField,statusToString(LINKSTATUS_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertRows.add(map);
       }
       else
       {
@@ -297,6 +297,11 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
         noteModifications(0,1,0);
       }
     }
+    if (insertRows.size() > 0)
+    {
+      performInsertBatch(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
     return newReferences;
   }
 
@@ -60,6 +60,7 @@ public class JobManager implements IJobManager
   protected final HopCount hopCount;
   protected final Carrydown carryDown;
   protected final EventManager eventManager;
+  protected final boolean signalNewWork;
 
 
   protected static Random random = new Random();
@@ -76,7 +77,7 @@ public class JobManager implements IJobManager
     jobs = new Jobs(threadContext,database);
     jobQueue = new JobQueue(threadContext,database);
     hopCount = new HopCount(threadContext,database);
-    carryDown = new Carrydown(database);
+    carryDown = new Carrydown(threadContext,database);
     eventManager = new EventManager(database);
     outputMgr = OutputConnectionManagerFactory.make(threadContext);
     connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
@@ -87,6 +88,7 @@ public class JobManager implements IJobManager
     transformationConnectorMgr = TransformationConnectorManagerFactory.make(threadContext);
     repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
     lockManager = LockManagerFactory.make(threadContext);
+    signalNewWork = NewWorkSignal.isEnabled(threadContext);
   }
 
   /** Install.
@@ -970,7 +972,10 @@ public class JobManager implements IJobManager
     throws ManifoldCFException
   {
     ManifoldCF.noteConfigurationChange();
+    boolean isNew = jobDescription.getIsNew();
     jobs.save(jobDescription);
+    if (isNew)
+      jobQueue.createOwner(jobDescription.getID());
   }
 
   /** See if there's a reference to a connection name.
@@ -1769,7 +1774,7 @@ public class JobManager implements IJobManager
             rvalBoolean[i] = (allowedDocIds.get(compositeDocID) != null);
             // Set the record status to "being cleaned" and return it
             rval[i] = dd;
-            jobQueue.setCleaningStatus(dd.getID(),processID);
+            jobQueue.setCleaningStatus(dd.getID(),dd.getJobID(),processID);
           }
 
           TrackerClass.notePrecommit();
@@ -2025,7 +2030,7 @@ public class JobManager implements IJobManager
             {
               // Set the record status to "being deleted" and return it
               rval[j++] = dd;
-              jobQueue.setDeletingStatus(dd.getID(),processID);
+              jobQueue.setDeletingStatus(dd.getID(),dd.getJobID(),processID);
             }
           }
 
@@ -2297,7 +2302,7 @@ public class JobManager implements IJobManager
           for (String docIDHash : docIDHashes)
           {
             DocumentDescription dd = storageMap.get(docIDHash);
-            jobQueue.markNeedPriorityInProgress(dd.getID(),processID);
+            jobQueue.markNeedPriorityInProgress(dd.getID(),dd.getJobID(),processID);
           }
 
           database.performCommit();
@@ -2378,7 +2383,8 @@ public class JobManager implements IJobManager
           // Query for the status
           ArrayList list = new ArrayList();
           String query = database.buildConjunctionClause(list,new ClauseDescription[]{
-            new UnitaryClause(jobQueue.idField,dd.getID())});
+            new UnitaryClause(jobQueue.idField,dd.getID()),
+            new UnitaryClause(jobQueue.jobIDField,dd.getJobID())});
           IResultSet set = database.performQuery("SELECT "+jobQueue.needPriorityField+" FROM "+jobQueue.getTableName()+" WHERE "+
             query+" FOR UPDATE",list,null,null);
           if (set.getRowCount() > 0)
@@ -2389,7 +2395,7 @@ public class JobManager implements IJobManager
             if (needPriority == JobQueue.NEEDPRIORITY_INPROGRESS)
             {
               IPriorityCalculator priority = priorities[index];
-              jobQueue.writeDocPriority(dd.getID(),priority);
+              jobQueue.writeDocPriority(dd.getID(),dd.getJobID(),priority);
             }
           }
         }
@@ -2612,7 +2618,7 @@ public class JobManager implements IJobManager
             rvalBoolean[i] = (allowedDocIds.get(compositeDocID) != null);
             // Set the record status to "being cleaned" and return it
             rval[i] = dd;
-            jobQueue.updateActiveRecord(dd.getID(),statusMap.get(compositeDocID).intValue(),processID);
+            jobQueue.updateActiveRecord(dd.getID(),dd.getJobID(),statusMap.get(compositeDocID).intValue(),processID);
           }
 
           TrackerClass.notePrecommit();
@@ -3145,7 +3151,7 @@ public class JobManager implements IJobManager
               int status = statusMap.get(docIDHash).intValue();
 
               // Set status to "ACTIVE".
-              jobQueue.updateActiveRecord(id,status,processID);
+              jobQueue.updateActiveRecord(id,dd.getJobID(),status,processID);
 
               answers.add(dd);
             }
@@ -3257,7 +3263,8 @@ public class JobManager implements IJobManager
           // Query for the status
           ArrayList list = new ArrayList();
           String query = database.buildConjunctionClause(list,new ClauseDescription[]{
-            new UnitaryClause(jobQueue.idField,dd.getID())});
+            new UnitaryClause(jobQueue.idField,dd.getID()),
+            new UnitaryClause(jobQueue.jobIDField,dd.getJobID())});
           TrackerClass.notePreread(dd.getID());
           IResultSet set = database.performQuery("SELECT "+jobQueue.statusField+" FROM "+jobQueue.getTableName()+" WHERE "+
             query+" FOR UPDATE",list,null,null);
@@ -3268,7 +3275,7 @@ public class JobManager implements IJobManager
             // Grab the status
             int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
             // Update the jobqueue table
-            jobQueue.updateCompletedRecord(dd.getID(),status);
+            jobQueue.updateCompletedRecord(dd.getID(),dd.getJobID(),status);
           }
         }
         TrackerClass.notePrecommit();
@@ -3420,7 +3427,8 @@ public class JobManager implements IJobManager
           // Query for the status
           ArrayList list = new ArrayList();
           String query = database.buildConjunctionClause(list,new ClauseDescription[]{
-            new UnitaryClause(jobQueue.idField,dd.getID())});
+            new UnitaryClause(jobQueue.idField,dd.getID()),
+            new UnitaryClause(jobQueue.jobIDField,dd.getJobID())});
           TrackerClass.notePreread(dd.getID());
           IResultSet set = database.performQuery("SELECT "+jobQueue.statusField+" FROM "+jobQueue.getTableName()+" WHERE "+
             query+" FOR UPDATE",list,null,null);
@@ -3431,7 +3439,7 @@ public class JobManager implements IJobManager
             // Grab the status
             int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
             // Update the jobqueue table
-            boolean didDelete = jobQueue.updateOrHopcountRemoveRecord(dd.getID(),status);
+            boolean didDelete = jobQueue.updateOrHopcountRemoveRecord(dd.getID(),dd.getJobID(),status);
             if (didDelete)
             {
               deleteList.add(dd.getDocumentIdentifierHash());
@@ -3640,10 +3648,13 @@ public class JobManager implements IJobManager
 
         // Finally, delete the carrydown records in question.
         carryDown.deleteRecords(jobID,docIDSimpleHashes);
+        boolean distancesInvalidated = false;
         if (legalLinkTypes.length > 0)
-          hopCount.deleteDocumentIdentifiers(jobID,legalLinkTypes,docIDSimpleHashes,hopcountMethod);
+          distancesInvalidated = hopCount.deleteDocumentIdentifiers(jobID,legalLinkTypes,docIDSimpleHashes,hopcountMethod);
 
         database.performCommit();
+        if (distancesInvalidated)
+          hopCount.invalidateCache(jobID);
         
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to delete "+Integer.toString(docIDHashes.length)+
@@ -3797,6 +3808,7 @@ public class JobManager implements IJobManager
   {
     String[] docIDHashes = new String[documentDescriptions.length];
     Long[] ids = new Long[documentDescriptions.length];
+    Long[] jobIDs = new Long[documentDescriptions.length];
     Long[] executeTimesNew = new Long[documentDescriptions.length];
     int[] actionsNew = new int[documentDescriptions.length];
 
@@ -3823,6 +3835,7 @@ public class JobManager implements IJobManager
         throw new ManifoldCFException("Assertion failure: duplicate document identifier jobid/hash detected!");
       int index = x.intValue();
       ids[i] = documentDescriptions[index].getID();
+      jobIDs[i] = documentDescriptions[index].getJobID();
       executeTimesNew[i] = executeTimes[index];
       actionsNew[i] = actions[index];
       i++;
@@ -3838,7 +3851,7 @@ public class JobManager implements IJobManager
         i = 0;
         while (i < ids.length)
         {
-          jobQueue.setRequeuedStatus(ids[i],executeTimesNew[i],actionsNew[i],-1L,-1);
+          jobQueue.setRequeuedStatus(ids[i],jobIDs[i],executeTimesNew[i],actionsNew[i],-1L,-1);
           i++;
         }
 
@@ -3872,6 +3885,7 @@ public class JobManager implements IJobManager
         sleepFor(sleepAmt);
       }
     }
+    noteNewWork();
   }
 
   /** Requeue a document for further processing in the future.
@@ -3907,6 +3921,7 @@ public class JobManager implements IJobManager
   {
     Long executeTimeLong = new Long(executeTime);
     Long[] ids = new Long[documentDescriptions.length];
+    Long[] jobIDs = new Long[documentDescriptions.length];
     String[] docIDHashes = new String[documentDescriptions.length];
     Long[] executeTimes = new Long[documentDescriptions.length];
     int[] actions = new int[documentDescriptions.length];
@@ -3936,6 +3951,7 @@ public class JobManager implements IJobManager
         throw new ManifoldCFException("Assertion failure: duplicate document identifier jobid/hash detected!");
       int index = x.intValue();
       ids[i] = documentDescriptions[index].getID();
+      jobIDs[i] = documentDescriptions[index].getJobID();
       executeTimes[i] = executeTimeLong;
       actions[i] = action;
       long oldFailTime = documentDescriptions[index].getFailTime();
@@ -3967,7 +3983,7 @@ public class JobManager implements IJobManager
         i = 0;
         while (i < ids.length)
         {
-          jobQueue.setRequeuedStatus(ids[i],executeTimes[i],actions[i],(failTimes==null)?-1L:failTimes[i],(failCounts==null)?-1:failCounts[i]);
+          jobQueue.setRequeuedStatus(ids[i],jobIDs[i],executeTimes[i],actions[i],(failTimes==null)?-1L:failTimes[i],(failCounts==null)?-1:failCounts[i]);
           i++;
         }
 
@@ -4014,6 +4030,7 @@ public class JobManager implements IJobManager
     throws ManifoldCFException
   {
     Long[] ids = new Long[documentDescriptions.length];
+    Long[] jobIDs = new Long[documentDescriptions.length];
     String[] docIDHashes = new String[documentDescriptions.length];
 
     // First loop maps document identifier back to an index.
@@ -4039,6 +4056,7 @@ public class JobManager implements IJobManager
         throw new ManifoldCFException("Assertion failure: duplicate document identifier jobid/hash detected!");
       int index = x.intValue();
       ids[i] = documentDescriptions[index].getID();
+      jobIDs[i] = documentDescriptions[index].getJobID();
       i++;
     }
 
@@ -4053,7 +4071,7 @@ public class JobManager implements IJobManager
         i = 0;
         while (i < ids.length)
         {
-          jobQueue.setUncleaningStatus(ids[i],checkTime);
+          jobQueue.setUncleaningStatus(ids[i],jobIDs[i],checkTime);
           i++;
         }
 
@@ -4115,6 +4133,7 @@ public class JobManager implements IJobManager
     throws ManifoldCFException
   {
     Long[] ids = new Long[documentDescriptions.length];
+    Long[] jobIDs = new Long[documentDescriptions.length];
     String[] docIDHashes = new String[documentDescriptions.length];
 
     // First loop maps document identifier back to an index.
@@ -4140,6 +4159,7 @@ public class JobManager implements IJobManager
         throw new ManifoldCFException("Assertion failure: duplicate document identifier jobid/hash detected!");
       int index = x.intValue();
       ids[i] = documentDescriptions[index].getID();
+      jobIDs[i] = documentDescriptions[index].getJobID();
       i++;
     }
 
@@ -4154,7 +4174,7 @@ public class JobManager implements IJobManager
         i = 0;
         while (i < ids.length)
         {
-          jobQueue.setUndeletingStatus(ids[i],checkTime);
+          jobQueue.setUndeletingStatus(ids[i],jobIDs[i],checkTime);
           i++;
         }
 
@@ -4622,7 +4642,7 @@ public class JobManager implements IJobManager
             int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
             Long checkTimeValue = (Long)row.getValue(jobQueue.checkTimeField);
 
-            jobQueue.updateExistingRecordInitial(rowID,status,checkTimeValue,executeTime,docPriority,docPrereqs,processID);
+            jobQueue.updateExistingRecordInitial(rowID,jobID,status,checkTimeValue,executeTime,docPriority,docPrereqs,processID);
           }
           else
           {
@@ -4648,7 +4668,7 @@ public class JobManager implements IJobManager
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to add "+Integer.toString(reorderedDocIDHashes.length)+
           " initial docs and hopcounts for job "+jobID.toString());
 
-        return;
+        break;
       }
       catch (ManifoldCFException e)
       {
@@ -4676,6 +4696,7 @@ public class JobManager implements IJobManager
         sleepFor(sleepAmt);
       }
     }
+    noteNewWork();
   }
 
   /** Add an initial set of remaining documents to the queue.
@@ -4794,10 +4815,13 @@ public class JobManager implements IJobManager
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+
           " ms to finish initial docs for job "+jobID.toString());
 
+        boolean distancesInvalidated = false;
         if (legalLinkTypes.length > 0)
-          hopCount.finishSeedReferences(jobID,legalLinkTypes,hopcountMethod);
+          distancesInvalidated = hopCount.finishSeedReferences(jobID,legalLinkTypes,hopcountMethod);
 
         database.performCommit();
+        if (distancesInvalidated)
+          hopCount.invalidateCache(jobID);
         
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+
@@ -4899,7 +4923,7 @@ public class JobManager implements IJobManager
         askDocIDHashes[i++] = (String)iter.next();
       }
 
-      int[] distances = hopCount.findHopCounts(jobID,askDocIDHashes,linkType);
+      int[] distances = hopCount.findHopCountEstimates(jobID,askDocIDHashes,linkType);
       i = 0;
       while (i < distances.length)
       {
@@ -5027,6 +5051,16 @@ public class JobManager implements IJobManager
     return jobQueue.getAllSeeds(jobID);
   }
 
+  /** Let the stuffer know that there may be new work on the queue, if it is listening for that.
+  * Call this only after the change has been committed.
+  */
+  protected void noteNewWork()
+    throws ManifoldCFException
+  {
+    if (signalNewWork)
+      NewWorkSignal.signalNewWork(lockManager);
+  }
+
   /** Add documents to the queue in bulk.
   * This method is called during document processing, when a set of document references are discovered.
   * The document references are passed to this method, which updates the status of the document(s)
@@ -5253,7 +5287,7 @@ public class JobManager implements IJobManager
             // The hopcountChangesSeen array describes whether each reference is a new one.  This
             // helps us determine whether we're going to need to "flip" HOPCOUNTREMOVED documents
             // to the PENDING state.  If the new link ended in an existing record, THEN we need to flip them all!
-            jobQueue.updateExistingRecord(jr.getRecordID(),jr.getStatus(),jr.getCheckTimeValue(),
+            jobQueue.updateExistingRecord(jr.getRecordID(),jobID,jr.getStatus(),jr.getCheckTimeValue(),
               0L,carrydownChangesSeen[z] || (hopcountChangesSeen!=null && hopcountChangesSeen[z]),
               reorderedDocumentPriorities[z],reorderedDocumentPrerequisites[z]);
             // Signal if we need to perform the flip
@@ -5273,7 +5307,7 @@ public class JobManager implements IJobManager
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to add "+Integer.toString(reorderedDocIDHashes.length)+
           " docs and hopcounts for job "+jobID.toString()+" parent identifier hash "+parentIdentifierHash);
 
-        return;
+        break;
       }
       catch (ManifoldCFException e)
       {
@@ -5307,6 +5341,7 @@ public class JobManager implements IJobManager
         sleepFor(sleepAmt);
       }
     }
+    noteNewWork();
   }
 
 
@@ -5398,6 +5433,8 @@ public class JobManager implements IJobManager
         try
         {
           carryDown.revertRecords(jobID,parentIdentifierHashes);
+          // Reverting removes only links that were added since the last finish, and recorded distances are
+          // not recalculated, so cached distances are no further off than the table's.
           hopCount.revertParents(jobID,parentIdentifierHashes);
           database.performCommit();
           break;
@@ -5511,8 +5548,10 @@ public class JobManager implements IJobManager
             Logging.perf.debug("Waited "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to start finishing "+
             Integer.toString(parentIdentifierHashes.length)+" doc hopcounts for job "+jobID.toString());
 
-          hopCount.finishParents(jobID,legalLinkTypes,parentIdentifierHashes,hopcountMethod);
+          boolean distancesInvalidated = hopCount.finishParents(jobID,legalLinkTypes,parentIdentifierHashes,hopcountMethod);
           database.performCommit();
+          if (distancesInvalidated)
+            hopCount.invalidateCache(jobID);
           
           if (Logging.perf.isDebugEnabled())
             Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to finish "+
@@ -5742,7 +5781,8 @@ public class JobManager implements IJobManager
             .append(jobQueue.checkTimeField)
             .append(" FROM ").append(jobQueue.getTableName()).append(" WHERE ")
             .append(database.buildConjunctionClause(list,new ClauseDescription[]{
-              new UnitaryClause(jobQueue.idField,dd.getID())})).append(" FOR UPDATE");
+              new UnitaryClause(jobQueue.idField,dd.getID()),
+              new UnitaryClause(jobQueue.jobIDField,dd.getJobID())})).append(" FOR UPDATE");
               
           IResultSet set = database.performQuery(sb.toString(),list,null,null);
           // If the row is there, we use its current info to requeue it properly.
@@ -5770,8 +5810,8 @@ public class JobManager implements IJobManager
           JobqueueRecord jr = (JobqueueRecord)existingRows.get(docIDHash);
           if (jr != null)
             // It was an existing row; do the update logic; use the 'carrydown changes' flag = true all the time.
-            jobQueue.updateExistingRecord(jr.getRecordID(),jr.getStatus(),jr.getCheckTimeValue(),
-              0L,true,docPriorities[originalIndex],null);
+            jobQueue.updateExistingRecord(jr.getRecordID(),documentDescriptions[originalIndex].getJobID(),jr.getStatus(),
+              jr.getCheckTimeValue(),0L,true,docPriorities[originalIndex],null);
           j++;
         }
         database.performCommit();
@@ -6507,6 +6547,8 @@ public class JobManager implements IJobManager
   {
     jobs.noteJobStarted(jobID,startTime,seedingVersion);
     Logging.jobs.info("Job "+jobID+" is now started");
+    // The job's queued documents are now eligible
+    noteNewWork();
   }
 
   /** Note job seeded.
@@ -6519,6 +6561,7 @@ public class JobManager implements IJobManager
   {
     jobs.noteJobSeeded(jobID,seedingVersion);
     Logging.jobs.info("Job "+jobID+" has been successfully reseeded");
+    noteNewWork();
   }
 
   /** Prepare for a delete scan.
@@ -6693,6 +6736,7 @@ public class JobManager implements IJobManager
       try
       {
         // Delete the documents we have never fetched, including any hopcount records we've calculated.
+        boolean distancesInvalidated = false;
         if (legalLinkTypes.length > 0)
         {
           ArrayList list = new ArrayList();
@@ -6700,7 +6744,7 @@ public class JobManager implements IJobManager
             new MultiClause("t99."+jobQueue.statusField,new Object[]{
               jobQueue.statusToString(jobQueue.STATUS_PENDING),
               jobQueue.statusToString(jobQueue.STATUS_HOPCOUNTREMOVED)})});
-          hopCount.deleteMatchingDocuments(jobID,legalLinkTypes,jobQueue.getTableName()+" t99",
+          distancesInvalidated = hopCount.deleteMatchingDocuments(jobID,legalLinkTypes,jobQueue.getTableName()+" t99",
             "t99."+jobQueue.docHashField,"t99."+jobQueue.jobIDField,
             query,list,
             hopcountMethod);
@@ -6710,6 +6754,8 @@ public class JobManager implements IJobManager
         TrackerClass.notePrecommit();
         database.performCommit();
         TrackerClass.noteCommit();
+        if (distancesInvalidated)
+          hopCount.invalidateCache(jobID);
         break;
       }
       catch (ManifoldCFException e)
@@ -7353,12 +7399,13 @@ public class JobManager implements IJobManager
         {
         case Jobs.STATUS_NOTIFYINGOFDELETION:
           ManifoldCF.noteConfigurationChange();
-          // Remove documents from job queue
-          jobQueue.deleteAllJobRecords(jobID);
           // Remove carrydowns for the job
           carryDown.deleteOwner(jobID);
           // Nothing is in a critical section - so this should be OK.
           hopCount.deleteOwner(jobID);
+          // Remove documents from job queue.  This is done last, because dropping a job's partition locks
+          // the whole job queue until the transaction ends.
+          jobQueue.deleteAllJobRecords(jobID);
           jobs.delete(jobID);
           
           Logging.jobs.info("Removed job "+jobID);          
@@ -7367,6 +7414,7 @@ public class JobManager implements IJobManager
           throw new ManifoldCFException("Unexpected job status: "+Integer.toString(status));
         }
         database.performCommit();
+        hopCount.removeCache(jobID);
         return;
       }
       catch (ManifoldCFException e)
@@ -8206,6 +8254,9 @@ public class JobManager implements IJobManager
     {
       lockManager.leaveWriteLock(jobResumeLock);
     }
+    // Covers both manual resumes and jobs re-entering their schedule window
+    if (modifiedJobs.size() > 0)
+      noteNewWork();
   }
 
   /** Complete the sequence that stops jobs, either for abort, pause, or because of a scheduling
@@ -8456,6 +8507,8 @@ public class JobManager implements IJobManager
           resetJobs.add(jobDesc);
               
           jobs.finishJob(jobID,currentTime);
+          // Nothing can record carrydown data for the job now, so values no row refers to can go
+          carryDown.deleteUnreferencedValues(jobID);
           Logging.jobs.info("Job "+jobID+" now completed");
         }
       }
@@ -9047,12 +9100,43 @@ public class JobManager implements IJobManager
   public IResultSet genDocumentStatus(String connectionName, StatusFilterCriteria filterCriteria, SortOrder sortOrder,
     int startRow, int rowCount)
     throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildDocumentStatusQuery(list,connectionName,filterCriteria,sortOrder,startRow,rowCount);
+    return database.performQuery(query,list,null,null,rowCount,null);
+  }
+
+  /** Run a 'document status' report, reading the rows as they are asked for, in a single query.
+  *@param connectionName is the name of the connection.
+  *@param filterCriteria are the criteria used to limit the records considered for the report.
+  *@param sortOrder is the specified sort order of the final report.
+  *@param startRow is the first row to include.
+  *@param rowCount is the number of rows to include.
+  *@param fetchSize is the number of rows to read from the database at a time.
+  *@return a cursor over the rows, which have the same columns as for genDocumentStatus().  The cursor must be closed.
+  */
+  @Override
+  public IResultCursor genDocumentStatusCursor(String connectionName, StatusFilterCriteria filterCriteria, SortOrder sortOrder,
+    int startRow, int rowCount, int fetchSize)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildDocumentStatusQuery(list,connectionName,filterCriteria,sortOrder,startRow,rowCount);
+    return database.performStreamingQuery(query,list,fetchSize,null);
+  }
+
+  /** Build the query for a 'document status' report.
+  *@param list receives the query parameters.
+  *@return the query.
+  */
+  protected String buildDocumentStatusQuery(ArrayList list, String connectionName, StatusFilterCriteria filterCriteria, SortOrder sortOrder,
+    int startRow, int rowCount)
+    throws ManifoldCFException
   {
     // Build the query.
     Long currentTime = new Long(System.currentTimeMillis());
     
     StringBuilder sb = new StringBuilder("SELECT ");
-    ArrayList list = new ArrayList();
     
     sb.append("t0.").append(jobQueue.idField).append(" AS id,")
       .append("t0.").append(jobQueue.docIDField).append(" AS identifier,")
@@ -9190,7 +9274,7 @@ public class JobManager implements IJobManager
     // The intrinsic ordering is provided by the "id" column, and nothing else.
     addOrdering(sb,new String[]{"id"},sortOrder);
     addLimits(sb,startRow,rowCount);
-    return database.performQuery(sb.toString(),list,null,null,rowCount,null);
+    return sb.toString();
   }
 
   /** Run a 'queue status' report.
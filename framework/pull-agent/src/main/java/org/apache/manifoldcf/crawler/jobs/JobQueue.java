@@ -48,6 +48,11 @@ import java.util.*;
  * <tr><td>needpriorityprocessid</td><td>VARCHAR(16)</td><td></td></tr>
  * </table>
  * <br><br>
+ *
+ * Where the database supports it, and org.apache.manifoldcf.crawler.jobqueue.partitioned is set when the table
+ * is created, the table is partitioned by job, with one partition per job (jobqueue_&lt;jobid&gt;) and a default
+ * partition for jobs that have none.  A job's rows are then removed by dropping its partition, and deleting or
+ * resetting a large job doesn't bloat the indexes other jobs' queries use.
  * 
  */
 public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
@@ -128,6 +133,9 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   
   public static final double noDocPriorityValue = 1e9;
   public static final Double nullDocPriority = new Double(noDocPriorityValue + 1.0);
+
+  /** Rows fetched at a time by full scans */
+  protected static final int SCAN_FETCH_SIZE = 1000;
   
   protected static final Map<String,Integer> statusMap = new HashMap<String,Integer>();
 
@@ -174,6 +182,9 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     needPriorityMap.put("F",new Integer(NEEDPRIORITY_FALSE));
   }
   
+  /** Property that makes a newly created table partitioned by job */
+  public static final String partitionedProperty = "org.apache.manifoldcf.crawler.jobqueue.partitioned";
+
   /** Prerequisite event manager */
   protected PrereqEventManager prereqEventManager;
 
@@ -206,6 +217,12 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
       Map existing = getTableSchema(null,null);
       if (existing == null)
       {
+        boolean partitioned = LockManagerFactory.getBooleanProperty(threadContext,partitionedProperty,false);
+        if (partitioned && !getDBInterface().supportsPartitions())
+        {
+          Logging.jobs.warn("The database does not support partitioned tables; creating an unpartitioned job queue");
+          partitioned = false;
+        }
         HashMap map = new HashMap();
         map.put(idField,new ColumnDescription("BIGINT",true,false,null,null,false));
         map.put(jobIDField,new ColumnDescription("BIGINT",false,false,jobsTable,jobsColumn,false));
@@ -223,15 +240,22 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
         map.put(seedingProcessIDField,new ColumnDescription("VARCHAR(16)",false,true,null,null,false));
         map.put(needPriorityField,new ColumnDescription("CHAR(1)",false,true,null,null,false));
         map.put(needPriorityProcessIDField,new ColumnDescription("VARCHAR(16)",false,true,null,null,false));
-        performCreate(map,null);
+        if (partitioned)
+          performCreatePartitioned(map,jobIDField,null);
+        else
+          performCreate(map,null);
       }
       else
       {
         // Upgrade; null docpriority fields bashed to 'infinity', so they don't slow down MySQL
       }
 
-      // Secondary table installation
-      prereqEventManager.install(getTableName(),idField);
+      // Secondary table installation.  Row ids are not unique by themselves in a partitioned table, so they
+      // can't be referred to.
+      if (isPartitioned())
+        prereqEventManager.install(null,null);
+      else
+        prereqEventManager.install(getTableName(),idField);
 
       // Handle indexes
       IndexDescription uniqueIndex = new IndexDescription(true,new String[]{docHashField,jobIDField});
@@ -298,6 +322,34 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     }
   }
 
+  /** Check whether the table is partitioned by job.
+  */
+  public boolean isPartitioned()
+    throws ManifoldCFException
+  {
+    return getTablePartitions(null,null) != null;
+  }
+
+  /** Get the name of a job's partition.
+  */
+  protected String getPartitionName(Long jobID)
+  {
+    return getTableName()+"_"+jobID.toString();
+  }
+
+  /** Prepare for a newly created job.  If the table is partitioned, this creates the job's partition;
+  * if that isn't done, the job's rows go into the default partition.
+  *@param jobID is the job identifier.
+  */
+  public void createOwner(Long jobID)
+    throws ManifoldCFException
+  {
+    StringSet partitions = getTablePartitions(null,null);
+    String partitionName = getPartitionName(jobID);
+    if (partitions != null && !partitions.contains(partitionName))
+      performAddPartition(partitionName,jobID,null);
+  }
+
   /** Get the 'getNextDocuments' index hint.
   */
   public String getGetNextDocumentsIndexHint()
@@ -910,6 +962,14 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     list.add(jobID);
     // Clean out prereqevents table first
     prereqEventManager.deleteRows(getTableName()+" t0","t0."+idField,"t0."+jobIDField+"=?",list);
+    StringSet partitions = getTablePartitions(null,null);
+    String partitionName = getPartitionName(jobID);
+    if (partitions != null && partitions.contains(partitionName))
+    {
+      // Dropping the partition leaves nothing behind for vacuum to clean up
+      performDropPartition(partitionName,null);
+      return;
+    }
     list.clear();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID)});
@@ -918,7 +978,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   }
 
   /** Prepare to calculate a document priority for a given row. */
-  public void markNeedPriorityInProgress(Long rowID, String processID)
+  public void markNeedPriorityInProgress(Long rowID, Long jobID, String processID)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -926,13 +986,14 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(needPriorityProcessIDField,processID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,rowID)});
+      new UnitaryClause(idField,rowID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
   }
   
   /** Write out a document priority */
-  public void writeDocPriority(Long rowID, IPriorityCalculator priority)
+  public void writeDocPriority(Long rowID, Long jobID, IPriorityCalculator priority)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -941,7 +1002,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(docPriorityField,new Double(priority.getDocumentPriority()));
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,rowID)});
+      new UnitaryClause(idField,rowID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
   }
@@ -997,7 +1059,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   
   /** Set the "completed" status for a record.
   */
-  public void updateCompletedRecord(Long recID, int currentStatus)
+  public void updateCompletedRecord(Long recID, Long jobID, int currentStatus)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1037,7 +1099,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(failCountField,null);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,recID)});
+      new UnitaryClause(idField,recID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(recID, newStatus, "Note completion");
@@ -1046,7 +1109,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   /** Either mark a record as hopcountremoved, or set status to "rescan", depending on the
   * record's state.
   */
-  public boolean updateOrHopcountRemoveRecord(Long recID, int currentStatus)
+  public boolean updateOrHopcountRemoveRecord(Long recID, Long jobID, int currentStatus)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1091,7 +1154,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(failCountField,null);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,recID)});
+      new UnitaryClause(idField,recID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(recID, newStatus, "Update or hopcount remove");
@@ -1100,9 +1164,10 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Set the status to active on a record, leaving alone priority or check time.
   *@param id is the job queue id.
+  *@param jobID is the job the record belongs to.
   *@param currentStatus is the current status
   */
-  public void updateActiveRecord(Long id, int currentStatus, String processID)
+  public void updateActiveRecord(Long id, Long jobID, int currentStatus, String processID)
     throws ManifoldCFException
   {
     int newStatus;
@@ -1124,7 +1189,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(processIDField,processID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,id)});
+      new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, newStatus, "Make active");
@@ -1132,9 +1198,10 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Set the status on a record, including check time and priority.
   *@param id is the job queue id.
+  *@param jobID is the job the record belongs to.
   *@param checkTime is the check time.
   */
-  public void setRequeuedStatus(Long id,
+  public void setRequeuedStatus(Long id, Long jobID,
     Long checkTime, int action, long failTime, int failCount)
     throws ManifoldCFException
   {
@@ -1162,6 +1229,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID),
       new UnitaryClause(docPriorityField,"<",nullDocPriority)});
     performUpdate(map,"WHERE "+query,list,null);
     
@@ -1171,6 +1239,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     list.clear();
     query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID),
       new UnitaryClause(docPriorityField,nullDocPriority)});
     performUpdate(map,"WHERE "+query,list,null);
 
@@ -1180,7 +1249,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Set the status of a document to "being deleted".
   */
-  public void setDeletingStatus(Long id, String processID)
+  public void setDeletingStatus(Long id, Long jobID, String processID)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1188,14 +1257,15 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(processIDField,processID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,id)});
+      new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, STATUS_BEINGDELETED, "Set deleting status");
   }
 
   /** Set the status of a document to be "no longer deleting" */
-  public void setUndeletingStatus(Long id, long checkTime)
+  public void setUndeletingStatus(Long id, Long jobID, long checkTime)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1207,7 +1277,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(failCountField,null);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,id)});
+      new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, STATUS_ELIGIBLEFORDELETE, "Set undeleting status");
@@ -1215,7 +1286,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Set the status of a document to "being cleaned".
   */
-  public void setCleaningStatus(Long id, String processID)
+  public void setCleaningStatus(Long id, Long jobID, String processID)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1223,14 +1294,15 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(processIDField,processID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,id)});
+      new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, STATUS_BEINGCLEANED, "Set cleaning status");
   }
 
   /** Set the status of a document to be "no longer cleaning" */
-  public void setUncleaningStatus(Long id, long checkTime)
+  public void setUncleaningStatus(Long id, Long jobID, long checkTime)
     throws ManifoldCFException
   {
     HashMap map = new HashMap();
@@ -1242,7 +1314,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     map.put(failCountField,null);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,id)});
+      new UnitaryClause(idField,id),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, STATUS_PURGATORY, "Set uncleaning status");
@@ -1307,7 +1380,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   /** Update an existing record (as the result of an initial add).
   * The record is presumed to exist and have been locked, via "FOR UPDATE".
   */
-  public void updateExistingRecordInitial(Long recordID, int currentStatus, Long checkTimeValue,
+  public void updateExistingRecordInitial(Long recordID, Long jobID, int currentStatus, Long checkTimeValue,
     long desiredExecuteTime, IPriorityCalculator desiredPriority, String[] prereqEvents,
     String processID)
     throws ManifoldCFException
@@ -1390,7 +1463,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     prereqEventManager.deleteRows(recordID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,recordID)});
+      new UnitaryClause(idField,recordID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     // Insert prereqevent entries, if any
     prereqEventManager.addRows(recordID,prereqEvents);
@@ -1589,22 +1663,29 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(isSeedField,seedstatusToString(SEEDSTATUS_SEED)),
       new UnitaryClause(jobIDField,jobID)});
-    IResultSet set = performQuery("SELECT "+docHashField+" FROM "+getTableName()+" WHERE "+query,
-      list,null,null);
-    String[] rval = new String[set.getRowCount()];
-    int i = 0;
-    while (i < rval.length)
+    // A job can have a great many seeds, so don't hold a full resultset in memory as well as the answer
+    List<String> rval = new ArrayList<String>();
+    IResultCursor cursor = performStreamingQuery("SELECT "+docHashField+" FROM "+getTableName()+" WHERE "+query,
+      list,SCAN_FETCH_SIZE);
+    try
+    {
+      while (cursor.hasNext())
+      {
+        IResultRow row = cursor.next();
+        rval.add((String)row.getValue(docHashField));
+      }
+    }
+    finally
     {
-      IResultRow row = set.getRow(i);
-      rval[i++] = (String)row.getValue(docHashField);
+      cursor.close();
     }
-    return rval;
+    return rval.toArray(new String[0]);
   }
 
   /** Update an existing record (as the result of a reference add).
   * The record is presumed to exist and have been locked, via "FOR UPDATE".
   */
-  public void updateExistingRecord(Long recordID, int currentStatus, Long checkTimeValue,
+  public void updateExistingRecord(Long recordID, Long jobID, int currentStatus, Long checkTimeValue,
     long desiredExecuteTime, boolean otherChangesSeen,
     IPriorityCalculator desiredPriority, String[] prereqEvents)
     throws ManifoldCFException
@@ -1724,7 +1805,8 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     prereqEventManager.deleteRows(recordID);
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
-      new UnitaryClause(idField,recordID)});
+      new UnitaryClause(idField,recordID),
+      new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     prereqEventManager.addRows(recordID,prereqEvents);
     noteModifications(0,1,0);
@@ -660,6 +660,15 @@ public class RepositoryConnectionManager extends org.apache.manifoldcf.core.data
   {
     historyManager.deleteOldRows(timeCutoff);
   }
+
+  /** Merge the pre-aggregated history rollups written since the last time this was called.
+  */
+  @Override
+  public void compactHistoryData()
+    throws ManifoldCFException
+  {
+    historyManager.compactRollups(System.currentTimeMillis());
+  }
   
   /** Record time-stamped information about the activity of the connection.  This information can originate from
   * either the connector or from the framework.  The reason it is here is that it is viewed as 'belonging' to an
@@ -730,6 +739,20 @@ public class RepositoryConnectionManager extends org.apache.manifoldcf.core.data
     return historyManager.getMaxRows();
   }
 
+  /** Find out whether a maximum activity or maximum bandwidth report will be answered from the pre-aggregated
+  * history rollups.  If so, the number of history rows the criteria select does not limit the report.
+  *@param criteria is the filtering criteria.
+  *@param idBucket is the description of the bucket based on processed entity identifiers.
+  *@param interval is the time interval, in milliseconds.
+  *@return true if the rollups will be used.
+  */
+  @Override
+  public boolean canUseHistoryRollups(FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException
+  {
+    return historyManager.canUseRollups(criteria,idBucket,interval);
+  }
+
   /** Generate a report, listing the start time, elapsed time, result code and description, number of bytes, and entity identifier.
   * The records selected for this report are based on the filtering criteria object passed into this method.
   * The record order is based on the sorting criteria object passed into this method.
@@ -746,6 +769,23 @@ public class RepositoryConnectionManager extends org.apache.manifoldcf.core.data
     return historyManager.simpleReport(connectionName,criteria,sort,startRow,maxRowCount);
   }
 
+  /** Generate the same report as genHistorySimple(), reading the rows as they are asked for, in a single query.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria, which selects the records of interest.
+  *@param sort is the sorting order, which can specify sort based on the result columns.
+  *@param startRow is the first row to include (beginning with 0)
+  *@param maxRowCount is the maximum number of rows to include.
+  *@param fetchSize is the number of rows to read from the database at a time.
+  *@return a cursor over the rows, which must be closed.
+  */
+  @Override
+  public IResultCursor genHistorySimpleCursor(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount,
+    int fetchSize)
+    throws ManifoldCFException
+  {
+    return historyManager.simpleReportCursor(connectionName,criteria,sort,startRow,maxRowCount,fetchSize);
+  }
+
   /** Generate a report, listing the start time, activity count, and identifier bucket, given
   * a time slice (interval) size.
   * The records selected for this report are based on the filtering criteria object passed into this method.
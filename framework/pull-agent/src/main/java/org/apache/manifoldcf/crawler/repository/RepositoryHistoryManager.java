@@ -20,6 +20,7 @@ package org.apache.manifoldcf.crawler.repository;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
 import java.util.*;
 
 /** This class is the manager for the history records belonging to the repository connector.
@@ -57,12 +58,33 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   protected final static String resultCodeField = "resultcode";
   protected final static String resultDescriptionField = "resultdesc";
 
+  // Properties
+  protected final static String storeHistoryProperty = "org.apache.manifoldcf.crawler.repository.store_history";
+  protected final static String historyDurabilityProperty = "org.apache.manifoldcf.crawler.repository.history_durability";
+  protected final static String historyBufferSizeProperty = "org.apache.manifoldcf.crawler.repository.history_buffer_size";
+  protected final static String historyFlushIntervalProperty = "org.apache.manifoldcf.crawler.repository.history_flush_interval";
+  protected final static String useHistoryRollupsProperty = "org.apache.manifoldcf.crawler.repository.use_history_rollups";
+
+  // History durability modes
+  /** Write each row as it is recorded */
+  protected final static String durabilityImmediate = "immediate";
+  /** Buffer rows in memory, and write them in batches */
+  protected final static String durabilityBuffered = "buffered";
+
+  /** Fetch size when reading existing history to fill the rollup table */
+  protected final static int rollupFetchSize = 1000;
+  /** The most rollup deltas held in memory while filling the rollup table */
+  protected final static int maxPendingDeltas = 10000;
+
   /** Thread context */
   protected IThreadContext threadContext;
 
   /** A lock manager handle. */
   protected final ILockManager lockManager;
 
+  /** The rollup table manager */
+  protected final RepositoryHistoryRollupManager rollupManager;
+
   /** Constructor.
   *@param database is the database instance.
   */
@@ -72,6 +94,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     super(database,"repohistory");
     this.threadContext = tc;
     this.lockManager = LockManagerFactory.make(tc);
+    this.rollupManager = new RepositoryHistoryRollupManager(tc,database);
   }
 
   /** Install or upgrade the table.
@@ -141,16 +164,53 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
       if (activityTypeIndex != null)
         performAddIndex(null,activityTypeIndex);
 
+      // Install dependent tables.  A new rollup table must be filled from whatever history already exists.
+      if (rollupManager.install(parentTable,parentField))
+        rollUpExistingRows();
+
       break;
 
     }
   }
 
+  /** Fill the rollup table from the existing history rows.
+  */
+  protected void rollUpExistingRows()
+    throws ManifoldCFException
+  {
+    Map<RepositoryHistoryRollupManager.RollupKey,double[]> deltas = new HashMap<RepositoryHistoryRollupManager.RollupKey,double[]>();
+    IResultCursor cursor = performStreamingQuery("SELECT "+ownerNameField+","+activityTypeField+","+startTimeField+","+
+      endTimeField+","+dataSizeField+" FROM "+getTableName(),new ArrayList(),rollupFetchSize);
+    try
+    {
+      while (cursor.hasNext())
+      {
+        IResultRow row = cursor.next();
+        RepositoryHistoryRollupManager.accumulate(deltas,(String)row.getValue(ownerNameField),(String)row.getValue(activityTypeField),
+          ((Long)row.getValue(startTimeField)).longValue(),((Long)row.getValue(endTimeField)).longValue(),
+          ((Long)row.getValue(dataSizeField)).longValue());
+        // Deltas for the same bucket may be written more than once; compaction merges them later
+        if (deltas.size() >= maxPendingDeltas)
+        {
+          rollupManager.writeDeltas(deltas);
+          deltas.clear();
+        }
+      }
+    }
+    finally
+    {
+      cursor.close();
+    }
+    rollupManager.writeDeltas(deltas);
+  }
+
   /** Uninstall the table.
   */
   public void deinstall()
     throws ManifoldCFException
   {
+    flushBuffered(false);
+    rollupManager.deinstall();
     performDrop(null);
   }
 
@@ -161,10 +221,12 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deleteOwner(String owner)
     throws ManifoldCFException
   {
+    flushBuffered(false);
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
       new UnitaryClause(ownerNameField,owner)});
     performDelete("WHERE "+query,params,null);
+    rollupManager.deleteOwner(owner);
   }
 
   /** Delete records older than a specified time.
@@ -173,22 +235,35 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deleteOldRows(long timeCutoff)
     throws ManifoldCFException
   {
+    flushBuffered(false);
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
       new UnitaryClause(startTimeField,"<",new Long(timeCutoff))});
     performDelete("WHERE "+query,params,null);
+    rollupManager.deleteOldRows(timeCutoff);
+  }
+
+  /** Merge rollup rows that were written as separate deltas.
+  *@param currentTime is the current time.
+  */
+  public void compactRollups(long currentTime)
+    throws ManifoldCFException
+  {
+    rollupManager.compact(currentTime);
   }
   
-  /** Add row to table, and reanalyze if necessary.
+  /** Add row to table, and reanalyze if necessary.  Depending on the configured history durability, the row
+  * is either written immediately, or buffered and written later as part of a batch.
   */
   public Long addRow(String connectionName, long startTime, long endTime, long dataSize, String activityType,
     String entityIdentifier, String resultCode, String resultDescription)
     throws ManifoldCFException
   {
     Long id = new Long(IDFactory.make(threadContext));   
-    if (lockManager.getSharedConfiguration().getBooleanProperty("org.apache.manifoldcf.crawler.repository.store_history",true))
+    ManifoldCFConfiguration configuration = lockManager.getSharedConfiguration();
+    if (configuration.getBooleanProperty(storeHistoryProperty,true))
     {
-      HashMap map = new HashMap();
+      Map<String,Object> map = new HashMap<String,Object>();
       map.put(idField,id);
       map.put(ownerNameField,connectionName);
       map.put(startTimeField,new Long(startTime));
@@ -200,13 +275,96 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
         map.put(resultCodeField,resultCode);
       if (resultDescription != null)
         map.put(resultDescriptionField,resultDescription);
-      performInsert(map,null);
-      // Not accurate, but best we can do without overhead
-      noteModifications(1,0,0);
+      if (durabilityBuffered.equals(configuration.getStringProperty(historyDurabilityProperty,durabilityImmediate)))
+      {
+        RepositoryHistoryWriter.addRow(this,map,
+          configuration.getIntProperty(historyBufferSizeProperty,10000),
+          configuration.getLongProperty(historyFlushIntervalProperty,1000L));
+      }
+      else
+        writeRows(Collections.singletonList(map));
     }
     return id;
   }
 
+  /** Write a batch of rows, together with their rollups.  Used for single rows too, and for batches queued by
+  * RepositoryHistoryWriter.  If this is the outermost transaction, an aborted transaction is retried.
+  *@param rows are the rows, each a map of column name/values.
+  */
+  protected void writeRows(List<Map<String,Object>> rows)
+    throws ManifoldCFException
+  {
+    Map<RepositoryHistoryRollupManager.RollupKey,double[]> deltas = new HashMap<RepositoryHistoryRollupManager.RollupKey,double[]>();
+    for (Map<String,Object> row : rows)
+    {
+      RepositoryHistoryRollupManager.accumulate(deltas,(String)row.get(ownerNameField),(String)row.get(activityTypeField),
+        ((Long)row.get(startTimeField)).longValue(),((Long)row.get(endTimeField)).longValue(),
+        ((Long)row.get(dataSizeField)).longValue());
+    }
+    // Inside someone else's transaction, an abort belongs to them
+    boolean outermost = (getTransactionID() == null);
+    while (true)
+    {
+      long sleepAmt = 0L;
+      // The rows and their rollups must go in together, or a retried batch would count twice
+      beginTransaction();
+      try
+      {
+        if (rows.size() == 1)
+          performInsert(rows.get(0),null);
+        else
+          performInsertBatch(rows,null);
+        rollupManager.writeDeltas(deltas);
+        break;
+      }
+      catch (ManifoldCFException e)
+      {
+        signalRollback();
+        if (outermost && e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted transaction writing history rows: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      catch (Error e)
+      {
+        signalRollback();
+        throw e;
+      }
+      finally
+      {
+        endTransaction();
+        sleepFor(sleepAmt);
+      }
+    }
+    // Not accurate, but best we can do without overhead
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Write any buffered rows, so that they are visible to the caller.  If the caller is inside a transaction,
+  * the rows are written on a database handle of their own, so that they are committed by themselves rather
+  * than becoming part of (and being rolled back with) the caller's transaction.
+  *@param waitForBackground is true if rows being written by the background flusher should be waited for.
+  * Callers that may be inside a transaction must pass false.
+  */
+  protected void flushBuffered(boolean waitForBackground)
+    throws ManifoldCFException
+  {
+    if (getTransactionID() == null)
+    {
+      RepositoryHistoryWriter.flush(this,waitForBackground);
+      return;
+    }
+    if (RepositoryHistoryWriter.getQueueDepth() == 0)
+      return;
+    IThreadContext flushContext = ThreadContextFactory.make();
+    RepositoryHistoryWriter.flush(new RepositoryHistoryManager(flushContext,RepositoryHistoryWriter.makeDatabase(flushContext)),
+      waitForBackground);
+  }
+
   // For result analysis, we make heavy use of Postgresql's more advanced posix regular expression
   // handling.  The queries in general are fairly messy.  There's a "front aligned" way of doing things,
   // which uses the start time of a row and finds everything that overlaps the interval from "start time"
@@ -284,10 +442,37 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   */
   public IResultSet simpleReport(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount)
     throws ManifoldCFException
+  {
+    flushBuffered(true);
+    ArrayList list = new ArrayList();
+    String query = buildSimpleReportQuery(list,connectionName,criteria,sort,startRow,maxRowCount);
+    return performQuery(query,list,null,null,maxRowCount);
+  }
+
+  /** Get the same report as simpleReport(), as a cursor that reads the rows as they are asked for.
+  *@param fetchSize is the number of rows to read from the database at a time.
+  *@return the cursor, which must be closed.
+  */
+  public IResultCursor simpleReportCursor(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount,
+    int fetchSize)
+    throws ManifoldCFException
+  {
+    flushBuffered(true);
+    ArrayList list = new ArrayList();
+    String query = buildSimpleReportQuery(list,connectionName,criteria,sort,startRow,maxRowCount);
+    return performStreamingQuery(query,list,fetchSize);
+  }
+
+  /** Build the query for a simple history report.
+  *@param list receives the query parameters.
+  *@return the query.
+  */
+  protected String buildSimpleReportQuery(ArrayList list, String connectionName, FilterCriteria criteria, SortOrder sort,
+    int startRow, int maxRowCount)
+    throws ManifoldCFException
   {
     // Build the query.
     StringBuilder sb = new StringBuilder("SELECT ");
-    ArrayList list = new ArrayList();
     sb.append(idField).append(" AS id,").append(activityTypeField).append(" AS activity,").append(startTimeField).append(" AS starttime,(")
       .append(endTimeField).append("-").append(startTimeField).append(")")
       .append(" AS elapsedtime,").append(resultCodeField).append(" AS resultcode,").append(resultDescriptionField)
@@ -298,7 +483,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     // order for the OFFSET/LIMIT clause.  We include "starttime" because that's the default ordering.
     addOrdering(sb,new String[]{"starttime","id"},sort);
     addLimits(sb,startRow,maxRowCount);
-    return performQuery(sb.toString(),list,null,null,maxRowCount);
+    return sb.toString();
   }
 
   /** Count the number of rows specified by a given set of criteria.  This can be used to make decisions
@@ -310,6 +495,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public long countHistoryRows(String connectionName, FilterCriteria criteria)
     throws ManifoldCFException
   {
+    flushBuffered(true);
     StringBuilder sb = new StringBuilder("SELECT ");
     ArrayList list = new ArrayList();
     sb.append(constructCountClause("*")).append(" AS countcol FROM ");
@@ -323,6 +509,20 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     return value.longValue();
   }
 
+  /** Decide whether a windowed report will be answered from the rollup table rather than the raw history,
+  * in which case the number of history rows it covers doesn't matter.
+  *@param criteria is the filtering criteria.
+  *@param idBucket is the identifier bucket description.
+  *@param interval is the window size, in milliseconds.
+  *@return true if the rollups will be used.
+  */
+  public boolean canUseRollups(FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException
+  {
+    return lockManager.getSharedConfiguration().getBooleanProperty(useHistoryRollupsProperty,true) &&
+      RepositoryHistoryRollupManager.canAnswerReport(criteria,idBucket,interval);
+  }
+
   /** Get the maximum number of rows a window-based report can work with.
   *@return the maximum rows.
   */
@@ -341,6 +541,9 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushBuffered(true);
+    if (canUseRollups(filterCriteria,idBucket,interval))
+      return rollupManager.maxWindowReport(connectionName,filterCriteria,interval,false,startRow,maxRowCount);
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -444,6 +647,9 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushBuffered(true);
+    if (canUseRollups(filterCriteria,idBucket,interval))
+      return rollupManager.maxWindowReport(connectionName,filterCriteria,interval,true,startRow,maxRowCount);
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -551,6 +757,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     BucketDescription resultCodeBucket, BucketDescription idBucket, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushBuffered(true);
     // The query we'll use here will be:
     //
     // SELECT * FROM (SELECT substring(resultcode FROM '<result_regexp>') AS resultcodebucket,
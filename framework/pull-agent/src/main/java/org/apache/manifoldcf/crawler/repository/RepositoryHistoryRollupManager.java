@@ -0,0 +1,517 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.core.database.RRow;
+import org.apache.manifoldcf.core.database.RSet;
+import java.util.*;
+
+/** This class manages the "repohistrollup" table, which holds history activity pre-aggregated per connection,
+* activity type, and fixed-size time bucket.  Each history row is prorated over the buckets it overlaps, just
+* as the windowed reports prorate rows over their windows, so summing the buckets a window covers gives the
+* same answer the raw history would for that window.
+* Rows are only ever inserted, as deltas; there may be several rows for the same connection, activity and bucket,
+* which compact() periodically merges.  Only one thread, in any process, compacts at a time.
+*
+* <br><br>
+* <b>repohistrollup</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>id</td><td>BIGINT</td><td>Primary Key</td></tr>
+* <tr><td>owner</td><td>VARCHAR(32)</td><td>Reference:repoconnections.connectionname</td></tr>
+* <tr><td>activitytype</td><td>VARCHAR(64)</td><td></td></tr>
+* <tr><td>bucketstart</td><td>BIGINT</td><td></td></tr>
+* <tr><td>eventcount</td><td>FLOAT</td><td></td></tr>
+* <tr><td>bytecount</td><td>FLOAT</td><td></td></tr>
+* </table>
+* <br><br>
+*
+*/
+public class RepositoryHistoryRollupManager extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Fields
+  protected final static String idField = "id";
+  protected final static String ownerNameField = "owner";
+  protected final static String activityTypeField = "activitytype";
+  protected final static String bucketStartField = "bucketstart";
+  protected final static String eventCountField = "eventcount";
+  protected final static String byteCountField = "bytecount";
+
+  /** The size of a time bucket, in milliseconds.  Report intervals that are a multiple of this can be
+  * answered from the rollups. */
+  public final static long bucketSize = 60000L;
+
+  /** Buckets are not compacted until they are at least this old, in milliseconds, since they are still
+  * receiving deltas */
+  protected final static long compactionDelay = 10L * 60000L;
+
+  /** Fetch size for streaming the groups that compaction merges */
+  protected final static int compactionFetchSize = 1000;
+
+  /** The lock that keeps compactions in different threads and processes from merging the same rows */
+  protected final static String compactionLock = "_REPOHISTROLLUPCOMPACT_";
+
+  /** Fetch size for streaming the buckets of a report */
+  protected final static int reportFetchSize = 1000;
+
+  /** Thread context */
+  protected final IThreadContext threadContext;
+  /** Lock manager */
+  protected final ILockManager lockManager;
+
+  /** Constructor.
+  *@param database is the database instance.
+  */
+  public RepositoryHistoryRollupManager(IThreadContext tc, IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"repohistrollup");
+    this.threadContext = tc;
+    this.lockManager = LockManagerFactory.make(tc);
+  }
+
+  /** Install or upgrade the table.
+  *@param parentTable is the parent table.
+  *@param parentField is the parent field.
+  *@return true if the table was newly created, and so needs to be filled from existing history.
+  */
+  public boolean install(String parentTable, String parentField)
+    throws ManifoldCFException
+  {
+    boolean created = false;
+    // Always have an outer loop, in case of upgrade
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(idField,new ColumnDescription("BIGINT",true,false,null,null,false));
+        map.put(ownerNameField,new ColumnDescription("VARCHAR(32)",false,false,parentTable,parentField,false));
+        map.put(activityTypeField,new ColumnDescription("VARCHAR(64)",false,false,null,null,false));
+        map.put(bucketStartField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(eventCountField,new ColumnDescription("FLOAT",false,false,null,null,false));
+        map.put(byteCountField,new ColumnDescription("FLOAT",false,false,null,null,false));
+        performCreate(map,null);
+        created = true;
+      }
+      else
+      {
+        // Upgrade code.
+      }
+
+      // Index management
+      IndexDescription ownerBucketIndex = new IndexDescription(false,new String[]{ownerNameField,bucketStartField});
+      IndexDescription bucketIndex = new IndexDescription(false,new String[]{bucketStartField});
+
+      // Get rid of indexes that shouldn't be there
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (ownerBucketIndex != null && id.equals(ownerBucketIndex))
+          ownerBucketIndex = null;
+        else if (bucketIndex != null && id.equals(bucketIndex))
+          bucketIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // Add the ones we didn't find
+      if (ownerBucketIndex != null)
+        performAddIndex(null,ownerBucketIndex);
+      if (bucketIndex != null)
+        performAddIndex(null,bucketIndex);
+
+      break;
+    }
+    return created;
+  }
+
+  /** Uninstall the table.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Delete all rollups associated with given owner.
+  *@param owner is the name of the owner whose rollups should be removed.
+  */
+  public void deleteOwner(String owner)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,owner)});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Delete the rollups for buckets that lie entirely before a cutoff time.  Every history row contributing
+  * to such a bucket started before the cutoff.
+  *@param timeCutoff is the time before which history rows are being removed.
+  */
+  public void deleteOldRows(long timeCutoff)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(bucketStartField,"<=",new Long(timeCutoff - bucketSize))});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Add a history row to a set of deltas not yet written.  The row's event and bytes are split between the
+  * buckets it overlaps, in proportion to the overlap.
+  *@param deltas is the map of deltas, keyed by owner, activity and bucket, to add to.
+  */
+  public static void accumulate(Map<RollupKey,double[]> deltas, String owner, String activityType,
+    long startTime, long endTime, long dataSize)
+  {
+    long duration = endTime - startTime;
+    if (duration <= 0L)
+    {
+      // Not something recordHistory() produces, but count it once rather than divide by zero
+      addDelta(deltas,new RollupKey(owner,activityType,bucketFloor(startTime)),1.0,(double)dataSize);
+      return;
+    }
+    long bucketStart = bucketFloor(startTime);
+    while (bucketStart < endTime)
+    {
+      long bucketEnd = bucketStart + bucketSize;
+      long overlap = Math.min(bucketEnd,endTime) - Math.max(bucketStart,startTime);
+      double fraction = ((double)overlap) / ((double)duration);
+      addDelta(deltas,new RollupKey(owner,activityType,bucketStart),fraction,((double)dataSize) * fraction);
+      bucketStart = bucketEnd;
+    }
+  }
+
+  /** Write a set of deltas.
+  *@param deltas is the map of deltas to write.
+  */
+  public void writeDeltas(Map<RollupKey,double[]> deltas)
+    throws ManifoldCFException
+  {
+    if (deltas.size() == 0)
+      return;
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(deltas.size());
+    for (Map.Entry<RollupKey,double[]> entry : deltas.entrySet())
+    {
+      RollupKey key = entry.getKey();
+      double[] values = entry.getValue();
+      rows.add(makeRow(key,values[0],values[1]));
+    }
+    performInsertBatch(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Merge the delta rows of every bucket old enough to no longer be receiving deltas, so that each
+  * connection, activity and bucket has a single row.  Only the rows actually read are deleted, so a
+  * delta that arrives during compaction is never lost.  Call this outside of any transaction; each bucket is
+  * merged in a transaction of its own.
+  *@param currentTime is the current time.
+  */
+  public void compact(long currentTime)
+    throws ManifoldCFException
+  {
+    long cutoff = bucketFloor(currentTime - compactionDelay);
+    // Two compactions merging the same bucket would each count the other's rows
+    lockManager.enterWriteLock(compactionLock);
+    try
+    {
+      ArrayList params = new ArrayList();
+      String query = buildConjunctionClause(params,new ClauseDescription[]{
+        new UnitaryClause(bucketStartField,"<",new Long(cutoff))});
+      // One scan finds every group; merging a group only ever takes it out of those that need merging
+      IResultCursor cursor = performStreamingQuery("SELECT "+ownerNameField+","+activityTypeField+","+bucketStartField+
+        " FROM "+getTableName()+" WHERE "+query+" GROUP BY "+ownerNameField+","+activityTypeField+","+bucketStartField+
+        " HAVING "+constructCountClause("*")+">1",params,compactionFetchSize);
+      try
+      {
+        while (cursor.hasNext())
+        {
+          IResultRow row = cursor.next();
+          mergeBucket(new RollupKey((String)row.getValue(ownerNameField),(String)row.getValue(activityTypeField),
+            ((Long)row.getValue(bucketStartField)).longValue()));
+        }
+      }
+      finally
+      {
+        cursor.close();
+      }
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(compactionLock);
+    }
+  }
+
+  /** Merge the rows of a single bucket into one.
+  */
+  protected void mergeBucket(RollupKey key)
+    throws ManifoldCFException
+  {
+    while (true)
+    {
+      long sleepAmt = 0L;
+      beginTransaction();
+      try
+      {
+        ArrayList params = new ArrayList();
+        String query = buildConjunctionClause(params,new ClauseDescription[]{
+          new UnitaryClause(ownerNameField,key.owner),
+          new UnitaryClause(activityTypeField,key.activityType),
+          new UnitaryClause(bucketStartField,new Long(key.bucketStart))});
+        IResultSet set = performQuery("SELECT "+idField+","+eventCountField+","+byteCountField+" FROM "+getTableName()+
+          " WHERE "+query+" FOR UPDATE",params,null,null);
+        if (set.getRowCount() > 1)
+        {
+          double eventCount = 0.0;
+          double byteCount = 0.0;
+          List<Long> ids = new ArrayList<Long>();
+          for (int i = 0; i < set.getRowCount(); i++)
+          {
+            IResultRow row = set.getRow(i);
+            ids.add((Long)row.getValue(idField));
+            eventCount += ((Number)row.getValue(eventCountField)).doubleValue();
+            byteCount += ((Number)row.getValue(byteCountField)).doubleValue();
+          }
+          performInsert(makeRow(key,eventCount,byteCount),null);
+          int maxClause = getMaxInClause();
+          int j = 0;
+          while (j < ids.size())
+          {
+            List<Long> chunk = ids.subList(j,Math.min(ids.size(),j + maxClause));
+            ArrayList deleteParams = new ArrayList();
+            String deleteQuery = buildConjunctionClause(deleteParams,new ClauseDescription[]{
+              new MultiClause(idField,chunk)});
+            performDelete("WHERE "+deleteQuery,deleteParams,null);
+            j += chunk.size();
+          }
+          noteModifications(1,0,ids.size());
+        }
+        break;
+      }
+      catch (ManifoldCFException e)
+      {
+        signalRollback();
+        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted transaction merging history rollups: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      catch (Error e)
+      {
+        signalRollback();
+        throw e;
+      }
+      finally
+      {
+        endTransaction();
+        sleepFor(sleepAmt);
+      }
+    }
+  }
+
+  /** Decide whether a windowed report can be answered from the rollups.  This requires that the report
+  * interval be a whole number of buckets, that the criteria select rows only by activity and time, and that
+  * the identifier bucket put every row in the same (empty) bucket, e.g. "" or "()".
+  */
+  public static boolean canAnswerReport(FilterCriteria criteria, BucketDescription idBucket, long interval)
+  {
+    if (interval <= 0L || (interval % bucketSize) != 0L)
+      return false;
+    if (criteria.getEntityMatch() != null || criteria.getResultCodeMatch() != null)
+      return false;
+    String regexp = idBucket.getRegexp();
+    return regexp.equals("") || regexp.equals("()");
+  }
+
+  /** Find the window of the given size with the most activity, for a maximum activity or maximum bandwidth report.
+  * Windows start on bucket boundaries, and the criteria's time limits are narrowed to the buckets lying
+  * entirely within them; otherwise the result is the one the raw history gives for the same window.
+  * The resultset has at most one row, with the columns "starttime","endtime","idbucket", and either
+  * "activitycount" or "bytecount".
+  *@param connectionName is the connection.
+  *@param criteria is the filtering criteria, which canAnswerReport() must have accepted.
+  *@param interval is the window size, a multiple of the bucket size.
+  *@param byteCount is true for a bandwidth report, false for an activity report.
+  *@param startRow is the first row to include.
+  *@param maxRowCount is the maximum number of rows to include.
+  */
+  public IResultSet maxWindowReport(String connectionName, FilterCriteria criteria, long interval, boolean byteCount,
+    int startRow, int maxRowCount)
+    throws ManifoldCFException
+  {
+    RSet rval = new RSet();
+    if (startRow > 0 || maxRowCount == 0)
+      return rval;
+
+    ArrayList params = new ArrayList();
+    List<ClauseDescription> clauses = new ArrayList<ClauseDescription>();
+    clauses.add(new UnitaryClause(ownerNameField,connectionName));
+    String[] activities = criteria.getActivities();
+    if (activities != null)
+    {
+      if (activities.length == 0)
+        return rval;
+      clauses.add(new MultiClause(activityTypeField,activities));
+    }
+    Long startTime = criteria.getStartTime();
+    if (startTime != null)
+      clauses.add(new UnitaryClause(bucketStartField,">=",new Long(bucketFloor(startTime.longValue() + bucketSize - 1L))));
+    Long endTime = criteria.getEndTime();
+    if (endTime != null)
+      clauses.add(new UnitaryClause(bucketStartField,"<=",new Long(endTime.longValue() - bucketSize)));
+    String query = buildConjunctionClause(params,clauses.toArray(new ClauseDescription[0]));
+    String valueField = byteCount?byteCountField:eventCountField;
+
+    // Slide a window over the nonempty buckets, in time order.  The best window can always be taken to
+    // start at a nonempty bucket.
+    Deque<Long> windowBuckets = new ArrayDeque<Long>();
+    Deque<Double> windowValues = new ArrayDeque<Double>();
+    double windowSum = 0.0;
+    double bestSum = 0.0;
+    long bestStart = -1L;
+    IResultCursor cursor = performStreamingQuery("SELECT "+bucketStartField+",SUM("+valueField+") AS bucketvalue FROM "+
+      getTableName()+" WHERE "+query+" GROUP BY "+bucketStartField+" ORDER BY "+bucketStartField+" ASC",params,reportFetchSize);
+    try
+    {
+      while (cursor.hasNext())
+      {
+        IResultRow row = cursor.next();
+        long bucketStart = ((Long)row.getValue(bucketStartField)).longValue();
+        double value = ((Number)row.getValue("bucketvalue")).doubleValue();
+        windowBuckets.addLast(new Long(bucketStart));
+        windowValues.addLast(new Double(value));
+        windowSum += value;
+        // Drop buckets that no longer fit in the same window as this one
+        while (windowBuckets.peekFirst().longValue() + interval <= bucketStart)
+        {
+          windowSum -= windowValues.peekFirst().doubleValue();
+          windowBuckets.removeFirst();
+          windowValues.removeFirst();
+        }
+        long windowStart = windowBuckets.peekFirst().longValue();
+        if (windowSum > bestSum)
+        {
+          bestSum = windowSum;
+          bestStart = windowStart;
+        }
+      }
+    }
+    finally
+    {
+      cursor.close();
+    }
+
+    if (bestStart == -1L)
+      return rval;
+    RRow row = new RRow();
+    row.put("idbucket","");
+    row.put("starttime",new Long(bestStart));
+    row.put("endtime",new Long(bestStart + interval));
+    if (byteCount)
+      row.put("bytecount",new Long(Math.round(bestSum)));
+    else
+      row.put("activitycount",new Double(bestSum));
+    rval.addRow(row);
+    return rval;
+  }
+
+  /** Build a row for insertion.
+  */
+  protected Map<String,Object> makeRow(RollupKey key, double eventCount, double byteCount)
+    throws ManifoldCFException
+  {
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put(idField,new Long(IDFactory.make(threadContext)));
+    map.put(ownerNameField,key.owner);
+    map.put(activityTypeField,key.activityType);
+    map.put(bucketStartField,new Long(key.bucketStart));
+    map.put(eventCountField,new Double(eventCount));
+    map.put(byteCountField,new Double(byteCount));
+    return map;
+  }
+
+  /** Find the start of the bucket containing a time.
+  */
+  protected static long bucketFloor(long time)
+  {
+    return time - (((time % bucketSize) + bucketSize) % bucketSize);
+  }
+
+  protected static void addDelta(Map<RollupKey,double[]> deltas, RollupKey key, double eventCount, double byteCount)
+  {
+    double[] values = deltas.get(key);
+    if (values == null)
+    {
+      values = new double[2];
+      deltas.put(key,values);
+    }
+    values[0] += eventCount;
+    values[1] += byteCount;
+  }
+
+  /** Key identifying a single rollup bucket.
+  */
+  public static class RollupKey
+  {
+    protected final String owner;
+    protected final String activityType;
+    protected final long bucketStart;
+
+    public RollupKey(String owner, String activityType, long bucketStart)
+    {
+      this.owner = owner;
+      this.activityType = activityType;
+      this.bucketStart = bucketStart;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return owner.hashCode() + activityType.hashCode() * 31 + (int)(bucketStart ^ (bucketStart >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof RollupKey))
+        return false;
+      RollupKey other = (RollupKey)o;
+      return bucketStart == other.bucketStart && owner.equals(other.owner) && activityType.equals(other.activityType);
+    }
+  }
+
+}
@@ -0,0 +1,447 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** This class buffers repository history rows in memory, and writes them to the database in batches from a
+* background thread, so that worker threads do not pay for a history insert on every recorded activity.
+* There is one buffer per JVM.  The buffer is bounded; when it is full, the thread adding a row writes a batch
+* itself, on its own database handle, which both frees space and slows producers down to the rate the database
+* can accept.
+* Rows that are still buffered are lost if the JVM dies; anything that reads or deletes history rows must call
+* flush() first, so that it sees (or removes) what has been recorded so far.
+* A batch that can't be written because the database is unavailable, or because its transaction was aborted,
+* is put back and written again later; only rows the database refuses outright are discarded.
+*/
+public class RepositoryHistoryWriter
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The most rows written by a single batch */
+  protected final static int maxBatchSize = 1000;
+
+  // Statistics
+  private final static AtomicLong rowsQueued = new AtomicLong(0L);
+  private final static AtomicLong rowsWritten = new AtomicLong(0L);
+  private final static AtomicLong rowsDropped = new AtomicLong(0L);
+  private final static AtomicLong flushCount = new AtomicLong(0L);
+  private final static AtomicLong flushTime = new AtomicLong(0L);
+  private final static AtomicLong maxFlushTime = new AtomicLong(0L);
+  private final static AtomicLong backPressureCount = new AtomicLong(0L);
+
+  /** Lock protecting the buffer and flusher thread references */
+  protected final static Object writerLock = new Object();
+  /** The buffer, or null if none has been created yet */
+  protected static BlockingQueue<Map<String,Object>> buffer = null;
+  /** The background flusher */
+  protected static FlushThread flushThread = null;
+  /** Rows from batches that failed for reasons other than their data, to be written before anything in the
+  * buffer.  These aren't counted against the buffer size.  Protected by writerLock.
+  */
+  protected final static List<Map<String,Object>> retryRows = new ArrayList<Map<String,Object>>();
+
+  /** Add a row to the buffer, starting the background flusher if need be.  If the buffer is full, a batch
+  * is written using the caller's own history manager before the row is queued.
+  *@param historyManager is the caller's history manager.
+  *@param row is the row to write, as a map of column name/values.
+  *@param bufferSize is the buffer capacity to use, if the buffer must be created.
+  *@param flushInterval is the longest time, in milliseconds, the flusher waits before writing what it has.
+  */
+  public static void addRow(RepositoryHistoryManager historyManager, Map<String,Object> row, int bufferSize, long flushInterval)
+    throws ManifoldCFException
+  {
+    BlockingQueue<Map<String,Object>> queue = getBuffer(bufferSize,flushInterval);
+    while (!queue.offer(row))
+    {
+      backPressureCount.incrementAndGet();
+      writeBatch(historyManager,queue);
+    }
+    rowsQueued.incrementAndGet();
+  }
+
+  /** Write everything currently buffered, using the caller's history manager.
+  *@param historyManager is the caller's history manager.
+  *@param waitForBackground is true if the caller should also wait for any batch the background flusher is in
+  * the middle of writing, so that every row recorded so far is visible once this method returns.  This must be
+  * false if the caller may be holding database locks, e.g. inside a transaction, since the flusher's write
+  * could then be waiting on the caller.
+  */
+  public static void flush(RepositoryHistoryManager historyManager, boolean waitForBackground)
+    throws ManifoldCFException
+  {
+    BlockingQueue<Map<String,Object>> queue;
+    FlushThread thread;
+    synchronized (writerLock)
+    {
+      queue = buffer;
+      thread = flushThread;
+    }
+    while (writeBatch(historyManager,queue) > 0)
+    {
+      // Keep going until the buffer is empty
+    }
+    if (waitForBackground && thread != null)
+    {
+      try
+      {
+        thread.waitForIdle();
+      }
+      catch (InterruptedException e)
+      {
+        throw new ManifoldCFException(e.getMessage(),ManifoldCFException.INTERRUPTED);
+      }
+    }
+  }
+
+  /** Stop the background flusher, and write out whatever remains in the buffer.  A later addRow()
+  * creates a new buffer.
+  *@param threadContext is the thread context.
+  */
+  public static void shutdown(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    FlushThread thread;
+    BlockingQueue<Map<String,Object>> queue;
+    synchronized (writerLock)
+    {
+      thread = flushThread;
+      queue = buffer;
+      flushThread = null;
+      buffer = null;
+    }
+    if (thread != null)
+    {
+      thread.requestStop();
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        throw new ManifoldCFException(e.getMessage(),ManifoldCFException.INTERRUPTED);
+      }
+    }
+    if (getQueueDepth(queue) > 0)
+    {
+      RepositoryHistoryManager historyManager = new RepositoryHistoryManager(threadContext,makeDatabase(threadContext));
+      while (writeBatch(historyManager,queue) > 0)
+      {
+        // Keep going until the buffer is empty
+      }
+    }
+  }
+
+  /** Get the number of rows currently buffered, including any waiting to be written again */
+  public static int getQueueDepth()
+  {
+    synchronized (writerLock)
+    {
+      return getQueueDepth(buffer);
+    }
+  }
+
+  /** Get the number of rows ever added to the buffer */
+  public static long getRowsQueued()
+  {
+    return rowsQueued.get();
+  }
+
+  /** Get the number of buffered rows written to the database */
+  public static long getRowsWritten()
+  {
+    return rowsWritten.get();
+  }
+
+  /** Get the number of buffered rows that could not be written, and were discarded */
+  public static long getRowsDropped()
+  {
+    return rowsDropped.get();
+  }
+
+  /** Get the number of batches written */
+  public static long getFlushCount()
+  {
+    return flushCount.get();
+  }
+
+  /** Get the average time taken to write a batch, in milliseconds, or 0.0 if none have been written */
+  public static double getAverageFlushTime()
+  {
+    long count = flushCount.get();
+    if (count == 0L)
+      return 0.0;
+    return ((double)flushTime.get()) / ((double)count);
+  }
+
+  /** Get the longest time taken to write a batch, in milliseconds */
+  public static long getMaxFlushTime()
+  {
+    return maxFlushTime.get();
+  }
+
+  /** Get the number of times a thread found the buffer full, and had to write a batch itself */
+  public static long getBackPressureCount()
+  {
+    return backPressureCount.get();
+  }
+
+  /** Get the buffer, creating it and starting the flusher if necessary */
+  protected static BlockingQueue<Map<String,Object>> getBuffer(int bufferSize, long flushInterval)
+  {
+    synchronized (writerLock)
+    {
+      if (buffer == null)
+      {
+        buffer = new ArrayBlockingQueue<Map<String,Object>>(Math.max(1,bufferSize));
+        flushThread = new FlushThread(buffer,flushInterval);
+        flushThread.start();
+      }
+      return buffer;
+    }
+  }
+
+  /** Get the number of rows in the given queue, which may be null, plus those waiting to be written again */
+  protected static int getQueueDepth(BlockingQueue<Map<String,Object>> queue)
+  {
+    synchronized (writerLock)
+    {
+      return retryRows.size() + ((queue == null)?0:queue.size());
+    }
+  }
+
+  /** Take up to a batch of rows and write them.  Rows waiting to be written again go first, in a batch of
+  * their own, so that repeated failures don't move more and more rows out of the bounded queue.
+  *@param queue is the queue, or null if there is none.
+  *@return the number of rows taken.
+  */
+  protected static int writeBatch(RepositoryHistoryManager historyManager, BlockingQueue<Map<String,Object>> queue)
+    throws ManifoldCFException
+  {
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    synchronized (writerLock)
+    {
+      int amount = Math.min(maxBatchSize,retryRows.size());
+      if (amount > 0)
+      {
+        List<Map<String,Object>> taken = retryRows.subList(0,amount);
+        rows.addAll(taken);
+        taken.clear();
+      }
+    }
+    if (queue != null && rows.size() == 0)
+      queue.drainTo(rows,maxBatchSize);
+    if (rows.size() > 0)
+      writeRows(historyManager,rows);
+    return rows.size();
+  }
+
+  /** Write a batch of rows.  If the database connection fails, the transaction is aborted, or the thread is
+  * interrupted, the rows that weren't written are put back to be written again later, and the exception is
+  * thrown so that the caller can back off.  If the batch fails for any other reason, the rows are retried one
+  * at a time, and any that still fail because of their data (e.g. because their connection has since been
+  * deleted) are discarded.
+  */
+  protected static void writeRows(RepositoryHistoryManager historyManager, List<Map<String,Object>> rows)
+    throws ManifoldCFException
+  {
+    long startTime = System.currentTimeMillis();
+    try
+    {
+      historyManager.writeRows(rows);
+      rowsWritten.addAndGet(rows.size());
+    }
+    catch (ManifoldCFException e)
+    {
+      if (!isDataError(e))
+      {
+        requeue(rows);
+        throw e;
+      }
+      Logging.threads.warn("Batch of "+rows.size()+" history rows could not be written; retrying individually: "+e.getMessage(),e);
+      for (int i = 0; i < rows.size(); i++)
+      {
+        try
+        {
+          historyManager.writeRows(Collections.singletonList(rows.get(i)));
+          rowsWritten.incrementAndGet();
+        }
+        catch (ManifoldCFException e2)
+        {
+          if (!isDataError(e2))
+          {
+            requeue(rows.subList(i,rows.size()));
+            throw e2;
+          }
+          Logging.threads.warn("Discarding history row that could not be written: "+e2.getMessage());
+          rowsDropped.incrementAndGet();
+        }
+      }
+    }
+    long elapsed = System.currentTimeMillis() - startTime;
+    flushCount.incrementAndGet();
+    flushTime.addAndGet(elapsed);
+    while (true)
+    {
+      long currentMax = maxFlushTime.get();
+      if (elapsed <= currentMax || maxFlushTime.compareAndSet(currentMax,elapsed))
+        break;
+    }
+  }
+
+  /** Decide whether a write failed because of the rows written, rather than because of the database.
+  */
+  protected static boolean isDataError(ManifoldCFException e)
+  {
+    return e.getErrorCode() == ManifoldCFException.DATABASE_ERROR || e.getErrorCode() == ManifoldCFException.GENERAL_ERROR;
+  }
+
+  /** Put rows back, ahead of anything still buffered, to be written again later */
+  protected static void requeue(List<Map<String,Object>> rows)
+  {
+    synchronized (writerLock)
+    {
+      retryRows.addAll(0,rows);
+    }
+  }
+
+  /** Make a handle to the database the history table lives in */
+  protected static IDBInterface makeDatabase(IThreadContext threadContext)
+    throws ManifoldCFException
+  {
+    return DBInterfaceFactory.make(threadContext,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+  }
+
+  /** Background thread that writes out the buffer.  Rows stay in the buffer until they are written, so that
+  * flush() can find them; the thread writes a batch whenever a full batch is waiting, or when the flush
+  * interval has passed since it last wrote anything.
+  */
+  protected static class FlushThread extends Thread
+  {
+    protected final BlockingQueue<Map<String,Object>> queue;
+    protected final long flushInterval;
+    /** The first wait after a failed batch, in milliseconds; it doubles for each consecutive failure */
+    protected final static long minimumBackoff = 1000L;
+    /** The longest wait after a failed batch, in milliseconds */
+    protected final static long maximumBackoff = 60000L;
+    protected volatile boolean stopRequested = false;
+    protected boolean writing = false;
+
+    public FlushThread(BlockingQueue<Map<String,Object>> queue, long flushInterval)
+    {
+      super();
+      this.queue = queue;
+      this.flushInterval = flushInterval;
+      setName("History flush thread");
+      setDaemon(true);
+    }
+
+    public void requestStop()
+    {
+      stopRequested = true;
+    }
+
+    /** Wait until no batch is being written */
+    public synchronized void waitForIdle()
+      throws InterruptedException
+    {
+      while (writing)
+      {
+        wait();
+      }
+    }
+
+    protected synchronized void setWriting(boolean writing)
+    {
+      this.writing = writing;
+      if (!writing)
+        notifyAll();
+    }
+
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        RepositoryHistoryManager historyManager = new RepositoryHistoryManager(threadContext,makeDatabase(threadContext));
+        // Shutdown doesn't interrupt us, so a batch is never abandoned part way through; instead we check
+        // for a stop request at least this often
+        long sleepInterval = Math.max(1L,Math.min(flushInterval,100L));
+        long lastWriteTime = System.currentTimeMillis();
+        // After a failed batch, nothing is written before this time
+        long retryTime = 0L;
+        long backoff = minimumBackoff;
+        while (!stopRequested)
+        {
+          try
+          {
+            int depth = getQueueDepth(queue);
+            long currentTime = System.currentTimeMillis();
+            if (currentTime >= retryTime && (depth >= maxBatchSize || (depth > 0 && currentTime - lastWriteTime >= flushInterval)))
+            {
+              setWriting(true);
+              try
+              {
+                writeBatch(historyManager,queue);
+                backoff = minimumBackoff;
+              }
+              catch (ManifoldCFException e)
+              {
+                if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+                  throw e;
+                // The batch has been put back; wait a while before trying again
+                Logging.threads.warn("History rows could not be written; retrying in "+backoff+" ms: "+e.getMessage(),e);
+                retryTime = currentTime + backoff;
+                backoff = Math.min(maximumBackoff,backoff * 2L);
+              }
+              finally
+              {
+                setWriting(false);
+              }
+              lastWriteTime = currentTime;
+              continue;
+            }
+            if (depth == 0)
+              lastWriteTime = currentTime;
+            ManifoldCF.sleep(sleepInterval);
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              break;
+            Logging.threads.error("Exception tossed writing history rows: "+e.getMessage(),e);
+          }
+        }
+      }
+      catch (Throwable e)
+      {
+        Logging.threads.fatal("History flush thread aborting: "+e.getMessage(),e);
+      }
+    }
+  }
+
+}
@@ -72,6 +72,8 @@ public class CrawlerAgent implements IAgent
   protected float lowWaterFactor = 5.0f;
   // Factor in amount to stuff
   protected float stuffAmtFactor = 0.5f;
+  // True if the amount to stuff should follow the rate the document queue drains
+  protected boolean adaptiveStuffing = false;
 
   /** Process identifier for this agent */
   protected String processID = null;
@@ -372,6 +374,7 @@ public class CrawlerAgent implements IAgent
     stuffAmtFactor = (float)LockManagerFactory.getDoubleProperty(threadContext,ManifoldCF.stuffAmtFactorProperty,2.0);
     if (stuffAmtFactor < 0.1 || stuffAmtFactor > 1000.0)
       throw new ManifoldCFException("Illegal value for the stuffing amount factor", ManifoldCFException.SETUP_ERROR);
+    adaptiveStuffing = LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.adaptiveStuffingProperty,false);
 
 
     // Create the threads and objects.  This MUST be completed before there is any chance of "shutdownSystem" getting called.
@@ -396,7 +399,7 @@ public class CrawlerAgent implements IAgent
     finisherThread = new FinisherThread(processID);
     notificationThread = new JobNotificationThread(new NotificationResetManager(processID),processID);
     jobDeleteThread = new JobDeleteThread(processID);
-    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,processID);
+    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,adaptiveStuffing,processID);
     expireStufferThread = new ExpireStufferThread(expireQueue,numExpireThreads,workerResetManager,processID);
     setPriorityThread = new SetPriorityThread(numWorkerThreads,blockingDocuments,processID);
     historyCleanupThread = new HistoryCleanupThread(processID);
@@ -26,16 +26,52 @@ import java.util.*;
 * The queue manages thread synchronization so that (a) the "stuffer" thread blocks until queue is empty, and
 * (b) the "reader" threads block if queue is empty.
 * The objects being queued are all QueuedDocumentSet objects.
+*
+* Readers always receive the best-rated document set, as computed by QueueTracker.calculateAssignmentRating(),
+* with ties going to the set that was queued first.  Rather than rating every queued set on every pull, sets
+* are grouped into buckets by their bin signature (the bins of all their documents).  All the sets in a bucket
+* necessarily have the same rating, so only the buckets need to be kept in rating order.  A bucket's rating only
+* changes when the active count of one of its bins changes, so the queue registers with the QueueTracker
+* to hear about such changes, and re-rates only the affected buckets at the time of the next pull.
 */
-public class DocumentQueue
+public class DocumentQueue implements IActiveBinListener
 {
   public static final String _rcsid = "@(#)$Id: DocumentQueue.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // Since the queue has a maximum size, an ArrayList is a fine way to keep it
-  protected final List<QueuedDocumentSet> queue = new ArrayList<QueuedDocumentSet>();
+  // The monitor for the queue structures
+  protected final Object queue = new Object();
+  // The buckets, keyed by bin signature
+  protected final Map<String,RatingBucket> buckets = new HashMap<String,RatingBucket>();
+  // The buckets containing each bin
+  protected final Map<String,Set<RatingBucket>> bucketsByBin = new HashMap<String,Set<RatingBucket>>();
+  // The rated buckets, best-rated first
+  protected final TreeSet<RatingBucket> ratedBuckets = new TreeSet<RatingBucket>();
+  // The buckets that need to be rated before the next pull
+  protected final Set<RatingBucket> unratedBuckets = new HashSet<RatingBucket>();
+  // The total number of queued document sets
+  protected int queueSize = 0;
+  // Sequence number for queued sets; used to preserve the queuing order among equally-rated sets
+  protected long sequenceCounter = 0L;
+  // The queue tracker we've registered with, if any
+  protected QueueTracker registeredTracker = null;
   // This flag gets set to 'true' if the queue is being cleared due to a reset
   protected boolean resetFlag = false;
 
+  // The monitor the stuffer waits on for the queue to drain, and the low-water mark it is waiting for (-1 if none)
+  protected final Object lowWaterLock = new Object();
+  protected volatile int lowWaterWaitMark = -1;
+
+  // Counters for the stuffer: what workers have taken, and how long they have found the queue empty
+  protected long documentsPulled = 0L;
+  protected long setsPulled = 0L;
+  protected long emptyTime = 0L;
+  // When workers started finding the queue empty, or -1 if they haven't
+  protected long emptySince = -1L;
+
+  // The bins whose active counts have changed since the last pull.  This has its own lock, because
+  // the notifications come from worker threads and should not contend for the queue monitor.
+  protected final Set<String> changedBins = new HashSet<String>();
+
   /** Constructor.
   */
   public DocumentQueue()
@@ -59,8 +95,45 @@ public class DocumentQueue
   {
     synchronized (queue)
     {
-      queue.clear();
+      buckets.clear();
+      bucketsByBin.clear();
+      ratedBuckets.clear();
+      unratedBuckets.clear();
+      queueSize = 0;
       resetFlag = false;
+      noteNotEmpty();
+    }
+  }
+
+  /** Get the total number of documents workers have taken from the queue.
+  */
+  public long getDocumentsPulled()
+  {
+    synchronized (queue)
+    {
+      return documentsPulled;
+    }
+  }
+
+  /** Get the total number of document sets workers have taken from the queue.
+  */
+  public long getSetsPulled()
+  {
+    synchronized (queue)
+    {
+      return setsPulled;
+    }
+  }
+
+  /** Get the total time, in milliseconds, during which workers have been waiting on an empty queue.
+  */
+  public long getEmptyTime()
+  {
+    synchronized (queue)
+    {
+      if (emptySince == -1L)
+        return emptyTime;
+      return emptyTime + (System.currentTimeMillis() - emptySince);
     }
   }
 
@@ -71,21 +144,70 @@ public class DocumentQueue
   {
     synchronized (queue)
     {
-      if (queue.size() <= n)
+      if (queueSize <= n)
         return true;
     }
     return false;
   }
 
+  /** Wait until the queue is "empty", or until a maximum time has passed.
+  *@param n is the low-water mark; if the number falls below this, then this method will return true.
+  *@param maxWaitTime is the maximum time to wait, in milliseconds.
+  *@return true if the queue is "empty".
+  */
+  public boolean waitForEmpty(int n, long maxWaitTime)
+    throws InterruptedException
+  {
+    synchronized (lowWaterLock)
+    {
+      // Set the mark before checking, so a reader that drains the queue after the check will signal us
+      lowWaterWaitMark = n;
+      try
+      {
+        if (checkIfEmpty(n))
+          return true;
+        lowWaterLock.wait(maxWaitTime);
+      }
+      finally
+      {
+        lowWaterWaitMark = -1;
+      }
+    }
+    return checkIfEmpty(n);
+  }
+
 
   /** Add a document to the queue.
   *@param dd is the document description.
   */
   public void addDocument(QueuedDocumentSet dd)
   {
+    String signature = computeBinSignature(dd);
     synchronized (queue)
     {
-      queue.add(dd);
+      RatingBucket bucket = buckets.get(signature);
+      if (bucket == null)
+      {
+        bucket = new RatingBucket(signature);
+        buckets.put(signature,bucket);
+        for (String binName : getBinNames(dd))
+        {
+          Set<RatingBucket> binBuckets = bucketsByBin.get(binName);
+          if (binBuckets == null)
+          {
+            binBuckets = new HashSet<RatingBucket>();
+            bucketsByBin.put(binName,binBuckets);
+          }
+          binBuckets.add(bucket);
+        }
+        // It will be rated at the next pull
+        unratedBuckets.add(bucket);
+      }
+      // Adding to the tail does not change the bucket's head, so its position in the
+      // rated set (if any) is still valid.
+      bucket.add(dd,sequenceCounter++);
+      queueSize++;
+      noteNotEmpty();
       queue.notify();
     }
   }
@@ -99,6 +221,8 @@ public class DocumentQueue
   public QueuedDocumentSet getDocument(QueueTracker overlapCalculator)
     throws InterruptedException
   {
+    QueuedDocumentSet rval;
+    boolean signalLowWater;
     synchronized (queue)
     {
       // If we are being reset, return null
@@ -106,35 +230,221 @@ public class DocumentQueue
         return null;
 
       // If queue is empty, go to sleep
-      while (queue.size() == 0 && resetFlag == false)
+      while (queueSize == 0 && resetFlag == false)
+      {
+        if (emptySince == -1L)
+          emptySince = System.currentTimeMillis();
         queue.wait();
+      }
 
       // If we've been awakened, there's either an entry to grab, or we've been
       // awakened because it's time to reset.
       if (resetFlag)
         return null;
 
-      // Go through all the documents and pick the one with the best rating
-      int i = 0;
-      int bestIndex = -1;
-      double bestRating = Double.NEGATIVE_INFINITY;
-      while (i < queue.size())
+      if (registeredTracker != overlapCalculator)
       {
-        QueuedDocumentSet dd = queue.get(i);
-        // Evaluate each document's bins.  These will be saved in the QueuedDocumentSet.
-        double rating = dd.calculateAssignmentRating(overlapCalculator);
-        if (bestIndex == -1 || rating > bestRating)
+        // First pull with this tracker (or a different one).  Listen for its bin changes, and
+        // rate everything from scratch since our existing ratings are meaningless.
+        if (registeredTracker != null)
+          registeredTracker.removeActiveBinListener(this);
+        overlapCalculator.addActiveBinListener(this);
+        registeredTracker = overlapCalculator;
+        unratedBuckets.addAll(ratedBuckets);
+        ratedBuckets.clear();
+      }
+
+      // Any bucket that has a bin whose active count changed needs re-rating
+      String[] changed;
+      synchronized (changedBins)
+      {
+        changed = changedBins.toArray(new String[changedBins.size()]);
+        changedBins.clear();
+      }
+      for (String binName : changed)
+      {
+        Set<RatingBucket> binBuckets = bucketsByBin.get(binName);
+        if (binBuckets != null)
+        {
+          for (RatingBucket bucket : binBuckets)
+          {
+            if (ratedBuckets.remove(bucket))
+              unratedBuckets.add(bucket);
+          }
+        }
+      }
+
+      // Rate everything that needs it
+      for (RatingBucket bucket : unratedBuckets)
+      {
+        bucket.rate(overlapCalculator);
+        ratedBuckets.add(bucket);
+      }
+      unratedBuckets.clear();
+
+      // Pull off the best one.  Within a bucket, sets come out in the order they were queued.
+      RatingBucket bestBucket = ratedBuckets.pollFirst();
+      rval = bestBucket.remove();
+      queueSize--;
+      documentsPulled += rval.getCount();
+      setsPulled++;
+      signalLowWater = (queueSize <= lowWaterWaitMark);
+      if (bestBucket.isEmpty())
+      {
+        buckets.remove(bestBucket.getSignature());
+        for (String binName : getBinNames(rval))
         {
-          bestIndex = i;
-          bestRating = rating;
+          Set<RatingBucket> binBuckets = bucketsByBin.get(binName);
+          if (binBuckets != null)
+          {
+            binBuckets.remove(bestBucket);
+            if (binBuckets.size() == 0)
+              bucketsByBin.remove(binName);
+          }
         }
-        i++;
       }
-      // Pull off the best one.  DON'T REORDER!!
-      QueuedDocumentSet rval = queue.remove(bestIndex);
-      return rval;
+      else
+      {
+        // The head changed, so the bucket's place in the ordering has too.
+        ratedBuckets.add(bestBucket);
+      }
     }
+    
+    if (signalLowWater)
+    {
+      synchronized (lowWaterLock)
+      {
+        lowWaterLock.notifyAll();
+      }
+    }
+    return rval;
+  }
+
+  /** Stop timing an empty queue.  Call this holding the queue monitor.
+  */
+  protected void noteNotEmpty()
+  {
+    if (emptySince != -1L)
+    {
+      emptyTime += System.currentTimeMillis() - emptySince;
+      emptySince = -1L;
+    }
+  }
+
+  /** Note that the active count for a bin has changed.  Called by the queue tracker.
+  *@param binName is the name of the bin.
+  */
+  @Override
+  public void activeBinCountChanged(String binName)
+  {
+    synchronized (changedBins)
+    {
+      changedBins.add(binName);
+    }
+  }
+
+  /** Get the distinct bin names for all the documents in a set.
+  */
+  protected static Set<String> getBinNames(QueuedDocumentSet dd)
+  {
+    Set<String> rval = new HashSet<String>();
+    for (int i = 0; i < dd.getCount(); i++)
+    {
+      for (String binName : dd.getDocument(i).getBinNames())
+      {
+        rval.add(binName);
+      }
+    }
+    return rval;
+  }
+
+  /** Compute the bin signature for a document set.  Two sets with the same signature consist of
+  * documents with identical bins, and therefore always receive the same assignment rating.
+  */
+  protected static String computeBinSignature(QueuedDocumentSet dd)
+  {
+    String[] documentSignatures = new String[dd.getCount()];
+    for (int i = 0; i < documentSignatures.length; i++)
+    {
+      String[] binNames = dd.getDocument(i).getBinNames().clone();
+      Arrays.sort(binNames);
+      StringBuilder sb = new StringBuilder();
+      for (String binName : binNames)
+      {
+        sb.append(binName.length()).append(':').append(binName);
+      }
+      documentSignatures[i] = sb.toString();
+    }
+    Arrays.sort(documentSignatures);
+    StringBuilder sb = new StringBuilder();
+    for (String documentSignature : documentSignatures)
+    {
+      sb.append(documentSignature.length()).append('/').append(documentSignature);
+    }
+    return sb.toString();
   }
 
+  /** A bucket of queued document sets sharing a bin signature, in queuing order.
+  * Buckets order themselves best-rated first, then by the queuing sequence of their head.
+  */
+  protected static class RatingBucket implements Comparable<RatingBucket>
+  {
+    protected final String signature;
+    protected final LinkedList<QueuedDocumentSet> sets = new LinkedList<QueuedDocumentSet>();
+    protected final LinkedList<Long> sequences = new LinkedList<Long>();
+    protected double rating = Double.NEGATIVE_INFINITY;
+
+    public RatingBucket(String signature)
+    {
+      this.signature = signature;
+    }
+
+    public String getSignature()
+    {
+      return signature;
+    }
+
+    public void add(QueuedDocumentSet dd, long sequence)
+    {
+      sets.add(dd);
+      sequences.add(new Long(sequence));
+    }
+
+    public QueuedDocumentSet remove()
+    {
+      sequences.removeFirst();
+      return sets.removeFirst();
+    }
+
+    public boolean isEmpty()
+    {
+      return sets.size() == 0;
+    }
+
+    /** Recalculate the rating, using the head set (all sets in the bucket rate the same). */
+    public void rate(QueueTracker overlapCalculator)
+    {
+      double newRating = sets.getFirst().calculateAssignmentRating(overlapCalculator);
+      // A NaN rating can never be chosen over anything else
+      rating = Double.isNaN(newRating)?Double.NEGATIVE_INFINITY:newRating;
+    }
+
+    @Override
+    public int compareTo(RatingBucket other)
+    {
+      if (this == other)
+        return 0;
+      int rval = Double.compare(other.rating,rating);
+      if (rval != 0)
+        return rval;
+      long thisSequence = sequences.getFirst().longValue();
+      long otherSequence = other.sequences.getFirst().longValue();
+      if (thisSequence < otherSequence)
+        return -1;
+      if (thisSequence > otherSequence)
+        return 1;
+      return 0;
+    }
+  }
 
 }
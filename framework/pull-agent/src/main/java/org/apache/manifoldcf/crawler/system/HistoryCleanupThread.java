@@ -74,6 +74,8 @@ public class HistoryCleanupThread extends Thread
             connectionManager.cleanUpHistoryData(currentTime - historyCleanupInterval);
           else
             Logging.threads.debug(" History cleanup thread did nothing because cleanup disabled");
+          // Merge the history rollups, whether or not old history is being removed
+          connectionManager.compactHistoryData();
           // Loop around again, after resting a while
           ManifoldCF.sleep(60L * 60L * 1000L);
         }
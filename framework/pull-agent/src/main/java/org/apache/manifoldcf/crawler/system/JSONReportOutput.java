@@ -0,0 +1,209 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+
+import java.io.*;
+
+/** This class writes the rows of an API report as JSON as they arrive, in the form the rows would have had if they
+* had been added to the read command's Configuration output: {"row":[{"column":[{"name":...,"value":...}, ...]}, ...]}.
+* Whatever else the read command put into its output, e.g. an error, is written after the rows by finish().
+*
+* A single row is not written as an array, just as with Configuration, so the first row is held back until the
+* second one arrives.
+*/
+public class JSONReportOutput implements IReportOutput
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final Writer writer;
+  protected String[] resultColumns = null;
+  protected long rowCount = 0L;
+  protected String firstRow = null;
+
+  /** Constructor.
+  *@param writer is where the JSON goes.  It is flushed by finish(), but not closed.
+  */
+  public JSONReportOutput(Writer writer)
+  {
+    this.writer = writer;
+  }
+
+  /** Check whether any of the output has been started. */
+  public boolean isStarted()
+  {
+    return resultColumns != null;
+  }
+
+  /** Get the number of rows written. */
+  public long getRowCount()
+  {
+    return rowCount;
+  }
+
+  @Override
+  public void startRows(String[] resultColumns)
+    throws ManifoldCFException
+  {
+    this.resultColumns = resultColumns;
+  }
+
+  @Override
+  public void writeRow(IResultRow resultRow)
+    throws ManifoldCFException
+  {
+    try
+    {
+      String row = formatRow(resultRow);
+      if (rowCount == 0L)
+        firstRow = row;
+      else
+      {
+        if (rowCount == 1L)
+        {
+          writer.write("{\"row\":[");
+          writer.write(firstRow);
+          firstRow = null;
+        }
+        writer.write(',');
+        writer.write(row);
+      }
+      rowCount++;
+    }
+    catch (InterruptedIOException e)
+    {
+      throw new ManifoldCFException(e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("Error writing report: "+e.getMessage(),e);
+    }
+  }
+
+  /** Finish the output, once the read command is done.
+  *@param output is the read command's output, which holds everything but the rows.
+  */
+  public void finish(Configuration output)
+    throws ManifoldCFException, IOException
+  {
+    // The rest is small; form it as usual, and write its members after the rows
+    String rest = output.toJSON();
+    String members = (rest.length() > 2)?rest.substring(1,rest.length()-1):"";
+    if (rowCount == 0L)
+    {
+      writer.write('{');
+      writer.write(members);
+    }
+    else
+    {
+      if (rowCount == 1L)
+      {
+        writer.write("{\"row\":");
+        writer.write(firstRow);
+        firstRow = null;
+      }
+      else
+        writer.write(']');
+      if (members.length() > 0)
+      {
+        writer.write(',');
+        writer.write(members);
+      }
+    }
+    writer.write('}');
+    writer.flush();
+  }
+
+  protected String formatRow(IResultRow row)
+  {
+    StringBuilder sb = new StringBuilder("{\"column\":");
+    if (resultColumns.length != 1)
+      sb.append('[');
+    for (int i = 0; i < resultColumns.length; i++)
+    {
+      if (i > 0)
+        sb.append(',');
+      String columnName = resultColumns[i];
+      Object value = row.getValue(columnName);
+      sb.append("{\"name\":");
+      appendString(sb,columnName);
+      sb.append(",\"value\":");
+      appendString(sb,(value == null)?"":value.toString());
+      sb.append('}');
+    }
+    if (resultColumns.length != 1)
+      sb.append(']');
+    sb.append('}');
+    return sb.toString();
+  }
+
+  /** Append a JSON string, escaped the same way as Configuration's JSON. */
+  protected static void appendString(StringBuilder sb, String value)
+  {
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++)
+    {
+      char ch = value.charAt(i);
+      switch (ch)
+      {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '/':
+        sb.append("\\/");
+        break;
+      case '\b':
+        sb.append("\\b");
+        break;
+      case '\f':
+        sb.append("\\f");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF'))
+        {
+          String hex = Integer.toHexString(ch).toUpperCase(java.util.Locale.ROOT);
+          sb.append("\\u");
+          for (int j = hex.length(); j < 4; j++)
+          {
+            sb.append('0');
+          }
+          sb.append(hex);
+        }
+        else
+          sb.append(ch);
+      }
+    }
+    sb.append('"');
+  }
+
+}
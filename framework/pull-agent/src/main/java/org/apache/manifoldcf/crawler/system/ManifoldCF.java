@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.crawler.repository.RepositoryHistoryWriter;
 
 import java.io.*;
 import java.security.GeneralSecurityException;
@@ -59,6 +60,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   protected static final String expireThreadCountProperty = "org.apache.manifoldcf.crawler.expirethreads";
   protected static final String lowWaterFactorProperty = "org.apache.manifoldcf.crawler.lowwaterfactor";
   protected static final String stuffAmtFactorProperty = "org.apache.manifoldcf.crawler.stuffamountfactor";
+  protected static final String adaptiveStuffingProperty = "org.apache.manifoldcf.crawler.adaptivestuffing";
   protected static final String connectorsConfigurationFileProperty = "org.apache.manifoldcf.connectorsconfigurationfile";
   protected static final String databaseSuperuserNameProperty = "org.apache.manifoldcf.dbsuperusername";
   protected static final String databaseSuperuserPasswordProperty = "org.apache.manifoldcf.dbsuperuserpassword";
@@ -104,6 +106,15 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   
   public static void localCleanup(IThreadContext tc)
   {
+    try
+    {
+      RepositoryHistoryWriter.shutdown(tc);
+    }
+    catch (ManifoldCFException e)
+    {
+      if (Logging.root != null)
+        Logging.root.warn("Exception tossed on repository history writer shutdown: "+e.getMessage(),e);
+    }
     try
     {
       RepositoryConnectorPoolFactory.make(tc).closeAllConnectors();
@@ -2680,7 +2691,8 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
 
   /** Queue reports */
   protected static int apiReadRepositoryConnectionQueue(IThreadContext tc, Configuration output,
-    String connectionName, Map<String,List<String>> queryParameters, IAuthorizer authorizer) throws ManifoldCFException
+    final String connectionName, Map<String,List<String>> queryParameters, IAuthorizer authorizer, IReportOutput reportOutput)
+    throws ManifoldCFException
   {
     if (!authorizer.checkAllowed(tc, IAuthorizer.CAPABILITY_VIEW_REPORTS))
       return READRESULT_NOTALLOWED;
@@ -2766,10 +2778,10 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       }
     }
       
-    StatusFilterCriteria filterCriteria = new StatusFilterCriteria(jobs,now,idMatch,matchStates,matchStatuses);
+    final StatusFilterCriteria filterCriteria = new StatusFilterCriteria(jobs,now,idMatch,matchStates,matchStatuses);
       
     // Look for sort order parameters...
-    SortOrder sortOrder = new SortOrder();
+    final SortOrder sortOrder = new SortOrder();
     List<String> sortColumnsList = queryParameters.get("sortcolumn");
     List<String> sortColumnsDirList = queryParameters.get("sortcolumn_direction");
     if (sortColumnsList != null || sortColumnsDirList != null)
@@ -2810,6 +2822,8 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     else
       rowCount = new Integer(rowCountList.get(0)).intValue();
 
+    int fetchSize = getReportFetchSize(queryParameters);
+
     List<String> reportTypeList = queryParameters.get("report");
     String reportType;
     if (reportTypeList == null || reportTypeList.size() == 0)
@@ -2819,27 +2833,34 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     else
       reportType = reportTypeList.get(0);
 
-    IJobManager jobManager = JobManagerFactory.make(tc);
+    final IJobManager jobManager = JobManagerFactory.make(tc);
       
-    IResultSet result;
+    ReportQuery query;
     String[] resultColumns;
       
     if (reportType.equals("document"))
     {
-      try
-      {
-        result = jobManager.genDocumentStatus(connectionName,filterCriteria,sortOrder,startRow,rowCount);
-      }
-      catch (ManifoldCFException e)
+      query = new ReportQuery()
       {
-        createErrorNode(output,e);
-        return READRESULT_FOUND;
-      }
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return jobManager.genDocumentStatus(connectionName,filterCriteria,sortOrder,startRow,rowCount);
+        }
+
+        @Override
+        public IResultCursor getCursor(int startRow, int rowCount, int fetchSize)
+          throws ManifoldCFException
+        {
+          return jobManager.genDocumentStatusCursor(connectionName,filterCriteria,sortOrder,startRow,rowCount,fetchSize);
+        }
+      };
       resultColumns = new String[]{"identifier","job","state","status","scheduled","action","retrycount","retrylimit"};
     }
     else if (reportType.equals("status"))
     {
-      BucketDescription idBucket;
+      final BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
       if (idBucketList != null && idBucketInsensitiveList != null)
@@ -2859,22 +2880,22 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         idBucket = new BucketDescription(idBucketList.get(0),isInsensitiveIdBucket);
         
-      try
-      {
-        result = jobManager.genQueueStatus(connectionName,filterCriteria,sortOrder,idBucket,startRow,rowCount);
-      }
-      catch (ManifoldCFException e)
+      query = new ReportQuery()
       {
-        createErrorNode(output,e);
-        return READRESULT_FOUND;
-      }
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return jobManager.genQueueStatus(connectionName,filterCriteria,sortOrder,idBucket,startRow,rowCount);
+        }
+      };
       resultColumns = new String[]{"idbucket","inactive","processing","expiring","deleting",
         "processready","expireready","processwaiting","expirewaiting","waitingforever","hopcountexceeded"};
     }
     else
       throw new ManifoldCFException("Unknown report type '"+reportType+"'.");
 
-    createResultsetNode(output,result,resultColumns);
+    readReport(output,query,resultColumns,startRow,rowCount,fetchSize,reportOutput);
     return READRESULT_FOUND;
   }
   
@@ -2911,7 +2932,8 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   
   /** History reports */
   protected static int apiReadRepositoryConnectionHistory(IThreadContext tc, Configuration output,
-    String connectionName, Map<String,List<String>> queryParameters, IAuthorizer authorizer) throws ManifoldCFException
+    final String connectionName, Map<String,List<String>> queryParameters, IAuthorizer authorizer, IReportOutput reportOutput)
+    throws ManifoldCFException
   {
     if (!authorizer.checkAllowed(tc, IAuthorizer.CAPABILITY_VIEW_REPORTS))
       return READRESULT_NOTALLOWED;
@@ -2994,10 +3016,10 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       resultCodeMatch = new RegExpCriteria(resultCodeMatchList.get(0),isInsensitiveResultCodeMatch);
       
     // Filter criteria
-    FilterCriteria filterCriteria = new FilterCriteria(activities,startTime,endTime,entityMatch,resultCodeMatch);
+    final FilterCriteria filterCriteria = new FilterCriteria(activities,startTime,endTime,entityMatch,resultCodeMatch);
       
     // Look for sort order parameters...
-    SortOrder sortOrder = new SortOrder();
+    final SortOrder sortOrder = new SortOrder();
     List<String> sortColumnsList = queryParameters.get("sortcolumn");
     List<String> sortColumnsDirList = queryParameters.get("sortcolumn_direction");
     if (sortColumnsList != null || sortColumnsDirList != null)
@@ -3038,6 +3060,8 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     else
       rowCount = new Integer(rowCountList.get(0)).intValue();
 
+    int fetchSize = getReportFetchSize(queryParameters);
+
     List<String> reportTypeList = queryParameters.get("report");
     String reportType;
     if (reportTypeList == null || reportTypeList.size() == 0)
@@ -3047,32 +3071,34 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     else
       reportType = reportTypeList.get(0);
 
-    IRepositoryConnectionManager connectionManager = RepositoryConnectionManagerFactory.make(tc);
+    final IRepositoryConnectionManager connectionManager = RepositoryConnectionManagerFactory.make(tc);
       
-    IResultSet result;
+    ReportQuery query;
     String[] resultColumns;
       
     if (reportType.equals("simple"))
     {
-      try
-      {
-        result = connectionManager.genHistorySimple(connectionName,filterCriteria,sortOrder,startRow,rowCount);
-      }
-      catch (ManifoldCFException e)
+      query = new ReportQuery()
       {
-        createErrorNode(output,e);
-        return READRESULT_FOUND;
-      }
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return connectionManager.genHistorySimple(connectionName,filterCriteria,sortOrder,startRow,rowCount);
+        }
+
+        @Override
+        public IResultCursor getCursor(int startRow, int rowCount, int fetchSize)
+          throws ManifoldCFException
+        {
+          return connectionManager.genHistorySimpleCursor(connectionName,filterCriteria,sortOrder,startRow,rowCount,fetchSize);
+        }
+      };
       resultColumns = new String[]{"starttime","resultcode","resultdesc","identifier","activity","bytes","elapsedtime"};
     }
     else if (reportType.equals("maxactivity"))
     {
-      long maxInterval = connectionManager.getMaxRows();
-      long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
-      if (actualRows > maxInterval)
-        throw new ManifoldCFException("Too many history rows specified for maxactivity report - actual is "+actualRows+", max is "+maxInterval+".");
-        
-      BucketDescription idBucket;
+      final BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
       if (idBucketList != null && idBucketInsensitiveList != null)
@@ -3092,7 +3118,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         idBucket = new BucketDescription(idBucketList.get(0),isInsensitiveIdBucket);
 
-      long interval;
+      final long interval;
       List<String> intervalList = queryParameters.get("interval");
       if (intervalList == null || intervalList.size() == 0)
         interval = 300000L;
@@ -3100,26 +3126,30 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
         throw new ManifoldCFException("Multiple intervals specified.");
       else
         interval = new Long(intervalList.get(0)).longValue();
-        
-      try
+
+      // Reports answered from the history rollups don't depend on the number of history rows
+      if (!connectionManager.canUseHistoryRollups(filterCriteria,idBucket,interval))
       {
-        result = connectionManager.genHistoryActivityCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
+        long maxInterval = connectionManager.getMaxRows();
+        long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
+        if (actualRows > maxInterval)
+          throw new ManifoldCFException("Too many history rows specified for maxactivity report - actual is "+actualRows+", max is "+maxInterval+".");
       }
-      catch (ManifoldCFException e)
+        
+      query = new ReportQuery()
       {
-        createErrorNode(output,e);
-        return READRESULT_FOUND;
-      }
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return connectionManager.genHistoryActivityCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
+        }
+      };
       resultColumns = new String[]{"starttime","endtime","activitycount","idbucket"};
     }
     else if (reportType.equals("maxbandwidth"))
     {
-      long maxInterval = connectionManager.getMaxRows();
-      long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
-      if (actualRows > maxInterval)
-        throw new ManifoldCFException("Too many history rows specified for maxbandwidth report - actual is "+actualRows+", max is "+maxInterval+".");
-        
-      BucketDescription idBucket;
+      final BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
       if (idBucketList != null && idBucketInsensitiveList != null)
@@ -3139,7 +3169,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         idBucket = new BucketDescription(idBucketList.get(0),isInsensitiveIdBucket);
         
-      long interval;
+      final long interval;
       List<String> intervalList = queryParameters.get("interval");
       if (intervalList == null || intervalList.size() == 0)
         interval = 300000L;
@@ -3148,20 +3178,29 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         interval = new Long(intervalList.get(0)).longValue();
 
-      try
+      // Reports answered from the history rollups don't depend on the number of history rows
+      if (!connectionManager.canUseHistoryRollups(filterCriteria,idBucket,interval))
       {
-        result = connectionManager.genHistoryByteCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
+        long maxInterval = connectionManager.getMaxRows();
+        long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
+        if (actualRows > maxInterval)
+          throw new ManifoldCFException("Too many history rows specified for maxbandwidth report - actual is "+actualRows+", max is "+maxInterval+".");
       }
-      catch (ManifoldCFException e)
+
+      query = new ReportQuery()
       {
-        createErrorNode(output,e);
-        return READRESULT_FOUND;
-      }
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return connectionManager.genHistoryByteCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
+        }
+      };
       resultColumns = new String[]{"starttime","endtime","bytecount","idbucket"};
     }
     else if (reportType.equals("result"))
     {
-      BucketDescription idBucket;
+      final BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
       if (idBucketList != null && idBucketInsensitiveList != null)
@@ -3181,7 +3220,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         idBucket = new BucketDescription(idBucketList.get(0),isInsensitiveIdBucket);
 
-      BucketDescription resultCodeBucket;
+      final BucketDescription resultCodeBucket;
       List<String> resultCodeBucketList = queryParameters.get("resultcodebucket");
       List<String> resultCodeBucketInsensitiveList = queryParameters.get("resultcodebucket_insensitive");
       if (resultCodeBucketList != null && resultCodeBucketInsensitiveList != null)
@@ -3201,22 +3240,141 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         resultCodeBucket = new BucketDescription(resultCodeBucketList.get(0),isInsensitiveResultCodeBucket);
 
+      query = new ReportQuery()
+      {
+        @Override
+        public IResultSet getRows(int startRow, int rowCount)
+          throws ManifoldCFException
+        {
+          return connectionManager.genHistoryResultCodes(connectionName,filterCriteria,sortOrder,resultCodeBucket,idBucket,startRow,rowCount);
+        }
+      };
+      resultColumns = new String[]{"idbucket","resultcodebucket","eventcount"};
+    }
+    else
+      throw new ManifoldCFException("Unknown report type '"+reportType+"'.");
+
+    readReport(output,query,resultColumns,startRow,rowCount,fetchSize,reportOutput);
+    return READRESULT_FOUND;
+  }
+
+  /** Default number of rows read from the database at a time when report rows are streamed */
+  public static final int DEFAULT_REPORT_FETCH_SIZE = 10000;
+
+  /** A report query, which can be run for any range of rows. */
+  protected static abstract class ReportQuery
+  {
+    /** Get a range of rows.
+    *@param startRow is the first row (beginning with 0).
+    *@param rowCount is the maximum number of rows, or -1 for all of them.
+    */
+    public abstract IResultSet getRows(int startRow, int rowCount)
+      throws ManifoldCFException;
+
+    /** Get a range of rows as a cursor, which reads them in a single query as they are asked for.
+    * Reports whose rows are aggregated have to be read all at once anyway, and don't override this.
+    *@param startRow is the first row (beginning with 0).
+    *@param rowCount is the maximum number of rows, or -1 for all of them.
+    *@param fetchSize is the number of rows to read from the database at a time.
+    *@return the cursor, or null if the rows can only be had from getRows().
+    */
+    public IResultCursor getCursor(int startRow, int rowCount, int fetchSize)
+      throws ManifoldCFException
+    {
+      return null;
+    }
+  }
+
+  /** Get the fetch size for a report.  This matters only when report rows are streamed. */
+  protected static int getReportFetchSize(Map<String,List<String>> queryParameters)
+    throws ManifoldCFException
+  {
+    List<String> pageSizeList = queryParameters.get("pagesize");
+    if (pageSizeList == null || pageSizeList.size() == 0)
+      return DEFAULT_REPORT_FETCH_SIZE;
+    if (pageSizeList.size() > 1)
+      throw new ManifoldCFException("Multiple page sizes specified.");
+    int pageSize = new Integer(pageSizeList.get(0)).intValue();
+    if (pageSize <= 0)
+      throw new ManifoldCFException("Page size must be greater than zero.");
+    return pageSize;
+  }
+
+  /** Read a report's rows, either into the output object, or to the report output.
+  * Streamed rows are read from a single query, through a cursor where the report has one, so that only the rows
+  * being fetched are held in memory, and the rows written are those of one consistent result.
+  *@param output is the output object.
+  *@param query is the report query.
+  *@param resultColumns are the report's columns.
+  *@param startRow is the first row wanted.
+  *@param rowCount is the number of rows wanted, or -1 for all of them.
+  *@param fetchSize is the number of rows to read from the database at a time, when a cursor is used.
+  *@param reportOutput is the report output, or null if the rows should be added to the output object.
+  */
+  protected static void readReport(Configuration output, ReportQuery query, String[] resultColumns, int startRow, int rowCount,
+    int fetchSize, IReportOutput reportOutput)
+    throws ManifoldCFException
+  {
+    if (reportOutput == null)
+    {
+      IResultSet result;
       try
       {
-        result = connectionManager.genHistoryResultCodes(connectionName,filterCriteria,sortOrder,resultCodeBucket,idBucket,startRow,rowCount);
+        result = query.getRows(startRow,rowCount);
       }
       catch (ManifoldCFException e)
       {
         createErrorNode(output,e);
-        return READRESULT_FOUND;
+        return;
       }
-      resultColumns = new String[]{"idbucket","resultcodebucket","eventcount"};
+      createResultsetNode(output,result,resultColumns);
+      return;
     }
-    else
-      throw new ManifoldCFException("Unknown report type '"+reportType+"'.");
 
-    createResultsetNode(output,result,resultColumns);
-    return READRESULT_FOUND;
+    IResultCursor cursor;
+    IResultSet result = null;
+    try
+    {
+      cursor = query.getCursor(startRow,rowCount,fetchSize);
+      if (cursor == null)
+        result = query.getRows(startRow,rowCount);
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      createErrorNode(output,e);
+      return;
+    }
+
+    reportOutput.startRows(resultColumns);
+    if (cursor == null)
+    {
+      for (int i = 0; i < result.getRowCount(); i++)
+      {
+        reportOutput.writeRow(result.getRow(i));
+      }
+      return;
+    }
+
+    try
+    {
+      while (cursor.hasNext())
+      {
+        reportOutput.writeRow(cursor.next());
+      }
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      // Lands after any rows already written
+      createErrorNode(output,e);
+    }
+    finally
+    {
+      cursor.close();
+    }
   }
   
   /** Add a resultset node to the output. */
@@ -3286,6 +3444,20 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   */
   public static int executeReadCommand(IThreadContext tc, Configuration output, String path,
     Map<String,List<String>> queryParameters, IAuthorizer authorizer) throws ManifoldCFException
+  {
+    return executeReadCommand(tc,output,path,queryParameters,authorizer,null);
+  }
+
+  /** Execute specified read command, handing the rows of history and queue reports to a report output as they
+  * are read, rather than adding them to the output object.
+  *@param tc is the thread context.
+  *@param output is the output object, to be filled in.
+  *@param path is the object path.
+  *@param reportOutput receives report rows, or is null if they should be added to the output object.
+  *@return read status - either found, not found, or bad args
+  */
+  public static int executeReadCommand(IThreadContext tc, Configuration output, String path,
+    Map<String,List<String>> queryParameters, IAuthorizer authorizer, IReportOutput reportOutput) throws ManifoldCFException
   {
     if (path.equals("jobs"))
     {
@@ -3306,13 +3478,13 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     {
       int firstSeparator = "repositoryconnectionhistory/".length();
       String connectionName = decodeAPIPathElement(path.substring(firstSeparator));
-      return apiReadRepositoryConnectionHistory(tc,output,connectionName,queryParameters,authorizer);
+      return apiReadRepositoryConnectionHistory(tc,output,connectionName,queryParameters,authorizer,reportOutput);
     }
     else if (path.startsWith("repositoryconnectionqueue/"))
     {
       int firstSeparator = "repositoryconnectionqueue/".length();
       String connectionName = decodeAPIPathElement(path.substring(firstSeparator));
-      return apiReadRepositoryConnectionQueue(tc,output,connectionName,queryParameters,authorizer);
+      return apiReadRepositoryConnectionQueue(tc,output,connectionName,queryParameters,authorizer,reportOutput);
     }
     else if (path.startsWith("repositoryconnectionjobs/"))
     {
@@ -46,10 +46,10 @@ public class StufferThread extends Thread
   protected final WorkerResetManager resetManager;
   /** This is the lowest number of entries we want ot stuff at any one time */
   protected final int lowestStuffAmt;
-  /** This is the number of entries we want to stuff at any one time. */
-  protected int stuffAmt;
-  /** This is the low water mark for attempting to restuff */
+  /** This is the configured low water mark for attempting to restuff */
   protected final int lowWaterMark;
+  /** This decides the amount to stuff, and the low water mark actually used */
+  protected final StuffingController stuffingController;
   /** This is the queue tracker object. */
   protected final QueueTracker queueTracker;
   /** Blocking documents object. */
@@ -61,16 +61,17 @@ public class StufferThread extends Thread
   *@param documentQueue is the document queue we'll be stuffing.
   *@param n represents the number of threads that will be processing queued stuff, NOT the
   * number of documents to be done at once!
+  *@param adaptiveStuffing is true if the amount to stuff and the low water mark should follow the rate the queue drains.
   */
   public StufferThread(DocumentQueue documentQueue, int n, WorkerResetManager resetManager, QueueTracker qt,
-    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, String processID)
+    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, boolean adaptiveStuffing, String processID)
     throws ManifoldCFException
   {
     super();
     this.documentQueue = documentQueue;
     this.lowWaterMark = (int)(lowWaterFactor * (float)n);
     this.lowestStuffAmt = (int)(stuffSizeFactor * (float)n);
-    this.stuffAmt = lowestStuffAmt;
+    this.stuffingController = new StuffingController(lowWaterMark,lowestStuffAmt,adaptiveStuffing);
     this.resetManager = resetManager;
     this.queueTracker = qt;
     this.blockingDocuments = blockingDocuments;
@@ -82,6 +83,13 @@ public class StufferThread extends Thread
     setPriority(getPriority()+1);
   }
 
+  /** Get the object deciding how much to stuff, for its statistics.
+  */
+  public StuffingController getStuffingController()
+  {
+    return stuffingController;
+  }
+
   public void run()
   {
     resetManager.registerMe();
@@ -98,7 +106,15 @@ public class StufferThread extends Thread
 
       IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
       
-      Logging.threads.debug("Stuffer thread: Low water mark is "+Integer.toString(lowWaterMark)+"; amount per stuffing is "+Integer.toString(stuffAmt));
+      // In event-driven mode, we wait for the document queue to drain rather than polling it, and after
+      // the job queue turns out to be empty we wait for a new-work signal rather than rescanning it.
+      boolean eventDriven = NewWorkSignal.isEnabled(threadContext);
+      long maxIdleTime = LockManagerFactory.getLongProperty(threadContext,NewWorkSignal.maxIdleTimeProperty,60000L);
+      // Without it, the queue is checked once a second
+      stuffingController.setCheckInterval(eventDriven?0L:1000L);
+
+      Logging.threads.debug("Stuffer thread: Low water mark is "+Integer.toString(lowWaterMark)+"; amount per stuffing is "+Integer.toString(lowestStuffAmt)+
+        "; event-driven is "+(eventDriven?"on":"off")+"; adaptive stuffing is "+(stuffingController.adaptive?"on":"off"));
 
       // Hashmap keyed by jobid and containing ArrayLists.
       // This way we can guarantee priority will do the right thing, because the
@@ -114,11 +130,12 @@ public class StufferThread extends Thread
       // Cleared and reloaded on every batch of documents.
       Map<String,IRepositoryConnection> connectionMap = new HashMap<String,IRepositoryConnection>();
 
-      // Parameters we need in order to adjust the number of documents we fetch.  We base the number on how long it took to queue documents vs.
-      // how long it took to need to queue again.
-      long lastQueueStart = -1L;
-      long lastQueueEnd = -1L;
-      boolean lastQueueFullResults = false;
+      // Event-driven mode state: consecutive scans that found nothing, and the local and shared
+      // signal generations as of the start of the last scan.
+      int emptyScanCount = 0;
+      long scanGeneration = 0L;
+      long scanSharedGeneration = 0L;
+      boolean resumingFromIdle = false;
 
       // Loop
       while (true)
@@ -134,27 +151,33 @@ public class StufferThread extends Thread
 
           // System.out.println("Waiting...");
           // Wait until queue is below low water mark.
-          boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
-          if (isEmpty == false)
+          if (eventDriven)
           {
-            ManifoldCF.sleep(1000L);
-            continue;
+            if (documentQueue.waitForEmpty(stuffingController.getLowWaterMark(),1000L) == false)
+              continue;
+          }
+          else
+          {
+            boolean isEmpty = documentQueue.checkIfEmpty(stuffingController.getLowWaterMark());
+            if (isEmpty == false)
+            {
+              ManifoldCF.sleep(1000L);
+              continue;
+            }
           }
           long queueNeededTime = System.currentTimeMillis();
 
           Logging.threads.debug("Document stuffer thread woke up");
 
-          // Adjust stuffAmt based on how well we did in the last queuing attempt keeping up with the worker threads.
-          if (lastQueueFullResults)
+          // Adjust the amount to stuff based on how well we did in the last queuing attempt keeping up with the worker threads.
+          stuffingController.noteQueueNeeded(queueNeededTime,documentQueue.getDocumentsPulled(),documentQueue.getSetsPulled(),
+            documentQueue.getEmptyTime());
+          int stuffAmt = stuffingController.getStuffAmount();
+          if (Logging.threads.isDebugEnabled())
           {
-            if (lastQueueEnd - lastQueueStart >= queueNeededTime - lastQueueEnd)
-              stuffAmt *= 2;
-            else if (lastQueueEnd - lastQueueStart < 4 * (queueNeededTime - lastQueueEnd))
-            {
-              stuffAmt /= 2;
-              if (stuffAmt < lowestStuffAmt)
-                stuffAmt = lowestStuffAmt;
-            }
+            Logging.threads.debug("Stuffer thread: Stuffing "+stuffAmt+" documents; low water mark is "+stuffingController.getLowWaterMark()+
+              "; drain rate is "+stuffingController.getDrainRate()+" documents/sec; round time is "+stuffingController.getRoundTime()+
+              " ms; queue empty for "+stuffingController.getQueueEmptyTime()+" ms so far");
           }
 
           // What we want to do is load enough documents to completely fill n queued document sets.
@@ -173,6 +196,11 @@ public class StufferThread extends Thread
           {
             stuffingStartTime = readLastTime(lockManager);
             stuffingEndTime = System.currentTimeMillis();
+            // If nobody has stuffed while we were idle, the interval could be very long, which would
+            // let too many documents past the throttles.  Limit it to what a polling stuffer would have seen.
+            if (resumingFromIdle && stuffingEndTime - stuffingStartTime > 2000L)
+              stuffingStartTime = stuffingEndTime - 2000L;
+            resumingFromIdle = false;
             // Set the last time to be the current time
             writeLastTime(lockManager,stuffingEndTime);
           }
@@ -181,12 +209,18 @@ public class StufferThread extends Thread
             lockManager.leaveWriteLock(stufferThreadLockName);
           }
 
-          lastQueueStart = System.currentTimeMillis();
+          if (eventDriven)
+          {
+            // Anything signaled from here on must trigger another scan
+            scanGeneration = NewWorkSignal.getGeneration();
+            scanSharedGeneration = NewWorkSignal.getSharedGeneration(lockManager);
+          }
+
+          long queueStart = System.currentTimeMillis();
           DepthStatistics depthStatistics = new DepthStatistics();
           DocumentDescription[] descs = jobManager.getNextDocuments(processID,stuffAmt,stuffingEndTime,stuffingEndTime-stuffingStartTime,
             blockingDocuments,queueTracker.getCurrentStatistics(),depthStatistics);
-          lastQueueEnd = System.currentTimeMillis();
-          lastQueueFullResults = (descs.length == stuffAmt);
+          stuffingController.noteQuery(queueStart,System.currentTimeMillis(),descs.length);
           
           // Assess what we've done.
           rt.assessMinimumDepth(depthStatistics.getBins());
@@ -203,9 +237,19 @@ public class StufferThread extends Thread
           // The theory is that we need to allow stuff to accumulate.
           if (descs.length == 0)
           {
-            ManifoldCF.sleep(2000L);       // 2 seconds
+            emptyScanCount++;
+            // Signals are sent after commit, but a scan may still have just missed the work that
+            // was signaled, so don't go idle until we see two empty scans in a row.
+            if (eventDriven && emptyScanCount >= 2)
+            {
+              waitForNewWork(lockManager,scanGeneration,scanSharedGeneration,maxIdleTime);
+              resumingFromIdle = true;
+            }
+            else
+              ManifoldCF.sleep(2000L);       // 2 seconds
             continue;
           }
+          emptyScanCount = 0;
 
           // if (Logging.threads.isDebugEnabled())
           //      Logging.threads.debug("Found "+Integer.toString(descs.length)+" documents to stuff");
@@ -411,6 +455,7 @@ public class StufferThread extends Thread
               documentSets.remove(jobID);
             }
           }
+          stuffingController.noteRoundComplete(System.currentTimeMillis());
 
           // If we don't wait here, the other threads don't seem to have a chance to queue anything else up.
           //Thread.yield();
@@ -473,6 +518,40 @@ public class StufferThread extends Thread
     }
   }
 
+  /** Wait, in event-driven mode, until there may be new work on the job queue.  This returns
+  * when a new-work signal arrives, or when the maximum idle time has passed.
+  *@param lockManager is the lock manager.
+  *@param scanGeneration is the local signal generation as of the start of the last scan.
+  *@param scanSharedGeneration is the shared signal generation as of the start of the last scan.
+  *@param maxIdleTime is the maximum time to wait, in milliseconds.
+  */
+  protected static void waitForNewWork(ILockManager lockManager, long scanGeneration, long scanSharedGeneration, long maxIdleTime)
+    throws ManifoldCFException, InterruptedException
+  {
+    long idleStart = System.currentTimeMillis();
+    boolean signaled = false;
+    while (true)
+    {
+      long remaining = idleStart + maxIdleTime - System.currentTimeMillis();
+      if (remaining <= 0L)
+        break;
+      // Check for cross-process signals at least once a second
+      if (NewWorkSignal.waitForSignal(lockManager,scanGeneration,scanSharedGeneration,Math.min(remaining,1000L)))
+      {
+        signaled = true;
+        break;
+      }
+    }
+    // A polling stuffer would have rescanned every two seconds during this time
+    long idleTime = System.currentTimeMillis() - idleStart;
+    NewWorkSignal.noteEmptyScansAvoided(idleTime / 2000L);
+    if (Logging.threads.isDebugEnabled())
+    {
+      Logging.threads.debug("Stuffer thread: Idle for "+idleTime+" ms; "+(signaled?"woken by new-work signal":"maximum idle time reached")+
+        "; empty scans avoided so far: "+NewWorkSignal.getEmptyScansAvoided()+"; signal wakeups so far: "+NewWorkSignal.getSignalWakeups());
+    }
+  }
+
   protected static long readLastTime(ILockManager lockManager)
     throws ManifoldCFException
   {
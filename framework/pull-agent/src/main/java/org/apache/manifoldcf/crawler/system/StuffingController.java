@@ -0,0 +1,238 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+/** This class decides how many documents the stuffer thread asks for in each round, and how low the document
+* queue must fall before the next round starts.
+*
+* Without adaptive stuffing, the low-water mark is fixed, and the amount doubles or halves depending on how long
+* the last query took compared with how long the queued documents lasted.
+*
+* With adaptive stuffing, both are derived from the rate at which workers drain the document queue and from how
+* long a stuffing round takes.  The low-water mark is set so that the documents left when the queue is next
+* checked last until the round that check starts completes; the amount is set so that the documents fetched last
+* about a second, and no longer, since fetched documents stay active in the job queue until they are processed.
+* Whenever workers found the queue empty since the previous round, the low-water mark is boosted, and the boost
+* decays again once they don't.
+*
+* All times are passed in, rather than read from the clock, so that this class can be driven by a simulation.
+* Only the stuffer thread may note events, but the getters may be called from any thread.
+*/
+public class StuffingController
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The time, in milliseconds, that one round's documents should last */
+  protected static final long cycleTime = 1000L;
+  /** Growth of the boost each time workers are found to have waited */
+  protected static final double boostGrowth = 1.5;
+  /** Decay of the boost each time workers are found not to have waited */
+  protected static final double boostDecay = 0.8;
+  /** Largest boost */
+  protected static final double maximumBoost = 4.0;
+  /** Weight of the newest sample in the running averages */
+  protected static final double sampleWeight = 0.5;
+
+  protected final boolean adaptive;
+  protected final int configuredLowWaterMark;
+  protected final int lowestStuffAmt;
+  protected final int highestStuffAmt;
+  protected final int highestLowWaterMark;
+
+  protected volatile int stuffAmt;
+  protected volatile int lowWaterMark;
+
+  // How long the queue may stay below the low-water mark before the stuffer notices, in ms
+  protected long checkInterval = 0L;
+
+  // The last round
+  protected long lastWakeTime = -1L;
+  protected long lastQueueStart = -1L;
+  protected long lastQueueEnd = -1L;
+  protected boolean lastQueueFullResults = false;
+
+  // The document queue's counters as of the last wake
+  protected long lastDocumentsPulled = 0L;
+  protected long lastSetsPulled = 0L;
+  protected long lastEmptyTime = 0L;
+
+  // Running estimates; negative when unknown
+  protected volatile double drainRate = -1.0;
+  protected double setSize = 1.0;
+  protected volatile double roundTime = -1.0;
+  protected volatile double boost = 1.0;
+  protected volatile long emptyTimeSeen = 0L;
+
+  /** Constructor.
+  *@param lowWaterMark is the configured low-water mark, in document sets.
+  *@param lowestStuffAmt is the configured (and smallest) number of documents to ask for.
+  *@param adaptive is true if the amounts should adapt to the rate the queue drains.
+  */
+  public StuffingController(int lowWaterMark, int lowestStuffAmt, boolean adaptive)
+  {
+    this.adaptive = adaptive;
+    this.configuredLowWaterMark = Math.max(1,lowWaterMark);
+    this.lowestStuffAmt = Math.max(1,lowestStuffAmt);
+    this.highestStuffAmt = this.lowestStuffAmt * 64;
+    this.highestLowWaterMark = this.configuredLowWaterMark * 16;
+    this.stuffAmt = this.lowestStuffAmt;
+    this.lowWaterMark = this.configuredLowWaterMark;
+  }
+
+  /** Set how long the queue may stay below the low-water mark before the stuffer notices.
+  *@param checkInterval is the interval, in milliseconds; zero if the stuffer is woken as soon as it happens.
+  */
+  public void setCheckInterval(long checkInterval)
+  {
+    this.checkInterval = checkInterval;
+  }
+
+  /** Get the number of documents to ask for in the next round. */
+  public int getStuffAmount()
+  {
+    return stuffAmt;
+  }
+
+  /** Get the number of queued document sets at or below which the next round should start. */
+  public int getLowWaterMark()
+  {
+    return lowWaterMark;
+  }
+
+  /** Get the estimated rate at which workers take documents, in documents per second, or a negative value
+  * if it isn't known yet. */
+  public double getDrainRate()
+  {
+    double rate = drainRate;
+    return (rate < 0.0)?rate:rate * 1000.0;
+  }
+
+  /** Get the estimated time a stuffing round takes, in milliseconds, or a negative value if it isn't known yet. */
+  public double getRoundTime()
+  {
+    return roundTime;
+  }
+
+  /** Get the total time, in milliseconds, that workers have found the document queue empty, as of the last round. */
+  public long getQueueEmptyTime()
+  {
+    return emptyTimeSeen;
+  }
+
+  /** Get the current boost factor. */
+  public double getBoost()
+  {
+    return boost;
+  }
+
+  /** Note that the document queue has fallen to the low-water mark, and a round is starting.  This is when the
+  * amounts for the round are decided.
+  *@param currentTime is the current time.
+  *@param documentsPulled is the total number of documents workers have taken from the queue.
+  *@param setsPulled is the total number of document sets workers have taken from the queue.
+  *@param emptyTime is the total time workers have found the queue empty.
+  */
+  public void noteQueueNeeded(long currentTime, long documentsPulled, long setsPulled, long emptyTime)
+  {
+    if (!adaptive)
+    {
+      // Base the amount on how long it took to queue documents vs. how long it took to need to queue again.
+      if (lastQueueFullResults)
+      {
+        if (lastQueueEnd - lastQueueStart >= currentTime - lastQueueEnd)
+          stuffAmt *= 2;
+        else if (lastQueueEnd - lastQueueStart < 4 * (currentTime - lastQueueEnd))
+        {
+          stuffAmt /= 2;
+          if (stuffAmt < lowestStuffAmt)
+            stuffAmt = lowestStuffAmt;
+        }
+      }
+    }
+    else
+    {
+      if (lastWakeTime >= 0L && currentTime > lastWakeTime)
+      {
+        double sample = (double)(documentsPulled - lastDocumentsPulled) / (double)(currentTime - lastWakeTime);
+        drainRate = (drainRate < 0.0)?sample:(sampleWeight * sample + (1.0 - sampleWeight) * drainRate);
+        if (setsPulled > lastSetsPulled)
+        {
+          double setSample = (double)(documentsPulled - lastDocumentsPulled) / (double)(setsPulled - lastSetsPulled);
+          setSize = sampleWeight * setSample + (1.0 - sampleWeight) * setSize;
+        }
+        if (emptyTime > lastEmptyTime)
+          boost = Math.min(maximumBoost,boost * boostGrowth);
+        else
+          boost = Math.max(1.0,boost * boostDecay);
+      }
+
+      if (drainRate > 0.0 && roundTime >= 0.0)
+      {
+        // What's left when the queue is checked must last until the round's documents arrive
+        double lowWaterDocuments = drainRate * ((double)checkInterval + roundTime) * boost;
+        lowWaterMark = clamp((int)Math.ceil(lowWaterDocuments / Math.max(1.0,setSize)),1,highestLowWaterMark);
+
+        // Larger rounds would only keep documents waiting longer; the low-water mark covers the round time
+        int amount = clamp((int)Math.ceil(drainRate * (double)cycleTime),lowestStuffAmt,highestStuffAmt);
+        // If the last round got less than it asked for, asking for more won't help
+        if (!lastQueueFullResults && amount > stuffAmt)
+          amount = stuffAmt;
+        stuffAmt = amount;
+      }
+    }
+    lastWakeTime = currentTime;
+    lastDocumentsPulled = documentsPulled;
+    lastSetsPulled = setsPulled;
+    lastEmptyTime = emptyTime;
+    emptyTimeSeen = emptyTime;
+  }
+
+  /** Note the query for documents.
+  *@param queryStart is when the query started.
+  *@param queryEnd is when the query finished.
+  *@param found is the number of documents found.
+  */
+  public void noteQuery(long queryStart, long queryEnd, int found)
+  {
+    lastQueueStart = queryStart;
+    lastQueueEnd = queryEnd;
+    lastQueueFullResults = (found == stuffAmt);
+  }
+
+  /** Note that the round's documents have all been queued.
+  *@param currentTime is the current time.
+  */
+  public void noteRoundComplete(long currentTime)
+  {
+    if (lastWakeTime < 0L)
+      return;
+    double sample = (double)(currentTime - lastWakeTime);
+    roundTime = (roundTime < 0.0)?sample:(sampleWeight * sample + (1.0 - sampleWeight) * roundTime);
+  }
+
+  protected static int clamp(int value, int lowest, int highest)
+  {
+    if (value < lowest)
+      return lowest;
+    if (value > highest)
+      return highest;
+    return value;
+  }
+
+}
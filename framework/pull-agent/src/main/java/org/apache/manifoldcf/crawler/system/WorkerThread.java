@@ -442,6 +442,22 @@ public class WorkerThread extends Thread
                           e.getMessage());
                       }
 
+                      // Documents the output connectors have yet to acknowledge are not done; wait for them.
+                      // Only the documents that failed are retried.
+                      Set<String> failedIngestions = ingester.flushPendingIngestions();
+                      ServiceInterruption ingestInterruption = null;
+                      if (failedIngestions.size() > 0)
+                      {
+                        long failureTime = System.currentTimeMillis();
+                        ingestInterruption = new ServiceInterruption("Output connection did not take document",null,
+                          failureTime + 60000L,
+                          failureTime + 2L * 60L * 60000L,
+                          -1,
+                          true);
+                        Logging.jobs.warn("Output connection did not take "+failedIngestions.size()+" document(s) for job "+
+                          job.getID()+"; retrying them");
+                      }
+
                       // Flush remaining references into the database!
                       activity.flush();
 
@@ -451,6 +467,7 @@ public class WorkerThread extends Thread
                       // Either way, handle the documents we were supposed to process.  But if there was a service interruption,
                       // and the disposition of the document was unclear, then the document will need to be requeued instead of handled normally.
                       List<QueuedDocument> requeueList = new ArrayList<QueuedDocument>();
+                      List<QueuedDocument> ingestRequeueList = new ArrayList<QueuedDocument>();
 
                       for (QueuedDocument qd : activeDocuments)
                       {
@@ -472,21 +489,23 @@ public class WorkerThread extends Thread
                             Logging.threads.debug(" Adding "+qd.getDocumentDescription().getID()+" to deleteList");
                           deleteList.add(qd);
                         }
-                        else if (serviceInterruption != null)
+                        else if (serviceInterruption != null ||
+                          failedIngestions.contains(qd.getDocumentDescription().getDocumentIdentifierHash()))
                         {
 
                           // Service interruption has precedence over unchanged, because we might have been interrupted while scanning the document
-                          // for references
+                          // for references.  A document an output connection didn't take is treated the same way, on its own.
+                          ServiceInterruption documentInterruption = (serviceInterruption != null)?serviceInterruption:ingestInterruption;
                           DocumentDescription dd = qd.getDocumentDescription();
                           // Check for hard failure.  But no hard failure possible of it's a job inactive abort.
-                          if (!serviceInterruption.jobInactiveAbort() && (dd.getFailTime() != -1L && dd.getFailTime() < serviceInterruption.getRetryTime() ||
+                          if (!documentInterruption.jobInactiveAbort() && (dd.getFailTime() != -1L && dd.getFailTime() < documentInterruption.getRetryTime() ||
                             dd.getFailRetryCount() == 0))
                           {
                             // Treat this as a hard failure.
-                            if (serviceInterruption.isAbortOnFail())
+                            if (documentInterruption.isAbortOnFail())
                             {
                               // Make sure that the job aborts.
-                              abortOnFail = new ManifoldCFException("Repeated service interruptions - failure processing document"+((serviceInterruption.getCause()!=null)?": "+serviceInterruption.getCause().getMessage():""),serviceInterruption.getCause());
+                              abortOnFail = new ManifoldCFException("Repeated service interruptions - failure processing document"+((documentInterruption.getCause()!=null)?": "+documentInterruption.getCause().getMessage():""),documentInterruption.getCause());
                               if (Logging.threads.isDebugEnabled())
                                 Logging.threads.debug(" Adding "+qd.getDocumentDescription().getID()+" to rescanList due to service interruption");
                               rescanList.add(qd);
@@ -507,7 +526,10 @@ public class WorkerThread extends Thread
                             // Not a hard failure.  Requeue.
                             if (Logging.threads.isDebugEnabled())
                               Logging.threads.debug(" Adding "+qd.getDocumentDescription().getID()+" to requeueList");
-                            requeueList.add(qd);
+                            if (serviceInterruption != null)
+                              requeueList.add(qd);
+                            else
+                              ingestRequeueList.add(qd);
                           }
                         }
                         else
@@ -535,6 +557,13 @@ public class WorkerThread extends Thread
                         requeueDocuments(jobManager,requeueList,serviceInterruption.getRetryTime(),serviceInterruption.getFailTime(),
                           serviceInterruption.getFailRetryCount());
                       }
+                      if (ingestInterruption != null)
+                      {
+                        if (Logging.threads.isDebugEnabled())
+                          Logging.threads.debug("Requeuing documents "+makeListString(ingestRequeueList));
+                        requeueDocuments(jobManager,ingestRequeueList,ingestInterruption.getRetryTime(),ingestInterruption.getFailTime(),
+                          ingestInterruption.getFailRetryCount());
+                      }
                       
                       // Note the documents that have been checked but not reingested.  This should happen BEFORE we need
                       // the statistics (which are calculated during the finishlist step below)
@@ -726,6 +755,8 @@ public class WorkerThread extends Thread
                     {
                       // Make sure we don't leave any dangling carrydown files
                       activity.discard();
+                      // Nor acknowledgements that would be charged to the next set of documents
+                      ingester.discardPendingIngestions();
                     }
                     
                     // Successful processing of the set
@@ -0,0 +1,87 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestAuthorityStatistics
+{
+
+  @Test
+  public void testPercentiles()
+  {
+    String name = "testPercentiles";
+    assertEquals(-1.0,AuthorityStatistics.getPercentile(name,0.5),0.0);
+    // 98 fast requests at 1ms, two slow ones at 500ms
+    for (int i = 0; i < 98; i++)
+    {
+      AuthorityStatistics.recordLatency(name,1000000L);
+    }
+    AuthorityStatistics.recordLatency(name,500000000L);
+    AuthorityStatistics.recordLatency(name,500000000L);
+    assertEquals(100L,AuthorityStatistics.getCount(name));
+    double p50 = AuthorityStatistics.getPercentile(name,0.5);
+    double p99 = AuthorityStatistics.getPercentile(name,0.99);
+    assertTrue("p50 was "+p50,p50 >= 1.0 && p50 < 1.3);
+    assertTrue("p99 was "+p99,p99 >= 500.0 && p99 < 650.0);
+  }
+
+  @Test
+  public void testBucketBounds()
+  {
+    // Every value must fall at or under the upper bound of its bucket, and above the one before
+    for (long micros = 1L; micros < 100000000L; micros = micros * 3L / 2L + 1L)
+    {
+      int index = AuthorityStatistics.LatencyHistogram.bucketIndex(micros);
+      assertTrue(micros <= AuthorityStatistics.LatencyHistogram.bucketUpperBound(index));
+      if (index > 0)
+        assertTrue(micros >= AuthorityStatistics.LatencyHistogram.bucketUpperBound(index-1));
+    }
+  }
+
+  @Test
+  public void testRunWhenComplete()
+  {
+    final List<String> ran = new ArrayList<String>();
+    MappingRequest mr = new MappingRequest(null,"test");
+    mr.runWhenComplete(new Runnable()
+      {
+        public void run()
+        {
+          ran.add("first");
+        }
+      });
+    assertTrue(ran.isEmpty());
+    mr.completeRequest("mapped",null);
+    assertEquals(Arrays.asList("first"),ran);
+    // Once complete, actions run right away
+    mr.runWhenComplete(new Runnable()
+      {
+        public void run()
+        {
+          ran.add("second");
+        }
+      });
+    assertEquals(Arrays.asList("first","second"),ran);
+    assertEquals("mapped",mr.getAnswerResponse());
+  }
+
+}
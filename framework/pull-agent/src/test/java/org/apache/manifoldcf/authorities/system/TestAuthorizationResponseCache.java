@@ -0,0 +1,110 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.CacheKeyFactory;
+import org.apache.manifoldcf.authorities.authority.AuthorityConnection;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** The cache manager needs the ManifoldCF environment, which is why this extends BaseHSQLDB.
+*/
+public class TestAuthorizationResponseCache extends BaseHSQLDB
+{
+
+  @Test
+  public void testDisabled()
+  {
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(0L,1000);
+    assertNull(cache.makeDescription(makeConnection("conn"),"user"));
+  }
+
+  @Test
+  public void testInvalidation()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    ICacheManager cacheManager = CacheManagerFactory.make(tc);
+    AuthorizationResponseCache cache = new AuthorizationResponseCache(60000L,1000);
+    IAuthorityConnection connection = makeConnection("conn");
+    AuthorizationResponse response = new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK);
+
+    assertNull(lookupOrSave(cacheManager,cache.makeDescription(connection,"user"),response));
+    assertSame(response,lookupOrSave(cacheManager,cache.makeDescription(connection,"user"),null));
+    // Another user, or the same user in another connection, is a different entry
+    assertNull(lookupOrSave(cacheManager,cache.makeDescription(connection,"other"),null));
+    assertNull(lookupOrSave(cacheManager,cache.makeDescription(makeConnection("conn2"),"user"),null));
+
+    // Saving the connection invalidates this key, which must discard the cached response
+    StringSetBuffer ssb = new StringSetBuffer();
+    ssb.add(CacheKeyFactory.makeAuthorityConnectionKey("conn"));
+    ICacheHandle ch = cacheManager.enterCache(null,new StringSet(ssb),null);
+    try
+    {
+      cacheManager.invalidateKeys(ch);
+    }
+    finally
+    {
+      cacheManager.leaveCache(ch);
+    }
+    assertNull(lookupOrSave(cacheManager,cache.makeDescription(connection,"user"),null));
+  }
+
+  protected static IAuthorityConnection makeConnection(String name)
+  {
+    AuthorityConnection connection = new AuthorityConnection();
+    connection.setName(name);
+    connection.setAuthGroup("group");
+    connection.setAuthDomain("");
+    return connection;
+  }
+
+  /** Look up a response, saving the given one if it is not found.
+  *@return the response that was found, or null.
+  */
+  protected static AuthorizationResponse lookupOrSave(ICacheManager cacheManager, ICacheDescription objectDescription,
+    AuthorizationResponse toSave)
+    throws ManifoldCFException
+  {
+    ICacheHandle ch = cacheManager.enterCache(new ICacheDescription[]{objectDescription},null,null);
+    try
+    {
+      ICacheCreateHandle createHandle = cacheManager.enterCreateSection(ch);
+      try
+      {
+        AuthorizationResponse rval = (AuthorizationResponse)cacheManager.lookupObject(createHandle,objectDescription);
+        if (rval == null && toSave != null)
+          cacheManager.saveObject(createHandle,objectDescription,toSave);
+        return rval;
+      }
+      finally
+      {
+        cacheManager.leaveCreateSection(createHandle);
+      }
+    }
+    finally
+    {
+      cacheManager.leaveCache(ch);
+    }
+  }
+
+}
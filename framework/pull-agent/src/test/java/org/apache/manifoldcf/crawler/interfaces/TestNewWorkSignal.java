@@ -0,0 +1,93 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.lockmanager.BaseLockManager;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestNewWorkSignal
+{
+
+  @Test
+  public void testEveryStufferSeesSharedSignal()
+    throws Exception
+  {
+    ILockManager lockManager = new BaseLockManager();
+    // Two stuffers in other processes record the shared generation before their scans.  Passing the
+    // current local generation leaves only the shared generation to wake them.
+    long firstShared = NewWorkSignal.getSharedGeneration(lockManager);
+    long secondShared = NewWorkSignal.getSharedGeneration(lockManager);
+    assertFalse(NewWorkSignal.waitForSignal(lockManager,NewWorkSignal.getGeneration(),firstShared,10L));
+
+    NewWorkSignal.signalNewWork(lockManager);
+
+    // The first one noticing the signal does not hide it from the second
+    assertTrue(NewWorkSignal.waitForSignal(lockManager,NewWorkSignal.getGeneration(),firstShared,0L));
+    assertTrue(NewWorkSignal.waitForSignal(lockManager,NewWorkSignal.getGeneration(),secondShared,0L));
+
+    // Once they have rescanned, they wait again
+    long rescanShared = NewWorkSignal.getSharedGeneration(lockManager);
+    assertFalse(NewWorkSignal.waitForSignal(lockManager,NewWorkSignal.getGeneration(),rescanShared,10L));
+  }
+
+  @Test
+  public void testConcurrentSignalsBumpSharedGeneration()
+    throws Exception
+  {
+    final ILockManager lockManager = new BaseLockManager();
+    long before = NewWorkSignal.getSharedGeneration(lockManager);
+    final List<Throwable> thrown = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              for (int j = 0; j < 100; j++)
+              {
+                NewWorkSignal.signalNewWork(lockManager);
+              }
+            }
+            catch (Throwable e)
+            {
+              thrown.add(e);
+            }
+          }
+        };
+      threads[i].start();
+    }
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    assertEquals(0,thrown.size());
+    // Signals sent while another thread was bumping are folded together, but never lost
+    long after = NewWorkSignal.getSharedGeneration(lockManager);
+    assertTrue(after > before);
+    assertTrue(after - before <= 800L);
+  }
+
+}
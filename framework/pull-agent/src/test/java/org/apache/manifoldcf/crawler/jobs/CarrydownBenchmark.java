@@ -0,0 +1,227 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.util.*;
+
+/** Measures recording carrydown data, with values kept in each row and with values kept once per job.
+* Each parent, like a feed, carries the same value (e.g. a title or an acl) down to all of its children.
+* The children are then recorded again with changed values, as by a continuous job, to show that the values
+* no longer referred to are removed as the parents are finished.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.jobs.CarrydownBenchmark [children] [children per parent] [value length]
+*/
+public class CarrydownBenchmark
+{
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int childCount = (args.length > 0)?Integer.parseInt(args[0]):1000000;
+    int childrenPerParent = (args.length > 1)?Integer.parseInt(args[1]):10000;
+    int valueLength = (args.length > 2)?Integer.parseInt(args[2]):500;
+
+    System.out.println("Children: "+childCount+", children per parent: "+childrenPerParent+", value length: "+valueLength);
+    for (boolean deduplicate : new boolean[]{false,true})
+    {
+      HSQLDBSetup setup = new HSQLDBSetup(deduplicate);
+      setup.setUp();
+      try
+      {
+        run(deduplicate,childCount,childrenPerParent,valueLength);
+      }
+      finally
+      {
+        setup.cleanUp();
+      }
+    }
+  }
+
+  protected static void run(boolean deduplicate, int childCount, int childrenPerParent, int valueLength)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    Long jobID = TestCarrydownValues.createJob(tc);
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Carrydown carrydown = new Carrydown(tc,database);
+
+    long recordTime = record(database,carrydown,jobID,childCount,childrenPerParent,valueLength,0);
+    long restoreTime = restore(database,carrydown,jobID,childCount,childrenPerParent);
+
+    // Storage: the value characters held in each table
+    ArrayList list = new ArrayList();
+    list.add(jobID);
+    long inlineRows = database.performQuery("SELECT "+Carrydown.childIDHashField+" FROM "+carrydown.getTableName()+" WHERE "+
+      Carrydown.jobIDField+"=? AND "+Carrydown.dataValueField+" IS NOT NULL",list,null,null).getRowCount();
+    long valueRows = database.performQuery("SELECT "+CarrydownValues.dataValueHashField+" FROM carrydownvalues WHERE "+
+      CarrydownValues.jobIDField+"=?",list,null,null).getRowCount();
+
+    // Reading a child's values back
+    long startTime = System.currentTimeMillis();
+    Random random = new Random(1L);
+    int readCount = 10000;
+    for (int i = 0; i < readCount; i++)
+    {
+      String child = ManifoldCF.hash("http://www.example.com/item/"+random.nextInt(childCount));
+      if (carrydown.getDataValues(jobID,child,"acl").length != 1)
+        throw new Exception("Missing value for child");
+    }
+    long readTime = System.currentTimeMillis() - startTime;
+
+    System.out.println((deduplicate?"values once per job":"values in each row")+": recorded "+childCount+" rows in "+recordTime+
+      " ms ("+((long)childCount * 1000L / Math.max(1L,recordTime))+" rows/sec); value characters stored: "+
+      ((inlineRows + valueRows) * valueLength)+" ("+inlineRows+" inline, "+valueRows+" shared); "+readCount+" reads in "+readTime+" ms");
+
+    // The job runs again and every parent's value has changed; the old values must not pile up
+    long rerecordTime = record(database,carrydown,jobID,childCount,childrenPerParent,valueLength,1);
+    long rerestoreTime = restore(database,carrydown,jobID,childCount,childrenPerParent);
+    valueRows = database.performQuery("SELECT "+CarrydownValues.dataValueHashField+" FROM carrydownvalues WHERE "+
+      CarrydownValues.jobIDField+"=?",list,null,null).getRowCount();
+    System.out.println((deduplicate?"values once per job":"values in each row")+": parents finished in "+restoreTime+
+      " ms; changed values recorded in "+rerecordTime+" ms ("+((long)childCount * 1000L / Math.max(1L,rerecordTime))+
+      " rows/sec), parents finished again in "+rerestoreTime+" ms; shared values left: "+valueRows);
+  }
+
+  /** Record every parent's children, the way workers would, a batch at a time.
+  *@return the elapsed time in ms.
+  */
+  protected static long record(IDBInterface database, Carrydown carrydown, Long jobID, int childCount, int childrenPerParent,
+    int valueLength, int version)
+    throws ManifoldCFException
+  {
+    int batchSize = 100;
+    long startTime = System.currentTimeMillis();
+    int childNumber = 0;
+    int parentNumber = 0;
+    while (childNumber < childCount)
+    {
+      String parent = ManifoldCF.hash("http://www.example.com/feed/"+parentNumber);
+      String value = makeValue(parentNumber,version,valueLength);
+      String valueHash = ManifoldCF.hash(value);
+      int parentEnd = Math.min(childCount,childNumber + childrenPerParent);
+      while (childNumber < parentEnd)
+      {
+        int count = Math.min(batchSize,parentEnd - childNumber);
+        String[] children = new String[count];
+        String[][] dataNames = new String[count][];
+        String[][][] dataValueHashes = new String[count][][];
+        Object[][][] dataValues = new Object[count][][];
+        for (int i = 0; i < count; i++)
+        {
+          children[i] = ManifoldCF.hash("http://www.example.com/item/"+(childNumber + i));
+          dataNames[i] = new String[]{"acl"};
+          dataValueHashes[i] = new String[][]{new String[]{valueHash}};
+          dataValues[i] = new Object[][]{new Object[]{value}};
+        }
+        database.beginTransaction();
+        try
+        {
+          carrydown.recordCarrydownDataMultiple(jobID,parent,children,dataNames,dataValueHashes,dataValues,"A");
+        }
+        catch (ManifoldCFException e)
+        {
+          database.signalRollback();
+          throw e;
+        }
+        catch (Error e)
+        {
+          database.signalRollback();
+          throw e;
+        }
+        finally
+        {
+          database.endTransaction();
+        }
+        childNumber += count;
+      }
+      parentNumber++;
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  /** Finish every parent, the way a worker does once a parent has been processed.
+  *@return the elapsed time in ms.
+  */
+  protected static long restore(IDBInterface database, Carrydown carrydown, Long jobID, int childCount, int childrenPerParent)
+    throws ManifoldCFException
+  {
+    long startTime = System.currentTimeMillis();
+    int parentCount = (childCount + childrenPerParent - 1) / childrenPerParent;
+    for (int parentNumber = 0; parentNumber < parentCount; parentNumber++)
+    {
+      database.beginTransaction();
+      try
+      {
+        carrydown.restoreRecords(jobID,new String[]{ManifoldCF.hash("http://www.example.com/feed/"+parentNumber)});
+      }
+      catch (ManifoldCFException e)
+      {
+        database.signalRollback();
+        throw e;
+      }
+      catch (Error e)
+      {
+        database.signalRollback();
+        throw e;
+      }
+      finally
+      {
+        database.endTransaction();
+      }
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  protected static String makeValue(int parentNumber, int version, int valueLength)
+  {
+    StringBuilder sb = new StringBuilder("Feed "+parentNumber+" version "+version+": ");
+    while (sb.length() < valueLength)
+    {
+      sb.append((char)('a' + (sb.length() % 26)));
+    }
+    return sb.toString();
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+    protected final boolean deduplicate;
+
+    public HSQLDBSetup(boolean deduplicate)
+    {
+      this.deduplicate = deduplicate;
+    }
+
+    @Override
+    protected void writeProperties(StringBuilder output)
+      throws Exception
+    {
+      super.writeProperties(output);
+      output.append(
+        "  <property name=\""+Carrydown.deduplicateValuesProperty+"\" value=\""+deduplicate+"\"/>\n"
+      );
+    }
+  }
+
+}
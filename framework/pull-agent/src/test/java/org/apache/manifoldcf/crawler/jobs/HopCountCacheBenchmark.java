@@ -0,0 +1,283 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+import java.security.MessageDigest;
+
+/** Measures hop count checks against a synthetic crawl graph.  Documents link to a random mix of nearby and
+* distant documents; distances from the seeds are computed by breadth-first search, and then every link is
+* checked against a hop limit, as a worker thread does when it extracts links.  The checks are answered from
+* a HopCountDistanceMap, and, for comparison, from a String-keyed HashMap, which is roughly what caching the
+* hopcount rows without a compact representation would cost.
+* Then the crawl is replayed through HopCountCache: documents within the hop limit are processed in the order
+* they were discovered, each one looking up its links' distances and storing what it had to read, and the job's
+* epoch is changed after finished batches, either after every batch or only after batches that removed links.
+* A first crawl removes no links; a recrawl removes some from the given percentage of documents.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -Xmx4g -cp ... org.apache.manifoldcf.crawler.jobs.HopCountCacheBenchmark [documents] [links per document] [hop limit]
+*     [documents per batch] [percent changed on recrawl]
+*/
+public class HopCountCacheBenchmark
+{
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int documentCount = (args.length > 0)?Integer.parseInt(args[0]):2000000;
+    int linksPerDocument = (args.length > 1)?Integer.parseInt(args[1]):5;
+    int hopLimit = (args.length > 2)?Integer.parseInt(args[2]):4;
+    int batchSize = (args.length > 3)?Integer.parseInt(args[3]):100;
+    int percentChanged = (args.length > 4)?Integer.parseInt(args[4]):1;
+
+    Random random = new Random(42L);
+    int[] targets = new int[documentCount * linksPerDocument];
+    for (int i = 0; i < documentCount; i++)
+    {
+      for (int j = 0; j < linksPerDocument; j++)
+      {
+        // Mostly links near the source, as within a site; sometimes a link anywhere
+        int target;
+        if (random.nextInt(10) == 0)
+          target = random.nextInt(documentCount);
+        else
+          target = Math.min(documentCount - 1,Math.max(0,i + random.nextInt(2001) - 1000));
+        targets[i * linksPerDocument + j] = target;
+      }
+    }
+    int[] order = new int[documentCount];
+    int[] distances = breadthFirst(documentCount,linksPerDocument,targets,100,order);
+    // Identifier hashes are SHA-1 digests of the document identifiers, as the crawler computes them
+    MessageDigest digest = MessageDigest.getInstance("SHA");
+    String[] hashes = new String[documentCount];
+    for (int i = 0; i < documentCount; i++)
+    {
+      hashes[i] = makeHash(digest,"http://www.example.com/documents/"+i+".html");
+    }
+    System.out.println("Documents: "+documentCount+"; links: "+targets.length+"; hop limit: "+hopLimit);
+
+    long before = usedMemory();
+    long startTime = System.currentTimeMillis();
+    HopCountDistanceMap compact = new HopCountDistanceMap(16);
+    for (int i = 0; i < documentCount; i++)
+    {
+      if (distances[i] >= 0)
+        compact.put(hashes[i],distances[i]);
+    }
+    long compactFill = System.currentTimeMillis() - startTime;
+    long compactMemory = usedMemory() - before;
+    // Warm up, then measure
+    checkCompact(compact,hashes,targets,hopLimit);
+    startTime = System.currentTimeMillis();
+    int compactWithin = checkCompact(compact,hashes,targets,hopLimit);
+    long compactCheck = System.currentTimeMillis() - startTime;
+    System.out.println("HopCountDistanceMap: "+compact.size()+" entries, "+(compactMemory / (1024L * 1024L))+" MB, filled in "+
+      compactFill+" ms; "+targets.length+" checks in "+compactCheck+" ms ("+(targets.length * 1000L / Math.max(1L,compactCheck))+
+      " checks/sec), "+compactWithin+" within limit");
+    compact = null;
+
+    before = usedMemory();
+    startTime = System.currentTimeMillis();
+    Map<String,Integer> plain = new HashMap<String,Integer>();
+    for (int i = 0; i < documentCount; i++)
+    {
+      if (distances[i] >= 0)
+        plain.put(new String(hashes[i]),Integer.valueOf(distances[i]));
+    }
+    long plainFill = System.currentTimeMillis() - startTime;
+    // The map keeps its own key strings, as a cache of hashes read from the database would
+    long plainMemory = usedMemory() - before;
+    checkPlain(plain,hashes,targets,hopLimit);
+    startTime = System.currentTimeMillis();
+    int plainWithin = checkPlain(plain,hashes,targets,hopLimit);
+    long plainCheck = System.currentTimeMillis() - startTime;
+    System.out.println("HashMap<String,Integer>: "+plain.size()+" entries, "+(plainMemory / (1024L * 1024L))+" MB, filled in "+
+      plainFill+" ms; "+targets.length+" checks in "+plainCheck+" ms ("+(targets.length * 1000L / Math.max(1L,plainCheck))+
+      " checks/sec), "+plainWithin+" within limit");
+    plain = null;
+
+    boolean[] changed = new boolean[documentCount];
+    for (int i = 0; i < documentCount; i++)
+    {
+      changed[i] = random.nextInt(100) < percentChanged;
+    }
+    System.out.println("Crawl replay: "+batchSize+" documents per batch, "+percentChanged+"% of documents lose links on recrawl");
+    replayCrawl("First crawl, epoch changed after every batch",hashes,linksPerDocument,targets,distances,order,hopLimit,batchSize,null,true);
+    replayCrawl("First crawl, epoch changed when links removed",hashes,linksPerDocument,targets,distances,order,hopLimit,batchSize,null,false);
+    replayCrawl("Recrawl, epoch changed after every batch",hashes,linksPerDocument,targets,distances,order,hopLimit,batchSize,changed,true);
+    replayCrawl("Recrawl, epoch changed when links removed",hashes,linksPerDocument,targets,distances,order,hopLimit,batchSize,changed,false);
+  }
+
+  /** Replay a crawl through HopCountCache, the way JobManager uses it, and report its hit rate.
+  *@param changed says which documents lose links when they are processed, or is null if none do.
+  *@param everyBatch is true if the epoch is to change after every batch, whether or not links were removed.
+  */
+  protected static void replayCrawl(String description, String[] hashes, int linksPerDocument, int[] targets, int[] distances,
+    int[] order, int hopLimit, int batchSize, boolean[] changed, boolean everyBatch)
+  {
+    Long jobID = new Long(1L);
+    HopCountCache.invalidate(jobID);
+    long hitsBefore = HopCountCache.getHits();
+    long missesBefore = HopCountCache.getMisses();
+    long epoch = 1L;
+    int epochChanges = 0;
+    int inBatch = 0;
+    boolean linksRemoved = false;
+    String[] linkHashes = new String[linksPerDocument];
+    int[] found = new int[linksPerDocument];
+    int[] read = new int[linksPerDocument];
+    for (int document : order)
+    {
+      if (document < 0 || distances[document] >= hopLimit)
+        break;
+      for (int j = 0; j < linksPerDocument; j++)
+      {
+        linkHashes[j] = new String(hashes[targets[document * linksPerDocument + j]]);
+      }
+      boolean[] isFound = HopCountCache.lookup(jobID,epoch,"link",linkHashes,found);
+      int missCount = 0;
+      for (int j = 0; j < linksPerDocument; j++)
+      {
+        if (!isFound[j])
+          missCount++;
+      }
+      if (missCount > 0)
+      {
+        // What findHopCounts() would have read from the table
+        String[] missHashes = new String[missCount];
+        int[] missDistances = new int[missCount];
+        int k = 0;
+        for (int j = 0; j < linksPerDocument; j++)
+        {
+          if (!isFound[j])
+          {
+            missHashes[k] = linkHashes[j];
+            missDistances[k++] = distances[targets[document * linksPerDocument + j]];
+          }
+        }
+        HopCountCache.store(jobID,epoch,"link",missHashes,missDistances,hashes.length);
+      }
+      if (changed != null && changed[document])
+        linksRemoved = true;
+      if (++inBatch == batchSize)
+      {
+        if (everyBatch || linksRemoved)
+        {
+          epoch++;
+          epochChanges++;
+          HopCountCache.invalidate(jobID);
+        }
+        inBatch = 0;
+        linksRemoved = false;
+      }
+    }
+    long hits = HopCountCache.getHits() - hitsBefore;
+    long misses = HopCountCache.getMisses() - missesBefore;
+    System.out.println(String.format(Locale.ROOT,"%-48s: %d lookups, %d epoch changes, hit rate %5.1f%%",
+      description,hits + misses,epochChanges,(hits * 100.0) / Math.max(1L,hits + misses)));
+  }
+
+  // Hashes reach the checks as freshly built strings, so both maps are given copies; otherwise HashMap
+  // would find its keys by identity, with their hash codes already cached.
+
+  protected static int checkCompact(HopCountDistanceMap map, String[] hashes, int[] targets, int hopLimit)
+  {
+    int within = 0;
+    for (int target : targets)
+    {
+      int distance = map.get(new String(hashes[target]));
+      if (distance != HopCountDistanceMap.NOT_FOUND && distance <= hopLimit)
+        within++;
+    }
+    return within;
+  }
+
+  protected static int checkPlain(Map<String,Integer> map, String[] hashes, int[] targets, int hopLimit)
+  {
+    int within = 0;
+    for (int target : targets)
+    {
+      Integer distance = map.get(new String(hashes[target]));
+      if (distance != null && distance.intValue() <= hopLimit)
+        within++;
+    }
+    return within;
+  }
+
+  /** Find every document's distance from the seeds, which are spread evenly through the documents.
+  *@param queue receives the reachable documents in the order they were discovered, followed by -1 if there is room.
+  */
+  protected static int[] breadthFirst(int documentCount, int linksPerDocument, int[] targets, int seedCount, int[] queue)
+  {
+    int[] distances = new int[documentCount];
+    Arrays.fill(distances,-1);
+    Arrays.fill(queue,-1);
+    int head = 0;
+    int tail = 0;
+    for (int i = 0; i < seedCount; i++)
+    {
+      int seed = (int)(((long)i * documentCount) / seedCount);
+      if (distances[seed] == -1)
+      {
+        distances[seed] = 0;
+        queue[tail++] = seed;
+      }
+    }
+    while (head < tail)
+    {
+      int document = queue[head++];
+      for (int j = 0; j < linksPerDocument; j++)
+      {
+        int target = targets[document * linksPerDocument + j];
+        if (distances[target] == -1)
+        {
+          distances[target] = distances[document] + 1;
+          queue[tail++] = target;
+        }
+      }
+    }
+    return distances;
+  }
+
+  protected static String makeHash(MessageDigest digest, String documentIdentifier)
+    throws Exception
+  {
+    byte[] bytes = digest.digest(documentIdentifier.getBytes("UTF-8"));
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes)
+    {
+      sb.append(Character.toUpperCase(Character.forDigit((b >> 4) & 15,16)));
+      sb.append(Character.toUpperCase(Character.forDigit(b & 15,16)));
+    }
+    return sb.toString();
+  }
+
+  protected static long usedMemory()
+    throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+      Thread.sleep(100L);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+}
@@ -0,0 +1,309 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.tests.BasePostgresql;
+import java.util.*;
+
+/** Measures the latency of picking documents from the job queue, with the table unpartitioned and partitioned
+* by job, before and after the largest of 20 jobs of mixed sizes has its documents deleted and is removed.
+* The pick query has the shape of the one the stuffer thread uses.  It also measures the latency of the
+* single-row status updates the worker threads make, keyed by id alone and by id and job; on a partitioned
+* table, only the latter can be pruned to one partition.  Rows are generated in the database, so
+* this needs PostgreSQL, set up as for the PostgreSQL tests.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.jobs.JobQueuePartitionBenchmark [rows in the largest job] [picks]
+*/
+public class JobQueuePartitionBenchmark
+{
+
+  protected static final int jobCount = 20;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int largestJob = (args.length > 0)?Integer.parseInt(args[0]):2000000;
+    int pickCount = (args.length > 1)?Integer.parseInt(args[1]):200;
+
+    // One large job, three medium ones, and the rest small
+    int[] jobSizes = new int[jobCount];
+    for (int i = 0; i < jobCount; i++)
+    {
+      jobSizes[i] = (i == 0)?largestJob:((i < 4)?largestJob / 10:largestJob / 100);
+    }
+    System.out.println("Jobs: "+jobCount+"; rows: "+Arrays.toString(jobSizes)+"; picks per measurement: "+pickCount);
+    for (boolean partitioned : new boolean[]{false,true})
+    {
+      PostgresqlSetup setup = new PostgresqlSetup(partitioned);
+      setup.setUp();
+      try
+      {
+        run(partitioned,jobSizes,pickCount);
+      }
+      finally
+      {
+        setup.cleanUp();
+      }
+    }
+  }
+
+  protected static void run(boolean partitioned, int[] jobSizes, int pickCount)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    JobQueue jobQueue = new JobQueue(tc,database);
+    String label = partitioned?"partitioned":"unpartitioned";
+    if (jobQueue.isPartitioned() != partitioned)
+      throw new Exception("Expected the job queue to be "+label);
+
+    Long[] jobIDs = createJobs(tc,jobSizes.length);
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < jobIDs.length; i++)
+    {
+      fillJob(database,jobQueue,jobIDs[i],i,jobSizes[i]);
+    }
+    database.performModification("ANALYZE",null,null);
+    System.out.println(label+": filled "+sum(jobSizes)+" rows in "+(System.currentTimeMillis() - startTime)+" ms");
+    measure(database,jobQueue,label+", all jobs active",pickCount);
+    measureUpdates(database,jobQueue,jobIDs,jobSizes,label,pickCount);
+
+    // The largest job is deleted; its documents are removed one batch at a time, as the delete threads do,
+    // which leaves dead index entries behind until vacuum runs.
+    setJobStatus(database,jobIDs[0],Jobs.STATUS_INACTIVE);
+    startTime = System.currentTimeMillis();
+    database.performModification("DELETE FROM "+jobQueue.getTableName()+" WHERE "+JobQueue.jobIDField+"="+jobIDs[0],null,null);
+    System.out.println(label+": deleted the largest job's rows in "+(System.currentTimeMillis() - startTime)+" ms");
+    measure(database,jobQueue,label+", largest job's rows deleted",pickCount);
+
+    // Then the job is removed
+    startTime = System.currentTimeMillis();
+    database.beginTransaction();
+    try
+    {
+      jobQueue.deleteAllJobRecords(jobIDs[0]);
+    }
+    catch (ManifoldCFException e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      database.signalRollback();
+      throw e;
+    }
+    finally
+    {
+      database.endTransaction();
+    }
+    System.out.println(label+": removed the largest job's records in "+(System.currentTimeMillis() - startTime)+" ms");
+    measure(database,jobQueue,label+", largest job removed",pickCount);
+  }
+
+  /** Generate a job's rows in the database: pending documents with random priorities. */
+  protected static void fillJob(IDBInterface database, JobQueue jobQueue, Long jobID, int jobIndex, int rowCount)
+    throws ManifoldCFException
+  {
+    List list = new ArrayList();
+    list.add(new Long((long)(jobIndex + 1) * 1000000000L));
+    list.add(jobID);
+    list.add(JobQueue.statusToString(JobQueue.STATUS_PENDING));
+    list.add(JobQueue.actionToString(JobQueue.ACTION_RESCAN));
+    list.add(JobQueue.needPriorityToString(JobQueue.NEEDPRIORITY_FALSE));
+    list.add(new Integer(rowCount));
+    database.performModification("INSERT INTO "+jobQueue.getTableName()+" ("+JobQueue.idField+","+JobQueue.jobIDField+","+
+      JobQueue.docHashField+","+JobQueue.docIDField+","+JobQueue.checkTimeField+","+JobQueue.statusField+","+
+      JobQueue.checkActionField+","+JobQueue.docPriorityField+","+JobQueue.needPriorityField+") "+
+      "SELECT ?+g,?,md5('"+jobIndex+"/'||g),'http://www.example.com/"+jobIndex+"/'||g,0,?,?,random()*1000.0,? "+
+      "FROM generate_series(1,?) g",list,null);
+  }
+
+  /** Run the pick query a number of times, and report its latency. */
+  protected static void measure(IDBInterface database, JobQueue jobQueue, String label, int pickCount)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("SELECT t0.");
+    sb.append(JobQueue.idField).append(",t0.").append(JobQueue.jobIDField).append(",t0.").append(JobQueue.docHashField)
+      .append(" FROM ").append(jobQueue.getTableName()).append(" t0 WHERE ");
+    sb.append(database.buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause("t0."+JobQueue.docPriorityField,"<",JobQueue.nullDocPriority),
+      new MultiClause("t0."+JobQueue.statusField,new Object[]{
+        JobQueue.statusToString(JobQueue.STATUS_PENDING),
+        JobQueue.statusToString(JobQueue.STATUS_PENDINGPURGATORY)}),
+      new UnitaryClause("t0."+JobQueue.checkActionField,"=",JobQueue.actionToString(JobQueue.ACTION_RESCAN)),
+      new UnitaryClause("t0."+JobQueue.checkTimeField,"<=",new Long(System.currentTimeMillis()))})).append(" AND ");
+    sb.append("EXISTS(SELECT 'x' FROM jobs t1 WHERE ")
+      .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause("t1."+Jobs.statusField,new Object[]{
+          Jobs.statusToString(Jobs.STATUS_ACTIVE),
+          Jobs.statusToString(Jobs.STATUS_ACTIVESEEDING)}),
+        new JoinClause("t1."+Jobs.idField,"t0."+JobQueue.jobIDField)})).append(") AND ");
+    sb.append("NOT EXISTS(SELECT 'x' FROM ").append(jobQueue.getTableName()).append(" t2 WHERE ")
+      .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+        new JoinClause("t2."+JobQueue.docHashField,"t0."+JobQueue.docHashField),
+        new MultiClause("t2."+JobQueue.statusField,new Object[]{
+          JobQueue.statusToString(JobQueue.STATUS_ACTIVE),
+          JobQueue.statusToString(JobQueue.STATUS_ACTIVEPURGATORY)}),
+        new JoinClause("t2."+JobQueue.jobIDField,"t0."+JobQueue.jobIDField,"!=")})).append(") ");
+    sb.append(database.constructIndexOrderByClause(new String[]{
+      JobQueue.docPriorityField,JobQueue.statusField,JobQueue.checkActionField,JobQueue.checkTimeField},true))
+      .append(" ").append(database.constructOffsetLimitClause(0,100,true));
+    String query = sb.toString();
+
+    long[] times = new long[pickCount];
+    for (int i = 0; i < pickCount; i++)
+    {
+      long startTime = System.nanoTime();
+      database.performQuery(query,list,null,null);
+      times[i] = System.nanoTime() - startTime;
+    }
+    Arrays.sort(times);
+    System.out.println(label+": pick latency median "+(times[pickCount / 2] / 1000L)+" us, 95th percentile "+
+      (times[(pickCount * 95) / 100] / 1000L)+" us");
+  }
+
+  /** Update random rows' check time, one row at a time, and report the latency.  Rows are found by id alone,
+  * then by id and job. */
+  protected static void measureUpdates(IDBInterface database, JobQueue jobQueue, Long[] jobIDs, int[] jobSizes,
+    String label, int updateCount)
+    throws ManifoldCFException
+  {
+    Random random = new Random(42L);
+    int[] jobIndexes = new int[updateCount];
+    long[] rowIDs = new long[updateCount];
+    for (int i = 0; i < updateCount; i++)
+    {
+      jobIndexes[i] = random.nextInt(jobIDs.length);
+      // As generated by fillJob()
+      rowIDs[i] = (long)(jobIndexes[i] + 1) * 1000000000L + 1L + random.nextInt(jobSizes[jobIndexes[i]]);
+    }
+    for (boolean withJob : new boolean[]{false,true})
+    {
+      long[] times = new long[updateCount];
+      for (int i = 0; i < updateCount; i++)
+      {
+        Map map = new HashMap();
+        map.put(JobQueue.checkTimeField,new Long(i));
+        ArrayList list = new ArrayList();
+        String query = database.buildConjunctionClause(list,withJob?
+          new ClauseDescription[]{
+            new UnitaryClause(JobQueue.idField,new Long(rowIDs[i])),
+            new UnitaryClause(JobQueue.jobIDField,jobIDs[jobIndexes[i]])}:
+          new ClauseDescription[]{
+            new UnitaryClause(JobQueue.idField,new Long(rowIDs[i]))});
+        long startTime = System.nanoTime();
+        database.performUpdate(jobQueue.getTableName(),map,"WHERE "+query,list,null);
+        times[i] = System.nanoTime() - startTime;
+      }
+      Arrays.sort(times);
+      System.out.println(label+": update by id"+(withJob?" and job":"")+" latency median "+(times[updateCount / 2] / 1000L)+
+        " us, 95th percentile "+(times[(updateCount * 95) / 100] / 1000L)+" us");
+    }
+  }
+
+  protected static Long[] createJobs(IThreadContext tc, int count)
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+    IRepositoryConnection conn = mgr.create();
+    conn.setName("Benchmark Connection");
+    conn.setDescription("Benchmark Connection");
+    conn.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+    conn.setMaxConnections(10);
+    mgr.save(conn);
+
+    IOutputConnectionManager outputMgr = OutputConnectionManagerFactory.make(tc);
+    IOutputConnection outputConn = outputMgr.create();
+    outputConn.setName("Null Connection");
+    outputConn.setDescription("Null Connection");
+    outputConn.setClassName("org.apache.manifoldcf.agents.tests.TestingOutputConnector");
+    outputConn.setMaxConnections(10);
+    outputMgr.save(outputConn);
+
+    IJobManager jobManager = JobManagerFactory.make(tc);
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Long[] rval = new Long[count];
+    for (int i = 0; i < count; i++)
+    {
+      IJobDescription job = jobManager.createJob();
+      job.setDescription("Benchmark Job "+i);
+      job.setConnectionName("Benchmark Connection");
+      job.addPipelineStage(-1,true,"Null Connection","");
+      job.setType(job.TYPE_SPECIFIED);
+      job.setStartMethod(job.START_DISABLE);
+      job.setHopcountMode(job.HOPCOUNT_NEVERDELETE);
+      jobManager.save(job);
+      rval[i] = job.getID();
+      setJobStatus(database,rval[i],Jobs.STATUS_ACTIVE);
+    }
+    return rval;
+  }
+
+  protected static void setJobStatus(IDBInterface database, Long jobID, int status)
+    throws ManifoldCFException
+  {
+    List list = new ArrayList();
+    list.add(Jobs.statusToString(status));
+    list.add(jobID);
+    database.performModification("UPDATE jobs SET "+Jobs.statusField+"=? WHERE "+Jobs.idField+"=?",list,null);
+  }
+
+  protected static long sum(int[] values)
+  {
+    long rval = 0L;
+    for (int value : values)
+    {
+      rval += value;
+    }
+    return rval;
+  }
+
+  protected static class PostgresqlSetup extends BasePostgresql
+  {
+    protected final boolean partitioned;
+
+    public PostgresqlSetup(boolean partitioned)
+    {
+      this.partitioned = partitioned;
+    }
+
+    @Override
+    protected void writeProperties(StringBuilder output)
+      throws Exception
+    {
+      super.writeProperties(output);
+      output.append(
+        "  <property name=\""+JobQueue.partitionedProperty+"\" value=\""+partitioned+"\"/>\n"
+      );
+    }
+  }
+
+}
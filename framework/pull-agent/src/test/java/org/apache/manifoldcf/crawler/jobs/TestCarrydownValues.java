@@ -0,0 +1,214 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for carrydown data values kept once per job.
+*/
+public class TestCarrydownValues extends BaseHSQLDB
+{
+
+  @Test
+  public void testDeduplicatedValues()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    Long jobID = createJob(tc);
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Carrydown carrydown = new Carrydown(tc,database);
+
+    String parent = ManifoldCF.hash("http://www.example.com/feed");
+    String[] children = new String[]{ManifoldCF.hash("http://www.example.com/1"),
+      ManifoldCF.hash("http://www.example.com/2"),ManifoldCF.hash("http://www.example.com/3")};
+    String title = "Feed title";
+    String otherTitle = "Other title";
+    String[][] dataNames = new String[children.length][];
+    String[][][] dataValueHashes = new String[children.length][][];
+    Object[][][] dataValues = new Object[children.length][][];
+    for (int i = 0; i < children.length; i++)
+    {
+      String value = (i == 2)?otherTitle:title;
+      dataNames[i] = new String[]{"title"};
+      dataValueHashes[i] = new String[][]{new String[]{ManifoldCF.hash(value)}};
+      dataValues[i] = new Object[][]{new Object[]{value}};
+    }
+    boolean[] recorded = carrydown.recordCarrydownDataMultiple(jobID,parent,children,dataNames,dataValueHashes,dataValues,"A");
+    for (boolean r : recorded)
+    {
+      assertTrue(r);
+    }
+    // Three rows, but only two values
+    assertEquals(2,countValues(database,jobID));
+    assertArrayEquals(new String[]{title},carrydown.getDataValues(jobID,children[0],"title"));
+    assertArrayEquals(new String[]{otherTitle},carrydown.getDataValues(jobID,children[2],"title"));
+    CharacterInput[] files = carrydown.getDataValuesAsFiles(jobID,children[1],"title");
+    assertEquals(1,files.length);
+    assertEquals(title,read(files[0]));
+
+    // Recording the same data again writes nothing new
+    recorded = carrydown.recordCarrydownDataMultiple(jobID,parent,children,dataNames,dataValueHashes,dataValues,"A");
+    assertFalse(recorded[0]);
+    assertEquals(2,countValues(database,jobID));
+
+    // Rows that hold their own value, as older rows do, are still read
+    String legacyChild = ManifoldCF.hash("http://www.example.com/legacy");
+    Map<String,Object> legacyRow = new HashMap<String,Object>();
+    legacyRow.put(Carrydown.jobIDField,jobID);
+    legacyRow.put(Carrydown.parentIDHashField,parent);
+    legacyRow.put(Carrydown.childIDHashField,legacyChild);
+    legacyRow.put(Carrydown.dataNameField,"title");
+    legacyRow.put(Carrydown.dataValueHashField,ManifoldCF.hash("Legacy title"));
+    legacyRow.put(Carrydown.dataValueField,"Legacy title");
+    legacyRow.put(Carrydown.newField,Carrydown.statusToString(Carrydown.ISNEW_BASE));
+    database.performInsert(carrydown.getTableName(),legacyRow,null);
+    assertArrayEquals(new String[]{"Legacy title"},carrydown.getDataValues(jobID,legacyChild,"title"));
+
+    // Values nothing refers to are removed
+    carrydown.deleteRecords(jobID,new String[]{children[2]});
+    carrydown.deleteUnreferencedValues(jobID);
+    assertEquals(1,countValues(database,jobID));
+    assertArrayEquals(new String[]{title},carrydown.getDataValues(jobID,children[0],"title"));
+
+    carrydown.deleteOwner(jobID);
+    assertEquals(0,countValues(database,jobID));
+  }
+
+  @Test
+  public void testValuesCollectedWhileRunning()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    Long jobID = createJob(tc);
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Carrydown carrydown = new Carrydown(tc,database);
+
+    String parent = ManifoldCF.hash("http://www.example.com/feed");
+    String[] children = new String[]{ManifoldCF.hash("http://www.example.com/1"),
+      ManifoldCF.hash("http://www.example.com/2")};
+    record(carrydown,jobID,parent,children,"Feed title");
+    carrydown.restoreRecords(jobID,new String[]{parent});
+    assertEquals(1,countValues(database,jobID));
+
+    // The parent is crawled again and its title has changed; once it is done, the old title is gone
+    record(carrydown,jobID,parent,children,"New feed title");
+    assertEquals(2,countValues(database,jobID));
+    carrydown.restoreRecords(jobID,new String[]{parent});
+    assertEquals(1,countValues(database,jobID));
+    assertArrayEquals(new String[]{"New feed title"},carrydown.getDataValues(jobID,children[0],"title"));
+
+    // A value still referred to by one child is kept until the last one goes
+    carrydown.deleteRecords(jobID,new String[]{children[0]});
+    assertEquals(1,countValues(database,jobID));
+    carrydown.deleteRecords(jobID,new String[]{children[1]});
+    assertEquals(0,countValues(database,jobID));
+  }
+
+  protected static void record(Carrydown carrydown, Long jobID, String parent, String[] children, String value)
+    throws ManifoldCFException
+  {
+    String[][] dataNames = new String[children.length][];
+    String[][][] dataValueHashes = new String[children.length][][];
+    Object[][][] dataValues = new Object[children.length][][];
+    for (int i = 0; i < children.length; i++)
+    {
+      dataNames[i] = new String[]{"title"};
+      dataValueHashes[i] = new String[][]{new String[]{ManifoldCF.hash(value)}};
+      dataValues[i] = new Object[][]{new Object[]{value}};
+    }
+    carrydown.recordCarrydownDataMultiple(jobID,parent,children,dataNames,dataValueHashes,dataValues,"A");
+  }
+
+  protected static int countValues(IDBInterface database, Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    list.add(jobID);
+    return database.performQuery("SELECT "+CarrydownValues.dataValueHashField+" FROM carrydownvalues WHERE "+
+      CarrydownValues.jobIDField+"=?",list,null,null).getRowCount();
+  }
+
+  protected static String read(CharacterInput ci)
+    throws Exception
+  {
+    try
+    {
+      Reader r = ci.getStream();
+      StringBuilder sb = new StringBuilder();
+      char[] buffer = new char[1024];
+      int amt;
+      while ((amt = r.read(buffer)) != -1)
+      {
+        sb.append(buffer,0,amt);
+      }
+      return sb.toString();
+    }
+    finally
+    {
+      ci.discard();
+    }
+  }
+
+  protected static Long createJob(IThreadContext tc)
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+    IRepositoryConnection conn = mgr.create();
+    conn.setName("Carrydown Connection");
+    conn.setDescription("Carrydown Connection");
+    conn.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+    conn.setMaxConnections(10);
+    mgr.save(conn);
+
+    IOutputConnectionManager outputMgr = OutputConnectionManagerFactory.make(tc);
+    IOutputConnection outputConn = outputMgr.create();
+    outputConn.setName("Null Connection");
+    outputConn.setDescription("Null Connection");
+    outputConn.setClassName("org.apache.manifoldcf.agents.tests.TestingOutputConnector");
+    outputConn.setMaxConnections(10);
+    outputMgr.save(outputConn);
+
+    IJobManager jobManager = JobManagerFactory.make(tc);
+    IJobDescription job = jobManager.createJob();
+    job.setDescription("Carrydown Job");
+    job.setConnectionName("Carrydown Connection");
+    job.addPipelineStage(-1,true,"Null Connection","");
+    job.setType(job.TYPE_SPECIFIED);
+    job.setStartMethod(job.START_DISABLE);
+    job.setHopcountMode(job.HOPCOUNT_ACCURATE);
+    jobManager.save(job);
+    return job.getID();
+  }
+
+}
@@ -0,0 +1,122 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for HopCountDistanceMap and HopCountCache.
+*/
+public class TestHopCountCache
+{
+
+  @Test
+  public void testDistanceMap()
+  {
+    HopCountDistanceMap map = new HopCountDistanceMap(4);
+    Random random = new Random(1L);
+    String[] hashes = new String[1000];
+    for (int i = 0; i < hashes.length; i++)
+    {
+      hashes[i] = makeHash(random);
+      map.put(hashes[i],i % 7);
+    }
+    assertEquals(hashes.length,map.size());
+    for (int i = 0; i < hashes.length; i++)
+    {
+      assertEquals(i % 7,map.get(hashes[i]));
+    }
+    assertEquals(HopCountDistanceMap.NOT_FOUND,map.get(makeHash(random)));
+
+    // Replacing a value doesn't add an entry
+    map.put(hashes[0],3);
+    assertEquals(3,map.get(hashes[0]));
+    assertEquals(hashes.length,map.size());
+
+    // Keys that aren't hexadecimal hashes are never stored
+    map.put("not a hash",1);
+    assertEquals(HopCountDistanceMap.NOT_FOUND,map.get("not a hash"));
+    assertEquals(hashes.length,map.size());
+  }
+
+  @Test
+  public void testEpochs()
+  {
+    Long jobID = new Long(1L);
+    HopCountCache.invalidate(jobID);
+    String[] hashes = new String[]{makeHash(new Random(2L)),makeHash(new Random(3L))};
+    HopCountCache.store(jobID,10L,"link",hashes,new int[]{2,-1},100);
+
+    int[] distances = new int[]{-1,-1};
+    boolean[] found = HopCountCache.lookup(jobID,10L,"link",hashes,distances);
+    // Infinity isn't cached, since adding a link can lower it
+    assertTrue(found[0]);
+    assertFalse(found[1]);
+    assertEquals(2,distances[0]);
+
+    // Other link types and other epochs see nothing
+    found = HopCountCache.lookup(jobID,10L,"redirect",hashes,new int[2]);
+    assertFalse(found[0]);
+    found = HopCountCache.lookup(jobID,11L,"link",hashes,new int[2]);
+    assertFalse(found[0]);
+
+    HopCountCache.invalidate(jobID);
+    found = HopCountCache.lookup(jobID,10L,"link",hashes,new int[2]);
+    assertFalse(found[0]);
+  }
+
+  @Test
+  public void testMaxEntries()
+  {
+    Long jobID = new Long(2L);
+    HopCountCache.invalidate(jobID);
+    Random random = new Random(4L);
+    String[] hashes = new String[25];
+    int[] distances = new int[hashes.length];
+    for (int i = 0; i < hashes.length; i++)
+    {
+      hashes[i] = makeHash(random);
+      distances[i] = 1;
+    }
+    HopCountCache.store(jobID,0L,"link",hashes,distances,10);
+    boolean[] found = HopCountCache.lookup(jobID,0L,"link",hashes,new int[hashes.length]);
+    int foundCount = 0;
+    for (boolean f : found)
+    {
+      if (f)
+        foundCount++;
+    }
+    assertTrue(foundCount > 0);
+    assertTrue(foundCount <= 10);
+    HopCountCache.invalidate(jobID);
+  }
+
+  protected static String makeHash(Random random)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 40; i++)
+    {
+      sb.append(Character.toUpperCase(Character.forDigit(random.nextInt(16),16)));
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,84 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests that asking for a partitioned job queue on a database without partitions leaves an ordinary table,
+* which jobs are created in and removed from as usual.
+*/
+public class TestJobQueuePartitions extends BaseHSQLDB
+{
+
+  @Override
+  protected void writeProperties(StringBuilder output)
+    throws Exception
+  {
+    super.writeProperties(output);
+    output.append(
+      "  <property name=\""+JobQueue.partitionedProperty+"\" value=\"true\"/>\n"
+    );
+  }
+
+  @Test
+  public void testUnpartitionedFallback()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    assertFalse(database.supportsPartitions());
+    JobQueue jobQueue = new JobQueue(tc,database);
+    assertFalse(jobQueue.isPartitioned());
+
+    // Creating the job asks for its partition, which is nothing here
+    Long jobID = TestCarrydownValues.createJob(tc);
+    jobQueue.createOwner(jobID);
+
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put(JobQueue.idField,new Long(1L));
+    map.put(JobQueue.jobIDField,jobID);
+    map.put(JobQueue.docHashField,ManifoldCF.hash("http://www.example.com/"));
+    map.put(JobQueue.docIDField,"http://www.example.com/");
+    map.put(JobQueue.statusField,JobQueue.statusToString(JobQueue.STATUS_PENDING));
+    database.performInsert(jobQueue.getTableName(),map,null);
+    assertEquals(1,countRows(database,jobQueue,jobID));
+
+    jobQueue.deleteAllJobRecords(jobID);
+    assertEquals(0,countRows(database,jobQueue,jobID));
+  }
+
+  protected static int countRows(IDBInterface database, JobQueue jobQueue, Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    list.add(jobID);
+    return database.performQuery("SELECT "+JobQueue.idField+" FROM "+jobQueue.getTableName()+" WHERE "+
+      JobQueue.jobIDField+"=?",list,null,null).getRowCount();
+  }
+
+}
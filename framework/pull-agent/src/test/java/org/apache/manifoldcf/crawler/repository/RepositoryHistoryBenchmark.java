@@ -0,0 +1,135 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Measures how fast worker threads can record history, with each history durability mode.  The time
+* reported for buffered mode includes writing out whatever is still buffered at the end.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.repository.RepositoryHistoryBenchmark [threads] [rows per thread]
+*/
+public class RepositoryHistoryBenchmark
+{
+  protected final static String connectionName = "History benchmark";
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int threadCount = (args.length > 0)?Integer.parseInt(args[0]):8;
+    int rowCount = (args.length > 1)?Integer.parseInt(args[1]):20000;
+
+    System.out.println("Threads: "+threadCount+", rows per thread: "+rowCount);
+    for (String durability : new String[]{"immediate","buffered"})
+    {
+      HSQLDBSetup setup = new HSQLDBSetup(durability);
+      setup.setUp();
+      try
+      {
+        run(durability,threadCount,rowCount);
+      }
+      finally
+      {
+        setup.cleanUp();
+      }
+    }
+  }
+
+  protected static void run(String durability, int threadCount, final int rowCount)
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+    IRepositoryConnection connection = mgr.create();
+    connection.setName(connectionName);
+    connection.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+    connection.setMaxConnections(10);
+    mgr.save(connection);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[threadCount];
+    long flushesBefore = RepositoryHistoryWriter.getFlushCount();
+    long backPressureBefore = RepositoryHistoryWriter.getBackPressureCount();
+    long startTime = System.currentTimeMillis();
+    for (int t = 0; t < threadCount; t++)
+    {
+      final int threadNumber = t;
+      threads[t] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            IThreadContext threadContext = ThreadContextFactory.make();
+            IRepositoryConnectionManager threadMgr = RepositoryConnectionManagerFactory.make(threadContext);
+            for (int i = 0; i < rowCount; i++)
+            {
+              threadMgr.recordHistory(connectionName,null,"fetch",new Long(1000L),
+                "http://www.example.com/"+threadNumber+"/"+i+".html","200",null,null);
+            }
+          }
+          catch (Throwable e)
+          {
+            failure.set(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    long recordTime = System.currentTimeMillis() - startTime;
+    if (failure.get() != null)
+      throw new Exception("Recording thread failed: "+failure.get().getMessage(),failure.get());
+    long rows = mgr.countHistoryRows(connectionName,new FilterCriteria(null,null,null,null,null));
+    long totalTime = System.currentTimeMillis() - startTime;
+    System.out.println(durability+": "+rows+" rows, recorded at "+((long)threadCount * rowCount * 1000L / Math.max(1L,recordTime))+
+      " rows/sec, written at "+(rows * 1000L / Math.max(1L,totalTime))+" rows/sec; "+
+      (RepositoryHistoryWriter.getFlushCount() - flushesBefore)+" batches, average batch "+
+      String.format(Locale.ROOT,"%.1f",RepositoryHistoryWriter.getAverageFlushTime())+" ms, max batch "+
+      RepositoryHistoryWriter.getMaxFlushTime()+" ms, back-pressure "+(RepositoryHistoryWriter.getBackPressureCount() - backPressureBefore));
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+    protected final String durability;
+
+    public HSQLDBSetup(String durability)
+    {
+      this.durability = durability;
+    }
+
+    @Override
+    protected void writeProperties(StringBuilder output)
+      throws Exception
+    {
+      super.writeProperties(output);
+      output.append(
+        "  <property name=\"org.apache.manifoldcf.crawler.repository.history_durability\" value=\""+durability+"\"/>\n"
+      );
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for the pre-aggregated history rollups.
+*/
+public class TestRepositoryHistoryRollups extends BaseHSQLDB
+{
+  protected final static String connectionName = "Rollup test";
+  protected final static long bucketSize = RepositoryHistoryRollupManager.bucketSize;
+
+  @Test
+  public void testProration()
+  {
+    Map<RepositoryHistoryRollupManager.RollupKey,double[]> deltas = new HashMap<RepositoryHistoryRollupManager.RollupKey,double[]>();
+    // A quarter of this row lies in the first bucket, three quarters in the second
+    long start = 10L * bucketSize - bucketSize / 4L;
+    RepositoryHistoryRollupManager.accumulate(deltas,connectionName,"fetch",start,start + bucketSize,1000L);
+    RepositoryHistoryRollupManager.accumulate(deltas,connectionName,"fetch",10L * bucketSize,10L * bucketSize + 1L,100L);
+    assertEquals(2,deltas.size());
+    double[] first = deltas.get(new RepositoryHistoryRollupManager.RollupKey(connectionName,"fetch",9L * bucketSize));
+    double[] second = deltas.get(new RepositoryHistoryRollupManager.RollupKey(connectionName,"fetch",10L * bucketSize));
+    assertEquals(0.25,first[0],1e-9);
+    assertEquals(250.0,first[1],1e-6);
+    assertEquals(1.75,second[0],1e-9);
+    assertEquals(850.0,second[1],1e-6);
+  }
+
+  @Test
+  public void testCanAnswerReport()
+  {
+    FilterCriteria all = new FilterCriteria(null,null,null,null,null);
+    assertTrue(RepositoryHistoryRollupManager.canAnswerReport(all,new BucketDescription("()",false),5L * bucketSize));
+    assertTrue(RepositoryHistoryRollupManager.canAnswerReport(all,new BucketDescription("",false),bucketSize));
+    assertFalse(RepositoryHistoryRollupManager.canAnswerReport(all,new BucketDescription("(.*)",false),bucketSize));
+    assertFalse(RepositoryHistoryRollupManager.canAnswerReport(all,new BucketDescription("()",false),bucketSize + 1L));
+    FilterCriteria entityMatch = new FilterCriteria(null,null,null,new RegExpCriteria("example",true),null);
+    assertFalse(RepositoryHistoryRollupManager.canAnswerReport(entityMatch,new BucketDescription("()",false),bucketSize));
+  }
+
+  @Test
+  public void testReportsFromRollups()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+    IRepositoryConnection connection = mgr.create();
+    connection.setName(connectionName);
+    connection.setDescription("Rollup test connection");
+    connection.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+    connection.setMaxConnections(10);
+    mgr.save(connection);
+
+    for (int i = 0; i < 10; i++)
+    {
+      mgr.recordHistory(connectionName,null,"fetch",new Long(100L),"http://www.example.com/"+i,"OK",null,null);
+    }
+    mgr.recordHistory(connectionName,null,"process",new Long(5000L),"http://www.example.com/","OK",null,null);
+
+    FilterCriteria fetches = new FilterCriteria(new String[]{"fetch"},null,null,null,null);
+    BucketDescription idBucket = new BucketDescription("()",false);
+    long interval = 5L * bucketSize;
+    assertTrue(mgr.canUseHistoryRollups(fetches,idBucket,interval));
+
+    IResultSet activity = mgr.genHistoryActivityCount(connectionName,fetches,new SortOrder(),idBucket,interval,0,20);
+    assertEquals(1,activity.getRowCount());
+    assertEquals(10.0,((Number)activity.getRow(0).getValue("activitycount")).doubleValue(),1e-6);
+    long windowStart = ((Long)activity.getRow(0).getValue("starttime")).longValue();
+    assertEquals(0L,windowStart % bucketSize);
+    assertEquals(windowStart + interval,((Long)activity.getRow(0).getValue("endtime")).longValue());
+
+    IResultSet bytes = mgr.genHistoryByteCount(connectionName,fetches,new SortOrder(),idBucket,interval,0,20);
+    assertEquals(1,bytes.getRowCount());
+    assertEquals(1000L,((Number)bytes.getRow(0).getValue("bytecount")).longValue());
+
+    // Compaction must not change the answer
+    mgr.compactHistoryData();
+    activity = mgr.genHistoryActivityCount(connectionName,fetches,new SortOrder(),idBucket,interval,0,20);
+    assertEquals(10.0,((Number)activity.getRow(0).getValue("activitycount")).doubleValue(),1e-6);
+
+    // Deleting the connection removes its rollups along with its history
+    mgr.delete(connectionName);
+  }
+
+}
@@ -0,0 +1,217 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for buffered repository history writing.  The flush interval is long, so rows reach the database
+* only through back-pressure or an explicit flush.
+*/
+public class TestRepositoryHistoryWriter extends BaseHSQLDB
+{
+  protected final static String connectionName = "History test";
+  protected final static int bufferSize = 16;
+
+  @Override
+  protected void writeProperties(StringBuilder output)
+    throws Exception
+  {
+    super.writeProperties(output);
+    output.append(
+      "  <property name=\"org.apache.manifoldcf.crawler.repository.history_durability\" value=\"buffered\"/>\n"+
+      "  <property name=\"org.apache.manifoldcf.crawler.repository.history_buffer_size\" value=\""+bufferSize+"\"/>\n"+
+      "  <property name=\"org.apache.manifoldcf.crawler.repository.history_flush_interval\" value=\"600000\"/>\n"
+    );
+  }
+
+  @Test
+  public void testBufferedRowsVisibleToReports()
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = makeConnection();
+    long queuedBefore = RepositoryHistoryWriter.getRowsQueued();
+    for (int i = 0; i < 10; i++)
+    {
+      mgr.recordHistory(connectionName,null,"fetch",new Long(100L),"http://www.example.com/"+i,"OK",null,null);
+    }
+    assertEquals(10L,RepositoryHistoryWriter.getRowsQueued() - queuedBefore);
+    assertEquals(10,RepositoryHistoryWriter.getQueueDepth());
+
+    // Counting the rows flushes the buffer first
+    assertEquals(10L,mgr.countHistoryRows(connectionName,allRows()));
+    assertEquals(0,RepositoryHistoryWriter.getQueueDepth());
+  }
+
+  @Test
+  public void testBackPressure()
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = makeConnection();
+    long backPressureBefore = RepositoryHistoryWriter.getBackPressureCount();
+    int rowCount = bufferSize * 5 + 3;
+    for (int i = 0; i < rowCount; i++)
+    {
+      mgr.recordHistory(connectionName,null,"fetch",new Long(100L),"http://www.example.com/"+i,"OK",null,null);
+      assertTrue(RepositoryHistoryWriter.getQueueDepth() <= bufferSize);
+    }
+    assertTrue(RepositoryHistoryWriter.getBackPressureCount() > backPressureBefore);
+    assertEquals((long)rowCount,mgr.countHistoryRows(connectionName,allRows()));
+  }
+
+  @Test
+  public void testDeleteConnectionDiscardsBufferedRows()
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = makeConnection();
+    mgr.recordHistory(connectionName,null,"fetch",new Long(100L),"http://www.example.com/","OK",null,null);
+    long droppedBefore = RepositoryHistoryWriter.getRowsDropped();
+    mgr.delete(connectionName);
+    assertEquals(0,RepositoryHistoryWriter.getQueueDepth());
+    assertEquals(droppedBefore,RepositoryHistoryWriter.getRowsDropped());
+  }
+
+  @Test
+  public void testFailedBatchRequeued()
+    throws Exception
+  {
+    IRepositoryConnectionManager mgr = makeConnection();
+    IThreadContext tc = ThreadContextFactory.make();
+    IDBInterface database = RepositoryHistoryWriter.makeDatabase(tc);
+    long droppedBefore = RepositoryHistoryWriter.getRowsDropped();
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (int i = 0; i < 5; i++)
+    {
+      rows.add(makeRow(tc,"http://www.example.com/"+i));
+    }
+
+    // A lost connection puts the whole batch back, to be written by the next flush
+    try
+    {
+      RepositoryHistoryWriter.writeRows(new FailingHistoryManager(tc,database,0,ManifoldCFException.DATABASE_CONNECTION_ERROR),rows);
+      fail("Expected the failure to be thrown");
+    }
+    catch (ManifoldCFException e)
+    {
+      assertEquals(ManifoldCFException.DATABASE_CONNECTION_ERROR,e.getErrorCode());
+    }
+    assertEquals(5,RepositoryHistoryWriter.getQueueDepth());
+    assertEquals(5L,mgr.countHistoryRows(connectionName,allRows()));
+    assertEquals(0,RepositoryHistoryWriter.getQueueDepth());
+
+    // A failure part way through the individual retries puts back only the rows not yet written
+    rows.clear();
+    for (int i = 5; i < 10; i++)
+    {
+      rows.add(makeRow(tc,"http://www.example.com/"+i));
+    }
+    try
+    {
+      RepositoryHistoryWriter.writeRows(new FailingHistoryManager(tc,database,0,ManifoldCFException.DATABASE_ERROR,
+        3,ManifoldCFException.DATABASE_TRANSACTION_ABORT),rows);
+      fail("Expected the failure to be thrown");
+    }
+    catch (ManifoldCFException e)
+    {
+      assertEquals(ManifoldCFException.DATABASE_TRANSACTION_ABORT,e.getErrorCode());
+    }
+    assertEquals(3,RepositoryHistoryWriter.getQueueDepth());
+    assertEquals(10L,mgr.countHistoryRows(connectionName,allRows()));
+    assertEquals(droppedBefore,RepositoryHistoryWriter.getRowsDropped());
+
+    // Rows the database refuses are discarded
+    rows.clear();
+    rows.add(makeRow(tc,"http://www.example.com/bad"));
+    RepositoryHistoryWriter.writeRows(new FailingHistoryManager(tc,database,0,ManifoldCFException.DATABASE_ERROR,1,ManifoldCFException.DATABASE_ERROR),rows);
+    assertEquals(0,RepositoryHistoryWriter.getQueueDepth());
+    assertEquals(droppedBefore + 1L,RepositoryHistoryWriter.getRowsDropped());
+    assertEquals(10L,mgr.countHistoryRows(connectionName,allRows()));
+  }
+
+  protected static Map<String,Object> makeRow(IThreadContext tc, String entityIdentifier)
+    throws ManifoldCFException
+  {
+    Map<String,Object> row = new HashMap<String,Object>();
+    long now = System.currentTimeMillis();
+    row.put(RepositoryHistoryManager.idField,new Long(IDFactory.make(tc)));
+    row.put(RepositoryHistoryManager.ownerNameField,connectionName);
+    row.put(RepositoryHistoryManager.startTimeField,new Long(now));
+    row.put(RepositoryHistoryManager.endTimeField,new Long(now));
+    row.put(RepositoryHistoryManager.dataSizeField,new Long(100L));
+    row.put(RepositoryHistoryManager.activityTypeField,"fetch");
+    row.put(RepositoryHistoryManager.entityIdentifierField,entityIdentifier);
+    row.put(RepositoryHistoryManager.resultCodeField,"OK");
+    return row;
+  }
+
+  /** Fails chosen writes, counting from zero, with chosen error codes, and performs the rest normally.
+  */
+  protected static class FailingHistoryManager extends RepositoryHistoryManager
+  {
+    /** Pairs of write number and error code */
+    protected final int[] failures;
+    protected int write = 0;
+
+    public FailingHistoryManager(IThreadContext tc, IDBInterface database, int... failures)
+      throws ManifoldCFException
+    {
+      super(tc,database);
+      this.failures = failures;
+    }
+
+    @Override
+    protected void writeRows(List<Map<String,Object>> rows)
+      throws ManifoldCFException
+    {
+      int thisWrite = write++;
+      for (int i = 0; i < failures.length; i += 2)
+      {
+        if (failures[i] == thisWrite)
+          throw new ManifoldCFException("Simulated failure",failures[i+1]);
+      }
+      super.writeRows(rows);
+    }
+  }
+
+  protected IRepositoryConnectionManager makeConnection()
+    throws Exception
+  {
+    IThreadContext tc = ThreadContextFactory.make();
+    IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+    IRepositoryConnection connection = mgr.create();
+    connection.setName(connectionName);
+    connection.setDescription("History test connection");
+    connection.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+    connection.setMaxConnections(10);
+    mgr.save(connection);
+    return mgr;
+  }
+
+  protected static FilterCriteria allRows()
+  {
+    return new FilterCriteria(null,null,null,null,null);
+  }
+
+}
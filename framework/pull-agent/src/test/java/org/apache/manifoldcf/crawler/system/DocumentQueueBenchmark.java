@@ -0,0 +1,109 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Pull-throughput comparison between DocumentQueue and the old linear-scan queue.
+* The queue is kept topped up at a fixed number of sets while worker threads pull sets,
+* note them as active in the QueueTracker, and then note them as done.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.system.DocumentQueueBenchmark [queuedSets] [workers] [seconds]
+*/
+public class DocumentQueueBenchmark
+{
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int queuedSets = (args.length > 0)?Integer.parseInt(args[0]):10000;
+    int workers = (args.length > 1)?Integer.parseInt(args[1]):200;
+    int seconds = (args.length > 2)?Integer.parseInt(args[2]):10;
+
+    System.out.println("Queued sets: "+queuedSets+"; workers: "+workers+"; seconds per run: "+seconds);
+    // Warm up both, then measure
+    run(new LinearDocumentQueue(),queuedSets,workers,1);
+    run(new DocumentQueue(),queuedSets,workers,1);
+    long linear = run(new LinearDocumentQueue(),queuedSets,workers,seconds);
+    long indexed = run(new DocumentQueue(),queuedSets,workers,seconds);
+    System.out.println("Linear scan: "+(linear/seconds)+" pulls/sec");
+    System.out.println("Indexed:     "+(indexed/seconds)+" pulls/sec");
+  }
+
+  /** Run one measurement, returning the number of pulls completed. */
+  protected static long run(final DocumentQueue queue, final int queuedSets, int workers, int seconds)
+    throws Exception
+  {
+    final QueueTracker tracker = new QueueTracker();
+    final AtomicLong pulls = new AtomicLong(0L);
+    final Random random = new Random(42L);
+    long documentID = 0L;
+    for (int i = 0; i < queuedSets; i++)
+    {
+      QueuedDocumentSet set = TestDocumentQueue.makeSet(random,documentID,500);
+      documentID += set.getCount();
+      queue.addDocument(set);
+    }
+
+    Thread[] threads = new Thread[workers];
+    for (int i = 0; i < workers; i++)
+    {
+      final Random threadRandom = new Random(i);
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            long nextID = 1000000000L * (threadRandom.nextInt(1000) + 1);
+            while (true)
+            {
+              QueuedDocumentSet set = queue.getDocument(tracker);
+              if (set == null)
+                return;
+              TestDocumentQueue.beginProcessing(tracker,set);
+              // Replace what we took, so the queue stays at its target size
+              QueuedDocumentSet replacement = TestDocumentQueue.makeSet(threadRandom,nextID,500);
+              nextID += replacement.getCount();
+              queue.addDocument(replacement);
+              TestDocumentQueue.endProcessing(tracker,set);
+              pulls.incrementAndGet();
+            }
+          }
+          catch (InterruptedException e)
+          {
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    Thread.sleep(seconds * 1000L);
+    queue.reset();
+    for (Thread t : threads)
+    {
+      t.join();
+    }
+    queue.clear();
+    return pulls.get();
+  }
+
+}
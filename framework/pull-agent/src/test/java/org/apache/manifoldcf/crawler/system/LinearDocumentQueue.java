@@ -0,0 +1,91 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** Reference document queue that rates every queued set on every pull, the way
+* DocumentQueue used to.  Used to check and benchmark DocumentQueue.
+*/
+public class LinearDocumentQueue extends DocumentQueue
+{
+  protected final List<QueuedDocumentSet> list = new ArrayList<QueuedDocumentSet>();
+
+  public LinearDocumentQueue()
+  {
+  }
+
+  @Override
+  public void clear()
+  {
+    synchronized (queue)
+    {
+      list.clear();
+      resetFlag = false;
+    }
+  }
+
+  @Override
+  public boolean checkIfEmpty(int n)
+  {
+    synchronized (queue)
+    {
+      return list.size() <= n;
+    }
+  }
+
+  @Override
+  public void addDocument(QueuedDocumentSet dd)
+  {
+    synchronized (queue)
+    {
+      list.add(dd);
+      queue.notify();
+    }
+  }
+
+  @Override
+  public QueuedDocumentSet getDocument(QueueTracker overlapCalculator)
+    throws InterruptedException
+  {
+    synchronized (queue)
+    {
+      if (resetFlag)
+        return null;
+      while (list.size() == 0 && resetFlag == false)
+        queue.wait();
+      if (resetFlag)
+        return null;
+      int bestIndex = -1;
+      double bestRating = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < list.size(); i++)
+      {
+        double rating = list.get(i).calculateAssignmentRating(overlapCalculator);
+        if (bestIndex == -1 || rating > bestRating)
+        {
+          bestIndex = i;
+          bestRating = rating;
+        }
+      }
+      return list.remove(bestIndex);
+    }
+  }
+
+}
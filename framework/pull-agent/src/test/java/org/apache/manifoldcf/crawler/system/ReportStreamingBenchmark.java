@@ -0,0 +1,185 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.tests.BaseHSQLDB;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** Measures peak heap and time to first byte for an unlimited simple history report, formed as a Configuration
+* and converted to JSON the way the API servlet used to, and streamed from a cursor.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.system.ReportStreamingBenchmark [history rows] [fetch size]
+*/
+public class ReportStreamingBenchmark
+{
+  protected final static String connectionName = "Report benchmark";
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int rowCount = (args.length > 0)?Integer.parseInt(args[0]):500000;
+    int fetchSize = (args.length > 1)?Integer.parseInt(args[1]):ManifoldCF.DEFAULT_REPORT_FETCH_SIZE;
+
+    HSQLDBSetup setup = new HSQLDBSetup();
+    setup.setUp();
+    try
+    {
+      IThreadContext tc = ThreadContextFactory.make();
+      IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(tc);
+      IRepositoryConnection connection = mgr.create();
+      connection.setName(connectionName);
+      connection.setClassName("org.apache.manifoldcf.crawler.tests.TestingRepositoryConnector");
+      connection.setMaxConnections(10);
+      mgr.save(connection);
+
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < rowCount; i++)
+      {
+        mgr.recordHistory(connectionName,new Long(now - rowCount + i),"fetch",new Long(1000L + i),
+          "http://www.example.com/"+i+".html","200","OK",null);
+      }
+      // Writes out whatever is still buffered
+      long rows = mgr.countHistoryRows(connectionName,new FilterCriteria(null,null,null,null,null));
+      System.out.println("History rows: "+rows+", fetch size: "+fetchSize);
+
+      Map<String,List<String>> queryParameters = new HashMap<String,List<String>>();
+      queryParameters.put("report",Arrays.asList("simple"));
+      queryParameters.put("rowcount",Arrays.asList("-1"));
+      queryParameters.put("pagesize",Arrays.asList(Integer.toString(fetchSize)));
+      String path = "repositoryconnectionhistory/"+connectionName;
+
+      // Configuration as before
+      resetPeakHeap();
+      long startTime = System.nanoTime();
+      Configuration output = new Configuration();
+      ManifoldCF.executeReadCommand(tc,output,path,queryParameters,new AllowAll());
+      byte[] responseValue = output.toJSON().getBytes(StandardCharsets.UTF_8);
+      long firstByteTime = System.nanoTime();
+      long length = responseValue.length;
+      output = null;
+      responseValue = null;
+      report("configuration",startTime,firstByteTime,System.nanoTime(),length,getPeakHeap());
+
+      // Streamed
+      resetPeakHeap();
+      startTime = System.nanoTime();
+      CountingWriter writer = new CountingWriter();
+      output = new Configuration();
+      JSONReportOutput reportOutput = new JSONReportOutput(writer);
+      ManifoldCF.executeReadCommand(tc,output,path,queryParameters,new AllowAll(),reportOutput);
+      reportOutput.finish(output);
+      report("streamed",startTime,writer.getFirstWriteTime(),System.nanoTime(),writer.getCount(),getPeakHeap());
+    }
+    finally
+    {
+      setup.cleanUp();
+    }
+  }
+
+  protected static void report(String description, long startTime, long firstByteTime, long endTime, long length, long peakHeap)
+  {
+    System.out.println(String.format(Locale.ROOT,"%-13s: first byte %8.1f ms, complete %8.1f ms, %d chars, peak heap %d MB",
+      description,(firstByteTime - startTime) / 1000000.0,(endTime - startTime) / 1000000.0,length,peakHeap / (1024L * 1024L)));
+  }
+
+  protected static void resetPeakHeap()
+  {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+    {
+      if (pool.getType() == MemoryType.HEAP)
+        pool.resetPeakUsage();
+    }
+  }
+
+  /** Sum of the heap pools' peaks since the last reset; a little high, since the pools don't all peak at once. */
+  protected static long getPeakHeap()
+  {
+    long total = 0L;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+    {
+      if (pool.getType() == MemoryType.HEAP)
+        total += pool.getPeakUsage().getUsed();
+    }
+    return total;
+  }
+
+  /** Discards what is written, noting how much there was and when it started. */
+  protected static class CountingWriter extends Writer
+  {
+    protected long count = 0L;
+    protected long firstWriteTime = -1L;
+
+    public long getCount()
+    {
+      return count;
+    }
+
+    public long getFirstWriteTime()
+    {
+      return firstWriteTime;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+      if (firstWriteTime == -1L)
+        firstWriteTime = System.nanoTime();
+      count += len;
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  protected static class AllowAll implements IAuthorizer
+  {
+    @Override
+    public boolean checkAllowed(IThreadContext threadContext, int capability)
+    {
+      return true;
+    }
+  }
+
+  protected static class HSQLDBSetup extends BaseHSQLDB
+  {
+    @Override
+    protected void writeProperties(StringBuilder output)
+      throws Exception
+    {
+      super.writeProperties(output);
+      output.append(
+        "  <property name=\"org.apache.manifoldcf.crawler.repository.history_durability\" value=\"buffered\"/>\n"
+      );
+    }
+  }
+
+}
@@ -0,0 +1,200 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import java.util.*;
+
+/** Simulates the stuffer thread and the worker threads in virtual time, with fixed and with adaptive stuffing.
+* Workers take one document at a time and spend an exponentially distributed time on it, whose mean changes
+* from phase to phase, as when a repository slows down and then recovers.  The stuffer polls the queue once a
+* second, as it does when event-driven mode is off, and a round costs a query time plus a per-document time.
+* For each kind of stuffing, the simulation reports how much of their time workers spent waiting for documents,
+* and how long documents sat in the queue, which is how long they stay active in the job queue without any
+* worker processing them.
+* This is not run as part of the unit tests; run it by hand, e.g.:
+*   java -cp ... org.apache.manifoldcf.crawler.system.StufferSimulation [workers] [seconds per phase] [mean latencies in ms...]
+*/
+public class StufferSimulation
+{
+
+  /** How often the stuffer checks the queue when it isn't low, in ms */
+  protected static final long pollInterval = 1000L;
+  /** Fixed time for the stuffer's query, in ms */
+  protected static final double queryTime = 20.0;
+  /** Query time per document fetched, in ms */
+  protected static final double queryTimePerDocument = 0.1;
+  /** Time to prepare each fetched document for the queue, in ms */
+  protected static final double queueTimePerDocument = 0.2;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int workers = (args.length > 0)?Integer.parseInt(args[0]):50;
+    long phaseTime = ((args.length > 1)?Long.parseLong(args[1]):60L) * 1000L;
+    double[] latencies;
+    if (args.length > 2)
+    {
+      latencies = new double[args.length - 2];
+      for (int i = 2; i < args.length; i++)
+      {
+        latencies[i-2] = Double.parseDouble(args[i]);
+      }
+    }
+    else
+      latencies = new double[]{100.0,1000.0,30.0};
+
+    System.out.println("Workers: "+workers+"; seconds per phase: "+(phaseTime/1000L)+"; mean latencies (ms): "+Arrays.toString(latencies));
+    for (boolean adaptive : new boolean[]{false,true})
+    {
+      // Defaults of the crawler agent: low water factor 5, stuff amount factor 2
+      StuffingController controller = new StuffingController(5 * workers,2 * workers,adaptive);
+      controller.setCheckInterval(pollInterval);
+      Result result = run(controller,workers,phaseTime,latencies);
+      StringBuilder sb = new StringBuilder();
+      sb.append(adaptive?"Adaptive":"Fixed   ").append(": worker idle ");
+      for (int i = 0; i < latencies.length; i++)
+      {
+        if (i > 0)
+          sb.append("/");
+        sb.append(percent(result.idleTime[i],(long)workers * phaseTime));
+      }
+      sb.append(" per phase (").append(percent(sum(result.idleTime),(long)workers * phaseTime * latencies.length)).append(" overall); ");
+      sb.append("mean queue residence ");
+      for (int i = 0; i < latencies.length; i++)
+      {
+        if (i > 0)
+          sb.append("/");
+        sb.append(result.documents[i] == 0L?0L:result.residenceTime[i] / result.documents[i]);
+      }
+      sb.append(" ms; ").append(result.rounds).append(" rounds; largest queue ").append(result.maxQueueSize);
+      sb.append("; final amount ").append(controller.getStuffAmount()).append(", low water mark ").append(controller.getLowWaterMark());
+      System.out.println(sb.toString());
+    }
+  }
+
+  protected static Result run(StuffingController controller, int workers, long phaseTime, double[] latencies)
+  {
+    Random random = new Random(42L);
+    Result result = new Result(latencies.length);
+    // Enqueue times of queued documents
+    ArrayDeque<Long> queue = new ArrayDeque<Long>();
+    long[] busyUntil = new long[workers];
+    long documentsPulled = 0L;
+    long emptyTime = 0L;
+    long emptySince = -1L;
+
+    long nextCheck = 0L;
+    // When the current round's documents arrive, or -1 if no round is in progress
+    long roundEnd = -1L;
+    int roundAmount = 0;
+
+    long endTime = phaseTime * latencies.length;
+    for (long t = 0L; t < endTime; t++)
+    {
+      int phase = (int)(t / phaseTime);
+
+      // Stuffer
+      if (roundEnd == t)
+      {
+        for (int i = 0; i < roundAmount; i++)
+        {
+          queue.addLast(Long.valueOf(t));
+        }
+        if (emptySince != -1L)
+        {
+          emptyTime += t - emptySince;
+          emptySince = -1L;
+        }
+        result.maxQueueSize = Math.max(result.maxQueueSize,queue.size());
+        controller.noteRoundComplete(t);
+        roundEnd = -1L;
+        // The stuffer checks again at once after a round
+        nextCheck = t;
+      }
+      if (roundEnd == -1L && nextCheck == t)
+      {
+        if (queue.size() <= controller.getLowWaterMark())
+        {
+          long currentEmptyTime = emptyTime + ((emptySince == -1L)?0L:(t - emptySince));
+          controller.noteQueueNeeded(t,documentsPulled,documentsPulled,currentEmptyTime);
+          roundAmount = controller.getStuffAmount();
+          long queryEnd = t + (long)Math.ceil(queryTime + queryTimePerDocument * roundAmount);
+          // There's always more work in the job queue
+          controller.noteQuery(t,queryEnd,roundAmount);
+          roundEnd = queryEnd + Math.max(1L,(long)Math.ceil(queueTimePerDocument * roundAmount));
+          result.rounds++;
+        }
+        else
+          nextCheck = t + pollInterval;
+      }
+
+      // Workers
+      for (int i = 0; i < workers; i++)
+      {
+        if (busyUntil[i] > t)
+          continue;
+        Long enqueued = queue.pollFirst();
+        if (enqueued == null)
+        {
+          result.idleTime[phase]++;
+          if (emptySince == -1L)
+            emptySince = t;
+          continue;
+        }
+        documentsPulled++;
+        result.documents[phase]++;
+        result.residenceTime[phase] += t - enqueued.longValue();
+        busyUntil[i] = t + Math.max(1L,Math.round(-Math.log(1.0 - random.nextDouble()) * latencies[phase]));
+      }
+    }
+    return result;
+  }
+
+  protected static long sum(long[] values)
+  {
+    long rval = 0L;
+    for (long value : values)
+    {
+      rval += value;
+    }
+    return rval;
+  }
+
+  protected static String percent(long part, long whole)
+  {
+    return Long.toString(Math.round(100.0 * (double)part / (double)whole))+"%";
+  }
+
+  protected static class Result
+  {
+    public final long[] idleTime;
+    public final long[] documents;
+    public final long[] residenceTime;
+    public long rounds = 0L;
+    public int maxQueueSize = 0;
+
+    public Result(int phaseCount)
+    {
+      idleTime = new long[phaseCount];
+      documents = new long[phaseCount];
+      residenceTime = new long[phaseCount];
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestDocumentQueue
+{
+
+  @Test
+  public void testSameOrderAsLinearScan()
+    throws Exception
+  {
+    // Drive both queues through the same random sequence of adds, pulls, and bin activity,
+    // and make sure they always hand out the same document set.
+    Random random = new Random(12345L);
+    QueueTracker tracker = new QueueTracker();
+    DocumentQueue queue = new DocumentQueue();
+    LinearDocumentQueue reference = new LinearDocumentQueue();
+    List<QueuedDocumentSet> active = new ArrayList<QueuedDocumentSet>();
+    long documentID = 0L;
+
+    for (int step = 0; step < 20000; step++)
+    {
+      int action = random.nextInt(10);
+      if (action < 4)
+      {
+        QueuedDocumentSet set = makeSet(random,documentID,20);
+        documentID += set.getCount();
+        queue.addDocument(set);
+        reference.addDocument(set);
+      }
+      else if (action < 7)
+      {
+        if (reference.checkIfEmpty(0))
+        {
+          assertTrue(queue.checkIfEmpty(0));
+          continue;
+        }
+        QueuedDocumentSet expected = reference.getDocument(tracker);
+        QueuedDocumentSet actual = queue.getDocument(tracker);
+        assertSame(expected,actual);
+        beginProcessing(tracker,actual);
+        active.add(actual);
+      }
+      else if (active.size() > 0)
+      {
+        QueuedDocumentSet done = active.remove(random.nextInt(active.size()));
+        endProcessing(tracker,done);
+      }
+    }
+  }
+
+  @Test
+  public void testResetAndClear()
+    throws Exception
+  {
+    QueueTracker tracker = new QueueTracker();
+    DocumentQueue queue = new DocumentQueue();
+    Random random = new Random(1L);
+    queue.addDocument(makeSet(random,0L,5));
+    queue.addDocument(makeSet(random,100L,5));
+    assertFalse(queue.checkIfEmpty(1));
+    queue.reset();
+    assertNull(queue.getDocument(tracker));
+    queue.clear();
+    assertTrue(queue.checkIfEmpty(0));
+    QueuedDocumentSet set = makeSet(random,200L,5);
+    queue.addDocument(set);
+    assertSame(set,queue.getDocument(tracker));
+    assertTrue(queue.checkIfEmpty(0));
+  }
+
+  @Test
+  public void testPullCounters()
+    throws Exception
+  {
+    final QueueTracker tracker = new QueueTracker();
+    final DocumentQueue queue = new DocumentQueue();
+    Random random = new Random(2L);
+    QueuedDocumentSet first = makeSet(random,0L,5);
+    QueuedDocumentSet second = makeSet(random,100L,5);
+    queue.addDocument(first);
+    queue.addDocument(second);
+    queue.getDocument(tracker);
+    queue.getDocument(tracker);
+    assertEquals(2L,queue.getSetsPulled());
+    assertEquals((long)(first.getCount() + second.getCount()),queue.getDocumentsPulled());
+    assertEquals(0L,queue.getEmptyTime());
+
+    // A worker waiting on the empty queue counts as empty time, until a document arrives
+    Thread worker = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            queue.getDocument(tracker);
+          }
+          catch (InterruptedException e)
+          {
+          }
+        }
+      };
+    worker.start();
+    Thread.sleep(200L);
+    assertTrue(queue.getEmptyTime() > 0L);
+    queue.addDocument(makeSet(random,200L,5));
+    worker.join();
+    long emptyTime = queue.getEmptyTime();
+    assertTrue(emptyTime > 0L);
+    Thread.sleep(50L);
+    assertEquals(emptyTime,queue.getEmptyTime());
+    assertEquals(3L,queue.getSetsPulled());
+  }
+
+  /** Build a document set whose documents each have one or two bins drawn from a pool. */
+  protected static QueuedDocumentSet makeSet(Random random, long firstDocumentID, int binCount)
+  {
+    int documentCount = 1 + random.nextInt(3);
+    List<QueuedDocument> documents = new ArrayList<QueuedDocument>();
+    for (int i = 0; i < documentCount; i++)
+    {
+      String[] binNames;
+      if (random.nextInt(4) == 0)
+        binNames = new String[]{"bin"+random.nextInt(binCount),"bin"+random.nextInt(binCount)};
+      else
+        binNames = new String[]{"bin"+random.nextInt(binCount)};
+      Long id = new Long(firstDocumentID + i);
+      documents.add(new QueuedDocument(new DocumentDescription(id,new Long(1L),id.toString(),id.toString()),
+        new HashMap<String,DocumentIngestStatusSet>(),binNames));
+    }
+    return new QueuedDocumentSet(documents,null,null);
+  }
+
+  protected static void beginProcessing(QueueTracker tracker, QueuedDocumentSet set)
+  {
+    for (int i = 0; i < set.getCount(); i++)
+    {
+      tracker.beginProcessing(set.getDocument(i).getBinNames());
+    }
+  }
+
+  protected static void endProcessing(QueueTracker tracker, QueuedDocumentSet set)
+  {
+    for (int i = 0; i < set.getCount(); i++)
+    {
+      tracker.endProcessing(set.getDocument(i).getBinNames());
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.database.RRow;
+import org.apache.manifoldcf.core.database.RSet;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for streamed report output, which must read back the same as the report formed as a Configuration.
+*/
+public class TestJSONReportOutput
+{
+
+  protected static final String[] columns = new String[]{"identifier","resultdesc","bytes"};
+
+  @Test
+  public void testSameAsConfiguration()
+    throws Exception
+  {
+    for (int rowCount : new int[]{0,1,2,25})
+    {
+      GeneratedQuery query = new GeneratedQuery(rowCount,-1,true);
+      assertEquals("Rows: "+rowCount,formConfiguration(query,columns),streamReport(query,columns,0,-1,10));
+      // Reports without a cursor are streamed from their result set
+      query = new GeneratedQuery(rowCount,-1,false);
+      assertEquals("Rows: "+rowCount,formConfiguration(query,columns),streamReport(query,columns,0,-1,10));
+    }
+    // A single column is not an array, either
+    GeneratedQuery query = new GeneratedQuery(3,-1,true);
+    String[] singleColumn = new String[]{"identifier"};
+    assertEquals(formConfiguration(query,singleColumn),streamReport(query,singleColumn,0,-1,10));
+  }
+
+  @Test
+  public void testSingleQuery()
+    throws Exception
+  {
+    // All rows, from one cursor
+    GeneratedQuery query = new GeneratedQuery(25,-1,true);
+    Configuration output = streamReport(query,columns,0,-1,10);
+    assertEquals(25,output.getChildCount());
+    assertEquals(Arrays.asList("cursor 0/-1/10"),query.getRequests());
+    assertTrue(query.isClosed());
+
+    // A limited report asks for just the rows it needs
+    query = new GeneratedQuery(100,-1,true);
+    output = streamReport(query,columns,5,25,10);
+    assertEquals(25,output.getChildCount());
+    assertEquals("5",getIdentifier(output.findChild(0)));
+    assertEquals("29",getIdentifier(output.findChild(24)));
+    assertEquals(Arrays.asList("cursor 5/25/10"),query.getRequests());
+
+    // Reports that have no cursor are read at once
+    query = new GeneratedQuery(25,-1,false);
+    output = streamReport(query,columns,0,-1,10);
+    assertEquals(25,output.getChildCount());
+    assertEquals(Arrays.asList("rows 0/-1"),query.getRequests());
+  }
+
+  @Test
+  public void testErrors()
+    throws Exception
+  {
+    // An error before any rows is reported just as without streaming
+    GeneratedQuery query = new GeneratedQuery(25,0,true);
+    StringWriter sw = new StringWriter();
+    JSONReportOutput reportOutput = new JSONReportOutput(sw);
+    Configuration output = new Configuration();
+    ManifoldCF.readReport(output,query,columns,0,-1,10,reportOutput);
+    assertFalse(reportOutput.isStarted());
+    assertEquals(1,output.getChildCount());
+    assertEquals("error",output.findChild(0).getType());
+
+    // An error after rows have been written follows them, and the cursor is still closed
+    query = new GeneratedQuery(25,20,true);
+    sw = new StringWriter();
+    reportOutput = new JSONReportOutput(sw);
+    output = new Configuration();
+    ManifoldCF.readReport(output,query,columns,0,-1,10,reportOutput);
+    assertTrue(reportOutput.isStarted());
+    assertEquals(20L,reportOutput.getRowCount());
+    assertTrue(query.isClosed());
+    reportOutput.finish(output);
+    Configuration readBack = new Configuration();
+    readBack.fromJSON(sw.toString());
+    int rows = 0;
+    int errors = 0;
+    for (int i = 0; i < readBack.getChildCount(); i++)
+    {
+      String type = readBack.findChild(i).getType();
+      if (type.equals("row"))
+        rows++;
+      else if (type.equals("error"))
+        errors++;
+    }
+    assertEquals(20,rows);
+    assertEquals(1,errors);
+  }
+
+  protected static String getIdentifier(ConfigurationNode row)
+  {
+    ConfigurationNode column = row.findChild(0);
+    return column.findChild(1).getValue();
+  }
+
+  protected static Configuration formConfiguration(ManifoldCF.ReportQuery query, String[] resultColumns)
+    throws ManifoldCFException
+  {
+    Configuration output = new Configuration();
+    ManifoldCF.readReport(output,query,resultColumns,0,-1,10,null);
+    // Go through JSON, so that both sides are read back the same way
+    Configuration readBack = new Configuration();
+    readBack.fromJSON(output.toJSON());
+    return readBack;
+  }
+
+  protected static Configuration streamReport(ManifoldCF.ReportQuery query, String[] resultColumns, int startRow, int rowCount, int fetchSize)
+    throws ManifoldCFException, IOException
+  {
+    StringWriter sw = new StringWriter();
+    JSONReportOutput reportOutput = new JSONReportOutput(sw);
+    Configuration output = new Configuration();
+    ManifoldCF.readReport(output,query,resultColumns,startRow,rowCount,fetchSize,reportOutput);
+    reportOutput.finish(output);
+    Configuration readBack = new Configuration();
+    readBack.fromJSON(sw.toString());
+    return readBack;
+  }
+
+  /** A report of generated rows, which records the queries asked for, and which can fail at a given row.
+  * A failure at row 0 is a failure of the query itself.
+  */
+  protected static class GeneratedQuery extends ManifoldCF.ReportQuery
+  {
+    protected final int totalRows;
+    protected final int failAt;
+    protected final boolean hasCursor;
+    protected final List<String> requests = new ArrayList<String>();
+    protected boolean closed = false;
+
+    public GeneratedQuery(int totalRows, int failAt, boolean hasCursor)
+    {
+      this.totalRows = totalRows;
+      this.failAt = failAt;
+      this.hasCursor = hasCursor;
+    }
+
+    public List<String> getRequests()
+    {
+      return requests;
+    }
+
+    public boolean isClosed()
+    {
+      return closed;
+    }
+
+    @Override
+    public IResultSet getRows(int startRow, int rowCount)
+      throws ManifoldCFException
+    {
+      requests.add("rows "+startRow+"/"+rowCount);
+      if (failAt == 0)
+        throw new ManifoldCFException("Query failed");
+      int endRow = getEndRow(startRow,rowCount);
+      RSet rows = new RSet();
+      for (int i = startRow; i < endRow; i++)
+      {
+        rows.addRow(makeRow(i));
+      }
+      return rows;
+    }
+
+    @Override
+    public IResultCursor getCursor(final int startRow, int rowCount, int fetchSize)
+      throws ManifoldCFException
+    {
+      if (!hasCursor)
+        return null;
+      requests.add("cursor "+startRow+"/"+rowCount+"/"+fetchSize);
+      if (failAt == 0)
+        throw new ManifoldCFException("Query failed");
+      final int endRow = getEndRow(startRow,rowCount);
+      return new IResultCursor()
+      {
+        protected int nextRow = startRow;
+
+        @Override
+        public boolean hasNext()
+          throws ManifoldCFException
+        {
+          if (failAt >= 0 && nextRow >= failAt)
+            throw new ManifoldCFException("Query failed at row "+nextRow);
+          return nextRow < endRow;
+        }
+
+        @Override
+        public IResultRow next()
+          throws ManifoldCFException
+        {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          return makeRow(nextRow++);
+        }
+
+        @Override
+        public void close()
+        {
+          closed = true;
+        }
+      };
+    }
+
+    protected int getEndRow(int startRow, int rowCount)
+    {
+      return (rowCount == -1)?totalRows:Math.min(totalRows,startRow+rowCount);
+    }
+
+    protected static IResultRow makeRow(int i)
+    {
+      RRow row = new RRow();
+      row.put("identifier",Integer.toString(i));
+      // Characters that need escaping
+      row.put("resultdesc","Row \"" + i + "\"\t/\\ \u0001 \u00e9 \u2028");
+      if (i % 3 != 0)
+        row.put("bytes",new Long(i * 1000L));
+      return row;
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for StuffingController.
+*/
+public class TestStuffingController
+{
+
+  @Test
+  public void testFixedStuffing()
+  {
+    StuffingController controller = new StuffingController(250,100,false);
+    assertEquals(250,controller.getLowWaterMark());
+    assertEquals(100,controller.getStuffAmount());
+
+    // A full query that took as long as the documents lasted doubles the amount
+    controller.noteQueueNeeded(0L,0L,0L,0L);
+    controller.noteQuery(0L,500L,100);
+    controller.noteQueueNeeded(900L,100L,100L,0L);
+    assertEquals(200,controller.getStuffAmount());
+    // A quick one halves it again, but never below the configured amount
+    controller.noteQuery(900L,910L,200);
+    controller.noteQueueNeeded(2000L,300L,300L,0L);
+    assertEquals(100,controller.getStuffAmount());
+    controller.noteQuery(2000L,2010L,100);
+    controller.noteQueueNeeded(3000L,400L,400L,0L);
+    assertEquals(100,controller.getStuffAmount());
+    // A query that found less than it asked for changes nothing
+    controller.noteQuery(3000L,4000L,10);
+    controller.noteQueueNeeded(4100L,410L,410L,0L);
+    assertEquals(100,controller.getStuffAmount());
+    assertEquals(250,controller.getLowWaterMark());
+  }
+
+  @Test
+  public void testAdaptiveStuffing()
+  {
+    StuffingController controller = new StuffingController(250,100,true);
+    controller.setCheckInterval(1000L);
+    long time = 0L;
+    long pulled = 0L;
+    // Workers take 2 documents per millisecond, and rounds take 100 ms
+    for (int i = 0; i < 10; i++)
+    {
+      controller.noteQueueNeeded(time,pulled,pulled,0L);
+      controller.noteQuery(time,time+50L,controller.getStuffAmount());
+      controller.noteRoundComplete(time+100L);
+      time += 1000L;
+      pulled += 2000L;
+    }
+    assertEquals(2000.0,controller.getDrainRate(),0.001);
+    assertEquals(100.0,controller.getRoundTime(),0.001);
+    // A second's worth of documents, and enough left to cover a check interval and a round
+    assertEquals(2000,controller.getStuffAmount());
+    assertEquals(2200,controller.getLowWaterMark());
+    assertEquals(1.0,controller.getBoost(),0.001);
+
+    // When workers start finding the queue empty, the low-water mark rises
+    long emptyTime = 0L;
+    for (int i = 0; i < 3; i++)
+    {
+      emptyTime += 100L;
+      controller.noteQueueNeeded(time,pulled,pulled,emptyTime);
+      controller.noteQuery(time,time+50L,controller.getStuffAmount());
+      controller.noteRoundComplete(time+100L);
+      time += 1000L;
+      pulled += 2000L;
+    }
+    assertEquals(emptyTime,controller.getQueueEmptyTime());
+    assertTrue(controller.getBoost() > 3.0);
+    // ... up to sixteen times the configured mark
+    assertEquals(4000,controller.getLowWaterMark());
+    assertEquals(2000,controller.getStuffAmount());
+
+    // When workers slow down, both fall, but never below the least amount
+    for (int i = 0; i < 20; i++)
+    {
+      controller.noteQueueNeeded(time,pulled,pulled,emptyTime);
+      controller.noteQuery(time,time+50L,controller.getStuffAmount());
+      controller.noteRoundComplete(time+100L);
+      time += 1000L;
+      pulled += 20L;
+    }
+    assertEquals(100,controller.getStuffAmount());
+    assertEquals(23,controller.getLowWaterMark());
+  }
+
+  @Test
+  public void testAdaptiveStuffingShortRounds()
+  {
+    StuffingController controller = new StuffingController(250,100,true);
+    long time = 0L;
+    long pulled = 0L;
+    // A query that finds less than asked for means there isn't more to get, so the amount doesn't grow
+    for (int i = 0; i < 5; i++)
+    {
+      controller.noteQueueNeeded(time,pulled,pulled,0L);
+      controller.noteQuery(time,time+10L,controller.getStuffAmount() / 2);
+      controller.noteRoundComplete(time+20L);
+      time += 1000L;
+      pulled += 5000L;
+    }
+    assertEquals(100,controller.getStuffAmount());
+  }
+
+}